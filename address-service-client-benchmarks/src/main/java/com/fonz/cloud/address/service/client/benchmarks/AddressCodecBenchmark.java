@@ -0,0 +1,85 @@
+package com.fonz.cloud.address.service.client.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fonz.cloud.address.service.client.Address;
+
+/**
+ * Compares encoding and decoding <code>Address</code> payloads as JSON, Smile and CBOR with Jackson, for a single address
+ * (as returned by <code>/address</code>) and for 100 addresses (as returned by <code>/addresses/batch</code>).
+ * Decoding is what a client does for every response, see {@link com.fonz.cloud.address.service.client.ribboninject.SmileConfiguration}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddressCodecBenchmark {
+
+    @Param({ "json", "smile", "cbor" })
+    private String format;
+
+    @Param({ "1", "100" })
+    private int addresses;
+
+    private ObjectMapper mapper;
+    private Address[] payload;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws IOException {
+        switch (format) {
+        case "smile":
+            mapper = new ObjectMapper(new SmileFactory());
+            break;
+        case "cbor":
+            mapper = new ObjectMapper(new CBORFactory());
+            break;
+        default:
+            mapper = new ObjectMapper();
+        }
+        payload = new Address[addresses];
+        for (int i = 0; i < addresses; i++) {
+            payload[i] = createAddress(String.valueOf(i + 1));
+        }
+        encoded = mapper.writeValueAsBytes(payload);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return mapper.writeValueAsBytes(payload);
+    }
+
+    @Benchmark
+    public Address[] decode() throws IOException {
+        return mapper.readValue(encoded, Address[].class);
+    }
+
+    private static Address createAddress(String id) {
+        Address address = new Address();
+        address.setId(id);
+        address.setCity("New York");
+        address.setCountry("United States");
+        address.setHouseNumber("101a");
+        address.setPostalCode("52670");
+        address.setStreetName("Fifth-Ave");
+        return address;
+    }
+}
@@ -0,0 +1,135 @@
+package com.fonz.cloud.address.service.client.benchmarks;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Import;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.fonz.cloud.address.service.FaultInjection;
+import com.fonz.cloud.address.service.RESTEndpoint;
+import com.fonz.cloud.address.service.SimulatedDelay;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Fires a burst of concurrent calls against a real address-service instance, started in-process with a fixed number
+ * of Tomcat worker threads, and measures how long it takes until all of them have been answered.
+ *
+ * <code>/failing-address</code> takes 1.5s per request. With blocking endpoints, each request holds a worker thread while it waits,
+ * so the instance answers at most {@link #WORKER_THREADS} requests per 1.5s and the burst takes about
+ * <code>CALLS / WORKER_THREADS * 1.5s</code>. With <code>async-endpoints.enabled</code>, the worker threads are returned right away and
+ * all requests wait at the same time, with the same threads (and thus the same memory for thread stacks).
+ *
+ * After every iteration, the peak number of live threads of the iteration is printed, and the peak resident set size of the
+ * benchmark JVM so far (<code>VmHWM</code>, Linux only). Both include the client's threads and memory, which are the same
+ * in both modes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class AsyncEndpointBenchmark {
+
+    private static final int CALLS = 1000;
+    private static final int WORKER_THREADS = 100;
+
+    @Param({ "false", "true" })
+    private boolean async;
+
+    private ConfigurableApplicationContext context;
+    private WebClient webClient;
+
+    @Setup
+    public void setup() {
+        context = new SpringApplicationBuilder(AddressServiceApplication.class)
+                .web(WebApplicationType.SERVLET)
+                .properties(
+                        // Neither the client's nor address-service's application.yml, both are on the class path.
+                        "spring.config.name=async-endpoint-benchmark",
+                        "spring.main.banner-mode=off",
+                        "logging.level.root=WARN",
+                        // Every simulated failure is logged with its stack trace by Tomcat.
+                        "logging.level.org.apache.catalina.core=OFF",
+                        "spring.jmx.enabled=false",
+                        "eureka.client.enabled=false",
+                        "server.port=0",
+                        "server.tomcat.max-threads=" + WORKER_THREADS,
+                        "async-endpoints.enabled=" + async)
+                .run();
+        int port = ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+        webClient = WebClient.create("http://localhost:" + port);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetPeakThreadCount() {
+        ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+    }
+
+    @TearDown(Level.Iteration)
+    public void printMemory() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.out.println("async=" + async + ": peak threads " + threads.getPeakThreadCount() + ", peak RSS " + peakResidentSetSize());
+    }
+
+    @Benchmark
+    public long burst() {
+        // Counts the responses, all of them 500 Internal Server Error.
+        return Flux.range(0, CALLS)
+                .flatMap(i -> webClient.get().uri("/failing-address").exchange()
+                        .flatMap(response -> response.bodyToMono(String.class).thenReturn(response.statusCode())), CALLS)
+                .count()
+                .block();
+    }
+
+    private static String peakResidentSetSize() {
+        try {
+            return Files.readAllLines(Paths.get("/proc/self/status")).stream()
+                    .filter(line -> line.startsWith("VmHWM:"))
+                    .map(line -> line.substring("VmHWM:".length()).trim())
+                    .findFirst().orElse("unknown");
+        } catch (IOException | RuntimeException e) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * address-service with its endpoints only, without component scanning, which would pick up the client's configuration from
+     * the packages below <code>com.fonz.cloud.address.service</code>.
+     */
+    @SpringBootConfiguration
+    @EnableAutoConfiguration
+    @Import({ RESTEndpoint.class, FaultInjection.class, SimulatedDelay.class })
+    static class AddressServiceApplication {
+    }
+}
@@ -0,0 +1,99 @@
+package com.fonz.cloud.address.service.client.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.client.RestTemplate;
+
+import com.fonz.cloud.address.service.client.Address;
+import com.fonz.cloud.address.service.client.cf.AddressBatcher;
+
+/**
+ * Looks up 1000 addresses, as a bulk enrichment job would: once with a request per address, sent by 16 threads,
+ * and once through {@link AddressBatcher}, which sends them in batches of 100.
+ * The stubs answer after a small delay, which stands in for the way through Go-Router.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchLookupBenchmark {
+
+    private static final int INSTANCES = 2;
+    private static final long ROUTER_DELAY_MILLIS = 2;
+    private static final int LOOKUPS = 1000;
+    private static final int THREADS = 16;
+
+    private List<StubAddressService> addressServices;
+    private ConfigurableApplicationContext context;
+    private RestTemplate restTemplate;
+    private ExecutorService executor;
+    private AddressBatcher addressBatcher;
+
+    @Setup
+    public void setup() throws IOException {
+        addressServices = new ArrayList<>();
+        for (int i = 0; i < INSTANCES; i++) {
+            addressServices.add(new StubAddressService(ROUTER_DELAY_MILLIS));
+        }
+        context = BenchmarkClientApplication.start(addressServices);
+        restTemplate = context.getBean(RestTemplate.class);
+        executor = Executors.newFixedThreadPool(THREADS);
+        addressBatcher = new AddressBatcher(restTemplate, 100, 5);
+    }
+
+    @TearDown
+    public void tearDown() {
+        addressBatcher.close();
+        executor.shutdownNow();
+        context.close();
+        addressServices.forEach(StubAddressService::close);
+    }
+
+    @Benchmark
+    public List<Address> singleRequests() throws InterruptedException, ExecutionException {
+        List<Future<Address>> futures = new ArrayList<>(LOOKUPS);
+        for (int i = 0; i < LOOKUPS; i++) {
+            futures.add(executor.submit(() -> restTemplate.getForObject("http://address-service/address", Address.class)));
+        }
+        List<Address> addresses = new ArrayList<>(LOOKUPS);
+        for (Future<Address> future : futures) {
+            addresses.add(future.get());
+        }
+        return addresses;
+    }
+
+    @Benchmark
+    public List<Address> batchedLookups() {
+        List<CompletableFuture<Address>> futures = new ArrayList<>(LOOKUPS);
+        for (int i = 0; i < LOOKUPS; i++) {
+            futures.add(addressBatcher.lookup(String.valueOf(i)));
+        }
+        List<Address> addresses = new ArrayList<>(LOOKUPS);
+        for (CompletableFuture<Address> future : futures) {
+            addresses.add(future.join());
+        }
+        return addresses;
+    }
+}
@@ -0,0 +1,115 @@
+package com.fonz.cloud.address.service.client.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.cloud.client.loadbalancer.LoadBalanced;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerRequestTransformer;
+import org.springframework.cloud.netflix.ribbon.RibbonClient;
+import org.springframework.cloud.netflix.ribbon.ServerIntrospector;
+import org.springframework.cloud.netflix.ribbon.SpringClientFactory;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.fonz.cloud.address.service.client.cf.CFLoadBalancerExchangeFilterFunction;
+import com.fonz.cloud.address.service.client.cf.CFLoadBalancerRequestTransformer;
+import com.fonz.cloud.address.service.client.cf.CFRoutingHeaderCache;
+import com.fonz.cloud.address.service.client.ribboninject.InFlightRequestCounters;
+import com.fonz.cloud.address.service.client.ribboninject.InstanceLatencyStats;
+import com.fonz.cloud.address.service.client.ribboninject.LoadBalancingConfiguration;
+import com.fonz.cloud.address.service.client.ribboninject.ResponseCacheConfiguration;
+import com.fonz.cloud.address.service.client.ribboninject.RibbonAutoConfigurationOverrides;
+import com.fonz.cloud.address.service.client.ribboninject.RoutingMetrics;
+import com.fonz.cloud.address.service.client.ribboninject.SingleFlightConfiguration;
+import com.fonz.cloud.address.service.client.ribboninject.SmileConfiguration;
+import com.fonz.cloud.address.service.client.ribboninject.UnboundedHystrixConfiguration;
+
+/**
+ * A minimal client application with a <code>@LoadBalanced RestTemplate</code>, a load balanced WebClient and the
+ * {@link CFLoadBalancerRequestTransformer} and the Ribbon customizations, as in RibbonCloudFoundryRetryTest. 
+ * 
+ * Eureka is disabled. Ribbon uses a static server list for <code>address-service</code>
+ * and {@link StaticCFServerIntrospector} provides the CF routing metadata for it.
+ */
+@SpringBootConfiguration
+@EnableAutoConfiguration
+@RibbonClient(name = "address-service", configuration = RibbonAutoConfigurationOverrides.class)
+@Import({ LoadBalancingConfiguration.class, UnboundedHystrixConfiguration.class, ResponseCacheConfiguration.class,
+        SingleFlightConfiguration.class, SmileConfiguration.class })
+public class BenchmarkClientApplication {
+
+    /**
+     * Features enabled in the client's application.yml that would distort the other benchmarks:
+     * the response cache answers most requests from memory, single flight collapses concurrent identical requests into one.
+     */
+    private static final String[] FEATURES_OFF_BY_DEFAULT = { "response-cache.enabled", "single-flight.enabled" };
+
+    /**
+     * Starts the client application for the given address-service stubs.
+     * @param servers the stubs to put into Ribbon's server list.
+     * @param properties additional properties, e.g. Ribbon client configuration. These override application.yml.
+     *                   The features in {@link #FEATURES_OFF_BY_DEFAULT} are off, unless given here.
+     * @return the application context.
+     */
+    public static ConfigurableApplicationContext start(List<StubAddressService> servers, String... properties) {
+        String listOfServers = servers.stream().map(StubAddressService::getServerId).collect(Collectors.joining(","));
+        return new SpringApplicationBuilder(BenchmarkClientApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties(
+                        "spring.main.banner-mode=off",
+                        "logging.level.root=WARN",
+                        "eureka.client.enabled=false",
+                        "ribbon.eureka.enabled=false",
+                        "address-service.ribbon.listOfServers=" + listOfServers)
+                // Passed as command line arguments, so that they take precedence over the client's application.yml.
+                .run(arguments(properties));
+    }
+
+    private static String[] arguments(String... properties) {
+        List<String> arguments = new ArrayList<>();
+        for (String feature : FEATURES_OFF_BY_DEFAULT) {
+            if (Arrays.stream(properties).noneMatch(property -> property.startsWith(feature + "="))) {
+                arguments.add("--" + feature + "=false");
+            }
+        }
+        for (String property : properties) {
+            arguments.add("--" + property);
+        }
+        return arguments.toArray(new String[0]);
+    }
+
+    @LoadBalanced
+    @Bean
+    public RestTemplate restTemplate() {
+        return new RestTemplate();
+    }
+
+    @Bean
+    public WebClient webClient(WebClient.Builder webClientBuilder, LoadBalancerClient loadBalancerClient, SpringClientFactory springClientFactory,
+            List<LoadBalancerRequestTransformer> transformers, InFlightRequestCounters inFlightRequestCounters, InstanceLatencyStats instanceLatencyStats) {
+        return webClientBuilder
+                .filter(new CFLoadBalancerExchangeFilterFunction(loadBalancerClient, springClientFactory, transformers, inFlightRequestCounters, instanceLatencyStats))
+                .build();
+    }
+
+    @Bean
+    public ServerIntrospector serverIntrospector(@Value("${address-service.ribbon.listOfServers}") String listOfServers) {
+        return new StaticCFServerIntrospector(Arrays.asList(listOfServers.split(",")));
+    }
+
+    @Bean
+    public LoadBalancerRequestTransformer customRequestTransformer(CFRoutingHeaderCache cfRoutingHeaderCache, RoutingMetrics routingMetrics) {
+        return new CFLoadBalancerRequestTransformer(cfRoutingHeaderCache, routingMetrics, false);
+    }
+}
@@ -0,0 +1,27 @@
+package com.fonz.cloud.address.service.client.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of this module.
+ * 
+ * Benchmarks report throughput and latency percentiles (as configured by their {@code @BenchmarkMode})
+ * and the allocation rate as measured by JMH's GC profiler.
+ * 
+ * Usage: mvn exec:exec [-Dbenchmarks=&lt;regex&gt;]
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : ".*")
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+}
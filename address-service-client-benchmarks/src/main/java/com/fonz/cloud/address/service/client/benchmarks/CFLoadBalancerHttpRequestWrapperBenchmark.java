@@ -0,0 +1,67 @@
+package com.fonz.cloud.address.service.client.benchmarks;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+
+import com.fonz.cloud.address.service.client.cf.CFLoadBalancerHttpRequestWrapper;
+import com.fonz.cloud.address.service.client.cf.CFLoadBalancerRequestTransformer;
+
+/**
+ * Measures the header path of {@link CFLoadBalancerHttpRequestWrapper} for requests with
+ * an increasing number of headers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CFLoadBalancerHttpRequestWrapperBenchmark {
+
+    private static final String HEADER_VALUE = "0c6e6f3a-3a4e-4d3b-9d3a-6c7e0f6a2b11:1";
+
+    @Param({ "1", "10", "100" })
+    private int numberOfHeaders;
+
+    private HttpRequest request;
+
+    @Setup
+    public void setup() {
+        request = new StubHttpRequest(URI.create("https://address-service.cfapps.io/address"), numberOfHeaders);
+    }
+
+    /**
+     * Repeated header lookups as done by interceptors.
+     */
+    @Benchmark
+    public void readHeaders(Blackhole blackhole) {
+        HttpRequest wrapper = new CFLoadBalancerHttpRequestWrapper(request, HEADER_VALUE);
+        blackhole.consume(wrapper.getHeaders().getFirst(CFLoadBalancerRequestTransformer.ROUTING_HEADER));
+        blackhole.consume(wrapper.getHeaders().getContentType());
+        blackhole.consume(wrapper.getHeaders().containsKey(HttpHeaders.AUTHORIZATION));
+    }
+
+    /**
+     * Iterates all headers, as the HTTP client does when it writes the request.
+     */
+    @Benchmark
+    public void iterateHeaders(Blackhole blackhole) {
+        HttpRequest wrapper = new CFLoadBalancerHttpRequestWrapper(request, HEADER_VALUE);
+        wrapper.getHeaders().forEach((name, values) -> blackhole.consume(values));
+    }
+}
@@ -0,0 +1,81 @@
+package com.fonz.cloud.address.service.client.benchmarks;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.netflix.ribbon.RibbonLoadBalancerClient;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+
+import com.fonz.cloud.address.service.client.cf.CFLoadBalancerRequestTransformer;
+import com.fonz.cloud.address.service.client.cf.CFRoutingHeaderCache;
+import com.netflix.appinfo.InstanceInfo;
+import com.netflix.niws.loadbalancer.DiscoveryEnabledServer;
+
+/**
+ * Measures {@link CFLoadBalancerRequestTransformer#transformRequest(HttpRequest, ServiceInstance)} for
+ * a Eureka-backed Ribbon server, i.e. the work done for every request and every Ribbon retry.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CFLoadBalancerRequestTransformerBenchmark {
+
+    private CFLoadBalancerRequestTransformer transformer;
+    private ServiceInstance instance;
+    private HttpRequest request;
+
+    @Setup
+    public void setup() {
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put(CFLoadBalancerRequestTransformer.CF_APP_GUID, "0c6e6f3a-3a4e-4d3b-9d3a-6c7e0f6a2b11");
+        metadata.put(CFLoadBalancerRequestTransformer.CF_INSTANCE_INDEX, "1");
+
+        InstanceInfo instanceInfo = InstanceInfo.Builder.newBuilder()
+                .setAppName("ADDRESS-SERVICE")
+                .setInstanceId("address-service.cfapps.io:address-service:1")
+                .setHostName("address-service.cfapps.io")
+                .setSecurePort(443)
+                .setMetadata(metadata)
+                .build();
+
+        DiscoveryEnabledServer server = new DiscoveryEnabledServer(instanceInfo, true);
+        instance = new RibbonLoadBalancerClient.RibbonServer("address-service", server, true, metadata);
+        request = new StubHttpRequest(URI.create("https://address-service.cfapps.io/address"), 8);
+        transformer = new CFLoadBalancerRequestTransformer(new CFRoutingHeaderCache(), false);
+    }
+
+    @Benchmark
+    public HttpRequest transformRequest() {
+        return transformer.transformRequest(request, instance);
+    }
+
+    /**
+     * Transforms the request and accesses the headers the way the interceptor chain and the HTTP client do.
+     */
+    @Benchmark
+    public void transformRequestAndReadHeaders(Blackhole blackhole) {
+        HttpRequest transformed = transformer.transformRequest(request, instance);
+        HttpHeaders headers = transformed.getHeaders();
+        blackhole.consume(headers.getFirst(CFLoadBalancerRequestTransformer.ROUTING_HEADER));
+        blackhole.consume(transformed.getHeaders().getContentType());
+        blackhole.consume(transformed.getHeaders().size());
+    }
+}
@@ -0,0 +1,93 @@
+package com.fonz.cloud.address.service.client.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.fonz.cloud.address.service.client.Address;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Fires a burst of concurrent calls against a slow address-service stub and measures
+ * how long it takes until all of them have completed.
+ *
+ * The blocking variant needs one thread per call in flight, so it is limited by the size of its thread pool
+ * (like a Hystrix thread pool). The reactive variant sends all calls at once, without any extra threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConcurrentSlowCallsBenchmark {
+
+    private static final int CALLS = 1000;
+    private static final long DELAY_MILLIS = 100;
+    private static final int BLOCKING_THREADS = 100;
+
+    private StubAddressService addressService;
+    private ConfigurableApplicationContext context;
+    private RestTemplate restTemplate;
+    private WebClient webClient;
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() throws IOException {
+        addressService = new StubAddressService(DELAY_MILLIS);
+        context = BenchmarkClientApplication.start(Collections.singletonList(addressService));
+        restTemplate = context.getBean(RestTemplate.class);
+        webClient = context.getBean(WebClient.class);
+        executor = Executors.newFixedThreadPool(BLOCKING_THREADS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+        context.close();
+        addressService.close();
+    }
+
+    @Benchmark
+    public List<Address> blocking() throws InterruptedException, ExecutionException {
+        List<Future<Address>> futures = new ArrayList<>(CALLS);
+        for (int i = 0; i < CALLS; i++) {
+            futures.add(executor.submit(() -> restTemplate.getForObject("http://address-service/address", Address.class)));
+        }
+        List<Address> addresses = new ArrayList<>(CALLS);
+        for (Future<Address> future : futures) {
+            addresses.add(future.get());
+        }
+        return addresses;
+    }
+
+    @Benchmark
+    public List<Address> reactive() {
+        return Flux.range(0, CALLS)
+                .flatMap(i -> webClient.get().uri("http://address-service/address").retrieve().bodyToMono(Address.class), CALLS)
+                .collectList()
+                .block();
+    }
+}
@@ -0,0 +1,139 @@
+package com.fonz.cloud.address.service.client.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.client.RestTemplate;
+
+import com.fonz.cloud.address.service.client.Address;
+import com.fonz.cloud.address.service.client.ribboninject.UnboundedHystrixConcurrencyStrategy;
+import com.netflix.hystrix.HystrixCommand;
+import com.netflix.hystrix.HystrixCommandGroupKey;
+import com.netflix.hystrix.HystrixCommandKey;
+
+/**
+ * Sends bursts of concurrent Hystrix commands to an address-service stub that answers after 100ms,
+ * like <code>FailingAddressServiceClient.getAddress()</code> does, and counts the calls per second that got an address
+ * (<code>successes</code>) and those that ended up in the fallback (<code>fallbacks</code>).
+ *
+ * With <code>thread-pool</code>, the commands run on Hystrix' default thread pool of 10 threads. Commands that find no free thread
+ * are rejected and fall back, so successes are capped at about 10 / 100ms, whatever the concurrency.
+ * With <code>unbounded</code>, they run on a thread per command ({@link UnboundedHystrixConcurrencyStrategy}), so successes
+ * grow with the concurrency.
+ *
+ * Each parameter combination runs in its own fork, since Hystrix plugins and thread pools are global.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class HystrixExecutionBenchmark {
+
+    private static final long DELAY_MILLIS = 100;
+    private static final Address FALLBACK = new Address();
+
+    @Param({ "thread-pool", "unbounded" })
+    public String executionMode;
+
+    @Param({ "10", "100", "400" })
+    public int concurrency;
+
+    private StubAddressService addressService;
+    private ConfigurableApplicationContext context;
+    private RestTemplate restTemplate;
+
+    @Setup
+    public void setup() throws IOException {
+        addressService = new StubAddressService(DELAY_MILLIS);
+        context = BenchmarkClientApplication.start(Collections.singletonList(addressService),
+                "hystrix.unbounded-execution.enabled=" + "unbounded".equals(executionMode),
+                "hystrix.unbounded-execution.thread-pools=FailingAddressServiceClient",
+                "hystrix.command.default.execution.isolation.thread.timeoutInMilliseconds=2000",
+                // Measure the thread pool, not the circuit breaker opening because of rejections.
+                "hystrix.command.default.circuitBreaker.enabled=false",
+                "ribbon.MaxTotalConnections=1000",
+                "ribbon.MaxConnectionsPerHost=1000");
+        restTemplate = context.getBean(RestTemplate.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+        addressService.close();
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Calls {
+
+        public long successes;
+        public long fallbacks;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            successes = 0;
+            fallbacks = 0;
+        }
+    }
+
+    @Benchmark
+    public void getAddress(Calls calls) throws InterruptedException, ExecutionException {
+        List<Future<Address>> futures = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            futures.add(new GetAddressCommand(restTemplate).queue());
+        }
+        for (Future<Address> future : futures) {
+            if (future.get() == FALLBACK) {
+                calls.fallbacks++;
+            } else {
+                calls.successes++;
+            }
+        }
+    }
+
+    /**
+     * The command <code>FailingAddressServiceClient.getAddress()</code> is turned into by Hystrix Javanica.
+     */
+    private static final class GetAddressCommand extends HystrixCommand<Address> {
+
+        private final RestTemplate restTemplate;
+
+        GetAddressCommand(RestTemplate restTemplate) {
+            super(Setter.withGroupKey(HystrixCommandGroupKey.Factory.asKey("FailingAddressServiceClient"))
+                    .andCommandKey(HystrixCommandKey.Factory.asKey("address-service/failing-address")));
+            this.restTemplate = restTemplate;
+        }
+
+        @Override
+        protected Address run() {
+            return restTemplate.getForObject("http://address-service/address", Address.class);
+        }
+
+        @Override
+        protected Address getFallback() {
+            return FALLBACK;
+        }
+    }
+}
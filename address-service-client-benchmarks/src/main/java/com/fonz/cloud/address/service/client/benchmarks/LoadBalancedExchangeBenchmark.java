@@ -0,0 +1,66 @@
+package com.fonz.cloud.address.service.client.benchmarks;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.fonz.cloud.address.service.client.Address;
+
+/**
+ * Measures a full exchange through a <code>@LoadBalanced RestTemplate</code> and through a
+ * WebClient load balanced by CFLoadBalancerExchangeFilterFunction:
+ * Ribbon server selection, request transformation and the HTTP round-trip to 
+ * an in-process address-service stub.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadBalancedExchangeBenchmark {
+
+    private StubAddressService addressService;
+    private ConfigurableApplicationContext context;
+    private RestTemplate restTemplate;
+    private WebClient webClient;
+
+    @Setup
+    public void setup() throws IOException {
+        addressService = new StubAddressService();
+        context = BenchmarkClientApplication.start(Collections.singletonList(addressService));
+        restTemplate = context.getBean(RestTemplate.class);
+        webClient = context.getBean(WebClient.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+        addressService.close();
+    }
+
+    @Benchmark
+    public Address getAddress() {
+        return restTemplate.getForObject("http://address-service/address", Address.class);
+    }
+
+    @Benchmark
+    public Address getAddressReactive() {
+        return webClient.get().uri("http://address-service/address").retrieve().bodyToMono(Address.class).block();
+    }
+}
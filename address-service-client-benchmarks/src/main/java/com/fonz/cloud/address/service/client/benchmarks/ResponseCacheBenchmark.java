@@ -0,0 +1,80 @@
+package com.fonz.cloud.address.service.client.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.client.RestTemplate;
+
+import com.fonz.cloud.address.service.client.Address;
+
+/**
+ * Compares GET requests through the @LoadBalanced RestTemplate without the response cache, with fresh cache hits,
+ * and with a revalidation (<code>If-None-Match</code> / <code>304 Not Modified</code>) on every request.
+ * The stubs answer after a small delay, which stands in for the way through Go-Router. Look at p0.50 of the sample time mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseCacheBenchmark {
+
+    private static final int INSTANCES = 2;
+    private static final long ROUTER_DELAY_MILLIS = 2;
+
+    /**
+     * off - no cache, hit - responses stay fresh for the whole run, revalidate - every request is revalidated.
+     */
+    @Param({ "off", "hit", "revalidate" })
+    private String cacheMode;
+
+    private List<StubAddressService> addressServices;
+    private ConfigurableApplicationContext context;
+    private RestTemplate restTemplate;
+
+    @Setup
+    public void setup() throws IOException {
+        addressServices = new ArrayList<>();
+        for (int i = 0; i < INSTANCES; i++) {
+            addressServices.add(new StubAddressService(ROUTER_DELAY_MILLIS));
+        }
+        switch (cacheMode) {
+        case "off":
+            context = BenchmarkClientApplication.start(addressServices, "response-cache.enabled=false");
+            break;
+        case "hit":
+            context = BenchmarkClientApplication.start(addressServices, "response-cache.enabled=true", "response-cache.time-to-live=3600000");
+            break;
+        default:
+            context = BenchmarkClientApplication.start(addressServices, "response-cache.enabled=true", "response-cache.time-to-live=0");
+        }
+        restTemplate = context.getBean(RestTemplate.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+        addressServices.forEach(StubAddressService::close);
+    }
+
+    @Benchmark
+    public Address getAddress() {
+        return restTemplate.getForObject("http://address-service/address", Address.class);
+    }
+}
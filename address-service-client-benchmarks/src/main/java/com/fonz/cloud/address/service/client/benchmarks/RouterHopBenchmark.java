@@ -0,0 +1,80 @@
+package com.fonz.cloud.address.service.client.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fonz.cloud.cf.simulator.GoRouter;
+
+/**
+ * Measures the cost of the extra hop through Go-Router: the same request to an in-process address-service stub,
+ * once directly and once through the {@link GoRouter} stand-in of cf-simulator, pinned with the <code>X-CF-APP-INSTANCE</code> header.
+ * The router adds no latency of its own, so the difference is the work of forwarding the request over a second (pooled) connection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RouterHopBenchmark {
+
+    private static final String APP_GUID = "benchmark-app";
+
+    private StubAddressService addressService;
+    private GoRouter router;
+    private CloseableHttpClient httpClient;
+    private HttpGet directRequest;
+    private HttpGet routedRequest;
+
+    @Setup
+    public void setup() throws IOException {
+        addressService = new StubAddressService();
+        router = new GoRouter();
+        router.register(APP_GUID, 0, addressService.getPort());
+        // Plain HTTP client with pooled connections, so that only the hop itself is measured.
+        httpClient = HttpClients.createDefault();
+        directRequest = new HttpGet("http://localhost:" + addressService.getPort() + "/address");
+        routedRequest = new HttpGet("http://localhost:" + router.getPort() + "/address");
+        routedRequest.setHeader(GoRouter.ROUTING_HEADER, APP_GUID + ":0");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        httpClient.close();
+        router.close();
+        addressService.close();
+    }
+
+    @Benchmark
+    public byte[] direct() throws IOException {
+        return execute(directRequest);
+    }
+
+    @Benchmark
+    public byte[] throughRouter() throws IOException {
+        return execute(routedRequest);
+    }
+
+    private byte[] execute(HttpGet request) throws IOException {
+        try (CloseableHttpResponse response = httpClient.execute(request)) {
+            return EntityUtils.toByteArray(response.getEntity());
+        }
+    }
+}
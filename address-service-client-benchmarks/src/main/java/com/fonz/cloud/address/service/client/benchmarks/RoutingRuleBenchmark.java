@@ -0,0 +1,75 @@
+package com.fonz.cloud.address.service.client.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.client.RestTemplate;
+
+import com.fonz.cloud.address.service.client.Address;
+
+/**
+ * Compares Ribbon rules against three address-service stubs, one of which is slowed down.
+ * Look at the latency percentiles (p0.99) of the sample time mode.
+ * 16 threads fire requests without think time, so instances are saturated in bursts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class RoutingRuleBenchmark {
+
+    private static final int INSTANCES = 3;
+    private static final long SLOW_INSTANCE_DELAY_MILLIS = 25;
+
+    /**
+     * The fully qualified class name of a Ribbon rule, or a value of loadbalancing.rule (see RibbonAutoConfigurationOverrides).
+     */
+    @Param({ "com.netflix.loadbalancer.RoundRobinRule", "latency-aware", "least-outstanding" })
+    private String rule;
+
+    private List<StubAddressService> addressServices;
+    private ConfigurableApplicationContext context;
+    private RestTemplate restTemplate;
+
+    @Setup
+    public void setup() throws IOException {
+        addressServices = new ArrayList<>();
+        for (int i = 0; i < INSTANCES; i++) {
+            addressServices.add(new StubAddressService(i == 0 ? SLOW_INSTANCE_DELAY_MILLIS : 0));
+        }
+        context = rule.contains(".")
+                ? BenchmarkClientApplication.start(addressServices, "address-service.ribbon.NFLoadBalancerRuleClassName=" + rule)
+                : BenchmarkClientApplication.start(addressServices, "loadbalancing.rule=" + rule);
+        restTemplate = context.getBean(RestTemplate.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+        addressServices.forEach(StubAddressService::close);
+    }
+
+    @Benchmark
+    public Address getAddress() {
+        return restTemplate.getForObject("http://address-service/address", Address.class);
+    }
+}
@@ -0,0 +1,38 @@
+package com.fonz.cloud.address.service.client.benchmarks;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.cloud.netflix.ribbon.DefaultServerIntrospector;
+
+import com.fonz.cloud.address.service.client.cf.CFLoadBalancerRequestTransformer;
+import com.netflix.loadbalancer.Server;
+
+/**
+ * Provides CF routing metadata (<code>cfAppGuid</code>, <code>cfInstanceIndex</code>) for the servers
+ * of a static Ribbon server list, like Eureka does for instances running in Cloud Foundry.
+ * The instance index of a server is its position in the list.
+ */
+public class StaticCFServerIntrospector extends DefaultServerIntrospector {
+
+    public static final String APP_GUID = "0c6e6f3a-3a4e-4d3b-9d3a-6c7e0f6a2b11";
+
+    private final Map<String, Map<String, String>> metadataByServerId = new HashMap<>();
+
+    public StaticCFServerIntrospector(List<String> serverIds) {
+        for (int i = 0; i < serverIds.size(); i++) {
+            Map<String, String> metadata = new HashMap<>();
+            metadata.put(CFLoadBalancerRequestTransformer.CF_APP_GUID, APP_GUID);
+            metadata.put(CFLoadBalancerRequestTransformer.CF_INSTANCE_INDEX, String.valueOf(i));
+            metadataByServerId.put(serverIds.get(i), Collections.unmodifiableMap(metadata));
+        }
+    }
+
+    @Override
+    public Map<String, String> getMetadata(Server server) {
+        Map<String, String> metadata = metadataByServerId.get(server.getId());
+        return metadata != null ? metadata : super.getMetadata(server);
+    }
+}
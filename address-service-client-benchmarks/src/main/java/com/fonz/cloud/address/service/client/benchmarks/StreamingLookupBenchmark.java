@@ -0,0 +1,79 @@
+package com.fonz.cloud.address.service.client.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.client.RestTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fonz.cloud.address.service.client.Address;
+import com.fonz.cloud.address.service.client.cf.StreamingAddressServiceClient;
+
+/**
+ * Reads a list of addresses, once as a JSON array mapped to <code>Address[]</code> in one go, and once as newline-delimited JSON
+ * through {@link StreamingAddressServiceClient}, which hands the addresses over one by one.
+ * Run with <code>-prof gc</code> and a small heap (e.g. <code>-jvmArgs -Xmx64m</code>) to see the difference in memory:
+ * the array needs the whole response and all addresses at once, the stream one address at a time
+ * (with <code>-Xmx48m</code>, the array runs out of heap at 100000 addresses).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamingLookupBenchmark {
+
+    @Param({ "1000", "100000" })
+    private int addresses;
+
+    private StubAddressService addressService;
+    private ConfigurableApplicationContext context;
+    private RestTemplate restTemplate;
+    private StreamingAddressServiceClient streamingClient;
+
+    @Setup
+    public void setup() throws IOException {
+        addressService = new StubAddressService();
+        List<StubAddressService> addressServices = new ArrayList<>();
+        addressServices.add(addressService);
+        context = BenchmarkClientApplication.start(addressServices);
+        restTemplate = context.getBean(RestTemplate.class);
+        streamingClient = new StreamingAddressServiceClient(restTemplate, new ObjectMapper());
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+        addressService.close();
+    }
+
+    @Benchmark
+    public void array(Blackhole blackhole) {
+        Address[] list = restTemplate.getForObject("http://address-service/addresses?from=1&count={count}", Address[].class, addresses);
+        for (Address address : list) {
+            blackhole.consume(address);
+        }
+    }
+
+    @Benchmark
+    public long streamed(Blackhole blackhole) {
+        return streamingClient.streamAddresses(1, addresses, blackhole::consume);
+    }
+}
@@ -0,0 +1,180 @@
+package com.fonz.cloud.address.service.client.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in for an address-service instance.
+ * Serves a fixed address on <code>/address</code> on an ephemeral port with an optional, fixed delay.
+ * Like address-service, it sends an ETag and answers <code>304 Not Modified</code> if the request carries it in <code>If-None-Match</code>.
+ * <code>/addresses/batch</code> answers a JSON array of address IDs with the address for each of them, after the same delay.
+ * <code>/addresses?from=&amp;count=</code> streams <code>count</code> addresses, as newline-delimited JSON if the request accepts
+ * <code>application/x-ndjson</code>, and as a JSON array otherwise.
+ */
+@SuppressWarnings("restriction")
+public class StubAddressService implements Closeable {
+
+    private static final byte[] ADDRESS_JSON = ("{\"postalCode\":\"52670\",\"city\":\"New York\",\"streetName\":\"Fifth-Ave\","
+            + "\"houseNumber\":\"101a\",\"country\":\"United States\"}").getBytes(StandardCharsets.UTF_8);
+    private static final String ADDRESS_ETAG = "\"address-v1\"";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    static {
+        // Without this, responses are delayed by Nagle's algorithm / delayed ACKs (~40ms per request).
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private volatile long delayMillis;
+
+    public StubAddressService() throws IOException {
+        this(0);
+    }
+
+    public StubAddressService(long delayMillis) throws IOException {
+        this.delayMillis = delayMillis;
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "stub-address-service");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // A large backlog, so that bursts of concurrent connections are not refused.
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        this.server.createContext("/address", this::handle);
+        this.server.createContext("/addresses/batch", this::handleBatch);
+        this.server.createContext("/addresses", this::handleList);
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return the ID of this instance as a Ribbon server, i.e. <code>host:port</code>.
+     */
+    public String getServerId() {
+        return "localhost:" + getPort();
+    }
+
+    public void setDelayMillis(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (delayMillis > 0) {
+                TimeUnit.MILLISECONDS.sleep(delayMillis);
+            }
+            exchange.getResponseHeaders().set("ETag", ADDRESS_ETAG);
+            if (ADDRESS_ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, ADDRESS_JSON.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(ADDRESS_JSON);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleBatch(HttpExchange exchange) throws IOException {
+        try {
+            String[] ids = MAPPER.readValue(exchange.getRequestBody(), String[].class);
+            if (delayMillis > 0) {
+                TimeUnit.MILLISECONDS.sleep(delayMillis);
+            }
+            ArrayNode addresses = MAPPER.createArrayNode();
+            for (String id : ids) {
+                ObjectNode address = (ObjectNode) MAPPER.readTree(ADDRESS_JSON);
+                address.put("id", id);
+                addresses.add(address);
+            }
+            byte[] body = MAPPER.writeValueAsBytes(addresses);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleList(HttpExchange exchange) throws IOException {
+        try {
+            long from = 1;
+            long count = 100;
+            String query = exchange.getRequestURI().getQuery();
+            if (query != null) {
+                for (String parameter : query.split("&")) {
+                    String[] nameAndValue = parameter.split("=", 2);
+                    if ("from".equals(nameAndValue[0])) {
+                        from = Long.parseLong(nameAndValue[1]);
+                    } else if ("count".equals(nameAndValue[0])) {
+                        count = Long.parseLong(nameAndValue[1]);
+                    }
+                }
+            }
+            String accept = exchange.getRequestHeaders().getFirst("Accept");
+            boolean ndjson = accept != null && accept.contains("application/x-ndjson");
+            if (delayMillis > 0) {
+                TimeUnit.MILLISECONDS.sleep(delayMillis);
+            }
+            exchange.getResponseHeaders().set("Content-Type", ndjson ? "application/x-ndjson" : "application/json");
+            // Chunked, written address by address.
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = new BufferedOutputStream(exchange.getResponseBody())) {
+                ObjectNode address = (ObjectNode) MAPPER.readTree(ADDRESS_JSON);
+                if (!ndjson) {
+                    out.write('[');
+                }
+                for (long id = from; id < from + count; id++) {
+                    if (!ndjson && id > from) {
+                        out.write(',');
+                    }
+                    address.put("id", String.valueOf(id));
+                    out.write(MAPPER.writeValueAsBytes(address));
+                    if (ndjson) {
+                        out.write('\n');
+                    }
+                }
+                if (!ndjson) {
+                    out.write(']');
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,38 @@
+package com.fonz.cloud.address.service.client.benchmarks;
+
+import java.net.URI;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+
+/**
+ * A plain {@link HttpRequest} as it is handed to a LoadBalancerRequestTransformer.
+ */
+public class StubHttpRequest implements HttpRequest {
+
+    private final URI uri;
+    private final HttpHeaders headers = new HttpHeaders();
+
+    public StubHttpRequest(URI uri, int numberOfHeaders) {
+        this.uri = uri;
+        for (int i = 0; i < numberOfHeaders; i++) {
+            headers.add("X-Benchmark-Header-" + i, "value-" + i);
+        }
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public String getMethodValue() {
+        return HttpMethod.GET.name();
+    }
+
+    @Override
+    public URI getURI() {
+        return uri;
+    }
+}
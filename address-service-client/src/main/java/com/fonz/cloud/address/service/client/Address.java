@@ -1,12 +1,21 @@
 package com.fonz.cloud.address.service.client;
 
 public class Address {
+    private String id;
     private String postalCode;
     private String city;
     private String streetName;
     private String houseNumber;
     private String country;
     
+    public String getId() {
+        return id;
+    }
+    
+    public void setId(String id) {
+        this.id = id;
+    }
+    
     public String getPostalCode() {
         return postalCode;
     }
@@ -49,7 +58,7 @@ public class Address {
 
     @Override
     public String toString() {
-        return "Address [postalCode=" + postalCode + ", city=" + city + ", streetName=" + streetName + ", houseNumber="
+        return "Address [id=" + id + ", postalCode=" + postalCode + ", city=" + city + ", streetName=" + streetName + ", houseNumber="
                 + houseNumber + ", country=" + country + "]";
     }
 }
@@ -0,0 +1,171 @@
+package com.fonz.cloud.address.service.client.cf;
+
+import java.io.Closeable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestTemplate;
+
+import com.fonz.cloud.address.service.client.Address;
+
+/**
+ * Collects single address lookups into batch requests to address-service's <code>/addresses/batch</code> endpoint.
+ *
+ * A lookup is not sent right away. It waits up to <code>maxDelayMillis</code> for more lookups to come in, or until
+ * <code>maxBatchSize</code> lookups have been collected, whichever comes first. Then all of them are sent in a single request,
+ * and the addresses in the response are handed back to the callers. Lookups of the same ID within a batch are sent only once.
+ *
+ * The batch request is sent with a @LoadBalanced RestTemplate, so it is load balanced by Ribbon and carries the CF routing
+ * header of the instance chosen by Ribbon (see {@link CFLoadBalancerRequestTransformer}), like every other request.
+ * For bulk enrichment jobs this turns thousands of round-trips through Go-Router into a few.
+ * The IDs are always sent as JSON, which is what the endpoint reads, whatever message converter the RestTemplate would pick first.
+ * Closing the batcher sends the lookups collected so far. Lookups after that fail.
+ */
+public class AddressBatcher implements Closeable {
+
+    private static final String BATCH_URI = "http://address-service/addresses/batch";
+    private static final HttpHeaders JSON = jsonContentType();
+
+    private final RestTemplate restTemplate;
+    private final int maxBatchSize;
+    private final long maxDelayMillis;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService sender;
+
+    // Guarded by this.
+    private Map<String, CompletableFuture<Address>> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean closed;
+
+    /**
+     * @param restTemplate a @LoadBalanced RestTemplate.
+     * @param maxBatchSize the maximum number of IDs per batch request.
+     * @param maxDelayMillis the maximum time a lookup waits for others before it is sent (ms).
+     */
+    public AddressBatcher(RestTemplate restTemplate, int maxBatchSize, long maxDelayMillis) {
+        this.restTemplate = restTemplate;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.timer = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("address-batcher-timer"));
+        // Batches are sent from a separate pool, so that a slow batch does not hold up the next one.
+        this.sender = Executors.newCachedThreadPool(daemonThreadFactory("address-batcher"));
+    }
+
+    /**
+     * @param id the ID of the address.
+     * @return the address, once the batch it is part of has been answered. Completes exceptionally if the batch request
+     *         fails, or with a {@link NoSuchElementException}, if address-service does not know the ID.
+     *         Completes exceptionally with a {@link RejectedExecutionException}, if the batcher has been closed.
+     */
+    public CompletableFuture<Address> lookup(String id) {
+        CompletableFuture<Address> address;
+        Map<String, CompletableFuture<Address>> fullBatch = null;
+        synchronized (this) {
+            if (closed) {
+                address = new CompletableFuture<>();
+                address.completeExceptionally(new RejectedExecutionException("AddressBatcher is closed"));
+                return address;
+            }
+            address = pending.computeIfAbsent(id, key -> new CompletableFuture<>());
+            if (pending.size() >= maxBatchSize) {
+                fullBatch = takePending();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = timer.schedule(this::flush, maxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (fullBatch != null) {
+            dispatch(fullBatch);
+        }
+        return address;
+    }
+
+    /**
+     * Sends the lookups collected so far, without waiting any longer.
+     */
+    public void flush() {
+        Map<String, CompletableFuture<Address>> batch;
+        synchronized (this) {
+            batch = takePending();
+        }
+        dispatch(batch);
+    }
+
+    @Override
+    public void close() {
+        Map<String, CompletableFuture<Address>> batch;
+        synchronized (this) {
+            closed = true;
+            batch = takePending();
+        }
+        timer.shutdownNow();
+        dispatch(batch);
+        sender.shutdown();
+    }
+
+    private Map<String, CompletableFuture<Address>> takePending() {
+        Map<String, CompletableFuture<Address>> batch = pending;
+        pending = new LinkedHashMap<>();
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        return batch;
+    }
+
+    private void dispatch(Map<String, CompletableFuture<Address>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            sender.execute(() -> send(batch));
+        } catch (RejectedExecutionException e) {
+            // Closed while the batch was being taken.
+            batch.values().forEach(lookup -> lookup.completeExceptionally(e));
+        }
+    }
+
+    private void send(Map<String, CompletableFuture<Address>> batch) {
+        try {
+            Address[] addresses = restTemplate.postForObject(BATCH_URI, new HttpEntity<>(batch.keySet(), JSON), Address[].class);
+            if (addresses != null) {
+                for (Address address : addresses) {
+                    CompletableFuture<Address> lookup = batch.remove(address.getId());
+                    if (lookup != null) {
+                        lookup.complete(address);
+                    }
+                }
+            }
+            batch.forEach((id, lookup) -> lookup.completeExceptionally(new NoSuchElementException("No address with ID " + id)));
+        } catch (RuntimeException e) {
+            batch.values().forEach(lookup -> lookup.completeExceptionally(e));
+        }
+    }
+
+    private static ThreadFactory daemonThreadFactory(String namePrefix) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static HttpHeaders jsonContentType() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return HttpHeaders.readOnlyHttpHeaders(headers);
+    }
+}
@@ -0,0 +1,119 @@
+package com.fonz.cloud.address.service.client.cf;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.support.HttpRequestWrapper;
+
+import com.fonz.cloud.address.service.client.ribboninject.CustomRibbonLoadBalancerClient;
+import com.fonz.cloud.address.service.client.ribboninject.RoutingMetrics;
+
+/**
+ * Container-to-container routing: requests go straight to the internal address of the instance chosen by Ribbon,
+ * instead of through Go-Router with the CF routing header. That saves a network hop and a TLS termination per request.
+ *
+ * Instances publish their internal address as <code>cfInternalAddress</code> (<code>ip:port</code>) in their Eureka metadata
+ * (see the <code>cloud</code> profile of address-service). It is only reachable if a Cloud Foundry network policy allows
+ * the client app to talk to the service app (<code>cf add-network-policy</code>), and requests are sent over plain HTTP.
+ *
+ * Instances without a (valid) internal address are reached through Go-Router, pinned with the routing header as before.
+ * So is an instance whose internal address could not be connected to (e.g. a missing network policy), for
+ * <code>fallbackTimeMillis</code>, before the internal address is tried again. Failures are recorded by
+ * {@link CustomRibbonLoadBalancerClient} and {@link CFLoadBalancerExchangeFilterFunction}; the request itself
+ * fails (and is retried by Ribbon, if configured), the fallback applies from the next attempt on.
+ *
+ * Direct requests and fallbacks are counted in {@link RoutingMetrics}.
+ */
+public class CFDirectRouting {
+
+    private final CFRoutingHeaderCache headerCache;
+    private final RoutingMetrics routingMetrics;
+    private final long fallbackNanos;
+    // End of the fallback to Go-Router, by internal address.
+    private final ConcurrentMap<String, Long> fallbackEnds = new ConcurrentHashMap<>();
+
+    /**
+     * @param headerCache the cache of the instances' internal addresses.
+     * @param routingMetrics the metrics to count fallbacks in, or null.
+     * @param fallbackTimeMillis the time an instance is reached through Go-Router after a failed connection to its internal address (ms).
+     */
+    public CFDirectRouting(CFRoutingHeaderCache headerCache, RoutingMetrics routingMetrics, long fallbackTimeMillis) {
+        this.headerCache = headerCache;
+        this.routingMetrics = routingMetrics;
+        this.fallbackNanos = TimeUnit.MILLISECONDS.toNanos(fallbackTimeMillis);
+    }
+
+    /**
+     * @param request the request to the instance, through Go-Router.
+     * @param instance the service instance selected by the load balancer.
+     * @return the request to the internal address of the instance, or null if it has none or is in fallback.
+     */
+    public HttpRequest directRequest(HttpRequest request, ServiceInstance instance) {
+        String address = directAddress(instance);
+        if (address == null) {
+            return null;
+        }
+        URI uri = request.getURI();
+        URI directUri = URI.create("http://" + address + (uri.getRawPath() != null ? uri.getRawPath() : "")
+                + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : ""));
+        return new HttpRequestWrapper(request) {
+            @Override
+            public URI getURI() {
+                return directUri;
+            }
+        };
+    }
+
+    /**
+     * Falls back to Go-Router for the instance, if the request could not connect to its internal address.
+     * Other failures (e.g. read timeouts) would have happened through Go-Router as well, and are ignored.
+     * @param instance the service instance the failed request was sent to.
+     * @param failure the failure of the request.
+     */
+    public void recordFailure(String serviceId, ServiceInstance instance, Throwable failure) {
+        if (instance == null || !isConnectFailure(failure)) {
+            return;
+        }
+        String address = headerCache.getDirectAddress(instance);
+        if (address == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        Long previousEnd = fallbackEnds.put(address, now + fallbackNanos);
+        // Only the start of a fallback counts, not the failures of requests that were already on their way.
+        if ((previousEnd == null || now - previousEnd >= 0) && routingMetrics != null) {
+            routingMetrics.recordDirectFallback(serviceId, instance);
+        }
+    }
+
+    private String directAddress(ServiceInstance instance) {
+        String address = headerCache.getDirectAddress(instance);
+        if (address == null) {
+            return null;
+        }
+        Long fallbackEnd = fallbackEnds.get(address);
+        if (fallbackEnd != null) {
+            if (System.nanoTime() - fallbackEnd < 0) {
+                return null;
+            }
+            fallbackEnds.remove(address, fallbackEnd);
+        }
+        return address;
+    }
+
+    private static boolean isConnectFailure(Throwable failure) {
+        // Apache HttpClient's HttpHostConnectException and Netty's connect failures are ConnectExceptions as well.
+        // HttpURLConnection signals connect timeouts with a plain SocketTimeoutException.
+        return failure instanceof ConnectException
+                || failure instanceof NoRouteToHostException
+                || failure instanceof org.apache.http.conn.ConnectTimeoutException
+                || (failure instanceof SocketTimeoutException && "connect timed out".equals(failure.getMessage()));
+    }
+}
@@ -0,0 +1,279 @@
+package com.fonz.cloud.address.service.client.cf;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerRequestTransformer;
+import org.springframework.cloud.client.loadbalancer.RetryableStatusCodeException;
+import org.springframework.cloud.netflix.ribbon.RibbonLoadBalancedRetryPolicy;
+import org.springframework.cloud.netflix.ribbon.RibbonProperties;
+import org.springframework.cloud.netflix.ribbon.SpringClientFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.util.StringUtils;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+
+import com.fonz.cloud.address.service.client.ribboninject.AdaptiveTimeouts;
+import com.fonz.cloud.address.service.client.ribboninject.CustomRibbonLoadBalancerClient;
+import com.fonz.cloud.address.service.client.ribboninject.InFlightRequestCounters;
+import com.fonz.cloud.address.service.client.ribboninject.InstanceLatencyStats;
+import com.fonz.cloud.address.service.client.ribboninject.OutlierDetector;
+import com.fonz.cloud.address.service.client.ribboninject.OverloadResponses;
+import com.netflix.client.config.CommonClientConfigKey;
+import com.netflix.client.config.DefaultClientConfigImpl;
+import com.netflix.client.config.IClientConfig;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Load balancing for WebClient, the non-blocking counterpart of a @LoadBalanced RestTemplate.
+ *
+ * The host of the request URL is taken as the service ID (e.g. <code>http://address-service/address</code>).
+ * Every attempt - including retries - chooses a service instance with the {@link LoadBalancerClient} (i.e. Ribbon),
+ * and passes the request through all {@link LoadBalancerRequestTransformer}s, exactly like the RestTemplate integration does.
+ * This way, {@link CFLoadBalancerRequestTransformer} sets the CF routing header of the chosen instance on every attempt.
+ *
+ * Retries follow the Ribbon configuration of the service (see application.yml):
+ * <code>MaxAutoRetries</code> on the same instance, <code>MaxAutoRetriesNextServer</code> on other instances,
+ * <code>ReadTimeout</code> per attempt, <code>retryableStatusCodes</code> and <code>OkToRetryOnAllOperations</code>.
+ * If adaptive timeouts are enabled for the service, the read timeout is taken from its {@link AdaptiveTimeouts} instead.
+ * Once the retries are used up, a response with a retryable status code is returned to the caller like any other response,
+ * as the RestTemplate integration does: e.g. <code>retrieve()</code> turns it into a <code>WebClientResponseException</code>.
+ *
+ * Nothing blocks: while waiting for a response, an attempt does not occupy a thread.
+ *
+ * If direct routing is enabled, failed connections are recorded in {@link CFDirectRouting}, like {@link CustomRibbonLoadBalancerClient} does.
+ * So is the outcome of every attempt in the {@link OutlierDetector}, if outlier detection is enabled, so that instances that only fail for
+ * WebClient callers are ejected as well.
+ */
+public class CFLoadBalancerExchangeFilterFunction implements ExchangeFilterFunction {
+
+    private static final DefaultDataBufferFactory BUFFER_FACTORY = new DefaultDataBufferFactory();
+
+    private final LoadBalancerClient loadBalancerClient;
+    private final SpringClientFactory clientFactory;
+    private final List<LoadBalancerRequestTransformer> transformers;
+    private final InFlightRequestCounters inFlightCounters;
+    private final InstanceLatencyStats latencyStats;
+    private final OutlierDetector outlierDetector;
+    private final CFDirectRouting directRouting;
+    private final ConcurrentMap<String, RetrySettings> retrySettingsByService = new ConcurrentHashMap<>();
+
+    public CFLoadBalancerExchangeFilterFunction(LoadBalancerClient loadBalancerClient, SpringClientFactory clientFactory,
+            List<LoadBalancerRequestTransformer> transformers, InFlightRequestCounters inFlightCounters,
+            InstanceLatencyStats latencyStats) {
+        this(loadBalancerClient, clientFactory, transformers, inFlightCounters, latencyStats, null, null);
+    }
+
+    /**
+     * @param outlierDetector the detector to record the outcome of every attempt in, or null if outlier detection is disabled.
+     * @param directRouting the routing to the internal container addresses of the instances, or null if disabled.
+     */
+    public CFLoadBalancerExchangeFilterFunction(LoadBalancerClient loadBalancerClient, SpringClientFactory clientFactory,
+            List<LoadBalancerRequestTransformer> transformers, InFlightRequestCounters inFlightCounters,
+            InstanceLatencyStats latencyStats, OutlierDetector outlierDetector, CFDirectRouting directRouting) {
+        this.loadBalancerClient = loadBalancerClient;
+        this.clientFactory = clientFactory;
+        this.transformers = transformers;
+        this.inFlightCounters = inFlightCounters;
+        this.latencyStats = latencyStats;
+        this.outlierDetector = outlierDetector;
+        this.directRouting = directRouting;
+    }
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        String serviceId = request.url().getHost();
+        if (serviceId == null) {
+            return Mono.error(new IllegalArgumentException("Request URI does not contain a valid hostname: " + request.url()));
+        }
+        RetrySettings retrySettings = retrySettingsByService.computeIfAbsent(serviceId, this::loadRetrySettings);
+
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicReference<ServiceInstance> instance = new AtomicReference<>();
+        Mono<ClientResponse> attempt = Mono.defer(() -> {
+            // A new instance for the first attempt and once the retries on the same instance are used up.
+            if (attempts.getAndIncrement() % (retrySettings.maxAutoRetries + 1) == 0) {
+                instance.set(loadBalancerClient.choose(serviceId));
+            }
+            return exchange(request, next, serviceId, instance.get(), retrySettings);
+        });
+
+        Mono<ClientResponse> retried = !retrySettings.okToRetryOnAllOperations && request.method() != HttpMethod.GET
+                ? attempt
+                : attempt.retry(retrySettings.maxAttempts() - 1, CFLoadBalancerExchangeFilterFunction::isRetryable);
+        // The RetryableStatusCodeException only signals the retry, the caller gets the response of the last attempt.
+        return retried.onErrorResume(RetryableStatusCodeException.class, e -> Mono.just((ClientResponse) e.getResponse()));
+    }
+
+    private Mono<ClientResponse> exchange(ClientRequest request, ExchangeFunction next, String serviceId, ServiceInstance instance,
+            RetrySettings retrySettings) {
+        if (instance == null) {
+            return Mono.error(new IllegalStateException("No instances available for " + serviceId));
+        }
+
+        URI uri = loadBalancerClient.reconstructURI(instance, request.url());
+        HttpRequest transformedRequest = new ClientRequestAdapter(request, uri);
+        for (LoadBalancerRequestTransformer transformer : transformers) {
+            transformedRequest = transformer.transformRequest(transformedRequest, instance);
+        }
+        HttpHeaders transformedHeaders = transformedRequest.getHeaders();
+        ClientRequest loadBalancedRequest = ClientRequest.from(request)
+                .url(transformedRequest.getURI())
+                .headers(headers -> {
+                    headers.clear();
+                    headers.putAll(transformedHeaders);
+                })
+                .build();
+
+        // Keep the statistics used by the Ribbon rules up to date, like CustomRibbonLoadBalancerClient does.
+        // Note: the request counts as completed once the response headers have been received.
+        String inFlightKey = inFlightCounters.keyOf(instance);
+        String latencyKey = latencyStats.keyOf(instance);
+        AdaptiveTimeouts adaptiveTimeouts = retrySettings.adaptiveTimeouts;
+        long readTimeoutMillis = adaptiveTimeouts.isEnabled() ? adaptiveTimeouts.getReadTimeoutMillis() : retrySettings.readTimeoutMillis;
+        long start = System.nanoTime();
+        inFlightCounters.increment(inFlightKey);
+
+        return next.exchange(loadBalancedRequest)
+                .timeout(Duration.ofMillis(readTimeoutMillis))
+                .doOnSuccess(response -> {
+                    long elapsedNanos = System.nanoTime() - start;
+                    adaptiveTimeouts.record(elapsedNanos);
+                    if (response != null && response.rawStatusCode() >= 500) {
+                        latencyStats.recordFailure(latencyKey, elapsedNanos);
+                    } else {
+                        latencyStats.record(latencyKey, elapsedNanos);
+                    }
+                    if (response != null && outlierDetector != null) {
+                        recordOutcome(serviceId, instance, response);
+                    }
+                })
+                .doOnError(TimeoutException.class, e -> adaptiveTimeouts.recordTimeout((int) readTimeoutMillis))
+                .doOnError(e -> {
+                    latencyStats.recordFailure(latencyKey, System.nanoTime() - start);
+                    if (outlierDetector != null) {
+                        outlierDetector.recordFailure(serviceId, instance);
+                    }
+                    if (directRouting != null) {
+                        directRouting.recordFailure(serviceId, instance, e);
+                    }
+                })
+                .flatMap(response -> {
+                    if (retrySettings.retryableStatusCodes.contains(response.rawStatusCode())) {
+                        // Release the connection before retrying. The body is kept, in case this is the last attempt.
+                        return response.bodyToMono(byte[].class)
+                                .defaultIfEmpty(new byte[0])
+                                .flatMap(body -> Mono.error(new RetryableStatusCodeException(serviceId, response.rawStatusCode(),
+                                        ClientResponse.from(response).body(Flux.just(BUFFER_FACTORY.wrap(body))).build(), uri)));
+                    }
+                    return Mono.just(response);
+                })
+                .doFinally(signal -> inFlightCounters.decrement(inFlightKey));
+    }
+
+    private void recordOutcome(String serviceId, ServiceInstance instance, ClientResponse response) {
+        long retryAfterMillis = OverloadResponses.retryAfterMillis(response);
+        if (retryAfterMillis >= 0) {
+            outlierDetector.recordOverload(instance, retryAfterMillis);
+        } else if (response.rawStatusCode() >= 500) {
+            outlierDetector.recordFailure(serviceId, instance);
+        } else {
+            outlierDetector.recordSuccess(instance);
+        }
+    }
+
+    private static boolean isRetryable(Throwable throwable) {
+        return throwable instanceof IOException
+                || throwable instanceof TimeoutException
+                || throwable instanceof RetryableStatusCodeException;
+    }
+
+    private RetrySettings loadRetrySettings(String serviceId) {
+        IClientConfig config = clientFactory.getClientConfig(serviceId);
+        RibbonProperties ribbon = RibbonProperties.from(config);
+        Set<Integer> retryableStatusCodes = new HashSet<>();
+        for (String code : StringUtils.commaDelimitedListToSet(config.getPropertyAsString(RibbonLoadBalancedRetryPolicy.RETRYABLE_STATUS_CODES, ""))) {
+            if (!code.trim().isEmpty()) {
+                retryableStatusCodes.add(Integer.valueOf(code.trim()));
+            }
+        }
+        // Declared by RibbonAutoConfigurationOverrides, shared with the Ribbon HTTP client of the service.
+        AdaptiveTimeouts adaptiveTimeouts = clientFactory.getInstance(serviceId, AdaptiveTimeouts.class);
+        return new RetrySettings(
+                ribbon.get(CommonClientConfigKey.MaxAutoRetries, DefaultClientConfigImpl.DEFAULT_MAX_AUTO_RETRIES),
+                ribbon.get(CommonClientConfigKey.MaxAutoRetriesNextServer, DefaultClientConfigImpl.DEFAULT_MAX_AUTO_RETRIES_NEXT_SERVER),
+                ribbon.readTimeout(), ribbon.isOkToRetryOnAllOperations(), retryableStatusCodes,
+                adaptiveTimeouts != null ? adaptiveTimeouts : new AdaptiveTimeouts(config));
+    }
+
+    private static final class RetrySettings {
+
+        private final int maxAutoRetries;
+        private final int maxAutoRetriesNextServer;
+        private final long readTimeoutMillis;
+        private final boolean okToRetryOnAllOperations;
+        private final Set<Integer> retryableStatusCodes;
+        private final AdaptiveTimeouts adaptiveTimeouts;
+
+        RetrySettings(int maxAutoRetries, int maxAutoRetriesNextServer, long readTimeoutMillis, boolean okToRetryOnAllOperations,
+                Set<Integer> retryableStatusCodes, AdaptiveTimeouts adaptiveTimeouts) {
+            this.maxAutoRetries = maxAutoRetries;
+            this.maxAutoRetriesNextServer = maxAutoRetriesNextServer;
+            this.readTimeoutMillis = readTimeoutMillis;
+            this.okToRetryOnAllOperations = okToRetryOnAllOperations;
+            this.retryableStatusCodes = retryableStatusCodes;
+            this.adaptiveTimeouts = adaptiveTimeouts;
+        }
+
+        int maxAttempts() {
+            return (maxAutoRetries + 1) * (maxAutoRetriesNextServer + 1);
+        }
+    }
+
+    /**
+     * Presents a WebClient request as the HttpRequest expected by {@link LoadBalancerRequestTransformer}s.
+     */
+    private static final class ClientRequestAdapter implements HttpRequest {
+
+        private final ClientRequest request;
+        private final URI uri;
+
+        ClientRequestAdapter(ClientRequest request, URI uri) {
+            this.request = request;
+            this.uri = uri;
+        }
+
+        @Override
+        public String getMethodValue() {
+            return request.method().name();
+        }
+
+        @Override
+        public URI getURI() {
+            return uri;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return request.headers();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.fonz.cloud.address.service.client.cf;
+
+import java.net.URI;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.util.MultiValueMap;
+
+/**
+ * Wrapper class for an HttpRequest which may only return an
+ * immutable list of headers. The wrapper immitates the original
+ * request and will return the original headers including the
+ * CF routing header when getHeaders() is called.
+ *
+ * The headers are not copied. getHeaders() returns a read-through view
+ * that overlays the routing header on top of the original request's headers.
+ * The view is created on first access and reused for all subsequent calls,
+ * so the cost per request is fixed, no matter how many headers the original
+ * request carries.
+ *
+ * A routing header already present on the original request is hidden by the
+ * overlay, i.e. the value selected by the load balancer always wins.
+ */
+public class CFLoadBalancerHttpRequestWrapper implements HttpRequest {
+
+    private final HttpRequest request;
+    private final String headerValue;
+    private HttpHeaders headers;
+
+    public CFLoadBalancerHttpRequestWrapper(HttpRequest request, String headerValue) {
+        this.request = request;
+        this.headerValue = headerValue;
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        // Requests are not shared between threads, so there is no need to synchronize here.
+        if (headers == null) {
+            headers = new HttpHeaders(new RoutingHeaderOverlay(request.getHeaders(), headerValue));
+        }
+        return headers;
+    }
+
+    @Override
+    public String getMethodValue() {
+        return request.getMethodValue();
+    }
+
+    @Override
+    public URI getURI() {
+        return request.getURI();
+    }
+
+    /**
+     * A {@link MultiValueMap} that delegates to the original headers and overlays
+     * a single routing header entry. Writes to any other header go to the original headers.
+     */
+    private static final class RoutingHeaderOverlay extends AbstractMap<String, List<String>> implements MultiValueMap<String, String> {
+
+        private final HttpHeaders original;
+        private final String headerValue;
+        private final List<String> headerValues;
+        private final Entry<String, List<String>> routingHeaderEntry;
+        private Set<Entry<String, List<String>>> entrySet;
+
+        RoutingHeaderOverlay(HttpHeaders original, String headerValue) {
+            this.original = original;
+            this.headerValue = headerValue;
+            this.headerValues = Collections.singletonList(headerValue);
+            this.routingHeaderEntry = new SimpleImmutableEntry<>(CFLoadBalancerRequestTransformer.ROUTING_HEADER, headerValues);
+        }
+
+        private static boolean isRoutingHeader(Object key) {
+            return key instanceof String && CFLoadBalancerRequestTransformer.ROUTING_HEADER.equalsIgnoreCase((String) key);
+        }
+
+        private static void checkNotRoutingHeader(Object key) {
+            if (isRoutingHeader(key)) {
+                throw new UnsupportedOperationException("The routing header is set by the load balancer and cannot be modified.");
+            }
+        }
+
+        @Override
+        public List<String> get(Object key) {
+            return isRoutingHeader(key) ? headerValues : original.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return isRoutingHeader(key) || original.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return original.containsKey(CFLoadBalancerRequestTransformer.ROUTING_HEADER) ? original.size() : original.size() + 1;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return false;
+        }
+
+        @Override
+        public List<String> put(String key, List<String> value) {
+            checkNotRoutingHeader(key);
+            return original.put(key, value);
+        }
+
+        @Override
+        public List<String> remove(Object key) {
+            checkNotRoutingHeader(key);
+            return original.remove(key);
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException("The routing header is set by the load balancer and cannot be removed.");
+        }
+
+        @Override
+        public String getFirst(String key) {
+            return isRoutingHeader(key) ? headerValue : original.getFirst(key);
+        }
+
+        @Override
+        public void add(String key, String value) {
+            checkNotRoutingHeader(key);
+            original.add(key, value);
+        }
+
+        @Override
+        public void addAll(String key, List<? extends String> values) {
+            checkNotRoutingHeader(key);
+            original.addAll(key, values);
+        }
+
+        @Override
+        public void addAll(MultiValueMap<String, String> values) {
+            for (Entry<String, List<String>> entry : values.entrySet()) {
+                addAll(entry.getKey(), entry.getValue());
+            }
+        }
+
+        @Override
+        public void set(String key, String value) {
+            checkNotRoutingHeader(key);
+            original.set(key, value);
+        }
+
+        @Override
+        public void setAll(Map<String, String> values) {
+            for (Entry<String, String> entry : values.entrySet()) {
+                set(entry.getKey(), entry.getValue());
+            }
+        }
+
+        @Override
+        public Map<String, String> toSingleValueMap() {
+            Map<String, String> singleValueMap = new LinkedHashMap<>(size());
+            for (Entry<String, List<String>> entry : entrySet()) {
+                singleValueMap.put(entry.getKey(), entry.getValue().get(0));
+            }
+            return singleValueMap;
+        }
+
+        @Override
+        public Set<Entry<String, List<String>>> entrySet() {
+            if (entrySet == null) {
+                entrySet = new AbstractSet<Entry<String, List<String>>>() {
+                    @Override
+                    public Iterator<Entry<String, List<String>>> iterator() {
+                        return new OverlayIterator(original.entrySet().iterator());
+                    }
+
+                    @Override
+                    public int size() {
+                        return RoutingHeaderOverlay.this.size();
+                    }
+                };
+            }
+            return entrySet;
+        }
+
+        /**
+         * Iterates the original headers (skipping a routing header they may contain)
+         * followed by the overlaid routing header.
+         */
+        private final class OverlayIterator implements Iterator<Entry<String, List<String>>> {
+
+            private final Iterator<Entry<String, List<String>>> originalEntries;
+            private Entry<String, List<String>> next;
+            private boolean routingHeaderReturned;
+
+            OverlayIterator(Iterator<Entry<String, List<String>>> originalEntries) {
+                this.originalEntries = originalEntries;
+            }
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && originalEntries.hasNext()) {
+                    Entry<String, List<String>> entry = originalEntries.next();
+                    if (!isRoutingHeader(entry.getKey())) {
+                        next = entry;
+                    }
+                }
+                return next != null || !routingHeaderReturned;
+            }
+
+            @Override
+            public Entry<String, List<String>> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (next != null) {
+                    Entry<String, List<String>> entry = next;
+                    next = null;
+                    return entry;
+                }
+                routingHeaderReturned = true;
+                return routingHeaderEntry;
+            }
+        }
+    }
+}
@@ -1,14 +1,14 @@
 package com.fonz.cloud.address.service.client.cf;
 
-import java.net.URI;
 import java.util.Map;
 
 import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.cloud.client.loadbalancer.LoadBalancerRequestTransformer;
 import org.springframework.cloud.netflix.ribbon.RibbonLoadBalancerClient;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpRequest;
 
+import com.fonz.cloud.address.service.client.ribboninject.RoutingMetrics;
+
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.netflix.appinfo.InstanceInfo;
@@ -33,39 +33,88 @@ import com.netflix.niws.loadbalancer.DiscoveryEnabledServer;
  *  Using this information, it will set the CF routing header instructing Go-Router to route the (retry) request to
  *  exactly this application / service instance and not do its own load-balancing.
  *  This effectively lets Ribbon take over LoadBalancing in a Cloud Foundry deployment for this application. 
+ *  
+ *  Since this runs for every request and every retry, the header values are not computed here but looked up
+ *  from a {@link CFRoutingHeaderCache}. Dumping the service instance information is only done in debug mode.
+ *  Whether the header was injected is counted in {@link RoutingMetrics}, if given.
+ *
+ *  If direct routing is enabled (see {@link CFDirectRouting}), requests to instances that publish their internal container
+ *  address are sent there instead, without the header and without going through Go-Router.
  */
 public class CFLoadBalancerRequestTransformer implements LoadBalancerRequestTransformer {
     public static final String CF_APP_GUID = "cfAppGuid";
     public static final String CF_INSTANCE_INDEX = "cfInstanceIndex";
+    public static final String CF_INTERNAL_ADDRESS = "cfInternalAddress";
     public static final String ROUTING_HEADER = "X-CF-APP-INSTANCE";
 
+    private static final ObjectMapper DEBUG_MAPPER = new ObjectMapper();
+
+    private final CFRoutingHeaderCache headerCache;
+    private final RoutingMetrics routingMetrics;
+    private final CFDirectRouting directRouting;
+    private final boolean debug;
+
+    public CFLoadBalancerRequestTransformer() {
+        this(new CFRoutingHeaderCache(), false);
+    }
+
+    public CFLoadBalancerRequestTransformer(CFRoutingHeaderCache headerCache, boolean debug) {
+        this(headerCache, null, debug);
+    }
+
+    /**
+     * @param headerCache the cache of precomputed routing header values.
+     * @param routingMetrics the metrics to count injected and missing routing headers in, or null.
+     * @param debug if true, dumps the selected service instance (metadata and Eureka InstanceInfo) 
+     *              on the console for every request. Expensive - don't use this in production.
+     */
+    public CFLoadBalancerRequestTransformer(CFRoutingHeaderCache headerCache, RoutingMetrics routingMetrics, boolean debug) {
+        this(headerCache, routingMetrics, null, debug);
+    }
+
+    /**
+     * @param directRouting the routing to the internal container addresses of the instances, or null if disabled.
+     */
+    public CFLoadBalancerRequestTransformer(CFRoutingHeaderCache headerCache, RoutingMetrics routingMetrics, CFDirectRouting directRouting,
+            boolean debug) {
+        this.headerCache = headerCache;
+        this.routingMetrics = routingMetrics;
+        this.directRouting = directRouting;
+        this.debug = debug;
+    }
+
     @Override
     public HttpRequest transformRequest(HttpRequest request, ServiceInstance instance) {
         
-        System.out.println("Transforming Request from LoadBalancer Ribbon).");
- 
-        // First: Get the service instance information from the lower Ribbon layer.
-        //        This will include the actual service instance information as returned by Eureka. 
-        RibbonLoadBalancerClient.RibbonServer serviceInstanceFromRibbonLoadBalancer = (RibbonLoadBalancerClient.RibbonServer) instance;
-        
-        // Second: Get the the service instance from Eureka, which is encapsulated inside the Ribbon service instance wrapper.
-        DiscoveryEnabledServer serviceInstanceFromEurekaClient = (DiscoveryEnabledServer) serviceInstanceFromRibbonLoadBalancer.getServer();
+        if (debug) {
+            dumpServiceInstanceInformation(instance);
+        }
         
-        // Finally: Get access to all the cool information that Eureka provides about the service instance (including metadata and much more).
-        //          All of this is available for transforming the request now, if necessary.
-        InstanceInfo instanceInfo = serviceInstanceFromEurekaClient.getInstanceInfo();
+        if (directRouting != null) {
+            HttpRequest directRequest = directRouting.directRequest(request, instance);
+            if (directRequest != null) {
+                if (routingMetrics != null) {
+                    routingMetrics.recordDirectRequest(instance.getServiceId(), instance);
+                }
+                if (debug) {
+                    System.out.println("Returning Request to the internal address: " + directRequest.getURI());
+                }
+                return directRequest;
+            }
+        }
         
-        // If it's only the instance metadata you are interested in, you can also get it without explicitly down-casting as shown above.  
-        Map<String, String> metadata = instance.getMetadata();
-        System.out.println("Instance: " + instance);
-    
-        dumpServiceInstanceInformation(metadata, instanceInfo);
+        // The header value is precomputed per instance when the Eureka registry refreshes,
+        // so this is a plain lookup on the hot path.
+        final String headerValue = headerCache.getHeaderValue(instance);
+        if (routingMetrics != null) {
+            routingMetrics.recordRoutingHeader(instance.getServiceId(), headerValue);
+        }
         
-        if (metadata.containsKey(CF_APP_GUID) && metadata.containsKey(CF_INSTANCE_INDEX)) {
-            final String headerValue = String.format("%s:%s", metadata.get(CF_APP_GUID), metadata.get(CF_INSTANCE_INDEX));
-            
-            System.out.println("Returning Request with Special Routing Header");
-            System.out.println("Header Value: " + headerValue);
+        if (headerValue != null) {
+            if (debug) {
+                System.out.println("Returning Request with Special Routing Header");
+                System.out.println("Header Value: " + headerValue);
+            }
             
             // request.getHeaders might be immutable, so we return a wrapper that pretends to be the original request.
             // and that injects an extra header.
@@ -76,58 +125,43 @@ public class CFLoadBalancerRequestTransformer implements LoadBalancerRequestTran
     }
     
     /**
-     * Dumps metadata and InstanceInfo as JSON objects on the console.
-     * @param metadata the metadata (directly) retrieved from 'ServiceInstance'
-     * @param instanceInfo the instance info received from the (downcast) 'DiscoveryEnabledServer' 
+     * Dumps metadata and InstanceInfo of the service instance as JSON objects on the console.
+     * @param instance the service instance selected by Ribbon.
      */
-    private void dumpServiceInstanceInformation(Map<String, String> metadata, InstanceInfo instanceInfo) {
-        ObjectMapper mapper = new ObjectMapper();
-        String json;
+    private void dumpServiceInstanceInformation(ServiceInstance instance) {
+        
+        System.out.println("Transforming Request from LoadBalancer Ribbon).");
+        System.out.println("Instance: " + instance);
+        
+        // If it's only the instance metadata you are interested in, you can get it without explicitly down-casting.  
+        Map<String, String> metadata = instance.getMetadata();
+        
         try {
-            json = mapper.writerWithDefaultPrettyPrinter().writeValueAsString(metadata);
             System.err.println("-- Metadata: " );
-            System.err.println(json);
+            System.err.println(DEBUG_MAPPER.writerWithDefaultPrettyPrinter().writeValueAsString(metadata));
+            
+            if (!(instance instanceof RibbonLoadBalancerClient.RibbonServer)) {
+                return;
+            }
+            
+            // First: Get the service instance information from the lower Ribbon layer.
+            //        This will include the actual service instance information as returned by Eureka. 
+            RibbonLoadBalancerClient.RibbonServer serviceInstanceFromRibbonLoadBalancer = (RibbonLoadBalancerClient.RibbonServer) instance;
+            
+            if (!(serviceInstanceFromRibbonLoadBalancer.getServer() instanceof DiscoveryEnabledServer)) {
+                return;
+            }
+            
+            // Second: Get the the service instance from Eureka, which is encapsulated inside the Ribbon service instance wrapper.
+            DiscoveryEnabledServer serviceInstanceFromEurekaClient = (DiscoveryEnabledServer) serviceInstanceFromRibbonLoadBalancer.getServer();
+            
+            // Finally: Get access to all the cool information that Eureka provides about the service instance (including metadata and much more).
+            InstanceInfo instanceInfo = serviceInstanceFromEurekaClient.getInstanceInfo();
             
-            json = mapper.writerWithDefaultPrettyPrinter().writeValueAsString(instanceInfo);
             System.err.println("-- InstanceInfo: " );
-            System.err.println(json);
+            System.err.println(DEBUG_MAPPER.writerWithDefaultPrettyPrinter().writeValueAsString(instanceInfo));
         } catch (JsonProcessingException e) {
             System.err.println(e);
         }
     }
-    
-    /**
-     * Wrapper class for an HttpRequest which may only return an
-     * immutable list of headers. The wrapper immitates the original 
-     * request and will return the original headers including a custom one
-     * added when getHeaders() is called. 
-     */
-    private class CFLoadBalancerHttpRequestWrapper implements HttpRequest {
-
-        private HttpRequest request;
-        private String headerValue;
-        
-        CFLoadBalancerHttpRequestWrapper(HttpRequest request, String headerValue) {
-            this.request = request;
-            this.headerValue = headerValue;
-        }
-        
-        @Override
-        public HttpHeaders getHeaders() {
-            HttpHeaders headers = new HttpHeaders();
-            headers.putAll(request.getHeaders());
-            headers.add(ROUTING_HEADER, headerValue);
-            return headers;
-        }
-
-        @Override
-        public String getMethodValue() {
-            return request.getMethodValue();
-        }
-
-        @Override
-        public URI getURI() {
-            return request.getURI();
-        }
-    }  
-}
\ No newline at end of file
+}
@@ -0,0 +1,222 @@
+package com.fonz.cloud.address.service.client.cf;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.event.HeartbeatEvent;
+import org.springframework.cloud.netflix.ribbon.RibbonLoadBalancerClient;
+import org.springframework.context.ApplicationListener;
+
+import com.netflix.appinfo.InstanceInfo;
+import com.netflix.discovery.EurekaClient;
+import com.netflix.discovery.shared.Application;
+import com.netflix.discovery.shared.Applications;
+import com.netflix.loadbalancer.Server;
+import com.netflix.niws.loadbalancer.DiscoveryEnabledServer;
+
+/**
+ * Cache of precomputed CF routing header values (<code>cfAppGuid:cfInstanceIndex</code>),
+ * keyed by Eureka instance ID.
+ *
+ * The values of new and changed instances are (re-)computed whenever the Eureka client refreshes its local
+ * registry copy (signaled by a {@link HeartbeatEvent}), so that {@link CFLoadBalancerRequestTransformer}
+ * can look them up on every request and every Ribbon retry without parsing metadata or
+ * building strings.
+ *
+ * Instances that are not (yet) known from the last refresh - or that do not come from
+ * Eureka at all, e.g. when using a static Ribbon server list - are computed lazily on
+ * first access and cached from then on.
+ *
+ * The same goes for the internal container address (<code>cfInternalAddress</code>, <code>ip:port</code>) of an instance,
+ * which {@link CFDirectRouting} sends requests to instead of going through Go-Router.
+ */
+public class CFRoutingHeaderCache implements ApplicationListener<HeartbeatEvent> {
+
+    private static final String NO_ADDRESS = "";
+
+    private final EurekaClient eurekaClient;
+    private final ConcurrentMap<String, String> headerValues = new ConcurrentHashMap<>();
+    // NO_ADDRESS for instances without a (valid) internal address, so that those are not parsed again on every request.
+    private final ConcurrentMap<String, String> directAddresses = new ConcurrentHashMap<>();
+    // The InstanceInfo each header value was computed from on the last refresh. Guarded by this.
+    private final Map<String, InstanceInfo> refreshedFrom = new HashMap<>();
+
+    public CFRoutingHeaderCache() {
+        this(null);
+    }
+
+    /**
+     * @param eurekaClient the Eureka client to read the registry from on refresh. May be null,
+     *                     in which case header values are only computed lazily.
+     */
+    public CFRoutingHeaderCache(EurekaClient eurekaClient) {
+        this.eurekaClient = eurekaClient;
+    }
+
+    /**
+     * Returns the routing header value for the service instance selected by the load balancer.
+     * @param instance the service instance.
+     * @return the header value or null, if the instance does not carry CF routing metadata.
+     */
+    public String getHeaderValue(ServiceInstance instance) {
+        if (instance instanceof RibbonLoadBalancerClient.RibbonServer) {
+            String headerValue = getHeaderValue(((RibbonLoadBalancerClient.RibbonServer) instance).getServer());
+            if (headerValue != null) {
+                return headerValue;
+            }
+        }
+
+        // Not backed by Eureka (e.g. a static server list with a custom ServerIntrospector).
+        String headerValue = headerValues.get(instance.getInstanceId());
+        if (headerValue == null) {
+            headerValue = computeHeaderValue(instance.getMetadata());
+            if (headerValue != null) {
+                headerValues.put(instance.getInstanceId(), headerValue);
+            }
+        }
+        return headerValue;
+    }
+
+    /**
+     * Returns the routing header value for a Ribbon server.
+     * @param server the Ribbon server.
+     * @return the header value or null, if the server is not a Eureka server or carries no CF routing metadata.
+     */
+    public String getHeaderValue(Server server) {
+        if (server instanceof DiscoveryEnabledServer) {
+            return getHeaderValue(((DiscoveryEnabledServer) server).getInstanceInfo());
+        }
+        return null;
+    }
+
+    /**
+     * Returns the routing header value for a Eureka instance.
+     * @param instanceInfo the Eureka instance information.
+     * @return the header value or null, if the instance carries no CF routing metadata.
+     */
+    public String getHeaderValue(InstanceInfo instanceInfo) {
+        String headerValue = headerValues.get(instanceInfo.getId());
+        if (headerValue == null) {
+            headerValue = computeHeaderValue(instanceInfo.getMetadata());
+            if (headerValue != null) {
+                headerValues.put(instanceInfo.getId(), headerValue);
+            }
+        }
+        return headerValue;
+    }
+
+    /**
+     * Returns the internal container address of the service instance selected by the load balancer.
+     * @param instance the service instance.
+     * @return the address (<code>ip:port</code>) or null, if the instance does not carry a valid <code>cfInternalAddress</code>.
+     */
+    public String getDirectAddress(ServiceInstance instance) {
+        if (instance instanceof RibbonLoadBalancerClient.RibbonServer) {
+            Server server = ((RibbonLoadBalancerClient.RibbonServer) instance).getServer();
+            if (server instanceof DiscoveryEnabledServer) {
+                return getDirectAddress(((DiscoveryEnabledServer) server).getInstanceInfo());
+            }
+        }
+        return directAddress(instance.getInstanceId(), instance.getMetadata());
+    }
+
+    /**
+     * Returns the internal container address of a Eureka instance.
+     * @param instanceInfo the Eureka instance information.
+     * @return the address (<code>ip:port</code>) or null, if the instance does not carry a valid <code>cfInternalAddress</code>.
+     */
+    public String getDirectAddress(InstanceInfo instanceInfo) {
+        return directAddress(instanceInfo.getId(), instanceInfo.getMetadata());
+    }
+
+    private String directAddress(String id, Map<String, String> metadata) {
+        String directAddress = directAddresses.get(id);
+        if (directAddress == null) {
+            directAddress = computeDirectAddress(metadata);
+            directAddresses.put(id, directAddress);
+        }
+        return !directAddress.isEmpty() ? directAddress : null;
+    }
+
+    @Override
+    public void onApplicationEvent(HeartbeatEvent event) {
+        if (eurekaClient != null) {
+            refresh(eurekaClient.getApplications());
+        }
+    }
+
+    /**
+     * Recomputes the header values and internal addresses of the instances in the given registry snapshot that have changed since the last refresh,
+     * and drops the ones of instances that are no longer registered.
+     *
+     * The Eureka client applies registry deltas to its local copy and keeps the <code>InstanceInfo</code> objects of unchanged
+     * instances, so those are recognized by identity and skipped. After a full registry fetch they are recognized by their
+     * <code>lastDirtyTimestamp</code>, which an instance updates whenever it registers a change (e.g. of its metadata).
+     * @param applications the registry snapshot.
+     */
+    public synchronized void refresh(Applications applications) {
+        Set<String> registered = new HashSet<>();
+        for (Application application : applications.getRegisteredApplications()) {
+            for (InstanceInfo instanceInfo : application.getInstances()) {
+                String id = instanceInfo.getId();
+                registered.add(id);
+                InstanceInfo previous = refreshedFrom.put(id, instanceInfo);
+                if (previous == instanceInfo
+                        || (previous != null && Objects.equals(previous.getLastDirtyTimestamp(), instanceInfo.getLastDirtyTimestamp()))) {
+                    continue;
+                }
+                Map<String, String> metadata = instanceInfo.getMetadata();
+                String headerValue = computeHeaderValue(metadata);
+                if (headerValue != null) {
+                    headerValues.put(id, headerValue);
+                } else {
+                    headerValues.remove(id);
+                }
+                directAddresses.put(id, computeDirectAddress(metadata));
+            }
+        }
+        headerValues.keySet().retainAll(registered);
+        directAddresses.keySet().retainAll(registered);
+        refreshedFrom.keySet().retainAll(registered);
+    }
+
+    private static String computeHeaderValue(Map<String, String> metadata) {
+        if (metadata == null) {
+            return null;
+        }
+        String appGuid = metadata.get(CFLoadBalancerRequestTransformer.CF_APP_GUID);
+        String instanceIndex = metadata.get(CFLoadBalancerRequestTransformer.CF_INSTANCE_INDEX);
+        if (appGuid == null || instanceIndex == null) {
+            return null;
+        }
+        return appGuid + ":" + instanceIndex;
+    }
+
+    /**
+     * @return the internal address, or NO_ADDRESS if there is none or it is not <code>host:port</code>. In Cloud Foundry, an instance
+     *         without container networking resolves <code>${CF_INSTANCE_INTERNAL_IP:}</code> to an empty host, for example.
+     */
+    private static String computeDirectAddress(Map<String, String> metadata) {
+        String address = metadata != null ? metadata.get(CFLoadBalancerRequestTransformer.CF_INTERNAL_ADDRESS) : null;
+        if (address == null) {
+            return NO_ADDRESS;
+        }
+        address = address.trim();
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0 || colon == address.length() - 1) {
+            return NO_ADDRESS;
+        }
+        for (int i = colon + 1; i < address.length(); i++) {
+            if (!Character.isDigit(address.charAt(i))) {
+                return NO_ADDRESS;
+            }
+        }
+        return address;
+    }
+}
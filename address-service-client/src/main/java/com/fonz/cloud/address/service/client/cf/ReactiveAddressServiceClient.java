@@ -0,0 +1,48 @@
+package com.fonz.cloud.address.service.client.cf;
+
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.fonz.cloud.address.service.client.Address;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * WebClient-based Address Service Client.
+ * The non-blocking counterpart of {@link FailingAddressServiceClient}.
+ *
+ * The WebClient is load balanced by {@link CFLoadBalancerExchangeFilterFunction}, so the URL
+ * refers to the service name in Eureka, and every attempt carries the CF routing header
+ * of the service instance chosen by Ribbon.
+ *
+ * There is no @HystrixCommand here: a Hystrix command would hold a thread for each call
+ * until it completes. Instead, timeouts and retries are handled by the filter and the fallback
+ * is a plain reactive error handler. Waiting for slow responses does not occupy any threads.
+ */
+public class ReactiveAddressServiceClient {
+
+    private final WebClient webClient;
+
+    public ReactiveAddressServiceClient(WebClient webClient) {
+        this.webClient = webClient;
+    }
+
+    public Mono<Address> getAddress() {
+        return webClient.get()
+                .uri("http://address-service/address")
+                .retrieve()
+                .bodyToMono(Address.class);
+    }
+
+    public Mono<String> getFailingAddress() {
+        return webClient.get()
+                .uri("http://address-service/failing-address")
+                .retrieve()
+                .bodyToMono(Address.class)
+                .map(Address::toString)
+                .onErrorResume(e -> onErrorFallback());
+    }
+
+    private Mono<String> onErrorFallback() {
+        return Mono.just("Fallback called for FailingAddressService!");
+    }
+}
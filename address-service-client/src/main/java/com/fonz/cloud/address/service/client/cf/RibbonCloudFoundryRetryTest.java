@@ -1,21 +1,42 @@
 package com.fonz.cloud.address.service.client.cf;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.circuitbreaker.EnableCircuitBreaker;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
 import org.springframework.cloud.client.loadbalancer.LoadBalancerRequestTransformer;
 import org.springframework.cloud.netflix.ribbon.RibbonClient;
+import org.springframework.cloud.netflix.ribbon.SpringClientFactory;
 import org.springframework.cloud.openfeign.EnableFeignClients;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fonz.cloud.address.service.client.Address;
+import com.fonz.cloud.address.service.client.ribboninject.InFlightRequestCounters;
+import com.fonz.cloud.address.service.client.ribboninject.InstanceLatencyStats;
+import com.fonz.cloud.address.service.client.ribboninject.LoadBalancingConfiguration;
+import com.fonz.cloud.address.service.client.ribboninject.OutlierDetector;
+import com.fonz.cloud.address.service.client.ribboninject.RegistryEventsConfiguration;
+import com.fonz.cloud.address.service.client.ribboninject.ResponseCacheConfiguration;
 import com.fonz.cloud.address.service.client.ribboninject.RibbonAutoConfigurationOverrides;
+import com.fonz.cloud.address.service.client.ribboninject.RoutingMetrics;
+import com.fonz.cloud.address.service.client.ribboninject.SingleFlightConfiguration;
+import com.fonz.cloud.address.service.client.ribboninject.SmileConfiguration;
+import com.fonz.cloud.address.service.client.ribboninject.UnboundedHystrixConfiguration;
 
 /**
  * A sample class that shows Ribbon's retry capabilities using @Loadbalance'd
@@ -46,6 +67,9 @@ import com.fonz.cloud.address.service.client.ribboninject.RibbonAutoConfiguratio
 @EnableDiscoveryClient
 @EnableFeignClients
 @EnableCircuitBreaker
+@RibbonClient(name = "address-service", configuration = RibbonAutoConfigurationOverrides.class)
+@Import({ LoadBalancingConfiguration.class, UnboundedHystrixConfiguration.class, ResponseCacheConfiguration.class,
+        SingleFlightConfiguration.class, SmileConfiguration.class, RegistryEventsConfiguration.class })
 public class RibbonCloudFoundryRetryTest {
 
     public static void main(String[] args) throws RestClientException, IOException {
@@ -57,6 +81,24 @@ public class RibbonCloudFoundryRetryTest {
         FailingAddressServiceClient failingAddressServiceClient = ctx.getBean(FailingAddressServiceClient.class);
         System.out.println(failingAddressServiceClient);
         System.err.println("Address from RestTemplate Approach: " + failingAddressServiceClient.getAddress());
+
+        ReactiveAddressServiceClient reactiveAddressServiceClient = ctx.getBean(ReactiveAddressServiceClient.class);
+        System.err.println("Address from WebClient Approach: " + reactiveAddressServiceClient.getFailingAddress().block());
+
+        // These lookups are sent to address-service in a single batch request.
+        AddressBatcher addressBatcher = ctx.getBean(AddressBatcher.class);
+        List<CompletableFuture<Address>> lookups = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            lookups.add(addressBatcher.lookup(String.valueOf(i)));
+        }
+        for (CompletableFuture<Address> lookup : lookups) {
+            System.err.println("Address from Batch Approach: " + lookup.join());
+        }
+
+        // The addresses are read one by one while they arrive, the list is never held in memory as a whole.
+        StreamingAddressServiceClient streamingAddressServiceClient = ctx.getBean(StreamingAddressServiceClient.class);
+        long addresses = streamingAddressServiceClient.streamAddresses(1, 100_000, address -> { });
+        System.err.println("Addresses from Streaming Approach: " + addresses);
     }
 
     private static void dumpBeans(String[] availableBeans) {
@@ -78,7 +120,36 @@ public class RibbonCloudFoundryRetryTest {
     }
 
     @Bean
-    public LoadBalancerRequestTransformer customRequestTransformer() {
-        return new CFLoadBalancerRequestTransformer();
+    public AddressBatcher addressBatcher(RestTemplate failingAddressServiceClientRestTemplate,
+            @Value("${address-batch.max-size:100}") int maxBatchSize, @Value("${address-batch.max-delay:5}") long maxDelayMillis) {
+        return new AddressBatcher(failingAddressServiceClientRestTemplate, maxBatchSize, maxDelayMillis);
+    }
+
+    @Bean
+    public StreamingAddressServiceClient streamingAddressServiceClient(RestTemplate failingAddressServiceClientRestTemplate,
+            ObjectMapper objectMapper) {
+        return new StreamingAddressServiceClient(failingAddressServiceClientRestTemplate, objectMapper);
+    }
+
+    @Bean
+    public CFLoadBalancerExchangeFilterFunction cfLoadBalancerExchangeFilterFunction(LoadBalancerClient loadBalancerClient,
+            SpringClientFactory springClientFactory, List<LoadBalancerRequestTransformer> transformers,
+            InFlightRequestCounters inFlightRequestCounters, InstanceLatencyStats instanceLatencyStats, ObjectProvider<OutlierDetector> outlierDetector,
+            ObjectProvider<CFDirectRouting> cfDirectRouting) {
+        return new CFLoadBalancerExchangeFilterFunction(loadBalancerClient, springClientFactory, transformers, inFlightRequestCounters, instanceLatencyStats,
+                outlierDetector.getIfAvailable(), cfDirectRouting.getIfAvailable());
+    }
+
+    @Bean
+    public ReactiveAddressServiceClient reactiveAddressServiceClient(WebClient.Builder webClientBuilder,
+            CFLoadBalancerExchangeFilterFunction cfLoadBalancerExchangeFilterFunction) {
+        // The non-blocking alternative to the @LoadBalanced RestTemplate.
+        return new ReactiveAddressServiceClient(webClientBuilder.filter(cfLoadBalancerExchangeFilterFunction).build());
+    }
+
+    @Bean
+    public LoadBalancerRequestTransformer customRequestTransformer(CFRoutingHeaderCache cfRoutingHeaderCache, RoutingMetrics routingMetrics,
+            ObjectProvider<CFDirectRouting> cfDirectRouting, @Value("${cf.routing.debug:false}") boolean debug) {
+        return new CFLoadBalancerRequestTransformer(cfRoutingHeaderCache, routingMetrics, cfDirectRouting.getIfAvailable(), debug);
     }
 }
\ No newline at end of file
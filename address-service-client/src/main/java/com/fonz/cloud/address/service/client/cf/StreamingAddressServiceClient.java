@@ -0,0 +1,66 @@
+package com.fonz.cloud.address.service.client.cf;
+
+import java.util.Collections;
+import java.util.function.Consumer;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestTemplate;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fonz.cloud.address.service.client.Address;
+
+/**
+ * Reads large address lists from address-service's <code>/addresses</code> endpoint as a stream.
+ *
+ * The list is requested as newline-delimited JSON (<code>application/x-ndjson</code>) and each address is handed to the caller
+ * as soon as it has been read from the response, so only one address at a time is held in memory, however long the list is.
+ * address-service writes the list the same way, so neither end ever builds the whole list.
+ *
+ * The request is sent with a @LoadBalanced RestTemplate, so it is load balanced by Ribbon and carries the CF routing header of
+ * the instance chosen by Ribbon, like every other request. Streaming requests are passed through the response cache and the
+ * single flight interceptor unbuffered. Retries only cover the request itself: once the first address has been handed to the
+ * caller, a broken connection surfaces as an exception to the caller.
+ */
+public class StreamingAddressServiceClient {
+
+    private static final String ADDRESSES_URI = "http://address-service/addresses?from={from}&count={count}";
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    private final RestTemplate restTemplate;
+    private final ObjectReader reader;
+
+    /**
+     * @param restTemplate a @LoadBalanced RestTemplate.
+     * @param objectMapper the mapper to read the addresses with.
+     */
+    public StreamingAddressServiceClient(RestTemplate restTemplate, ObjectMapper objectMapper) {
+        this.restTemplate = restTemplate;
+        this.reader = objectMapper.readerFor(Address.class);
+    }
+
+    /**
+     * Reads <code>count</code> addresses, starting with ID <code>from</code>, and hands them to <code>consumer</code> one by one,
+     * in the calling thread, while the response is being read.
+     *
+     * @return the number of addresses read.
+     */
+    public long streamAddresses(long from, long count, Consumer<? super Address> consumer) {
+        Long read = restTemplate.execute(ADDRESSES_URI, HttpMethod.GET,
+                request -> request.getHeaders().setAccept(Collections.singletonList(NDJSON)),
+                response -> {
+                    long addresses = 0;
+                    // Reads NDJSON as well as a JSON array, in case an older address-service ignores the Accept header.
+                    try (MappingIterator<Address> iterator = reader.readValues(response.getBody())) {
+                        while (iterator.hasNextValue()) {
+                            consumer.accept(iterator.nextValue());
+                            addresses++;
+                        }
+                    }
+                    return addresses;
+                }, from, count);
+        return read == null ? 0 : read;
+    }
+}
@@ -0,0 +1,67 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * An HTTP client that applies the read timeout of {@link AdaptiveTimeouts} and records the response time of every request.
+ *
+ * The Ribbon HTTP client sends every attempt of a request (and every hedge) through its HTTP client, so this is
+ * the one place where single attempts can be timed, including the ones that time out.
+ */
+@SuppressWarnings("deprecation")
+public class AdaptiveTimeoutHttpClient extends CloseableHttpClient {
+
+    private final CloseableHttpClient delegate;
+    private final AdaptiveTimeouts adaptiveTimeouts;
+
+    public AdaptiveTimeoutHttpClient(CloseableHttpClient delegate, AdaptiveTimeouts adaptiveTimeouts) {
+        this.delegate = delegate;
+        this.adaptiveTimeouts = adaptiveTimeouts;
+    }
+
+    @Override
+    protected CloseableHttpResponse doExecute(HttpHost target, HttpRequest request, HttpContext context) throws IOException {
+        int readTimeoutMillis = adaptiveTimeouts.getReadTimeoutMillis();
+        if (request instanceof HttpRequestBase) {
+            HttpRequestBase configurableRequest = (HttpRequestBase) request;
+            RequestConfig config = configurableRequest.getConfig();
+            configurableRequest.setConfig((config != null ? RequestConfig.copy(config) : RequestConfig.custom())
+                    .setSocketTimeout(readTimeoutMillis)
+                    .build());
+        }
+
+        long start = System.nanoTime();
+        try {
+            CloseableHttpResponse response = delegate.execute(target, request, context);
+            adaptiveTimeouts.record(System.nanoTime() - start);
+            return response;
+        } catch (SocketTimeoutException e) {
+            adaptiveTimeouts.recordTimeout(readTimeoutMillis);
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    @Override
+    public org.apache.http.params.HttpParams getParams() {
+        return delegate.getParams();
+    }
+
+    @Override
+    public org.apache.http.conn.ClientConnectionManager getConnectionManager() {
+        return delegate.getConnectionManager();
+    }
+}
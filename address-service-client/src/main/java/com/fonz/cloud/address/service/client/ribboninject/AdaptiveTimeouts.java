@@ -0,0 +1,145 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.netflix.ribbon.RibbonProperties;
+import org.springframework.util.StringUtils;
+
+import com.netflix.client.config.CommonClientConfigKey;
+import com.netflix.client.config.DefaultClientConfigImpl;
+import com.netflix.client.config.IClientConfig;
+import com.netflix.client.config.IClientConfigKey;
+import com.netflix.config.ConfigurationManager;
+
+/**
+ * Read timeout and Hystrix timeout of a Ribbon client, derived from the response times observed by the client.
+ *
+ * application.yml explains how the Hystrix timeout has to be computed from the Ribbon timeouts and retries:
+ * <code>max(ConnectTimeout, ReadTimeout) * (1 + MaxAutoRetries) * (1 + MaxAutoRetriesNextServer) + buffer</code>.
+ * Computed by hand, both values are static and are easily forgotten when the Ribbon configuration changes.
+ *
+ * If enabled (<code>&lt;client&gt;.ribbon.AdaptiveTimeoutEnabled</code>), the response time of every attempt is recorded
+ * in a {@link LatencyTracker}. About once a second, the read timeout is set to the observed percentile
+ * (<code>AdaptiveTimeoutPercentile</code>) times <code>AdaptiveTimeoutFactor</code>, within <code>AdaptiveTimeoutMin</code>
+ * and <code>AdaptiveTimeoutMax</code>. The Hystrix timeout of the commands listed in <code>AdaptiveTimeoutHystrixCommands</code>
+ * is then recomputed to cover all attempts, and updated in Archaius, where Hystrix picks it up at runtime.
+ *
+ * Attempts that time out are recorded with the timeout. If more of them time out than the percentile allows for,
+ * the timeout therefore grows by the factor, up to the maximum.
+ * Until enough responses have been recorded, the configured <code>ReadTimeout</code> is used.
+ */
+public class AdaptiveTimeouts {
+
+    public static final IClientConfigKey<Boolean> ADAPTIVE_TIMEOUT_ENABLED = new CommonClientConfigKey<Boolean>("AdaptiveTimeoutEnabled") {};
+    public static final IClientConfigKey<Double> ADAPTIVE_TIMEOUT_PERCENTILE = new CommonClientConfigKey<Double>("AdaptiveTimeoutPercentile") {};
+    public static final IClientConfigKey<Double> ADAPTIVE_TIMEOUT_FACTOR = new CommonClientConfigKey<Double>("AdaptiveTimeoutFactor") {};
+    public static final IClientConfigKey<Integer> ADAPTIVE_TIMEOUT_MIN = new CommonClientConfigKey<Integer>("AdaptiveTimeoutMin") {};
+    public static final IClientConfigKey<Integer> ADAPTIVE_TIMEOUT_MAX = new CommonClientConfigKey<Integer>("AdaptiveTimeoutMax") {};
+    public static final IClientConfigKey<String> ADAPTIVE_TIMEOUT_HYSTRIX_COMMANDS = new CommonClientConfigKey<String>("AdaptiveTimeoutHystrixCommands") {};
+    public static final IClientConfigKey<Integer> ADAPTIVE_TIMEOUT_HYSTRIX_BUFFER = new CommonClientConfigKey<Integer>("AdaptiveTimeoutHystrixBuffer") {};
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveTimeouts.class);
+
+    private static final long LATENCY_WINDOW_MILLIS = 10000;
+    // A 99.9th percentile needs at least a thousand samples to mean anything.
+    private static final long LATENCY_MIN_SAMPLES = 1000;
+    private static final long UPDATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final String clientName;
+    private final boolean enabled;
+    private final double percentile;
+    private final double factor;
+    private final int minTimeoutMillis;
+    private final int maxTimeoutMillis;
+    private final int connectTimeoutMillis;
+    private final int maxAutoRetries;
+    private final int maxAutoRetriesNextServer;
+    private final int hystrixBufferMillis;
+    private final Set<String> hystrixCommandKeys;
+    private final LatencyTracker latencyTracker;
+    private final AtomicLong nextUpdate = new AtomicLong(System.nanoTime());
+    private volatile int readTimeoutMillis;
+
+    public AdaptiveTimeouts(IClientConfig config) {
+        this(config, new LatencyTracker(LATENCY_WINDOW_MILLIS, LATENCY_MIN_SAMPLES));
+    }
+
+    AdaptiveTimeouts(IClientConfig config, LatencyTracker latencyTracker) {
+        this.latencyTracker = latencyTracker;
+        RibbonProperties ribbon = RibbonProperties.from(config);
+        this.clientName = config.getClientName();
+        this.enabled = config.get(ADAPTIVE_TIMEOUT_ENABLED, false);
+        this.percentile = config.get(ADAPTIVE_TIMEOUT_PERCENTILE, 99.9);
+        this.factor = config.get(ADAPTIVE_TIMEOUT_FACTOR, 2.0);
+        this.minTimeoutMillis = config.get(ADAPTIVE_TIMEOUT_MIN, 100);
+        this.maxTimeoutMillis = config.get(ADAPTIVE_TIMEOUT_MAX, 10000);
+        this.connectTimeoutMillis = ribbon.connectTimeout(DefaultClientConfigImpl.DEFAULT_CONNECT_TIMEOUT);
+        this.maxAutoRetries = ribbon.get(CommonClientConfigKey.MaxAutoRetries, DefaultClientConfigImpl.DEFAULT_MAX_AUTO_RETRIES);
+        this.maxAutoRetriesNextServer = ribbon.get(CommonClientConfigKey.MaxAutoRetriesNextServer, DefaultClientConfigImpl.DEFAULT_MAX_AUTO_RETRIES_NEXT_SERVER);
+        this.hystrixBufferMillis = config.get(ADAPTIVE_TIMEOUT_HYSTRIX_BUFFER, 500);
+        this.hystrixCommandKeys = StringUtils.commaDelimitedListToSet(config.get(ADAPTIVE_TIMEOUT_HYSTRIX_COMMANDS, ""));
+        this.readTimeoutMillis = ribbon.readTimeout(DefaultClientConfigImpl.DEFAULT_READ_TIMEOUT);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param responseTimeNanos the response time of an attempt.
+     */
+    public void record(long responseTimeNanos) {
+        latencyTracker.record(responseTimeNanos);
+    }
+
+    /**
+     * Records an attempt that timed out after the given read timeout.
+     */
+    public void recordTimeout(int timeoutMillis) {
+        latencyTracker.record(TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+    }
+
+    /**
+     * @return the read timeout to use for the next attempt in milliseconds.
+     */
+    public int getReadTimeoutMillis() {
+        long next = nextUpdate.get();
+        long now = System.nanoTime();
+        if (enabled && now - next >= 0 && nextUpdate.compareAndSet(next, now + UPDATE_INTERVAL_NANOS)) {
+            update();
+        }
+        return readTimeoutMillis;
+    }
+
+    /**
+     * @return the Hystrix timeout matching the current read timeout in milliseconds.
+     */
+    public int getHystrixTimeoutMillis() {
+        // Unlike the rule of thumb, the connect timeout is only counted once: connections are pooled, and in CF all attempts go to the same route.
+        return readTimeoutMillis * (1 + maxAutoRetries) * (1 + maxAutoRetriesNextServer) + connectTimeoutMillis + hystrixBufferMillis;
+    }
+
+    private void update() {
+        long observedMillis = latencyTracker.getPercentileMillis(percentile);
+        if (observedMillis < 0) {
+            return;
+        }
+        int timeout = (int) Math.min(maxTimeoutMillis, Math.max(minTimeoutMillis, Math.round(observedMillis * factor)));
+        if (timeout == readTimeoutMillis) {
+            return;
+        }
+        readTimeoutMillis = timeout;
+
+        int hystrixTimeout = getHystrixTimeoutMillis();
+        for (String commandKey : hystrixCommandKeys) {
+            ConfigurationManager.getConfigInstance().setProperty(
+                    "hystrix.command." + commandKey.trim() + ".execution.isolation.thread.timeoutInMilliseconds", hystrixTimeout);
+        }
+        LOG.debug("Adaptive timeouts of {}: ReadTimeout {}ms (p{} {}ms), Hystrix timeout {}ms for {}",
+                clientName, timeout, percentile, observedMillis, hystrixTimeout, hystrixCommandKeys);
+    }
+}
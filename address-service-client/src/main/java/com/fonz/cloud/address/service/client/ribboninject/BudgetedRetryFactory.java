@@ -0,0 +1,211 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.LoadBalancedRetryContext;
+import org.springframework.cloud.client.loadbalancer.LoadBalancedRetryPolicy;
+import org.springframework.cloud.client.loadbalancer.RetryableStatusCodeException;
+import org.springframework.cloud.client.loadbalancer.ServiceInstanceChooser;
+import org.springframework.cloud.netflix.ribbon.RibbonLoadBalancedRetryFactory;
+import org.springframework.cloud.netflix.ribbon.SpringClientFactory;
+import org.springframework.retry.RetryCallback;
+import org.springframework.retry.RetryContext;
+import org.springframework.retry.RetryListener;
+import org.springframework.retry.listener.RetryListenerSupport;
+
+import com.fonz.cloud.address.service.client.cf.CFRoutingHeaderCache;
+import com.netflix.client.config.CommonClientConfigKey;
+import com.netflix.client.config.IClientConfigKey;
+
+/**
+ * Ribbon's retry policies, limited by a retry budget per service.
+ *
+ * Ribbon retries every failed request up to <code>(1 + MaxAutoRetries) * (1 + MaxAutoRetriesNextServer) - 1</code> times.
+ * That is fine when a single instance has a hiccup, but when the whole service is down or overloaded, every request is sent
+ * several times, which multiplies the load on a service that is already in trouble.
+ *
+ * Here, retries of a service are limited to a percentage of its requests (<code>&lt;client&gt;.ribbon.RetryBudgetPercent</code>),
+ * using a {@link RequestBudget}. Once the budget is used up, failed requests are not retried anymore until enough new requests
+ * have come in. This factory is used by @LoadBalanced RestTemplates and by {@link CustomRetryableRibbonLoadBalancingHttpClient}.
+ *
+ * A request rejected by an overloaded instance (<code>503</code> with <code>Retry-After</code>, see {@link OverloadResponses})
+ * is retried on another instance right away, not on the same one, and counts against <code>MaxAutoRetriesNextServer</code>.
+ * If the load balancer chooses the rejecting instance again, another one is chosen, up to {@link #MAX_OVERLOAD_RECHOICES} times.
+ * 503 has to be one of the <code>retryableStatusCodes</code>.
+ *
+ * Retries per request, retries on the same and on the next instance, rejections by overloaded instances and retries dropped
+ * for lack of budget are recorded in {@link RoutingMetrics}.
+ */
+public class BudgetedRetryFactory extends RibbonLoadBalancedRetryFactory {
+
+    public static final IClientConfigKey<Integer> RETRY_BUDGET_PERCENT = new CommonClientConfigKey<Integer>("RetryBudgetPercent") {};
+
+    /** Number of times another instance is chosen if the retry of an overload response would go to the rejecting instance again. */
+    static final int MAX_OVERLOAD_RECHOICES = 3;
+
+    private static final int RETRY_BUDGET_MAX_TOKENS = 10;
+
+    private final SpringClientFactory clientFactory;
+    private final RoutingMetrics routingMetrics;
+    private final CFRoutingHeaderCache headerCache;
+    private final ConcurrentMap<String, RequestBudget> budgets = new ConcurrentHashMap<>();
+    private final RetryListener[] retryListeners;
+
+    /**
+     * @param headerCache tells CF instances apart, which all share the same host and port.
+     */
+    public BudgetedRetryFactory(SpringClientFactory clientFactory, RoutingMetrics routingMetrics, CFRoutingHeaderCache headerCache) {
+        super(clientFactory);
+        this.clientFactory = clientFactory;
+        this.routingMetrics = routingMetrics;
+        this.headerCache = headerCache;
+        this.retryListeners = new RetryListener[] { new RetryCountListener(routingMetrics) };
+    }
+
+    @Override
+    public LoadBalancedRetryPolicy createRetryPolicy(String service, ServiceInstanceChooser serviceInstanceChooser) {
+        // Called once for every request.
+        RequestBudget budget = budgets.computeIfAbsent(service, this::createBudget);
+        budget.deposit();
+        int maxRetriesOnSameServer = clientFactory.getLoadBalancerContext(service).getRetryHandler().getMaxRetriesOnSameServer();
+        return new BudgetedRetryPolicy(super.createRetryPolicy(service, serviceInstanceChooser), service, serviceInstanceChooser,
+                maxRetriesOnSameServer, budget, routingMetrics, headerCache);
+    }
+
+    @Override
+    public RetryListener[] createRetryListeners(String service) {
+        // Also called once for every request. The listener is stateless, so all requests share it.
+        return retryListeners;
+    }
+
+    /**
+     * @return the retry budget of the given service, or null if it has not been used yet.
+     */
+    public RequestBudget getBudget(String service) {
+        return budgets.get(service);
+    }
+
+    private RequestBudget createBudget(String service) {
+        int percent = clientFactory.getClientConfig(service).get(RETRY_BUDGET_PERCENT, 20);
+        return new RequestBudget(percent / 100.0, RETRY_BUDGET_MAX_TOKENS);
+    }
+
+    private static final class BudgetedRetryPolicy implements LoadBalancedRetryPolicy {
+
+        private final LoadBalancedRetryPolicy delegate;
+        private final String service;
+        private final ServiceInstanceChooser chooser;
+        private final int maxRetriesOnSameServer;
+        private final RequestBudget budget;
+        private final RoutingMetrics routingMetrics;
+        private final CFRoutingHeaderCache headerCache;
+
+        BudgetedRetryPolicy(LoadBalancedRetryPolicy delegate, String service, ServiceInstanceChooser chooser, int maxRetriesOnSameServer,
+                RequestBudget budget, RoutingMetrics routingMetrics, CFRoutingHeaderCache headerCache) {
+            this.delegate = delegate;
+            this.service = service;
+            this.chooser = chooser;
+            this.maxRetriesOnSameServer = maxRetriesOnSameServer;
+            this.budget = budget;
+            this.routingMetrics = routingMetrics;
+            this.headerCache = headerCache;
+        }
+
+        @Override
+        public boolean canRetrySameServer(LoadBalancedRetryContext context) {
+            return delegate.canRetrySameServer(context);
+        }
+
+        @Override
+        public boolean canRetryNextServer(LoadBalancedRetryContext context) {
+            return delegate.canRetryNextServer(context);
+        }
+
+        @Override
+        public void close(LoadBalancedRetryContext context) {
+            delegate.close(context);
+        }
+
+        @Override
+        public void registerThrowable(LoadBalancedRetryContext context, Throwable throwable) {
+            // Called after every failed attempt. If Ribbon would retry, the retry has to be paid for.
+            ServiceInstance failedInstance = context.getServiceInstance();
+            boolean overloaded = throwable instanceof RetryableStatusCodeException
+                    && OverloadResponses.retryAfterMillis(((RetryableStatusCodeException) throwable).getResponse()) >= 0;
+            if (overloaded) {
+                routingMetrics.recordLoadShed(service, failedInstance);
+            }
+            boolean sameServer = !overloaded && delegate.canRetrySameServer(context);
+            if (overloaded) {
+                // The instance asked to be left alone: use up the retries on the same instance, so that the delegate
+                // chooses another instance for the retry right away, and counts it as a retry on the next server.
+                for (int i = 0; i < maxRetriesOnSameServer && delegate.canRetrySameServer(context); i++) {
+                    delegate.registerThrowable(context, throwable);
+                }
+            }
+            delegate.registerThrowable(context, throwable);
+            if (context.isExhaustedOnly() || !delegate.canRetryNextServer(context)) {
+                return;
+            }
+            if (budget.tryWithdraw()) {
+                if (overloaded) {
+                    avoid(context, failedInstance);
+                }
+                routingMetrics.recordRetry(service, failedInstance, sameServer);
+            } else {
+                routingMetrics.recordRetryDenied(service);
+                context.setExhaustedOnly();
+            }
+        }
+
+        /**
+         * Without outlier detection, the load balancer may well choose the rejecting instance again.
+         */
+        private void avoid(LoadBalancedRetryContext context, ServiceInstance rejectingInstance) {
+            for (int i = 0; i < MAX_OVERLOAD_RECHOICES && isSameInstance(context.getServiceInstance(), rejectingInstance); i++) {
+                context.setServiceInstance(chooser.choose(service));
+            }
+        }
+
+        private boolean isSameInstance(ServiceInstance instance, ServiceInstance other) {
+            if (instance == null || other == null) {
+                return false;
+            }
+            String headerValue = headerCache.getHeaderValue(instance);
+            if (headerValue != null) {
+                return headerValue.equals(headerCache.getHeaderValue(other));
+            }
+            return instance.getHost().equals(other.getHost()) && instance.getPort() == other.getPort();
+        }
+
+        @Override
+        public boolean retryableStatusCode(int statusCode) {
+            return delegate.retryableStatusCode(statusCode);
+        }
+    }
+
+    /**
+     * Records the number of retries once a request is complete.
+     */
+    private static final class RetryCountListener extends RetryListenerSupport {
+
+        private final RoutingMetrics routingMetrics;
+
+        RetryCountListener(RoutingMetrics routingMetrics) {
+            this.routingMetrics = routingMetrics;
+        }
+
+        @Override
+        public <T, E extends Throwable> void close(RetryContext context, RetryCallback<T, E> callback, Throwable throwable) {
+            ServiceInstance instance = context instanceof LoadBalancedRetryContext ? ((LoadBalancedRetryContext) context).getServiceInstance() : null;
+            if (instance == null) {
+                return;
+            }
+            // The retry count is the number of failed attempts. If the request failed, the last of them was not retried.
+            int retries = throwable == null ? context.getRetryCount() : Math.max(0, context.getRetryCount() - 1);
+            routingMetrics.recordRetriesPerRequest(instance.getServiceId(), retries);
+        }
+    }
+}
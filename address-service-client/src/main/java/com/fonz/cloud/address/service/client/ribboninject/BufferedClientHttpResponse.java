@@ -0,0 +1,113 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.StreamUtils;
+
+/**
+ * A response read into memory, so that it can be handed to more than one caller (see {@link ResponseCacheInterceptor}
+ * and {@link SingleFlightInterceptor}). Immutable: every caller gets its own {@link ClientHttpResponse} view with its own body stream.
+ */
+public final class BufferedClientHttpResponse {
+
+    private final int statusCode;
+    private final String statusText;
+    private final HttpHeaders headers;
+    private final byte[] body;
+
+    private BufferedClientHttpResponse(int statusCode, String statusText, HttpHeaders headers, byte[] body) {
+        this.statusCode = statusCode;
+        this.statusText = statusText;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    /**
+     * Newline-delimited JSON and its older name. Responses of this type are consumed incrementally and can be of any size.
+     */
+    private static final List<MediaType> STREAMING_MEDIA_TYPES = Arrays.asList(MediaType.parseMediaType("application/x-ndjson"),
+            MediaType.APPLICATION_STREAM_JSON);
+
+    /**
+     * @return false for requests that ask for a streaming response, e.g. <code>application/x-ndjson</code>. Those must be handed
+     *         through to the caller as they are, because reading them into memory would defeat their purpose.
+     */
+    public static boolean isBufferable(HttpRequest request) {
+        for (MediaType accept : request.getHeaders().getAccept()) {
+            for (MediaType streaming : STREAMING_MEDIA_TYPES) {
+                if (streaming.equalsTypeAndSubtype(accept)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the given response into memory and closes it.
+     */
+    public static BufferedClientHttpResponse of(ClientHttpResponse response) throws IOException {
+        try {
+            HttpHeaders headers = new HttpHeaders();
+            headers.putAll(response.getHeaders());
+            return new BufferedClientHttpResponse(response.getRawStatusCode(), response.getStatusText(),
+                    HttpHeaders.readOnlyHttpHeaders(headers), StreamUtils.copyToByteArray(response.getBody()));
+        } finally {
+            response.close();
+        }
+    }
+
+    public int getRawStatusCode() {
+        return statusCode;
+    }
+
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @return a new response with the buffered status, headers and body.
+     */
+    public ClientHttpResponse toResponse() {
+        return new ClientHttpResponse() {
+
+            @Override
+            public InputStream getBody() {
+                return new ByteArrayInputStream(body);
+            }
+
+            @Override
+            public HttpHeaders getHeaders() {
+                return headers;
+            }
+
+            @Override
+            public HttpStatus getStatusCode() {
+                return HttpStatus.valueOf(statusCode);
+            }
+
+            @Override
+            public int getRawStatusCode() {
+                return statusCode;
+            }
+
+            @Override
+            public String getStatusText() {
+                return statusText;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
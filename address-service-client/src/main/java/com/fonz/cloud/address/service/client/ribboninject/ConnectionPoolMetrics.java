@@ -0,0 +1,49 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.util.function.ToDoubleFunction;
+
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Micrometer gauges for the connection pool of a Ribbon client's HTTP client.
+ *
+ * <ul>
+ * <li><code>ribbon.httpclient.pool.leased</code> - connections currently used by requests.</li>
+ * <li><code>ribbon.httpclient.pool.available</code> - idle connections ready to be reused.</li>
+ * <li><code>ribbon.httpclient.pool.pending</code> - requests waiting for a connection. If this is not 0, the pool is too small.</li>
+ * <li><code>ribbon.httpclient.pool.max</code> - the maximum number of connections.</li>
+ * </ul>
+ *
+ * All gauges are tagged with the name of the Ribbon client.
+ */
+public class ConnectionPoolMetrics implements MeterBinder {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final String clientName;
+
+    public ConnectionPoolMetrics(PoolingHttpClientConnectionManager connectionManager, String clientName) {
+        this.connectionManager = connectionManager;
+        this.clientName = clientName;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        gauge(registry, "ribbon.httpclient.pool.leased", "Connections currently leased by requests.", PoolStats::getLeased);
+        gauge(registry, "ribbon.httpclient.pool.available", "Idle connections available for reuse.", PoolStats::getAvailable);
+        gauge(registry, "ribbon.httpclient.pool.pending", "Requests waiting for a connection.", PoolStats::getPending);
+        gauge(registry, "ribbon.httpclient.pool.max", "Maximum number of connections.", PoolStats::getMax);
+    }
+
+    private void gauge(MeterRegistry registry, String name, String description, ToDoubleFunction<PoolStats> value) {
+        Gauge.builder(name, connectionManager, manager -> value.applyAsDouble(manager.getTotalStats()))
+                .description(description)
+                .tags(Tags.of("client", clientName))
+                .register(registry);
+    }
+}
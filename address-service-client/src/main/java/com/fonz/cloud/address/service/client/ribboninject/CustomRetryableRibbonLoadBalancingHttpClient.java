@@ -1,15 +1,39 @@
 package com.fonz.cloud.address.service.client.ribboninject;
 
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.cloud.client.loadbalancer.LoadBalancedRetryFactory;
 import org.springframework.cloud.client.loadbalancer.LoadBalancerRequestTransformer;
+import org.springframework.cloud.netflix.ribbon.RibbonLoadBalancerClient;
+import org.springframework.cloud.netflix.ribbon.RibbonProperties;
 import org.springframework.cloud.netflix.ribbon.ServerIntrospector;
 import org.springframework.cloud.netflix.ribbon.apache.RetryableRibbonLoadBalancingHttpClient;
 import org.springframework.cloud.netflix.ribbon.apache.RibbonApacheHttpRequest;
 import org.springframework.cloud.netflix.ribbon.apache.RibbonApacheHttpResponse;
+import org.springframework.cloud.netflix.ribbon.support.RibbonCommandContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 
-import com.netflix.client.ClientException;
+import com.fonz.cloud.address.service.client.cf.CFLoadBalancerRequestTransformer;
+import com.fonz.cloud.address.service.client.cf.CFRoutingHeaderCache;
+import com.netflix.client.config.CommonClientConfigKey;
 import com.netflix.client.config.IClientConfig;
+import com.netflix.client.config.IClientConfigKey;
+import com.netflix.loadbalancer.Server;
 
 /**
  * A custom implementation of the RetryableRibbonLoadBalancingHttpClient - an HttpClient which 
@@ -22,31 +46,250 @@ import com.netflix.client.config.IClientConfig;
  *  To integrate into the retry flow of Ribbon and intercept the requests going back and forth 
  *  as a result of Ribbon noticing that service instances are not available, you need to implement
  *  a {@link LoadBalancerRequestTransformer}.
+ *
+ * This implementation can also hedge GET requests (<code>&lt;client&gt;.ribbon.HedgingEnabled</code>):
+ * if the response takes longer than the hedge delay, the same request is sent to a different service instance
+ * and the first successful response wins. The other request is aborted. A server error (5xx) is not a success: if the
+ * primary request gets one, the hedge still has its chance (see {@link HedgedExecution}). Both requests are pinned to their
+ * instance with the CF routing header, so that Go-Router cannot send them to the same instance.
+ * The hedge delay is either fixed (<code>HedgeDelay</code>) or the observed response time percentile
+ * (<code>HedgeDelayPercentile</code>) of the client. Hedges are limited to a percentage of all requests (<code>HedgeBudgetPercent</code>).
+ *
+ * Server selection times and hedges are recorded in {@link RoutingMetrics}.
  */
 public class CustomRetryableRibbonLoadBalancingHttpClient extends RetryableRibbonLoadBalancingHttpClient {
 
+    public static final IClientConfigKey<Boolean> HEDGING_ENABLED = new CommonClientConfigKey<Boolean>("HedgingEnabled") {};
+    public static final IClientConfigKey<Integer> HEDGE_DELAY = new CommonClientConfigKey<Integer>("HedgeDelay") {};
+    public static final IClientConfigKey<Double> HEDGE_DELAY_PERCENTILE = new CommonClientConfigKey<Double>("HedgeDelayPercentile") {};
+    public static final IClientConfigKey<Integer> HEDGE_BUDGET_PERCENT = new CommonClientConfigKey<Integer>("HedgeBudgetPercent") {};
+
+    private static final int HEDGE_BUDGET_MAX_TOKENS = 10;
+    private static final long LATENCY_WINDOW_MILLIS = 5000;
+    private static final long LATENCY_MIN_SAMPLES = 100;
+
+    private final CFRoutingHeaderCache headerCache;
+    private final RoutingMetrics routingMetrics;
+    private final boolean hedgingEnabled;
+    private final int hedgeDelayMillis;
+    private final double hedgeDelayPercentile;
+    private final RequestBudget hedgeBudget;
+    private final LatencyTracker latencyTracker;
+    private final ThreadLocal<HedgedExecution> currentExecution = new ThreadLocal<>();
+    private ScheduledThreadPoolExecutor hedgeTimer;
+    private ExecutorService hedgeExecutor;
+
     public CustomRetryableRibbonLoadBalancingHttpClient(CloseableHttpClient delegate, IClientConfig config, ServerIntrospector serverIntrospector,
-            LoadBalancedRetryFactory loadBalancedRetryFactory) {
+            LoadBalancedRetryFactory loadBalancedRetryFactory, CFRoutingHeaderCache headerCache, RoutingMetrics routingMetrics) {
         super(delegate, config, serverIntrospector, loadBalancedRetryFactory);
+        this.headerCache = headerCache;
+        this.routingMetrics = routingMetrics;
+        this.hedgingEnabled = config.get(HEDGING_ENABLED, false);
+        this.hedgeDelayMillis = config.get(HEDGE_DELAY, 0);
+        this.hedgeDelayPercentile = config.get(HEDGE_DELAY_PERCENTILE, 95.0);
+        this.hedgeBudget = new RequestBudget(config.get(HEDGE_BUDGET_PERCENT, 10) / 100.0, HEDGE_BUDGET_MAX_TOKENS);
+        this.latencyTracker = new LatencyTracker(LATENCY_WINDOW_MILLIS, LATENCY_MIN_SAMPLES);
+
+        if (hedgingEnabled) {
+            // Only a timer that fires at the hedge delay - the hedges themselves are sent from a separate pool,
+            // so that a slow hedge does not delay the next one.
+            hedgeTimer = new ScheduledThreadPoolExecutor(1, daemonThreadFactory("hedge-timer-" + config.getClientName()));
+            hedgeTimer.setRemoveOnCancelPolicy(true);
+            hedgeTimer.setKeepAliveTime(60, TimeUnit.SECONDS);
+            hedgeTimer.allowCoreThreadTimeOut(true);
+            hedgeExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                    daemonThreadFactory("hedge-" + config.getClientName()));
+        }
     }
 
     @Override
     public RibbonApacheHttpResponse execute(RibbonApacheHttpRequest request, IClientConfig configOverride)
             throws Exception {
-        System.out.println("MyLoadbalancer called! - execute(RibbonApacheHttpRequest request, IClientConfig configOverride)");
-        return super.execute(request, configOverride);
+        // Only GET requests are idempotent, i.e. safe to send twice.
+        if (!hedgingEnabled || !HttpMethod.GET.matches(request.getContext().getMethod())) {
+            return super.execute(request, configOverride);
+        }
+        return executeHedged(request, configOverride);
     }
 
     @Override
-    public RibbonApacheHttpResponse executeWithLoadBalancer(RibbonApacheHttpRequest request) throws ClientException {
-        System.out.println("MyLoadbalancer called! - executeWithLoadBalancer(RibbonApacheHttpRequest request)");
-        return super.executeWithLoadBalancer(request);
+    public ServiceInstance choose(String serviceId) {
+        // Called by the retry policy for the first attempt and for every retry on another server.
+        long start = System.nanoTime();
+        ServiceInstance instance = super.choose(serviceId);
+        routingMetrics.recordServerSelection(serviceId,
+                instance instanceof RibbonLoadBalancerClient.RibbonServer ? ((RibbonLoadBalancerClient.RibbonServer) instance).getServer() : null,
+                System.nanoTime() - start);
+        HedgedExecution execution = currentExecution.get();
+        if (execution != null) {
+            execution.primaryInstanceChosen(instance);
+        }
+        return instance;
     }
 
     @Override
-    public RibbonApacheHttpResponse executeWithLoadBalancer(RibbonApacheHttpRequest request,
-            IClientConfig requestConfig) throws ClientException {
-        System.out.println("MyLoadbalancer called! - executeWithLoadBalancer(RibbonApacheHttpRequest request, IClientConfig requestConfig)");
-        return super.executeWithLoadBalancer(request, requestConfig);
+    protected RibbonApacheHttpRequest getSecureRequest(RibbonApacheHttpRequest request, IClientConfig configOverride) {
+        // Called for every attempt of a request, right before it is sent.
+        RibbonApacheHttpRequest secureRequest = super.getSecureRequest(request, configOverride);
+        HedgedExecution execution = currentExecution.get();
+        if (execution == null) {
+            return secureRequest;
+        }
+
+        ServiceInstance instance = execution.getPrimaryInstance();
+        String headerValue = instance != null ? headerCache.getHeaderValue(instance) : null;
+        return new PrimaryAttemptRequest(withRoutingHeader(secureRequest, headerValue), execution);
+    }
+
+    private RibbonApacheHttpResponse executeHedged(RibbonApacheHttpRequest request, IClientConfig configOverride) throws Exception {
+        hedgeBudget.deposit();
+
+        HedgedExecution execution = new HedgedExecution();
+        long delayMillis = hedgeDelayMillis > 0 ? hedgeDelayMillis : latencyTracker.getPercentileMillis(hedgeDelayPercentile);
+        ScheduledFuture<?> hedge = null;
+        if (delayMillis >= 0) {
+            hedge = hedgeTimer.schedule(() -> hedgeExecutor.execute(() -> sendHedge(request, configOverride, execution)),
+                    delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        RibbonApacheHttpResponse response = null;
+        Exception failure = null;
+        long start = System.nanoTime();
+        currentExecution.set(execution);
+        try {
+            response = super.execute(request, configOverride);
+            latencyTracker.record(System.nanoTime() - start);
+        } catch (Exception e) {
+            failure = e;
+        } finally {
+            currentExecution.remove();
+            if (hedge != null) {
+                hedge.cancel(false);
+            }
+        }
+        return execution.primaryCompleted(response, failure);
+    }
+
+    private void sendHedge(RibbonApacheHttpRequest request, IClientConfig configOverride, HedgedExecution execution) {
+        if (!hedgeBudget.tryWithdraw()) {
+            return;
+        }
+        Server server = chooseHedgeServer(request, execution.getPrimaryInstance());
+        if (server == null) {
+            hedgeBudget.refund();
+            return;
+        }
+
+        RibbonApacheHttpRequest hedgeRequest = request.withNewUri(reconstructURIWithServer(server, request.getURI()));
+        hedgeRequest = new RibbonApacheHttpRequest(withRoutingHeader(super.getSecureRequest(hedgeRequest, configOverride), headerCache.getHeaderValue(server)));
+        HttpUriRequest httpUriRequest = hedgeRequest.toRequest(requestConfig(configOverride));
+        if (!execution.hedgeStarted(httpUriRequest)) {
+            hedgeBudget.refund();
+            return;
+        }
+        routingMetrics.recordHedge(request.getContext().getServiceId());
+
+        RibbonApacheHttpResponse response = null;
+        try {
+            HttpResponse httpResponse = delegate.execute(httpUriRequest);
+            response = new RibbonApacheHttpResponse(httpResponse, httpUriRequest.getURI());
+            if (httpResponse.getStatusLine().getStatusCode() >= 500) {
+                response.close();
+                response = null;
+            }
+        } catch (Exception e) {
+            // Failed or aborted. The outcome of the primary request counts.
+        } finally {
+            execution.hedgeCompleted(response);
+        }
+    }
+
+    /**
+     * @return a server that is different from the one the primary request was sent to, or null if there is none.
+     */
+    private Server chooseHedgeServer(RibbonApacheHttpRequest request, ServiceInstance primaryInstance) {
+        Server primaryServer = primaryInstance instanceof RibbonLoadBalancerClient.RibbonServer
+                ? ((RibbonLoadBalancerClient.RibbonServer) primaryInstance).getServer()
+                : null;
+        if (primaryServer == null) {
+            return null;
+        }
+        String primaryKey = instanceKey(primaryServer);
+
+        Server server = getLoadBalancer().chooseServer(request.getContext().getServiceId());
+        if (server != null && !primaryKey.equals(instanceKey(server))) {
+            return server;
+        }
+        List<Server> servers = getLoadBalancer().getReachableServers();
+        int count = servers.size();
+        int start = count > 0 ? ThreadLocalRandom.current().nextInt(count) : 0;
+        for (int i = 0; i < count; i++) {
+            Server candidate = servers.get((start + i) % count);
+            if (!primaryKey.equals(instanceKey(candidate))) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * In CF all instances share the same host and port, so instances are told apart by their routing header value.
+     */
+    private String instanceKey(Server server) {
+        String headerValue = headerCache.getHeaderValue(server);
+        return headerValue != null ? headerValue : server.getId();
+    }
+
+    private RequestConfig requestConfig(IClientConfig configOverride) {
+        // Same as RetryableRibbonLoadBalancingHttpClient.execute()
+        RibbonProperties ribbon = RibbonProperties.from(configOverride != null ? configOverride : this.config);
+        return RequestConfig.custom()
+                .setConnectTimeout(ribbon.connectTimeout(this.connectTimeout))
+                .setSocketTimeout(ribbon.readTimeout(this.readTimeout))
+                .setRedirectsEnabled(ribbon.isFollowRedirects(this.followRedirects))
+                .setContentCompressionEnabled(ribbon.isGZipPayload(this.gzipPayload))
+                .build();
+    }
+
+    private static RibbonCommandContext withRoutingHeader(RibbonApacheHttpRequest request, String headerValue) {
+        RibbonCommandContext context = request.getContext();
+        HttpHeaders headers = new HttpHeaders();
+        headers.putAll(context.getHeaders());
+        if (headerValue != null) {
+            headers.set(CFLoadBalancerRequestTransformer.ROUTING_HEADER, headerValue);
+        }
+        return new RibbonCommandContext(context.getServiceId(), context.getMethod(), request.getURI().toString(),
+                context.getRetryable(), headers, context.getParams(), context.getRequestEntity(),
+                context.getRequestCustomizers(), context.getContentLength(), context.getLoadBalancerKey());
+    }
+
+    private static ThreadFactory daemonThreadFactory(String namePrefix) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * An attempt of the primary request. Hands the request that is actually sent to the {@link HedgedExecution},
+     * so that it can be aborted once the hedge has won.
+     */
+    private static final class PrimaryAttemptRequest extends RibbonApacheHttpRequest {
+
+        private final HedgedExecution execution;
+
+        PrimaryAttemptRequest(RibbonCommandContext context, HedgedExecution execution) {
+            super(context);
+            this.execution = execution;
+        }
+
+        @Override
+        public HttpUriRequest toRequest(RequestConfig requestConfig) {
+            HttpUriRequest request = super.toRequest(requestConfig);
+            execution.primaryAttemptStarted(request);
+            return request;
+        }
     }
 }
@@ -6,6 +6,12 @@ import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.cloud.client.loadbalancer.LoadBalancerRequest;
 import org.springframework.cloud.netflix.ribbon.RibbonLoadBalancerClient;
 import org.springframework.cloud.netflix.ribbon.SpringClientFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+import com.fonz.cloud.address.service.client.cf.CFDirectRouting;
+import com.netflix.loadbalancer.BaseLoadBalancer;
+import com.netflix.loadbalancer.ILoadBalancer;
+import com.netflix.loadbalancer.Server;
 
 /**
  * A custom RibbonLoadBalancerClient implementation.
@@ -14,30 +20,109 @@ import org.springframework.cloud.netflix.ribbon.SpringClientFactory;
  * 
  * Spring Cloud introduced their own LoadBalancer framework, and  one implementation
  * uses Ribbon.
+ * 
+ * This implementation records the response time of every request per service instance
+ * in {@link InstanceLatencyStats} and counts the requests in flight per service instance
+ * in {@link InFlightRequestCounters}. The time it takes Ribbon to choose an instance is recorded in {@link RoutingMetrics}.
+ * If outlier detection is enabled, the outcome of every request is recorded in the {@link OutlierDetector}.
+ * If direct routing is enabled, failed connections are recorded in {@link CFDirectRouting}, so that the instance is reached
+ * through Go-Router for a while.
  *
  */
 public class CustomRibbonLoadBalancerClient extends RibbonLoadBalancerClient {
 
-    public CustomRibbonLoadBalancerClient(SpringClientFactory clientFactory) {
-        super(clientFactory);
+    private final InstanceLatencyStats latencyStats;
+    private final InFlightRequestCounters inFlightCounters;
+    private final RoutingMetrics routingMetrics;
+    private final OutlierDetector outlierDetector;
+    private final CFDirectRouting directRouting;
+
+    public CustomRibbonLoadBalancerClient(SpringClientFactory clientFactory, InstanceLatencyStats latencyStats,
+            InFlightRequestCounters inFlightCounters, RoutingMetrics routingMetrics) {
+        this(clientFactory, latencyStats, inFlightCounters, routingMetrics, null);
     }
 
-    @Override
-    public <T> T execute(String serviceId, LoadBalancerRequest<T> request) throws IOException {
-        System.out.println("Execute Called. 1");
-        return super.execute(serviceId, request);
+    /**
+     * @param outlierDetector the detector to record the outcome of every request in, or null if outlier detection is disabled.
+     */
+    public CustomRibbonLoadBalancerClient(SpringClientFactory clientFactory, InstanceLatencyStats latencyStats,
+            InFlightRequestCounters inFlightCounters, RoutingMetrics routingMetrics, OutlierDetector outlierDetector) {
+        this(clientFactory, latencyStats, inFlightCounters, routingMetrics, outlierDetector, null);
+    }
+
+    /**
+     * @param directRouting the routing to the internal container addresses of the instances, or null if disabled.
+     */
+    public CustomRibbonLoadBalancerClient(SpringClientFactory clientFactory, InstanceLatencyStats latencyStats,
+            InFlightRequestCounters inFlightCounters, RoutingMetrics routingMetrics, OutlierDetector outlierDetector,
+            CFDirectRouting directRouting) {
+        super(clientFactory);
+        this.latencyStats = latencyStats;
+        this.inFlightCounters = inFlightCounters;
+        this.routingMetrics = routingMetrics;
+        this.outlierDetector = outlierDetector;
+        this.directRouting = directRouting;
     }
 
     @Override
-    public <T> T execute(String serviceId, LoadBalancerRequest<T> request, Object hint) throws IOException {
-        System.out.println("Execute Called. 2");
-        return super.execute(serviceId, request, hint);
+    protected Server getServer(ILoadBalancer loadBalancer, Object hint) {
+        // Used by execute() as well as choose(), i.e. also for the retries of @LoadBalanced RestTemplates.
+        long start = System.nanoTime();
+        Server server = super.getServer(loadBalancer, hint);
+        String serviceId = loadBalancer instanceof BaseLoadBalancer ? ((BaseLoadBalancer) loadBalancer).getName() : null;
+        routingMetrics.recordServerSelection(serviceId, server, System.nanoTime() - start);
+        return server;
     }
 
     @Override
     public <T> T execute(String serviceId, ServiceInstance serviceInstance, LoadBalancerRequest<T> request)
             throws IOException {
-        System.out.println("Execute Called. 3");
-        return super.execute(serviceId, serviceInstance, request);
+        // All requests - including Ribbon's retries - end up here, once the service instance has been chosen.
+        String inFlightKey = inFlightCounters.keyOf(serviceInstance);
+        inFlightCounters.increment(inFlightKey);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = super.execute(serviceId, serviceInstance, request);
+            failed = isServerError(result);
+            if (outlierDetector != null) {
+                recordOutcome(serviceId, serviceInstance, result);
+            }
+            return result;
+        } catch (IOException e) {
+            // Connection failures and read timeouts.
+            if (outlierDetector != null) {
+                outlierDetector.recordFailure(serviceId, serviceInstance);
+            }
+            if (directRouting != null) {
+                directRouting.recordFailure(serviceId, serviceInstance, e);
+            }
+            throw e;
+        } finally {
+            // A fast failure must not make the instance look fast.
+            long elapsedNanos = System.nanoTime() - start;
+            if (failed) {
+                latencyStats.recordFailure(latencyStats.keyOf(serviceInstance), elapsedNanos);
+            } else {
+                latencyStats.record(latencyStats.keyOf(serviceInstance), elapsedNanos);
+            }
+            inFlightCounters.decrement(inFlightKey);
+        }
+    }
+
+    private void recordOutcome(String serviceId, ServiceInstance serviceInstance, Object result) throws IOException {
+        long retryAfterMillis = OverloadResponses.retryAfterMillis(result);
+        if (retryAfterMillis >= 0) {
+            outlierDetector.recordOverload(serviceInstance, retryAfterMillis);
+        } else if (isServerError(result)) {
+            outlierDetector.recordFailure(serviceId, serviceInstance);
+        } else {
+            outlierDetector.recordSuccess(serviceInstance);
+        }
+    }
+
+    private static boolean isServerError(Object result) throws IOException {
+        // @LoadBalanced RestTemplates execute ClientHttpRequests, everything else counts as a success.
+        return result instanceof ClientHttpResponse && ((ClientHttpResponse) result).getRawStatusCode() >= 500;
     }
 }
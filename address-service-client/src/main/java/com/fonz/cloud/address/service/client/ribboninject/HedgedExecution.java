@@ -0,0 +1,105 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import org.apache.http.client.methods.HttpUriRequest;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.netflix.ribbon.apache.RibbonApacheHttpResponse;
+
+/**
+ * The state of a single hedged request, shared by the thread sending the primary request (including Ribbon's retries)
+ * and the thread sending the hedge.
+ *
+ * Whichever succeeds first wins, and the other one is aborted. If the primary request fails while the hedge is
+ * still in flight, the primary waits for the hedge. A server error (5xx) counts as a failure for both: a 5xx of the
+ * primary request does not win over a pending hedge, but is returned if the hedge fails as well.
+ */
+class HedgedExecution {
+
+    private ServiceInstance primaryInstance;
+    private HttpUriRequest primaryRequest;
+    private HttpUriRequest hedgeRequest;
+    private boolean hedgeCompleted;
+    private boolean decided;
+    private RibbonApacheHttpResponse hedgeResponse;
+
+    synchronized void primaryInstanceChosen(ServiceInstance instance) {
+        primaryInstance = instance;
+    }
+
+    synchronized ServiceInstance getPrimaryInstance() {
+        return primaryInstance;
+    }
+
+    /**
+     * Called before each attempt of the primary request is sent.
+     */
+    synchronized void primaryAttemptStarted(HttpUriRequest request) {
+        primaryRequest = request;
+        if (hedgeResponse != null) {
+            // The hedge has won already, don't let Ribbon's retries send anything.
+            request.abort();
+        }
+    }
+
+    /**
+     * Called before the hedge is sent.
+     * @return false, if the primary request has completed already and the hedge must not be sent.
+     */
+    synchronized boolean hedgeStarted(HttpUriRequest request) {
+        if (decided) {
+            return false;
+        }
+        hedgeRequest = request;
+        return true;
+    }
+
+    /**
+     * Called when the hedge has completed.
+     * @param response the response or null, if the hedge has failed or was aborted.
+     */
+    synchronized void hedgeCompleted(RibbonApacheHttpResponse response) {
+        hedgeCompleted = true;
+        if (response != null) {
+            if (decided) {
+                response.close();
+            } else {
+                decided = true;
+                hedgeResponse = response;
+                if (primaryRequest != null) {
+                    primaryRequest.abort();
+                }
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Called when the primary request (and all its retries) has completed.
+     * @param response the response of the primary request or null, if it has failed.
+     * @param failure the failure of the primary request or null, if it has got a response.
+     * @return the winning response.
+     */
+    synchronized RibbonApacheHttpResponse primaryCompleted(RibbonApacheHttpResponse response, Exception failure) throws Exception {
+        if (!decided && failure == null && response.getStatus() < 500) {
+            decided = true;
+            if (hedgeRequest != null) {
+                hedgeRequest.abort();
+            }
+            return response;
+        }
+
+        while (hedgeRequest != null && !hedgeCompleted) {
+            wait();
+        }
+        decided = true;
+        if (hedgeResponse != null) {
+            if (response != null) {
+                response.close();
+            }
+            return hedgeResponse;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return response;
+    }
+}
@@ -0,0 +1,82 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.netflix.ribbon.RibbonLoadBalancerClient;
+
+import com.netflix.loadbalancer.Server;
+import com.netflix.niws.loadbalancer.DiscoveryEnabledServer;
+
+/**
+ * Number of requests currently in flight per service instance.
+ *
+ * Counters are kept per Eureka instance ID, since in Cloud Foundry all instances of an application share
+ * the same host and port (see {@link InstanceLatencyStats}). Servers that do not come from Eureka fall back to
+ * the server ID.
+ *
+ * The counters are {@link LongAdder}s: under bursty load, many threads increment and decrement the counter
+ * of the same instance at the same time. A LongAdder spreads these updates over several cells instead of
+ * letting all threads compete for a single value, at the price of a slightly more expensive read.
+ * No locks are taken, neither for updating nor for reading the counters.
+ */
+public class InFlightRequestCounters {
+
+    private final ConcurrentMap<String, LongAdder> countersByInstance = new ConcurrentHashMap<>();
+
+    /**
+     * @return the key under which the counter of the given server is kept.
+     */
+    public String keyOf(Server server) {
+        if (server instanceof DiscoveryEnabledServer) {
+            return ((DiscoveryEnabledServer) server).getInstanceInfo().getId();
+        }
+        return server.getId();
+    }
+
+    /**
+     * @return the key under which the counter of the given service instance is kept.
+     */
+    public String keyOf(ServiceInstance instance) {
+        if (instance instanceof RibbonLoadBalancerClient.RibbonServer) {
+            return keyOf(((RibbonLoadBalancerClient.RibbonServer) instance).getServer());
+        }
+        return instance.getInstanceId();
+    }
+
+    /**
+     * Called when a request is sent to an instance.
+     * @param key the key of the instance, see {@link #keyOf(Server)}.
+     */
+    public void increment(String key) {
+        counter(key).increment();
+    }
+
+    /**
+     * Called when a request to an instance has completed, successfully or not.
+     * @param key the key of the instance, see {@link #keyOf(Server)}.
+     */
+    public void decrement(String key) {
+        counter(key).decrement();
+    }
+
+    /**
+     * @param key the key of the instance, see {@link #keyOf(Server)}.
+     * @return the number of requests currently in flight to the instance.
+     */
+    public long get(String key) {
+        LongAdder counter = countersByInstance.get(key);
+        return counter != null ? counter.sum() : 0;
+    }
+
+    private LongAdder counter(String key) {
+        // get() first, computeIfAbsent() locks the bin of the key even if the counter exists.
+        LongAdder counter = countersByInstance.get(key);
+        if (counter == null) {
+            counter = countersByInstance.computeIfAbsent(key, k -> new LongAdder());
+        }
+        return counter;
+    }
+}
@@ -0,0 +1,152 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import com.netflix.appinfo.InstanceInfo;
+import com.netflix.loadbalancer.Server;
+import com.netflix.loadbalancer.ServerList;
+import com.netflix.niws.loadbalancer.DiscoveryEnabledServer;
+
+/**
+ * A {@link ServerList} that applies the list of its delegate as a delta to the servers it returned before.
+ *
+ * Ribbon asks the server list for all servers on every update (by default every 30s), and the Eureka-based server list
+ * answers with new {@link DiscoveryEnabledServer} objects each time, even if nothing has changed. This list hands back the
+ * server object of the previous update for each instance whose Eureka {@link InstanceInfo} has not changed since, so that
+ * everything derived from it (e.g. the CF routing header values in {@link com.fonz.cloud.address.service.client.cf.CFRoutingHeaderCache})
+ * stays valid. Only added and changed instances are new objects.
+ *
+ * The Eureka client fetches registry deltas and keeps the <code>InstanceInfo</code> objects of unchanged instances, so an
+ * unchanged instance is usually recognized by identity. After a full registry fetch, it is recognized by its
+ * <code>lastDirtyTimestamp</code>, which the instance updates on every change it registers.
+ *
+ * The number of added, removed, changed and unchanged instances per update is recorded in {@link RoutingMetrics}.
+ *
+ * Instances can also be removed right away with {@link #remove(String)}, e.g. when Eureka pushes the news that an instance
+ * has gone away (see {@link RegistryEventSubscriber}). They are left out of all updates until the delegate no longer returns them.
+ */
+public class IncrementalServerList<T extends Server> implements ServerList<T> {
+
+    private final ServerList<T> delegate;
+    private final String serviceId;
+    private final RoutingMetrics routingMetrics;
+
+    // By instance ID, not by server ID (host:port), which all CF instances of a service share. Guarded by this.
+    private Map<String, T> servers = new HashMap<>();
+    // Instances removed by remove(), which the delegate may still return until its registry copy has caught up. Guarded by this.
+    private final Set<String> removedInstances = new HashSet<>();
+
+    public IncrementalServerList(ServerList<T> delegate, String serviceId, RoutingMetrics routingMetrics) {
+        this.delegate = delegate;
+        this.serviceId = serviceId;
+        this.routingMetrics = routingMetrics;
+    }
+
+    @Override
+    public List<T> getInitialListOfServers() {
+        return update(delegate.getInitialListOfServers());
+    }
+
+    @Override
+    public List<T> getUpdatedListOfServers() {
+        return update(delegate.getUpdatedListOfServers());
+    }
+
+    /**
+     * Removes an instance from the list, without waiting for the delegate to drop it. The next update (see
+     * {@link com.netflix.loadbalancer.DynamicServerListLoadBalancer#updateListOfServers()}) leaves it out.
+     * @param instanceId the Eureka instance ID, or <code>host:port</code> for servers that do not come from Eureka.
+     * @return true, if the instance is in the list.
+     */
+    public synchronized boolean remove(String instanceId) {
+        if (servers.containsKey(instanceId)) {
+            removedInstances.add(instanceId);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Takes back a {@link #remove(String)}, e.g. when the instance has registered again.
+     * @param instanceId the Eureka instance ID, or <code>host:port</code> for servers that do not come from Eureka.
+     */
+    public synchronized void restore(String instanceId) {
+        removedInstances.remove(instanceId);
+    }
+
+    /**
+     * @return the server list to use, with the server objects of the previous update for all unchanged instances.
+     */
+    private synchronized List<T> update(List<T> updated) {
+        if (updated == null) {
+            return null;
+        }
+        Map<String, T> previous = servers;
+        Map<String, T> current = new HashMap<>();
+        List<T> result = new ArrayList<>(updated.size());
+        int added = 0;
+        int changed = 0;
+        int unchanged = 0;
+        Set<String> stillRemoved = new HashSet<>();
+        for (T server : updated) {
+            String instanceId = instanceId(server);
+            if (removedInstances.contains(instanceId)) {
+                stillRemoved.add(instanceId);
+                continue;
+            }
+            T previousServer = previous.get(instanceId);
+            if (previousServer == null) {
+                added++;
+            } else if (isUnchanged(previousServer, server)) {
+                server = previousServer;
+                unchanged++;
+            } else {
+                changed++;
+            }
+            current.put(instanceId, server);
+            result.add(server);
+        }
+        int removed = 0;
+        for (String id : previous.keySet()) {
+            if (!current.containsKey(id)) {
+                removed++;
+            }
+        }
+        servers = current;
+        // The delegate has caught up with the removal of all others.
+        removedInstances.retainAll(stillRemoved);
+        if (routingMetrics != null) {
+            routingMetrics.recordServerListUpdate(serviceId, added, removed, changed, unchanged);
+        }
+        return result;
+    }
+
+    private static String instanceId(Server server) {
+        if (server instanceof DiscoveryEnabledServer) {
+            return ((DiscoveryEnabledServer) server).getInstanceInfo().getId();
+        }
+        return server.getId();
+    }
+
+    private static boolean isUnchanged(Server previous, Server updated) {
+        if (previous instanceof DiscoveryEnabledServer && updated instanceof DiscoveryEnabledServer) {
+            InstanceInfo previousInfo = ((DiscoveryEnabledServer) previous).getInstanceInfo();
+            InstanceInfo updatedInfo = ((DiscoveryEnabledServer) updated).getInstanceInfo();
+            return previousInfo == updatedInfo || (Objects.equals(previousInfo.getLastDirtyTimestamp(), updatedInfo.getLastDirtyTimestamp())
+                    && previousInfo.getStatus() == updatedInfo.getStatus());
+        }
+        // E.g. a static server list: the same host:port in the same zone is the same server.
+        return previous.getClass() == updated.getClass() && Objects.equals(previous.getZone(), updated.getZone());
+    }
+
+    @Override
+    public String toString() {
+        return "IncrementalServerList(" + delegate + ")";
+    }
+}
@@ -0,0 +1,126 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.netflix.ribbon.RibbonLoadBalancerClient;
+
+import com.fonz.cloud.address.service.client.cf.CFRoutingHeaderCache;
+import com.netflix.loadbalancer.Server;
+
+/**
+ * Exponentially-decayed response time statistics per service instance.
+ *
+ * Ribbon's own statistics ({@link com.netflix.loadbalancer.LoadBalancerStats}) are kept per {@link Server}, which is
+ * identified by host and port. In Cloud Foundry, all instances of an application share the same route (and hence host and port),
+ * so Ribbon cannot tell them apart. These statistics are therefore keyed by the CF routing information of the instance
+ * (<code>cfAppGuid:cfInstanceIndex</code>) and fall back to the server ID if that information is not available.
+ *
+ * The estimate per instance is a "peak EWMA": it jumps to a response time that is higher than the current estimate
+ * and decays towards lower ones with the configured decay time. It also decays towards zero while no responses are
+ * recorded, so that a slow instance is eventually tried again.
+ *
+ * Failed requests are recorded with at least the failure penalty as their response time (see {@link #recordFailure(String, long)}):
+ * a refused connection or a <code>5xx</code> comes back quickly, and would otherwise make a broken instance look like the fastest one.
+ */
+public class InstanceLatencyStats {
+
+    public static final long DEFAULT_FAILURE_PENALTY_MILLIS = 1000;
+
+    private final CFRoutingHeaderCache headerCache;
+    private final double decayNanos;
+    private final long failurePenaltyNanos;
+    private final ConcurrentMap<String, Ewma> ewmaByInstance = new ConcurrentHashMap<>();
+
+    /**
+     * @param headerCache the cache providing the CF routing information of an instance.
+     * @param decayTimeMillis the time it takes for a recorded response time to lose ~63% of its weight.
+     */
+    public InstanceLatencyStats(CFRoutingHeaderCache headerCache, long decayTimeMillis) {
+        this(headerCache, decayTimeMillis, DEFAULT_FAILURE_PENALTY_MILLIS);
+    }
+
+    /**
+     * @param headerCache the cache providing the CF routing information of an instance.
+     * @param decayTimeMillis the time it takes for a recorded response time to lose ~63% of its weight.
+     * @param failurePenaltyMillis the minimum response time recorded for a failed request.
+     */
+    public InstanceLatencyStats(CFRoutingHeaderCache headerCache, long decayTimeMillis, long failurePenaltyMillis) {
+        this.headerCache = headerCache;
+        this.decayNanos = TimeUnit.MILLISECONDS.toNanos(decayTimeMillis);
+        this.failurePenaltyNanos = TimeUnit.MILLISECONDS.toNanos(failurePenaltyMillis);
+    }
+
+    /**
+     * @return the key under which statistics of the given server are kept.
+     */
+    public String keyOf(Server server) {
+        String headerValue = headerCache.getHeaderValue(server);
+        return headerValue != null ? headerValue : server.getId();
+    }
+
+    /**
+     * @return the key under which statistics of the given service instance are kept.
+     */
+    public String keyOf(ServiceInstance instance) {
+        if (instance instanceof RibbonLoadBalancerClient.RibbonServer) {
+            return keyOf(((RibbonLoadBalancerClient.RibbonServer) instance).getServer());
+        }
+        return instance.getInstanceId();
+    }
+
+    /**
+     * Records the response time of a request sent to an instance.
+     * @param key the key of the instance, see {@link #keyOf(Server)}.
+     * @param responseTimeNanos the response time.
+     */
+    public void record(String key, long responseTimeNanos) {
+        Ewma ewma = ewmaByInstance.get(key);
+        if (ewma == null) {
+            ewma = ewmaByInstance.computeIfAbsent(key, k -> new Ewma());
+        }
+        ewma.update(responseTimeNanos, System.nanoTime(), decayNanos);
+    }
+
+    /**
+     * Records a request to an instance that failed: a connection failure, a timeout or a server error.
+     * @param key the key of the instance, see {@link #keyOf(Server)}.
+     * @param elapsedNanos the time until the request failed. If it is shorter than the failure penalty, the penalty is recorded instead.
+     */
+    public void recordFailure(String key, long elapsedNanos) {
+        record(key, Math.max(elapsedNanos, failurePenaltyNanos));
+    }
+
+    /**
+     * @param key the key of the instance, see {@link #keyOf(Server)}.
+     * @return the current response time estimate in nanoseconds, or 0 if nothing has been recorded for the instance yet.
+     */
+    public double getResponseTime(String key) {
+        Ewma ewma = ewmaByInstance.get(key);
+        return ewma != null ? ewma.get(System.nanoTime(), decayNanos) : 0;
+    }
+
+    private static final class Ewma {
+
+        private double value;
+        private long lastUpdateNanos;
+        private boolean initialized;
+
+        synchronized void update(long sample, long now, double decayNanos) {
+            if (!initialized || sample > value) {
+                value = sample;
+                initialized = true;
+            } else {
+                double weight = Math.exp(-(now - lastUpdateNanos) / decayNanos);
+                value = value * weight + sample * (1 - weight);
+            }
+            lastUpdateNanos = now;
+        }
+
+        synchronized double get(long now, double decayNanos) {
+            return initialized ? value * Math.exp(-(now - lastUpdateNanos) / decayNanos) : 0;
+        }
+    }
+}
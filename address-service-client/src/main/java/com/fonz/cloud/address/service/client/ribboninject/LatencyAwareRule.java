@@ -0,0 +1,92 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.netflix.client.config.CommonClientConfigKey;
+import com.netflix.client.config.IClientConfig;
+import com.netflix.client.config.IClientConfigKey;
+import com.netflix.loadbalancer.AbstractLoadBalancerRule;
+import com.netflix.loadbalancer.ILoadBalancer;
+import com.netflix.loadbalancer.Server;
+
+/**
+ * A Ribbon rule that prefers service instances with lower response times.
+ *
+ * It uses "power of two choices": two different servers are picked at random and the one with
+ * the lower response time estimate (see {@link InstanceLatencyStats}) wins. Compared to always choosing
+ * the fastest instance, this avoids herding all clients onto the same instance and still routes
+ * around slow instances most of the time.
+ *
+ * This matters in Cloud Foundry, where the CF routing header pins a request to the instance selected
+ * by Ribbon, so Go-Router has no chance to balance load away from a slow instance.
+ *
+ * Instances ejected by the {@link OutlierDetector} (passed via {@link OutlierDetector#OUTLIER_DETECTOR}) are not chosen.
+ */
+public class LatencyAwareRule extends AbstractLoadBalancerRule {
+
+    /**
+     * The client configuration key under which the {@link InstanceLatencyStats} are passed to rule instances
+     * created by Ribbon itself. {@link com.netflix.loadbalancer.ZoneAwareLoadBalancer} creates one copy of the rule
+     * per zone by class name, so those copies cannot be handed the statistics via the constructor.
+     */
+    public static final IClientConfigKey<InstanceLatencyStats> LATENCY_STATS = new CommonClientConfigKey<InstanceLatencyStats>("LatencyAwareRuleStats") {};
+
+    private InstanceLatencyStats latencyStats;
+    private OutlierDetector outlierDetector;
+
+    public LatencyAwareRule() {
+    }
+
+    public LatencyAwareRule(InstanceLatencyStats latencyStats) {
+        this.latencyStats = latencyStats;
+    }
+
+    @Override
+    public void initWithNiwsConfig(IClientConfig clientConfig) {
+        InstanceLatencyStats configuredStats = clientConfig.get(LATENCY_STATS);
+        if (configuredStats != null) {
+            latencyStats = configuredStats;
+        }
+        OutlierDetector configuredDetector = clientConfig.get(OutlierDetector.OUTLIER_DETECTOR);
+        if (configuredDetector != null) {
+            outlierDetector = configuredDetector;
+        }
+    }
+
+    @Override
+    public Server choose(Object key) {
+        ILoadBalancer loadBalancer = getLoadBalancer();
+        if (loadBalancer == null) {
+            return null;
+        }
+
+        List<Server> servers = loadBalancer.getReachableServers();
+        if (outlierDetector != null) {
+            servers = outlierDetector.filter(servers);
+        }
+        int count = servers.size();
+        if (count == 0) {
+            return null;
+        }
+        if (count == 1) {
+            return servers.get(0);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (latencyStats == null) {
+            // not initialized with statistics, fall back to a random choice.
+            return servers.get(random.nextInt(count));
+        }
+
+        int first = random.nextInt(count);
+        int second = random.nextInt(count - 1);
+        if (second >= first) {
+            second++;
+        }
+
+        Server a = servers.get(first);
+        Server b = servers.get(second);
+        return latencyStats.getResponseTime(latencyStats.keyOf(a)) <= latencyStats.getResponseTime(latencyStats.keyOf(b)) ? a : b;
+    }
+}
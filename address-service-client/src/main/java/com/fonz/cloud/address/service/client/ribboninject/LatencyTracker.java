@@ -0,0 +1,64 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Recent response time percentiles of a client.
+ *
+ * Response times are recorded into an HdrHistogram {@link Recorder}, which does not block the recording threads.
+ * The percentiles are computed from the last window of at least <code>minSamples</code> responses - a window
+ * is closed once its time is up and it holds enough samples. That way, the percentiles follow
+ * changes in the response times of the service, but are not computed from a handful of samples when there is little traffic.
+ */
+public class LatencyTracker {
+
+    private final Recorder recorder = new Recorder(2);
+    private final long windowNanos;
+    private final long minSamples;
+
+    private Histogram pendingWindow = new Histogram(2);
+    private long pendingWindowStart = System.nanoTime();
+    private volatile Histogram window;
+
+    /**
+     * @param windowMillis the minimum time span of a window.
+     * @param minSamples the minimum number of responses in a window.
+     */
+    public LatencyTracker(long windowMillis, long minSamples) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.minSamples = minSamples;
+    }
+
+    /**
+     * @param responseTimeNanos the response time of a request.
+     */
+    public void record(long responseTimeNanos) {
+        recorder.recordValue(TimeUnit.NANOSECONDS.toMicros(responseTimeNanos));
+    }
+
+    /**
+     * @param percentile the percentile, e.g. 95.0.
+     * @return the response time at the given percentile in milliseconds, or -1 if not enough responses have been recorded yet.
+     */
+    public long getPercentileMillis(double percentile) {
+        rollWindow();
+        Histogram current = window;
+        return current != null ? TimeUnit.MICROSECONDS.toMillis(current.getValueAtPercentile(percentile)) : -1;
+    }
+
+    private synchronized void rollWindow() {
+        long now = System.nanoTime();
+        if (now - pendingWindowStart < windowNanos) {
+            return;
+        }
+        pendingWindow.add(recorder.getIntervalHistogram());
+        if (pendingWindow.getTotalCount() >= minSamples) {
+            window = pendingWindow;
+            pendingWindow = new Histogram(2);
+            pendingWindowStart = now;
+        }
+    }
+}
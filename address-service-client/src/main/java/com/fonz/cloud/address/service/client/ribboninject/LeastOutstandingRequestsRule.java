@@ -0,0 +1,93 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.netflix.client.config.CommonClientConfigKey;
+import com.netflix.client.config.IClientConfig;
+import com.netflix.client.config.IClientConfigKey;
+import com.netflix.loadbalancer.AbstractLoadBalancerRule;
+import com.netflix.loadbalancer.ILoadBalancer;
+import com.netflix.loadbalancer.Server;
+
+/**
+ * A Ribbon rule that chooses the service instance with the fewest requests in flight
+ * (see {@link InFlightRequestCounters}).
+ *
+ * Under bursty load, a saturated instance builds up a queue of outstanding requests long before
+ * its response times (and hence {@link LatencyAwareRule}) reflect it. Counting outstanding requests
+ * reacts immediately.
+ *
+ * The scan starts at a random server, so that ties - e.g. all instances idle - are broken randomly
+ * instead of sending every burst to the first server in the list.
+ *
+ * Instances ejected by the {@link OutlierDetector} (passed via {@link OutlierDetector#OUTLIER_DETECTOR}) are not chosen.
+ */
+public class LeastOutstandingRequestsRule extends AbstractLoadBalancerRule {
+
+    /**
+     * The client configuration key under which the {@link InFlightRequestCounters} are passed to rule instances
+     * created by Ribbon itself (see {@link LatencyAwareRule#LATENCY_STATS}).
+     */
+    public static final IClientConfigKey<InFlightRequestCounters> IN_FLIGHT_COUNTERS = new CommonClientConfigKey<InFlightRequestCounters>("LeastOutstandingRequestsRuleCounters") {};
+
+    private InFlightRequestCounters inFlightCounters;
+    private OutlierDetector outlierDetector;
+
+    public LeastOutstandingRequestsRule() {
+    }
+
+    public LeastOutstandingRequestsRule(InFlightRequestCounters inFlightCounters) {
+        this.inFlightCounters = inFlightCounters;
+    }
+
+    @Override
+    public void initWithNiwsConfig(IClientConfig clientConfig) {
+        InFlightRequestCounters configuredCounters = clientConfig.get(IN_FLIGHT_COUNTERS);
+        if (configuredCounters != null) {
+            inFlightCounters = configuredCounters;
+        }
+        OutlierDetector configuredDetector = clientConfig.get(OutlierDetector.OUTLIER_DETECTOR);
+        if (configuredDetector != null) {
+            outlierDetector = configuredDetector;
+        }
+    }
+
+    @Override
+    public Server choose(Object key) {
+        ILoadBalancer loadBalancer = getLoadBalancer();
+        if (loadBalancer == null) {
+            return null;
+        }
+
+        List<Server> servers = loadBalancer.getReachableServers();
+        if (outlierDetector != null) {
+            servers = outlierDetector.filter(servers);
+        }
+        int count = servers.size();
+        if (count == 0) {
+            return null;
+        }
+
+        int start = ThreadLocalRandom.current().nextInt(count);
+        if (inFlightCounters == null) {
+            // not initialized with counters, fall back to a random choice.
+            return servers.get(start);
+        }
+
+        Server chosen = null;
+        long fewest = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            Server server = servers.get((start + i) % count);
+            long inFlight = inFlightCounters.get(inFlightCounters.keyOf(server));
+            if (inFlight < fewest) {
+                chosen = server;
+                fewest = inFlight;
+                if (inFlight == 0) {
+                    break;
+                }
+            }
+        }
+        return chosen;
+    }
+}
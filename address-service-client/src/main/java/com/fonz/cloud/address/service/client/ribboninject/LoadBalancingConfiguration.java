@@ -0,0 +1,94 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.client.loadbalancer.LoadBalancedRetryFactory;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
+import org.springframework.cloud.netflix.ribbon.SpringClientFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.fonz.cloud.address.service.client.cf.CFDirectRouting;
+import com.fonz.cloud.address.service.client.cf.CFRoutingHeaderCache;
+import com.netflix.discovery.EurekaClient;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+/**
+ * Load balancing beans that live in the application context.
+ * 
+ * Contrary to {@link RibbonAutoConfigurationOverrides}, which is instantiated in the application context of
+ * each Ribbon client, these beans exist once per application. The Ribbon client contexts can still access them,
+ * since the application context is their parent. That way, statistics recorded by the {@link CustomRibbonLoadBalancerClient}
+ * can be used by the rules declared in {@link RibbonAutoConfigurationOverrides}.
+ * 
+ * Note: the LoadBalancerClient has to be declared here. If declared in {@link RibbonAutoConfigurationOverrides}, it ends up
+ * in the Ribbon client context, where nobody uses it. @LoadBalanced RestTemplates use the LoadBalancerClient of the
+ * application context.
+ */
+@Configuration
+public class LoadBalancingConfiguration {
+
+    @Autowired
+    SpringClientFactory springClientFactory;
+
+    @Bean
+    public CFRoutingHeaderCache cfRoutingHeaderCache(ObjectProvider<EurekaClient> eurekaClient) {
+        return new CFRoutingHeaderCache(eurekaClient.getIfAvailable());
+    }
+
+    @Bean
+    public InstanceLatencyStats instanceLatencyStats(CFRoutingHeaderCache cfRoutingHeaderCache,
+            @Value("${loadbalancing.latency.decay-time:10000}") long decayTimeMillis,
+            @Value("${loadbalancing.latency.failure-penalty:1000}") long failurePenaltyMillis) {
+        return new InstanceLatencyStats(cfRoutingHeaderCache, decayTimeMillis, failurePenaltyMillis);
+    }
+
+    @Bean
+    public RoutingMetrics routingMetrics(ObjectProvider<MeterRegistry> meterRegistry, CFRoutingHeaderCache cfRoutingHeaderCache) {
+        // Without a MeterRegistry (i.e. without actuator), the meters of an empty composite registry do nothing.
+        return new RoutingMetrics(meterRegistry.getIfAvailable(CompositeMeterRegistry::new), cfRoutingHeaderCache);
+    }
+
+    @Bean
+    public InFlightRequestCounters inFlightRequestCounters() {
+        return new InFlightRequestCounters();
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "loadbalancing.outlier-detection.enabled", havingValue = "true")
+    public OutlierDetector outlierDetector(CFRoutingHeaderCache cfRoutingHeaderCache, RoutingMetrics routingMetrics,
+            @Value("${loadbalancing.outlier-detection.consecutive-errors:5}") int consecutiveErrors,
+            @Value("${loadbalancing.outlier-detection.base-ejection-time:30000}") long baseEjectionTimeMillis,
+            @Value("${loadbalancing.outlier-detection.max-ejection-time:300000}") long maxEjectionTimeMillis,
+            @Value("${loadbalancing.outlier-detection.max-ejection-percent:50}") int maxEjectionPercent) {
+        return new OutlierDetector(cfRoutingHeaderCache, routingMetrics, consecutiveErrors, baseEjectionTimeMillis, maxEjectionTimeMillis,
+                maxEjectionPercent);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "cf.routing.direct.enabled", havingValue = "true")
+    public CFDirectRouting cfDirectRouting(CFRoutingHeaderCache cfRoutingHeaderCache, RoutingMetrics routingMetrics,
+            @Value("${cf.routing.direct.fallback-time:60000}") long fallbackTimeMillis) {
+        return new CFDirectRouting(cfRoutingHeaderCache, routingMetrics, fallbackTimeMillis);
+    }
+
+    /**
+     * Replaces the LoadBalancedRetryFactory of RibbonAutoConfiguration. Used for @LoadBalanced RestTemplates and
+     * the Ribbon HTTP clients of all Ribbon client contexts.
+     */
+    @Bean
+    public LoadBalancedRetryFactory loadBalancedRetryFactory(RoutingMetrics routingMetrics, CFRoutingHeaderCache cfRoutingHeaderCache) {
+        return new BudgetedRetryFactory(springClientFactory, routingMetrics, cfRoutingHeaderCache);
+    }
+
+    @Bean
+    public LoadBalancerClient loadBalancerClient(InstanceLatencyStats instanceLatencyStats, InFlightRequestCounters inFlightRequestCounters,
+            RoutingMetrics routingMetrics, ObjectProvider<OutlierDetector> outlierDetector, ObjectProvider<CFDirectRouting> cfDirectRouting) {
+        return new CustomRibbonLoadBalancerClient(springClientFactory, instanceLatencyStats, inFlightRequestCounters, routingMetrics,
+                outlierDetector.getIfAvailable(), cfDirectRouting.getIfAvailable());
+    }
+}
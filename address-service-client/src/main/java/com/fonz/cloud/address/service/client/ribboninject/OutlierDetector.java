@@ -0,0 +1,271 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.netflix.ribbon.RibbonLoadBalancerClient;
+
+import com.fonz.cloud.address.service.client.cf.CFRoutingHeaderCache;
+import com.netflix.client.config.CommonClientConfigKey;
+import com.netflix.client.config.IClientConfigKey;
+import com.netflix.loadbalancer.Server;
+
+/**
+ * Detects failing service instances and ejects them from the selection of the Ribbon rules for a while.
+ *
+ * An instance is ejected after <code>consecutiveErrors</code> failed requests in a row - 5xx responses, timeouts and
+ * other I/O errors. Its first ejection lasts <code>baseEjectionTimeMillis</code>, every further one twice as long as
+ * the one before (at most <code>maxEjectionTimeMillis</code>), so that an instance that keeps failing is tried less and
+ * less often. The ejection time starts over at the base once the instance has been fine for <code>maxEjectionTimeMillis</code>
+ * after its last ejection.
+ *
+ * In Cloud Foundry, all instances share the same route, so Go-Router's health checks do not help once the CF routing header
+ * pins a request to an instance: a crashing instance keeps getting its share of requests until it is gone from Eureka.
+ * Instances are therefore tracked by their routing header value (<code>cfAppGuid:cfInstanceIndex</code>, see
+ * {@link InstanceLatencyStats}), falling back to the server ID for servers without CF routing information.
+ *
+ * At most <code>maxEjectionPercent</code> of the servers a rule chooses from are ejected at the same time (see {@link #filter(List)}).
+ * If more have failed, the ones whose ejection ends first are chosen from again - better a bad instance than none.
+ *
+ * An instance that sheds load (<code>503</code> with <code>Retry-After</code>) is left out for the time it asks for, without
+ * counting as a failure. The same limit of <code>maxEjectionPercent</code> applies.
+ *
+ * Outcomes are recorded by {@link CustomRibbonLoadBalancerClient} (RestTemplate, Feign) and
+ * {@link com.fonz.cloud.address.service.client.cf.CFLoadBalancerExchangeFilterFunction} (WebClient), the filter is applied by
+ * {@link LatencyAwareRule} and {@link LeastOutstandingRequestsRule}. Ejections are counted in {@link RoutingMetrics}.
+ */
+public class OutlierDetector {
+
+    /**
+     * The client configuration key under which the detector is passed to rule instances created by Ribbon itself
+     * (see {@link LatencyAwareRule#LATENCY_STATS}).
+     */
+    public static final IClientConfigKey<OutlierDetector> OUTLIER_DETECTOR = new CommonClientConfigKey<OutlierDetector>("OutlierDetector") {};
+
+    // Ejection times double per ejection, up to 2^MAX_DOUBLINGS times the base (or maxEjectionTimeMillis, if lower).
+    private static final int MAX_DOUBLINGS = 20;
+
+    private final CFRoutingHeaderCache headerCache;
+    private final RoutingMetrics routingMetrics;
+    private final int consecutiveErrors;
+    private final long baseEjectionNanos;
+    private final long maxEjectionNanos;
+    private final int maxEjectionPercent;
+    private final ConcurrentMap<String, InstanceState> statesByInstance = new ConcurrentHashMap<>();
+    // End of the ejection that ends last, so that filter() can skip its work while no instance is ejected.
+    private final AtomicLong latestEjectionEnd = new AtomicLong(System.nanoTime());
+
+    /**
+     * @param consecutiveErrors the number of failed requests in a row after which an instance is ejected.
+     * @param baseEjectionTimeMillis the duration of the first ejection of an instance (ms).
+     * @param maxEjectionTimeMillis the maximum duration of an ejection (ms).
+     * @param maxEjectionPercent the maximum percentage of servers ejected at the same time.
+     */
+    public OutlierDetector(CFRoutingHeaderCache headerCache, RoutingMetrics routingMetrics, int consecutiveErrors,
+            long baseEjectionTimeMillis, long maxEjectionTimeMillis, int maxEjectionPercent) {
+        this.headerCache = headerCache;
+        this.routingMetrics = routingMetrics;
+        this.consecutiveErrors = Math.max(1, consecutiveErrors);
+        this.baseEjectionNanos = TimeUnit.MILLISECONDS.toNanos(baseEjectionTimeMillis);
+        this.maxEjectionNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(baseEjectionTimeMillis, maxEjectionTimeMillis));
+        this.maxEjectionPercent = Math.max(0, Math.min(100, maxEjectionPercent));
+    }
+
+    /**
+     * @return the key under which the state of the given server is kept.
+     */
+    public String keyOf(Server server) {
+        String headerValue = headerCache.getHeaderValue(server);
+        return headerValue != null ? headerValue : server.getId();
+    }
+
+    /**
+     * Called when a request to an instance has succeeded, i.e. has been answered with a status below 500.
+     */
+    public void recordSuccess(ServiceInstance instance) {
+        Server server = serverOf(instance);
+        if (server == null) {
+            return;
+        }
+        InstanceState state = statesByInstance.get(keyOf(server));
+        if (state != null) {
+            state.success(System.nanoTime());
+        }
+    }
+
+    /**
+     * Called when a request to an instance has failed with a 5xx response, a timeout or another I/O error.
+     */
+    public void recordFailure(String serviceId, ServiceInstance instance) {
+        Server server = serverOf(instance);
+        if (server == null) {
+            return;
+        }
+        String key = keyOf(server);
+        InstanceState state = statesByInstance.get(key);
+        if (state == null) {
+            state = statesByInstance.computeIfAbsent(key, k -> new InstanceState());
+        }
+        long ejectionEnd = state.failure(System.nanoTime());
+        if (ejectionEnd != 0) {
+            ejectedUntil(ejectionEnd);
+            routingMetrics.recordEjection(serviceId, server);
+        }
+    }
+
+    /**
+     * Called when an instance has rejected a request because it is overloaded (see {@link OverloadResponses}).
+     * The instance is left out for the time it asked for, without counting as a failure or an ejection.
+     * @param retryAfterMillis the time the instance asked not to be sent requests (ms).
+     */
+    public void recordOverload(ServiceInstance instance, long retryAfterMillis) {
+        Server server = serverOf(instance);
+        if (server == null || retryAfterMillis <= 0) {
+            return;
+        }
+        String key = keyOf(server);
+        InstanceState state = statesByInstance.get(key);
+        if (state == null) {
+            state = statesByInstance.computeIfAbsent(key, k -> new InstanceState());
+        }
+        ejectedUntil(state.overloaded(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryAfterMillis)));
+    }
+
+    /**
+     * @return true, if the server is currently ejected. Does not consider <code>maxEjectionPercent</code>.
+     */
+    public boolean isEjected(Server server) {
+        InstanceState state = statesByInstance.get(keyOf(server));
+        return state != null && state.ejectedAt(System.nanoTime());
+    }
+
+    /**
+     * @param servers the servers a rule chooses from.
+     * @return the servers that are not ejected, or <code>servers</code> itself if none of them are. At most
+     *         <code>maxEjectionPercent</code> of the servers are left out.
+     */
+    public List<Server> filter(List<Server> servers) {
+        long now = System.nanoTime();
+        if (now - latestEjectionEnd.get() >= 0) {
+            return servers;
+        }
+        int maxEjected = servers.size() * maxEjectionPercent / 100;
+        if (maxEjected == 0) {
+            return servers;
+        }
+
+        List<EjectedServer> ejected = null;
+        for (Server server : servers) {
+            String key = keyOf(server);
+            InstanceState state = statesByInstance.get(key);
+            long ejectionEnd = state != null ? state.getEjectionEnd() : 0;
+            if (ejectionEnd != 0 && ejectionEnd - now > 0) {
+                if (ejected == null) {
+                    ejected = new ArrayList<>();
+                }
+                ejected.add(new EjectedServer(key, ejectionEnd));
+            }
+        }
+        if (ejected == null) {
+            return servers;
+        }
+        if (ejected.size() > maxEjected) {
+            // Keep the ejections that end last.
+            Collections.sort(ejected, (a, b) -> Long.signum(b.ejectionEnd - a.ejectionEnd));
+            ejected = ejected.subList(0, maxEjected);
+        }
+
+        // By key, not by Server.equals(), which only compares host and port: in CF, all instances share the same route.
+        Set<String> excluded = new HashSet<>();
+        for (EjectedServer ejectedServer : ejected) {
+            excluded.add(ejectedServer.key);
+        }
+        List<Server> available = new ArrayList<>(servers.size());
+        for (Server server : servers) {
+            if (!excluded.contains(keyOf(server))) {
+                available.add(server);
+            }
+        }
+        return available;
+    }
+
+    private void ejectedUntil(long ejectionEnd) {
+        latestEjectionEnd.accumulateAndGet(ejectionEnd, (current, end) -> end - current > 0 ? end : current);
+    }
+
+    private static Server serverOf(ServiceInstance instance) {
+        return instance instanceof RibbonLoadBalancerClient.RibbonServer ? ((RibbonLoadBalancerClient.RibbonServer) instance).getServer() : null;
+    }
+
+    private static final class EjectedServer {
+
+        private final String key;
+        private final long ejectionEnd;
+
+        EjectedServer(String key, long ejectionEnd) {
+            this.key = key;
+            this.ejectionEnd = ejectionEnd;
+        }
+    }
+
+    private final class InstanceState {
+
+        // Guarded by this.
+        private int failures;
+        private int ejections;
+        // System.nanoTime() at the end of the last ejection, 0 if the instance has never been ejected. Guarded by this.
+        private long ejectionEnd;
+
+        synchronized void success(long now) {
+            failures = 0;
+            if (ejections > 0 && now - ejectionEnd > maxEjectionNanos) {
+                ejections = 0;
+            }
+        }
+
+        /**
+         * @return the end of the ejection, if the failure ejects the instance, otherwise 0.
+         */
+        synchronized long failure(long now) {
+            if (ejectedAt(now)) {
+                // A request that was sent before the ejection.
+                return 0;
+            }
+            if (++failures < consecutiveErrors) {
+                return 0;
+            }
+            failures = 0;
+            ejections++;
+            long ejectionNanos = Math.min(maxEjectionNanos, baseEjectionNanos << Math.min(ejections - 1, MAX_DOUBLINGS));
+            // 0 means "never ejected".
+            ejectionEnd = now + ejectionNanos == 0 ? 1 : now + ejectionNanos;
+            return ejectionEnd;
+        }
+
+        /**
+         * @return the end of the ejection, which lasts at least until <code>until</code>.
+         */
+        synchronized long overloaded(long until) {
+            if (ejectionEnd == 0 || until - ejectionEnd > 0) {
+                ejectionEnd = until == 0 ? 1 : until;
+            }
+            return ejectionEnd;
+        }
+
+        synchronized boolean ejectedAt(long now) {
+            return ejectionEnd != 0 && ejectionEnd - now > 0;
+        }
+
+        synchronized long getEjectionEnd() {
+            return ejectionEnd;
+        }
+    }
+}
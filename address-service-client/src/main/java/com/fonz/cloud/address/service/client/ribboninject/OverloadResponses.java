@@ -0,0 +1,68 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.reactive.function.client.ClientResponse;
+
+/**
+ * Recognizes responses of an instance that sheds load: <code>503 Service Unavailable</code> with a <code>Retry-After</code> header,
+ * as sent by address-service once its concurrency limit is reached.
+ *
+ * Such a response comes back right away and means "this instance is busy, try another one now". It is not a failure of the
+ * instance, so it is neither counted by outlier detection nor retried on the same instance.
+ */
+public final class OverloadResponses {
+
+    /** Retry-After given as an HTTP date instead of seconds. */
+    private static final long DEFAULT_RETRY_AFTER_MILLIS = 1000;
+
+    private OverloadResponses() {
+    }
+
+    /**
+     * @param response a {@link ClientHttpResponse} (RestTemplate), an Apache {@link HttpResponse} (Ribbon HTTP client),
+     *                 a {@link ClientResponse} (WebClient), or anything else.
+     * @return how long the instance asked not to be sent requests (ms), or -1 if the response is not an overload response.
+     */
+    public static long retryAfterMillis(Object response) {
+        try {
+            if (response instanceof ClientHttpResponse) {
+                ClientHttpResponse clientHttpResponse = (ClientHttpResponse) response;
+                return clientHttpResponse.getRawStatusCode() == HttpStatus.SERVICE_UNAVAILABLE.value()
+                        ? parseRetryAfter(clientHttpResponse.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)) : -1;
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+        if (response instanceof HttpResponse) {
+            HttpResponse httpResponse = (HttpResponse) response;
+            Header retryAfter = httpResponse.getFirstHeader(HttpHeaders.RETRY_AFTER);
+            return httpResponse.getStatusLine().getStatusCode() == HttpStatus.SERVICE_UNAVAILABLE.value()
+                    ? parseRetryAfter(retryAfter != null ? retryAfter.getValue() : null) : -1;
+        }
+        if (response instanceof ClientResponse) {
+            ClientResponse clientResponse = (ClientResponse) response;
+            return clientResponse.rawStatusCode() == HttpStatus.SERVICE_UNAVAILABLE.value()
+                    ? parseRetryAfter(clientResponse.headers().asHttpHeaders().getFirst(HttpHeaders.RETRY_AFTER)) : -1;
+        }
+        return -1;
+    }
+
+    private static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            // A plain 503, e.g. from Go-Router.
+            return -1;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            return DEFAULT_RETRY_AFTER_MILLIS;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+/**
+ * A registry change pushed by eureka-service on <code>/registry/events</code> (see {@link RegistryEventSubscriber}).
+ */
+public class RegistryEvent {
+
+    /** An instance has registered, or re-registered e.g. with a new status. */
+    public static final String REGISTERED = "registered";
+    /** An instance has unregistered, or its lease has expired. */
+    public static final String CANCELED = "canceled";
+
+    private String type;
+    private String appName;
+    private String instanceId;
+    private String status;
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getAppName() {
+        return appName;
+    }
+
+    public void setAppName(String appName) {
+        this.appName = appName;
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    public void setInstanceId(String instanceId) {
+        this.instanceId = instanceId;
+    }
+
+    /**
+     * @return the status of a registered instance (e.g. <code>UP</code> or <code>DOWN</code>), null for canceled ones.
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    @Override
+    public String toString() {
+        return "RegistryEvent [type=" + type + ", appName=" + appName + ", instanceId=" + instanceId + ", status=" + status + "]";
+    }
+}
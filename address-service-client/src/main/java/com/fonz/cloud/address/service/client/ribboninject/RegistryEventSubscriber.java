@@ -0,0 +1,114 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.Locale;
+
+import org.springframework.cloud.netflix.ribbon.SpringClientFactory;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.netflix.appinfo.InstanceInfo.InstanceStatus;
+import com.netflix.loadbalancer.DynamicServerListLoadBalancer;
+import com.netflix.loadbalancer.ILoadBalancer;
+import com.netflix.loadbalancer.ServerList;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.Disposable;
+
+/**
+ * Subscribes to the registry events pushed by eureka-service (<code>/registry/events</code>), and removes instances that
+ * have gone away from the Ribbon server lists right away.
+ *
+ * Without this, a crashed instance stays in the server list until the Eureka client has fetched the registry and Ribbon has
+ * updated its server list from it, which takes up to a minute with the default intervals. Until then, requests pinned to it
+ * by the CF routing header fail and each of them wastes a retry.
+ *
+ * When an instance is canceled (or registers with a status other than <code>UP</code>), it is removed from the
+ * {@link IncrementalServerList} of the Ribbon client of its application, and the load balancer is updated at once.
+ * Only Ribbon clients that already exist are updated. The regular registry fetches stay in place, so events missed while
+ * reconnecting are caught up with as before. Received events are counted in <code>eureka.registry.events</code>
+ * (tags <code>type</code> and <code>result=applied|ignored</code>).
+ */
+public class RegistryEventSubscriber implements Closeable {
+
+    private static final ParameterizedTypeReference<ServerSentEvent<RegistryEvent>> EVENT_TYPE = new ParameterizedTypeReference<ServerSentEvent<RegistryEvent>>() {};
+
+    private final WebClient webClient;
+    private final SpringClientFactory springClientFactory;
+    private final MeterRegistry registry;
+    private volatile Disposable subscription;
+
+    /**
+     * @param eventsUrl the URL of eureka-service's <code>/registry/events</code> endpoint.
+     */
+    public RegistryEventSubscriber(String eventsUrl, SpringClientFactory springClientFactory, MeterRegistry registry) {
+        this.webClient = WebClient.create(eventsUrl);
+        this.springClientFactory = springClientFactory;
+        this.registry = registry;
+    }
+
+    /**
+     * Subscribes to the events. Reconnects whenever the stream ends or fails, e.g. when eureka-service restarts.
+     */
+    public void start() {
+        subscription = webClient.get()
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .retrieve()
+                .bodyToFlux(EVENT_TYPE)
+                .repeatWhen(completed -> completed.delayElements(Duration.ofSeconds(1)))
+                .retryBackoff(Long.MAX_VALUE, Duration.ofSeconds(1), Duration.ofSeconds(30))
+                .subscribe(event -> {
+                    // Keep-alive comments have no data.
+                    if (event.data() != null) {
+                        onEvent(event.data());
+                    }
+                });
+    }
+
+    @Override
+    public void close() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+
+    /**
+     * Applies a registry event to the Ribbon client of its application, if there is one.
+     * @return true, if a server list has changed.
+     */
+    public boolean onEvent(RegistryEvent event) {
+        boolean applied = false;
+        String clientName = event.getAppName() != null ? event.getAppName().toLowerCase(Locale.ROOT) : null;
+        // Does not create Ribbon clients that have not been used yet.
+        if (clientName != null && event.getInstanceId() != null && springClientFactory.getContextNames().contains(clientName)) {
+            ServerList<?> serverList = springClientFactory.getInstance(clientName, ServerList.class);
+            if (serverList instanceof IncrementalServerList) {
+                IncrementalServerList<?> incrementalServerList = (IncrementalServerList<?>) serverList;
+                if (RegistryEvent.CANCELED.equals(event.getType()) || !InstanceStatus.UP.name().equals(event.getStatus())) {
+                    applied = incrementalServerList.remove(event.getInstanceId()) && updateLoadBalancer(clientName);
+                } else {
+                    incrementalServerList.restore(event.getInstanceId());
+                }
+            }
+        }
+        Counter.builder("eureka.registry.events")
+                .description("Registry events pushed by Eureka, which have (applied) or have not (ignored) changed a Ribbon server list.")
+                .tag("type", String.valueOf(event.getType())).tag("result", applied ? "applied" : "ignored")
+                .register(registry)
+                .increment();
+        return applied;
+    }
+
+    private boolean updateLoadBalancer(String clientName) {
+        ILoadBalancer loadBalancer = springClientFactory.getLoadBalancer(clientName);
+        if (loadBalancer instanceof DynamicServerListLoadBalancer) {
+            ((DynamicServerListLoadBalancer<?>) loadBalancer).updateListOfServers();
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,34 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.netflix.ribbon.SpringClientFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+/**
+ * Subscribes to the registry events of eureka-service (see {@link RegistryEventSubscriber}), if <code>registry-events.enabled</code> is set.
+ *
+ * The events are read from <code>registry-events.url</code>. By default, that is <code>/registry/events</code> next to
+ * the first Eureka service URL, e.g. <code>http://localhost:8761/registry/events</code> for <code>http://localhost:8761/eureka</code>.
+ */
+@Configuration
+@ConditionalOnProperty(name = "registry-events.enabled", havingValue = "true")
+public class RegistryEventsConfiguration {
+
+    @Bean(initMethod = "start")
+    public RegistryEventSubscriber registryEventSubscriber(@Value("${registry-events.url:}") String eventsUrl,
+            @Value("${eureka.client.serviceUrl.defaultZone:http://localhost:8761/eureka}") String eurekaUrls,
+            SpringClientFactory springClientFactory, ObjectProvider<MeterRegistry> meterRegistry) {
+        if (!StringUtils.hasText(eventsUrl)) {
+            String eurekaUrl = StringUtils.commaDelimitedListToStringArray(eurekaUrls)[0].trim();
+            eventsUrl = eurekaUrl.replaceFirst("/eureka/?$", "") + "/registry/events";
+        }
+        return new RegistryEventSubscriber(eventsUrl, springClientFactory, meterRegistry.getIfAvailable(CompositeMeterRegistry::new));
+    }
+}
@@ -0,0 +1,76 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket that limits extra requests (e.g. hedged requests) to a fraction of the regular requests.
+ *
+ * Every regular request deposits <code>ratio</code> tokens, every extra request withdraws one token.
+ * The balance is capped, so that a long period of calm does not save up an unlimited burst of
+ * extra requests. Tokens are kept in fixed point (1/1000 of a token) in a single {@link AtomicLong},
+ * so no locks are taken.
+ */
+public class RequestBudget {
+
+    private static final long SCALE = 1000;
+
+    private final long depositPerRequest;
+    private final long maxBalance;
+    private final AtomicLong balance;
+
+    /**
+     * @param ratio the number of extra requests allowed per regular request, e.g. 0.1 for 10%.
+     * @param maxTokens the maximum number of extra requests that can be saved up. The budget starts full.
+     */
+    public RequestBudget(double ratio, int maxTokens) {
+        this.depositPerRequest = Math.round(ratio * SCALE);
+        this.maxBalance = maxTokens * SCALE;
+        this.balance = new AtomicLong(maxBalance);
+    }
+
+    /**
+     * Called for every regular request.
+     */
+    public void deposit() {
+        add(depositPerRequest);
+    }
+
+    /**
+     * Called before an extra request is sent.
+     * @return true, if the extra request is within budget and may be sent.
+     */
+    public boolean tryWithdraw() {
+        long current;
+        do {
+            current = balance.get();
+            if (current < SCALE) {
+                return false;
+            }
+        } while (!balance.compareAndSet(current, current - SCALE));
+        return true;
+    }
+
+    /**
+     * Returns a token withdrawn for an extra request that was not sent after all.
+     */
+    public void refund() {
+        add(SCALE);
+    }
+
+    /**
+     * @return the number of extra requests currently allowed.
+     */
+    public double getBalance() {
+        return balance.get() / (double) SCALE;
+    }
+
+    private void add(long tokens) {
+        long current;
+        do {
+            current = balance.get();
+            if (current >= maxBalance) {
+                return;
+            }
+        } while (!balance.compareAndSet(current, Math.min(maxBalance, current + tokens)));
+    }
+}
@@ -0,0 +1,56 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.client.loadbalancer.LoadBalanced;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.web.client.RestTemplate;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+/**
+ * Puts a {@link ResponseCacheInterceptor} in front of all @LoadBalanced RestTemplates, if <code>response-cache.enabled</code> is set.
+ *
+ * Spring Cloud adds its load balancer interceptor to the end of the interceptor list of each @LoadBalanced RestTemplate.
+ * The cache is inserted at the beginning, so that cache hits never reach Ribbon, and revalidations are load balanced
+ * (and carry the CF routing header) like any other request.
+ *
+ * Note: This must not be done with a RestTemplateCustomizer bean. Spring Cloud only declares its own customizer
+ * (the one that adds the load balancer interceptor) if there is no other.
+ */
+@Configuration
+@ConditionalOnProperty(name = "response-cache.enabled", havingValue = "true")
+public class ResponseCacheConfiguration {
+
+    @LoadBalanced
+    @Autowired(required = false)
+    private List<RestTemplate> restTemplates = Collections.emptyList();
+
+    @Bean
+    public ResponseCacheInterceptor responseCacheInterceptor(@Value("${response-cache.max-entries:1000}") int maxEntries,
+            @Value("${response-cache.time-to-live:5000}") long timeToLiveMillis, ObjectProvider<MeterRegistry> meterRegistry) {
+        return new ResponseCacheInterceptor(maxEntries, timeToLiveMillis, meterRegistry.getIfAvailable(CompositeMeterRegistry::new));
+    }
+
+    @Bean
+    public SmartInitializingSingleton responseCacheRestTemplateInitializer(ResponseCacheInterceptor responseCacheInterceptor) {
+        // Inserted at the beginning, whether the load balancer interceptor has been added yet or not.
+        return () -> {
+            for (RestTemplate restTemplate : restTemplates) {
+                List<ClientHttpRequestInterceptor> interceptors = new ArrayList<>(restTemplate.getInterceptors());
+                interceptors.add(0, responseCacheInterceptor);
+                restTemplate.setInterceptors(interceptors);
+            }
+        };
+    }
+}
@@ -0,0 +1,213 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * A client-side cache for GET responses, in front of the load balancer of a @LoadBalanced RestTemplate.
+ *
+ * Successful GET responses are kept for <code>timeToLive</code> (or the <code>max-age</code> of the response, if it has one)
+ * and are answered from memory while fresh, without a request to Go-Router or any instance.
+ * Once an entry is stale and has an ETag, the next request revalidates it with <code>If-None-Match</code>: a <code>304 Not Modified</code>
+ * makes the entry fresh again, without transferring the body. Stale entries without an ETag are dropped.
+ * Responses with <code>Cache-Control: no-cache</code> are stale right away, so they are revalidated on every use, and are only
+ * cached if they have an ETag. Responses with <code>Cache-Control: no-store</code> are never cached, and streaming requests (see
+ * {@link BufferedClientHttpResponse#isBufferable(HttpRequest)}) are passed through.
+ *
+ * The cache holds at most <code>maxEntries</code> responses and evicts the least recently used one when it is full.
+ * Entries are keyed by the logical URI (e.g. <code>http://address-service/address</code>), so a cached response
+ * is shared by all instances of a service, and by the <code>Accept</code> header, which decides the encoding of the response
+ * (e.g. Smile or JSON, see {@link SmileConfiguration}). A response is only ever served to requests that asked for the same types.
+ *
+ * Hits, revalidations and misses are counted in <code>http.client.response.cache</code> (tag <code>result</code>).
+ */
+public class ResponseCacheInterceptor implements ClientHttpRequestInterceptor {
+
+    private final long timeToLiveNanos;
+    private final Map<String, CachedResponse> entries;
+    private final Counter hits;
+    private final Counter revalidations;
+    private final Counter misses;
+
+    /**
+     * @param maxEntries the maximum number of cached responses.
+     * @param timeToLiveMillis the time a response is served from the cache without revalidation (ms).
+     * @param registry the registry to count hits, revalidations and misses in.
+     */
+    public ResponseCacheInterceptor(int maxEntries, long timeToLiveMillis, MeterRegistry registry) {
+        this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLiveMillis);
+        // Access order, so the eldest entry is the least recently used one.
+        this.entries = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.hits = counter(registry, "hit");
+        this.revalidations = counter(registry, "revalidated");
+        this.misses = counter(registry, "miss");
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        if (request.getMethod() != HttpMethod.GET || !BufferedClientHttpResponse.isBufferable(request)) {
+            return execution.execute(request, body);
+        }
+
+        String key = request.getURI() + " " + request.getHeaders().get(HttpHeaders.ACCEPT);
+        CachedResponse cached = get(key);
+        long now = System.nanoTime();
+        if (cached != null && cached.isFresh(now)) {
+            hits.increment();
+            return cached.toResponse();
+        }
+
+        if (cached != null && cached.eTag != null) {
+            request.getHeaders().setIfNoneMatch(cached.eTag);
+        }
+        ClientHttpResponse response = execution.execute(request, body);
+
+        if (cached != null && cached.eTag != null && response.getRawStatusCode() == HttpStatus.NOT_MODIFIED.value()) {
+            response.close();
+            revalidations.increment();
+            // A 304 may come without the Cache-Control header, the one of the cached response applies then.
+            HttpHeaders headers = response.getHeaders().getCacheControl() != null ? response.getHeaders() : cached.response.getHeaders();
+            CachedResponse revalidated = cached.revalidated(now + timeToLive(headers));
+            put(key, revalidated);
+            return revalidated.toResponse();
+        }
+
+        misses.increment();
+        if (response.getRawStatusCode() != HttpStatus.OK.value() || isNoStore(response.getHeaders())
+                || (isNoCache(response.getHeaders()) && response.getHeaders().getETag() == null)) {
+            if (cached != null) {
+                remove(key, cached);
+            }
+            return response;
+        }
+        BufferedClientHttpResponse buffered = BufferedClientHttpResponse.of(response);
+        CachedResponse fetched = new CachedResponse(buffered, now + timeToLive(buffered.getHeaders()));
+        put(key, fetched);
+        return fetched.toResponse();
+    }
+
+    /**
+     * @return the number of cached responses, fresh or stale.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    private CachedResponse get(String key) {
+        synchronized (entries) {
+            CachedResponse cached = entries.get(key);
+            if (cached != null && cached.eTag == null && !cached.isFresh(System.nanoTime())) {
+                // Cannot be revalidated, so it is of no use anymore.
+                entries.remove(key);
+                return null;
+            }
+            return cached;
+        }
+    }
+
+    private void put(String key, CachedResponse response) {
+        synchronized (entries) {
+            entries.put(key, response);
+        }
+    }
+
+    private void remove(String key, CachedResponse response) {
+        synchronized (entries) {
+            entries.remove(key, response);
+        }
+    }
+
+    private long timeToLive(HttpHeaders headers) {
+        if (isNoCache(headers)) {
+            return 0;
+        }
+        String cacheControl = headers.getCacheControl();
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim();
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        return TimeUnit.SECONDS.toNanos(Long.parseLong(directive.substring("max-age=".length())));
+                    } catch (NumberFormatException e) {
+                        break;
+                    }
+                }
+            }
+        }
+        return timeToLiveNanos;
+    }
+
+    private static boolean isNoStore(HttpHeaders headers) {
+        String cacheControl = headers.getCacheControl();
+        return cacheControl != null && cacheControl.contains(CacheControl.noStore().getHeaderValue());
+    }
+
+    private static boolean isNoCache(HttpHeaders headers) {
+        String cacheControl = headers.getCacheControl();
+        return cacheControl != null && cacheControl.contains(CacheControl.noCache().getHeaderValue());
+    }
+
+    private static Counter counter(MeterRegistry registry, String result) {
+        return Counter.builder("http.client.response.cache")
+                .description("GET responses answered from the cache (hit), revalidated with the service (revalidated) or fetched (miss).")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    /**
+     * A buffered response with its ETag and expiry. Immutable, so it can be handed out to any number of requests at the same time.
+     */
+    private static final class CachedResponse {
+
+        private final BufferedClientHttpResponse response;
+        private final String eTag;
+        private final long freshUntil;
+
+        CachedResponse(BufferedClientHttpResponse response, long freshUntil) {
+            this.response = response;
+            this.eTag = response.getHeaders().getETag();
+            this.freshUntil = freshUntil;
+        }
+
+        boolean isFresh(long now) {
+            return now - freshUntil < 0;
+        }
+
+        CachedResponse revalidated(long freshUntil) {
+            return new CachedResponse(response, freshUntil);
+        }
+
+        ClientHttpResponse toResponse() {
+            return response.toResponse();
+        }
+    }
+}
@@ -1,19 +1,47 @@
 package com.fonz.cloud.address.service.client.ribboninject;
 
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.ssl.SSLContexts;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.cloud.client.loadbalancer.LoadBalancedRetryFactory;
-import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
+import org.springframework.cloud.commons.httpclient.ApacheHttpClientFactory;
+import org.springframework.cloud.netflix.ribbon.PropertiesFactory;
 import org.springframework.cloud.netflix.ribbon.RibbonAutoConfiguration;
 import org.springframework.cloud.netflix.ribbon.RibbonLoadBalancerContext;
+import org.springframework.cloud.netflix.ribbon.RibbonProperties;
 import org.springframework.cloud.netflix.ribbon.ServerIntrospector;
-import org.springframework.cloud.netflix.ribbon.SpringClientFactory;
 import org.springframework.cloud.netflix.ribbon.apache.RetryableRibbonLoadBalancingHttpClient;
 import org.springframework.context.annotation.Bean;
 
+import com.fonz.cloud.address.service.client.cf.CFRoutingHeaderCache;
 import com.netflix.client.RetryHandler;
+import com.netflix.client.config.CommonClientConfigKey;
 import com.netflix.client.config.IClientConfig;
+import com.netflix.client.config.IClientConfigKey;
+import com.netflix.loadbalancer.AbstractLoadBalancerRule;
 import com.netflix.loadbalancer.ILoadBalancer;
+import com.netflix.loadbalancer.IRule;
+import com.netflix.loadbalancer.Server;
+import com.netflix.loadbalancer.ServerListFilter;
+import com.netflix.loadbalancer.ServerList;
+
+import io.micrometer.core.instrument.MeterRegistry;
 
 
 /**
@@ -22,8 +50,23 @@ import com.netflix.loadbalancer.ILoadBalancer;
 //DON'T add @Configuration here! The Spring Cloud docs are wrong!
 public class RibbonAutoConfigurationOverrides {
 
+    /** Time after which idle pooled connections are closed (ms). */
+    public static final IClientConfigKey<Integer> POOL_MAX_IDLE_TIME = new CommonClientConfigKey<Integer>("PoolMaxIdleTime") {};
+    /** Time of inactivity after which a pooled connection is checked before it is reused (ms). */
+    public static final IClientConfigKey<Integer> POOL_VALIDATE_AFTER_INACTIVITY = new CommonClientConfigKey<Integer>("PoolValidateAfterInactivity") {};
+    /** Number of TLS sessions cached for resumption. */
+    public static final IClientConfigKey<Integer> TLS_SESSION_CACHE_SIZE = new CommonClientConfigKey<Integer>("TlsSessionCacheSize") {};
+    /** Time a TLS session can be resumed (s). */
+    public static final IClientConfigKey<Integer> TLS_SESSION_TIMEOUT = new CommonClientConfigKey<Integer>("TlsSessionTimeout") {};
+
     @Autowired
-    SpringClientFactory springClientFactory;
+    PropertiesFactory propertiesFactory;
+    
+    @Value("${ribbon.client.name}")
+    String name;
+    
+    @Value("${loadbalancing.rule:latency-aware}")
+    String rule;
     
     @Bean
     public RetryableRibbonLoadBalancingHttpClient retryableRibbonLoadBalancingHttpClient(
@@ -31,19 +74,145 @@ public class RibbonAutoConfigurationOverrides {
             ILoadBalancer loadBalancer, RetryHandler retryHandler,
             LoadBalancedRetryFactory loadBalancedRetryFactory,
             CloseableHttpClient httpClient,
-            RibbonLoadBalancerContext ribbonLoadBalancerContext) {
+            RibbonLoadBalancerContext ribbonLoadBalancerContext,
+            CFRoutingHeaderCache cfRoutingHeaderCache,
+            RoutingMetrics routingMetrics) {
 
-        CustomRetryableRibbonLoadBalancingHttpClient client = new CustomRetryableRibbonLoadBalancingHttpClient(httpClient, config, serverIntrospector, loadBalancedRetryFactory);
+        CustomRetryableRibbonLoadBalancingHttpClient client = new CustomRetryableRibbonLoadBalancingHttpClient(httpClient, config, serverIntrospector,
+                loadBalancedRetryFactory, cfRoutingHeaderCache, routingMetrics);
         client.setLoadBalancer(loadBalancer);
         client.setRetryHandler(retryHandler);
         client.setRibbonLoadBalancerContext(ribbonLoadBalancerContext);
         return client;
     }
     
+    /**
+     * A dedicated connection pool for this Ribbon client.
+     * 
+     * In Cloud Foundry, all requests go through Go-Router via TLS on port 443, i.e. all instances share a single route.
+     * Setting up a connection (including the TLS handshake) is expensive, so connections are pooled, and TLS sessions are
+     * cached, so that the handshake of a new connection can resume a previous session. Since all instances share one route,
+     * <code>MaxConnectionsPerHost</code> is the effective limit and should be as large as <code>MaxTotalConnections</code>.
+     * 
+     * Only the Ribbon HTTP client ({@link CustomRetryableRibbonLoadBalancingHttpClient}, e.g. of Zuul routes or Feign clients)
+     * uses this pool. A <code>@LoadBalanced</code> <code>RestTemplate</code> sends its requests with its own request factory,
+     * so it is not limited by these settings.
+     */
     @Bean
-    public LoadBalancerClient loadBalancerClient() {
-        return new CustomRibbonLoadBalancerClient(springClientFactory);
+    public PoolingHttpClientConnectionManager httpClientConnectionManager(IClientConfig config, ObjectProvider<MeterRegistry> meterRegistry) {
+        RibbonProperties ribbon = RibbonProperties.from(config);
+
+        SSLContext sslContext = SSLContexts.createDefault();
+        SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        sessionContext.setSessionCacheSize(config.get(TLS_SESSION_CACHE_SIZE, 100));
+        sessionContext.setSessionTimeout(config.get(TLS_SESSION_TIMEOUT, 3600));
+        Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", new SSLConnectionSocketFactory(sslContext, SSLConnectionSocketFactory.getDefaultHostnameVerifier()))
+                .build();
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(socketFactoryRegistry,
+                null, null, null, ribbon.poolKeepAliveTime(), ribbon.getPoolKeepAliveTimeUnits());
+        connectionManager.setMaxTotal(ribbon.maxTotalConnections());
+        connectionManager.setDefaultMaxPerRoute(ribbon.maxConnectionsPerHost());
+        connectionManager.setValidateAfterInactivity(config.get(POOL_VALIDATE_AFTER_INACTIVITY, 2000));
+
+        // The MeterRegistry lives in the application context, it does not bind MeterBinders of the Ribbon client contexts.
+        meterRegistry.ifAvailable(new ConnectionPoolMetrics(connectionManager, name)::bindTo);
+        return connectionManager;
+    }
+
+    @Bean
+    public AdaptiveTimeouts adaptiveTimeouts(IClientConfig config) {
+        return new AdaptiveTimeouts(config);
     }
+
+    @Bean
+    public CloseableHttpClient httpClient(ApacheHttpClientFactory httpClientFactory, PoolingHttpClientConnectionManager connectionManager, IClientConfig config,
+            AdaptiveTimeouts adaptiveTimeouts) {
+        RibbonProperties ribbon = RibbonProperties.from(config);
+        RequestConfig defaultRequestConfig = RequestConfig.custom()
+                .setConnectTimeout(ribbon.connectTimeout())
+                .setRedirectsEnabled(ribbon.isFollowRedirects())
+                .build();
+        CloseableHttpClient httpClient = httpClientFactory.createBuilder()
+                .setDefaultRequestConfig(defaultRequestConfig)
+                .setConnectionManager(connectionManager)
+                // Closes expired and idle connections in a background thread, which is stopped when the client is closed.
+                .evictExpiredConnections()
+                .evictIdleConnections(config.get(POOL_MAX_IDLE_TIME, 60000), TimeUnit.MILLISECONDS)
+                // Requests carry no user-specific connection state, so any pooled connection can be reused for any request.
+                .disableConnectionState()
+                .build();
+        // Every attempt of the Ribbon HTTP client goes through this client, so this is where adaptive timeouts are measured and applied.
+        return adaptiveTimeouts.isEnabled() ? new AdaptiveTimeoutHttpClient(httpClient, adaptiveTimeouts) : httpClient;
+    }
+    
+    @Bean
+    public IRule ribbonRule(IClientConfig config, InstanceLatencyStats instanceLatencyStats, InFlightRequestCounters inFlightRequestCounters,
+            ObjectProvider<OutlierDetector> outlierDetector) {
+        // Like RibbonClientConfiguration, give <client>.ribbon.NFLoadBalancerRuleClassName precedence.
+        if (propertiesFactory.isSet(IRule.class, name)) {
+            return propertiesFactory.get(IRule.class, config, name);
+        }
+        
+        // The statistics are also handed to the per-zone copies of the rule via the client config, see LatencyAwareRule.LATENCY_STATS.
+        // So is the outlier detector (if loadbalancing.outlier-detection.enabled is set), which both rules consult before choosing.
+        outlierDetector.ifAvailable(detector -> config.set(OutlierDetector.OUTLIER_DETECTOR, detector));
+        AbstractLoadBalancerRule ribbonRule;
+        switch (rule) {
+        case "latency-aware":
+            config.set(LatencyAwareRule.LATENCY_STATS, instanceLatencyStats);
+            ribbonRule = new LatencyAwareRule();
+            break;
+        case "least-outstanding":
+            config.set(LeastOutstandingRequestsRule.IN_FLIGHT_COUNTERS, inFlightRequestCounters);
+            ribbonRule = new LeastOutstandingRequestsRule();
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown loadbalancing.rule '" + rule + "'. Use 'latency-aware' or 'least-outstanding'.");
+        }
+        ribbonRule.initWithNiwsConfig(config);
+        return ribbonRule;
+    }
+    
+    /**
+     * Replaces Ribbon's ZonePreferenceServerListFilter, if <code>loadbalancing.zone-affinity.enabled</code> is set.
+     * The zone of the client is the one it registers with in Eureka, unless <code>loadbalancing.zone-affinity.zone</code> is set.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "loadbalancing.zone-affinity.enabled", havingValue = "true")
+    public ServerListFilter<Server> ribbonServerListFilter(IClientConfig config, ObjectProvider<RoutingMetrics> routingMetrics,
+            @Value("${loadbalancing.zone-affinity.zone:${eureka.instance.metadata-map.zone:}}") String zone,
+            @Value("${loadbalancing.zone-affinity.min-instances:2}") int minInstances,
+            @Value("${loadbalancing.zone-affinity.min-capacity-percent:50}") int minCapacityPercent) {
+        // Like RibbonClientConfiguration, give <client>.ribbon.NIWSServerListFilterClassName precedence.
+        if (propertiesFactory.isSet(ServerListFilter.class, name)) {
+            return propertiesFactory.get(ServerListFilter.class, config, name);
+        }
+        return new ZoneAffinityFilter<>(name, zone.isEmpty() ? null : zone, minInstances, minCapacityPercent, routingMetrics.getIfAvailable());
+    }
+
+    /**
+     * Wraps the server list (Eureka-based or static) into an {@link IncrementalServerList}. A ServerList bean declared here
+     * would replace the one of the Eureka or the default Ribbon configuration, depending on which one is active.
+     */
+    @Bean
+    public static BeanPostProcessor incrementalServerListPostProcessor(@Value("${ribbon.client.name}") String name,
+            ObjectProvider<RoutingMetrics> routingMetrics) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof ServerList && !(bean instanceof IncrementalServerList)) {
+                    return new IncrementalServerList<>((ServerList<?>) bean, name, routingMetrics.getIfAvailable());
+                }
+                return bean;
+            }
+        };
+    }
+
+    // Note: The LoadBalancerClient is declared in LoadBalancingConfiguration.
+    // A LoadBalancerClient declared here would not be used by @LoadBalanced RestTemplates.
     
     // This is how you would override implementations of 
     // Ribbon extension interfaces with your custom implementation.
@@ -0,0 +1,296 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.netflix.ribbon.RibbonLoadBalancerClient;
+
+import com.fonz.cloud.address.service.client.cf.CFDirectRouting;
+import com.fonz.cloud.address.service.client.cf.CFRoutingHeaderCache;
+import com.netflix.loadbalancer.Server;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Micrometer metrics of the Ribbon / CF routing pipeline.
+ *
+ * <ul>
+ * <li><code>ribbon.routing.server.selection</code> - time it takes Ribbon to choose a service instance (timer).</li>
+ * <li><code>ribbon.routing.header</code> - requests sent with (<code>result=injected</code>) and without (<code>result=missing</code>)
+ *     the CF routing header (counter).</li>
+ * <li><code>ribbon.routing.retries</code> - retries per logical request, i.e. attempts minus one (distribution summary).</li>
+ * <li><code>ribbon.routing.retry</code> - retries on the same (<code>target=same-server</code>) and on the next
+ *     (<code>target=next-server</code>) instance, tagged with the instance that failed (counter).</li>
+ * <li><code>ribbon.routing.shed</code> - requests rejected by an overloaded instance with <code>503</code> and <code>Retry-After</code>,
+ *     tagged with that instance (counter).</li>
+ * <li><code>ribbon.routing.retry.denied</code> - retries dropped because the retry budget was used up (counter).</li>
+ * <li><code>ribbon.routing.hedges</code> - hedged requests sent (counter).</li>
+ * <li><code>ribbon.routing.serverlist.instances</code> - instances <code>added</code>, <code>removed</code>, <code>changed</code> and
+ *     <code>unchanged</code> (tag <code>change</code>) by updates of the Ribbon server list (counter, see {@link IncrementalServerList}).</li>
+ * <li><code>ribbon.routing.zone.affinity</code> - server list updates that kept the <code>local</code> zone only or fell back to
+ *     <code>all</code> zones (tag <code>zones</code>, counter, see {@link ZoneAffinityFilter}).</li>
+ * <li><code>ribbon.routing.outlier.ejections</code> - ejections of failing instances (counter, see {@link OutlierDetector}).</li>
+ * <li><code>ribbon.routing.direct</code> - requests sent to the internal address of an instance, bypassing Go-Router (counter,
+ *     see {@link CFDirectRouting}).</li>
+ * <li><code>ribbon.routing.direct.fallbacks</code> - fallbacks to Go-Router after a failed connection to the internal address
+ *     of an instance (counter).</li>
+ * </ul>
+ *
+ * All metrics are tagged with the <code>service</code> ID, the per-instance ones also with the CF <code>instance</code> index
+ * (or <code>host:port</code>, if the instance has no CF routing information).
+ *
+ * The meters are created once per service and instance and then looked up by the (cached) routing header value,
+ * so recording does not allocate. See <code>/actuator/metrics/ribbon.routing.server.selection</code> etc.
+ */
+public class RoutingMetrics {
+
+    private static final String UNKNOWN = "unknown";
+
+    private final MeterRegistry registry;
+    private final CFRoutingHeaderCache headerCache;
+    private final ConcurrentMap<String, ServiceMeters> metersByService = new ConcurrentHashMap<>();
+
+    public RoutingMetrics(MeterRegistry registry, CFRoutingHeaderCache headerCache) {
+        this.registry = registry;
+        this.headerCache = headerCache;
+    }
+
+    /**
+     * @param server the chosen server, or null if there was none.
+     */
+    public void recordServerSelection(String serviceId, Server server, long durationNanos) {
+        ServiceMeters serviceMeters = serviceMeters(serviceId);
+        InstanceMeters instanceMeters = server != null ? instanceMeters(serviceMeters, server) : serviceMeters.unknownInstance;
+        instanceMeters.serverSelection.record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param headerValue the routing header value set on the request, or null if none was set.
+     */
+    public void recordRoutingHeader(String serviceId, String headerValue) {
+        ServiceMeters serviceMeters = serviceMeters(serviceId);
+        if (headerValue != null) {
+            serviceMeters.instanceMeters(headerValue, true).headerInjected.increment();
+        } else {
+            serviceMeters.headerMissing.increment();
+        }
+    }
+
+    /**
+     * @param failedInstance the instance of the attempt that failed.
+     * @param sameServer true, if the request is retried on the same instance.
+     */
+    public void recordRetry(String serviceId, ServiceInstance failedInstance, boolean sameServer) {
+        ServiceMeters serviceMeters = serviceMeters(serviceId);
+        InstanceMeters instanceMeters = failedInstance != null ? instanceMeters(serviceMeters, failedInstance) : serviceMeters.unknownInstance;
+        (sameServer ? instanceMeters.sameServerRetries : instanceMeters.nextServerRetries).increment();
+    }
+
+    /**
+     * @param retries the number of retries of a request that is complete.
+     */
+    public void recordRetriesPerRequest(String serviceId, int retries) {
+        serviceMeters(serviceId).retriesPerRequest.record(retries);
+    }
+
+    /**
+     * @param instance the instance that has rejected the request because it is overloaded.
+     */
+    public void recordLoadShed(String serviceId, ServiceInstance instance) {
+        ServiceMeters serviceMeters = serviceMeters(serviceId);
+        (instance != null ? instanceMeters(serviceMeters, instance) : serviceMeters.unknownInstance).shed.increment();
+    }
+
+    public void recordRetryDenied(String serviceId) {
+        serviceMeters(serviceId).retriesDenied.increment();
+    }
+
+    public void recordHedge(String serviceId) {
+        serviceMeters(serviceId).hedges.increment();
+    }
+
+    public void recordServerListUpdate(String serviceId, int added, int removed, int changed, int unchanged) {
+        ServiceMeters serviceMeters = serviceMeters(serviceId);
+        serviceMeters.serversAdded.increment(added);
+        serviceMeters.serversRemoved.increment(removed);
+        serviceMeters.serversChanged.increment(changed);
+        serviceMeters.serversUnchanged.increment(unchanged);
+    }
+
+    /**
+     * @param local true, if the server list has been restricted to the local zone, false if all zones are kept.
+     */
+    public void recordZoneAffinity(String serviceId, boolean local) {
+        ServiceMeters serviceMeters = serviceMeters(serviceId);
+        (local ? serviceMeters.localZone : serviceMeters.allZones).increment();
+    }
+
+    /**
+     * @param server the instance that has been ejected.
+     */
+    public void recordEjection(String serviceId, Server server) {
+        instanceMeters(serviceMeters(serviceId), server).ejections.increment();
+    }
+
+    /**
+     * @param instance the instance the request has been sent to directly.
+     */
+    public void recordDirectRequest(String serviceId, ServiceInstance instance) {
+        instanceMeters(serviceMeters(serviceId), instance).directRequests.increment();
+    }
+
+    /**
+     * @param instance the instance that is reached through Go-Router again.
+     */
+    public void recordDirectFallback(String serviceId, ServiceInstance instance) {
+        instanceMeters(serviceMeters(serviceId), instance).directFallbacks.increment();
+    }
+
+    private InstanceMeters instanceMeters(ServiceMeters serviceMeters, Server server) {
+        String headerValue = headerCache.getHeaderValue(server);
+        return headerValue != null ? serviceMeters.instanceMeters(headerValue, true) : serviceMeters.instanceMeters(server.getId(), false);
+    }
+
+    private InstanceMeters instanceMeters(ServiceMeters serviceMeters, ServiceInstance instance) {
+        if (instance instanceof RibbonLoadBalancerClient.RibbonServer) {
+            return instanceMeters(serviceMeters, ((RibbonLoadBalancerClient.RibbonServer) instance).getServer());
+        }
+        String headerValue = headerCache.getHeaderValue(instance);
+        return headerValue != null ? serviceMeters.instanceMeters(headerValue, true) : serviceMeters.instanceMeters(instance.getInstanceId(), false);
+    }
+
+    private ServiceMeters serviceMeters(String serviceId) {
+        String key = serviceId != null ? serviceId : UNKNOWN;
+        ServiceMeters serviceMeters = metersByService.get(key);
+        if (serviceMeters == null) {
+            serviceMeters = metersByService.computeIfAbsent(key, ServiceMeters::new);
+        }
+        return serviceMeters;
+    }
+
+    private final class ServiceMeters {
+
+        private final String serviceId;
+        private final ConcurrentMap<String, InstanceMeters> metersByInstance = new ConcurrentHashMap<>();
+        private final InstanceMeters unknownInstance;
+        private final Counter headerMissing;
+        private final DistributionSummary retriesPerRequest;
+        private final Counter retriesDenied;
+        private final Counter hedges;
+        private final Counter serversAdded;
+        private final Counter serversRemoved;
+        private final Counter serversChanged;
+        private final Counter serversUnchanged;
+        private final Counter localZone;
+        private final Counter allZones;
+
+        ServiceMeters(String serviceId) {
+            this.serviceId = serviceId;
+            Tags tags = Tags.of("service", serviceId);
+            this.unknownInstance = new InstanceMeters(serviceId, UNKNOWN);
+            this.headerMissing = Counter.builder("ribbon.routing.header")
+                    .description("Requests sent with or without the CF routing header.")
+                    .tags(tags).tag("instance", UNKNOWN).tag("result", "missing")
+                    .register(registry);
+            this.retriesPerRequest = DistributionSummary.builder("ribbon.routing.retries")
+                    .description("Retries per request.")
+                    .tags(tags)
+                    .register(registry);
+            this.retriesDenied = Counter.builder("ribbon.routing.retry.denied")
+                    .description("Retries dropped because the retry budget was used up.")
+                    .tags(tags)
+                    .register(registry);
+            this.hedges = Counter.builder("ribbon.routing.hedges")
+                    .description("Hedged requests sent.")
+                    .tags(tags)
+                    .register(registry);
+            this.serversAdded = serverListCounter(tags, "added");
+            this.serversRemoved = serverListCounter(tags, "removed");
+            this.serversChanged = serverListCounter(tags, "changed");
+            this.serversUnchanged = serverListCounter(tags, "unchanged");
+            this.localZone = zoneAffinityCounter(tags, "local");
+            this.allZones = zoneAffinityCounter(tags, "all");
+        }
+
+        private Counter serverListCounter(Tags tags, String change) {
+            return Counter.builder("ribbon.routing.serverlist.instances")
+                    .description("Instances added, removed, changed or unchanged by updates of the Ribbon server list.")
+                    .tags(tags).tag("change", change)
+                    .register(registry);
+        }
+
+        private Counter zoneAffinityCounter(Tags tags, String zones) {
+            return Counter.builder("ribbon.routing.zone.affinity")
+                    .description("Server list updates that kept the local zone only or all zones.")
+                    .tags(tags).tag("zones", zones)
+                    .register(registry);
+        }
+
+        /**
+         * @param instanceKey the routing header value (<code>cfAppGuid:cfInstanceIndex</code>) or the server ID of the instance.
+         * @param routingHeader true, if the key is a routing header value. The instance is then tagged with the CF instance index.
+         */
+        InstanceMeters instanceMeters(String instanceKey, boolean routingHeader) {
+            InstanceMeters instanceMeters = metersByInstance.get(instanceKey);
+            if (instanceMeters == null) {
+                String instanceTag = routingHeader ? instanceKey.substring(instanceKey.lastIndexOf(':') + 1) : instanceKey;
+                instanceMeters = metersByInstance.computeIfAbsent(instanceKey, key -> new InstanceMeters(serviceId, instanceTag));
+            }
+            return instanceMeters;
+        }
+    }
+
+    private final class InstanceMeters {
+
+        private final Timer serverSelection;
+        private final Counter headerInjected;
+        private final Counter sameServerRetries;
+        private final Counter nextServerRetries;
+        private final Counter ejections;
+        private final Counter shed;
+        private final Counter directRequests;
+        private final Counter directFallbacks;
+
+        InstanceMeters(String serviceId, String instance) {
+            Tags tags = Tags.of("service", serviceId, "instance", instance);
+            this.serverSelection = Timer.builder("ribbon.routing.server.selection")
+                    .description("Time it takes Ribbon to choose a service instance.")
+                    .tags(tags)
+                    .register(registry);
+            this.headerInjected = Counter.builder("ribbon.routing.header")
+                    .description("Requests sent with or without the CF routing header.")
+                    .tags(tags).tag("result", "injected")
+                    .register(registry);
+            this.sameServerRetries = Counter.builder("ribbon.routing.retry")
+                    .description("Retries by the instance that failed and the instance that is retried.")
+                    .tags(tags).tag("target", "same-server")
+                    .register(registry);
+            this.nextServerRetries = Counter.builder("ribbon.routing.retry")
+                    .description("Retries by the instance that failed and the instance that is retried.")
+                    .tags(tags).tag("target", "next-server")
+                    .register(registry);
+            this.shed = Counter.builder("ribbon.routing.shed")
+                    .description("Requests rejected by an overloaded instance.")
+                    .tags(tags)
+                    .register(registry);
+            this.ejections = Counter.builder("ribbon.routing.outlier.ejections")
+                    .description("Ejections of failing instances by outlier detection.")
+                    .tags(tags)
+                    .register(registry);
+            this.directRequests = Counter.builder("ribbon.routing.direct")
+                    .description("Requests sent to the internal address of an instance, bypassing Go-Router.")
+                    .tags(tags)
+                    .register(registry);
+            this.directFallbacks = Counter.builder("ribbon.routing.direct.fallbacks")
+                    .description("Fallbacks to Go-Router after a failed connection to the internal address of an instance.")
+                    .tags(tags)
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.client.loadbalancer.LoadBalanced;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerInterceptor;
+import org.springframework.cloud.client.loadbalancer.RetryLoadBalancerInterceptor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.web.client.RestTemplate;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+/**
+ * Adds a {@link SingleFlightInterceptor} to all @LoadBalanced RestTemplates, if <code>single-flight.enabled</code> is set.
+ *
+ * The interceptor goes right in front of Spring Cloud's load balancer interceptor, i.e. behind the {@link ResponseCacheInterceptor}
+ * (if enabled): cache hits are answered without it, and concurrent cache misses for the same URI are sent only once.
+ * The whole retry loop of the load balancer runs inside the single flight, so all callers share its final outcome.
+ */
+@Configuration
+@ConditionalOnProperty(name = "single-flight.enabled", havingValue = "true")
+public class SingleFlightConfiguration {
+
+    @LoadBalanced
+    @Autowired(required = false)
+    private List<RestTemplate> restTemplates = Collections.emptyList();
+
+    @Bean
+    public SingleFlightInterceptor singleFlightInterceptor(ObjectProvider<MeterRegistry> meterRegistry) {
+        return new SingleFlightInterceptor(meterRegistry.getIfAvailable(CompositeMeterRegistry::new));
+    }
+
+    @Bean
+    public SmartInitializingSingleton singleFlightRestTemplateInitializer(SingleFlightInterceptor singleFlightInterceptor) {
+        // In front of the load balancer interceptor if it has been added already, otherwise at the end, where it will be added after it.
+        return () -> {
+            for (RestTemplate restTemplate : restTemplates) {
+                List<ClientHttpRequestInterceptor> interceptors = new ArrayList<>(restTemplate.getInterceptors());
+                int index = interceptors.size();
+                for (int i = 0; i < interceptors.size(); i++) {
+                    if (interceptors.get(i) instanceof LoadBalancerInterceptor || interceptors.get(i) instanceof RetryLoadBalancerInterceptor) {
+                        index = i;
+                        break;
+                    }
+                }
+                interceptors.add(index, singleFlightInterceptor);
+                restTemplate.setInterceptors(interceptors);
+            }
+        };
+    }
+}
@@ -0,0 +1,102 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Coalesces concurrent identical GET requests of a @LoadBalanced RestTemplate into one outbound request ("single flight").
+ *
+ * The first GET for a URI is sent as usual. Until its response has arrived, further identical GETs are not sent,
+ * but wait for that response, which is buffered and handed to all of them. If the request fails,
+ * all of them get the same exception, so each Hystrix command around them falls back as if it had sent the request itself.
+ * Once the response is there, the next GET is sent again - nothing is cached (see {@link ResponseCacheInterceptor} for that).
+ *
+ * Requests are told apart by method, URI and <code>Accept</code> header (which decides the encoding of the response, see
+ * {@link SmileConfiguration}) only, so this must not be used for requests that differ in other headers, e.g. with per-user credentials.
+ * The conditional headers <code>If-None-Match</code> and <code>If-Modified-Since</code> are part of the key as well: a revalidation
+ * of a stale {@link ResponseCacheInterceptor} entry may be answered with a <code>304</code> without a body, which is no answer to
+ * an unconditional GET. Streaming requests (see {@link BufferedClientHttpResponse#isBufferable(HttpRequest)})
+ * are never coalesced, as their responses are not buffered. Requests that were coalesced are counted in <code>http.client.requests.coalesced</code>.
+ */
+public class SingleFlightInterceptor implements ClientHttpRequestInterceptor {
+
+    private final ConcurrentMap<String, CompletableFuture<BufferedClientHttpResponse>> inFlight = new ConcurrentHashMap<>();
+    private final Counter coalesced;
+
+    public SingleFlightInterceptor(MeterRegistry registry) {
+        this.coalesced = Counter.builder("http.client.requests.coalesced")
+                .description("GET requests that waited for an identical request in flight instead of being sent.")
+                .register(registry);
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        if (request.getMethod() != HttpMethod.GET || !BufferedClientHttpResponse.isBufferable(request)) {
+            return execution.execute(request, body);
+        }
+
+        HttpHeaders headers = request.getHeaders();
+        String key = request.getMethodValue() + " " + request.getURI() + " " + headers.get(HttpHeaders.ACCEPT)
+                + " " + headers.get(HttpHeaders.IF_NONE_MATCH) + " " + headers.get(HttpHeaders.IF_MODIFIED_SINCE);
+        CompletableFuture<BufferedClientHttpResponse> flight = new CompletableFuture<>();
+        CompletableFuture<BufferedClientHttpResponse> leader = inFlight.putIfAbsent(key, flight);
+        if (leader != null) {
+            coalesced.increment();
+            return await(leader).toResponse();
+        }
+
+        try {
+            BufferedClientHttpResponse response = BufferedClientHttpResponse.of(execution.execute(request, body));
+            flight.complete(response);
+            return response.toResponse();
+        } catch (IOException | RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * @return the number of distinct requests in flight.
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    private static BufferedClientHttpResponse await(CompletableFuture<BufferedClientHttpResponse> flight) throws IOException {
+        try {
+            return flight.get();
+        } catch (InterruptedException e) {
+            // E.g. a Hystrix timeout. Only this caller gives up, the request in flight goes on.
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an identical request in flight");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
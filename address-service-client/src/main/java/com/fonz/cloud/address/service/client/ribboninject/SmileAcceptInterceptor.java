@@ -0,0 +1,69 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * Asks for Smile (<code>application/x-jackson-smile</code>) first, on requests of a RestTemplate whose caller reads Smile.
+ *
+ * RestTemplate builds the <code>Accept</code> header from the message converters that can read the response type, so Smile
+ * is listed for e.g. an <code>Address</code>, but behind XML and JSON. If it is listed, the header is replaced by Smile first,
+ * then JSON (<code>q=0.9</code>) and all other listed types (<code>q=0.8</code>), like the <code>Accept</code> header of Feign
+ * clients (see {@link SmileConfiguration}).
+ *
+ * Callers of raw bodies (<code>String</code>, <code>byte[]</code>, <code>Resource</code>) accept <code>*&#47;*</code>.
+ * They would get the Smile bytes as they are, so their <code>Accept</code> header is left alone.
+ *
+ * Only the <code>Accept</code> header is changed: request bodies are written by the first converter that can write them, as before.
+ */
+public class SmileAcceptInterceptor implements ClientHttpRequestInterceptor {
+
+    public static final MediaType APPLICATION_SMILE = MediaType.parseMediaType("application/x-jackson-smile");
+
+    private static final MediaType JSON_SUFFIX = MediaType.parseMediaType("application/*+json");
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        HttpHeaders headers = request.getHeaders();
+        List<MediaType> accept = headers.getAccept();
+        if (acceptsSmile(accept)) {
+            headers.setAccept(smileFirst(accept));
+        }
+        return execution.execute(request, body);
+    }
+
+    private static boolean acceptsSmile(List<MediaType> accept) {
+        boolean smile = false;
+        for (MediaType mediaType : accept) {
+            if (mediaType.isWildcardType()) {
+                return false;
+            }
+            smile |= APPLICATION_SMILE.equalsTypeAndSubtype(mediaType);
+        }
+        return smile;
+    }
+
+    private static List<MediaType> smileFirst(List<MediaType> accept) {
+        List<MediaType> smileFirst = new ArrayList<>(accept.size());
+        smileFirst.add(APPLICATION_SMILE);
+        for (MediaType mediaType : accept) {
+            if (APPLICATION_SMILE.equalsTypeAndSubtype(mediaType)) {
+                continue;
+            }
+            boolean json = MediaType.APPLICATION_JSON.equalsTypeAndSubtype(mediaType) || JSON_SUFFIX.equalsTypeAndSubtype(mediaType);
+            smileFirst.add(new MediaType(mediaType, Collections.singletonMap("q", json ? "0.9" : "0.8")));
+        }
+        // Sorted by quality, so the header reads like the one of the Feign clients.
+        MediaType.sortByQualityValue(smileFirst);
+        return smileFirst;
+    }
+}
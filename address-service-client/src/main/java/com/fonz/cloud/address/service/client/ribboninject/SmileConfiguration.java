@@ -0,0 +1,78 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.client.loadbalancer.LoadBalanced;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.web.client.RestTemplate;
+
+import feign.RequestInterceptor;
+
+/**
+ * Makes @LoadBalanced RestTemplates and Feign clients prefer Smile (<code>application/x-jackson-smile</code>, a binary encoding
+ * of JSON) over JSON, if <code>smile.enabled</code> is set. Smile takes less CPU to parse than JSON, and fewer bytes on the wire.
+ *
+ * Both still accept JSON, with a lower preference, so services that do not offer Smile answer in JSON as before.
+ * Which of the two a response is in, is taken from its <code>Content-Type</code>.
+ *
+ * Only what is asked for changes, not what is sent: the message converters of the RestTemplates keep their order, so request
+ * bodies are still written as JSON. A Smile converter is appended, in case RestTemplate has not registered one itself, and a
+ * {@link SmileAcceptInterceptor} puts Smile first in the <code>Accept</code> header of requests whose response can be read as Smile.
+ * Feign does not send an <code>Accept</code> header by default, so one is added to requests without one.
+ *
+ * The response encoding now depends on the <code>Accept</code> header, so {@link ResponseCacheInterceptor} and
+ * {@link SingleFlightInterceptor} tell requests apart by it, too.
+ */
+@Configuration
+@ConditionalOnProperty(name = "smile.enabled", havingValue = "true")
+public class SmileConfiguration {
+
+    private static final String SMILE_FIRST = "application/x-jackson-smile, application/json;q=0.9, */*;q=0.8";
+
+    @LoadBalanced
+    @Autowired(required = false)
+    private List<RestTemplate> restTemplates = Collections.emptyList();
+
+    @Bean
+    public SmartInitializingSingleton smileRestTemplateInitializer() {
+        SmileAcceptInterceptor smileAcceptInterceptor = new SmileAcceptInterceptor();
+        return () -> {
+            for (RestTemplate restTemplate : restTemplates) {
+                if (!hasSmileConverter(restTemplate)) {
+                    restTemplate.getMessageConverters().add(new MappingJackson2SmileHttpMessageConverter());
+                }
+                List<ClientHttpRequestInterceptor> interceptors = new ArrayList<>(restTemplate.getInterceptors());
+                interceptors.add(0, smileAcceptInterceptor);
+                restTemplate.setInterceptors(interceptors);
+            }
+        };
+    }
+
+    @Bean
+    public RequestInterceptor smileAcceptRequestInterceptor() {
+        return template -> {
+            if (!template.headers().containsKey(HttpHeaders.ACCEPT)) {
+                template.header(HttpHeaders.ACCEPT, SMILE_FIRST);
+            }
+        };
+    }
+
+    private static boolean hasSmileConverter(RestTemplate restTemplate) {
+        for (HttpMessageConverter<?> converter : restTemplate.getMessageConverters()) {
+            if (converter instanceof MappingJackson2SmileHttpMessageConverter) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,150 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.netflix.hystrix.HystrixThreadPoolKey;
+import com.netflix.hystrix.HystrixThreadPoolProperties;
+import com.netflix.hystrix.strategy.concurrency.HystrixConcurrencyStrategy;
+import com.netflix.hystrix.strategy.concurrency.HystrixRequestVariable;
+import com.netflix.hystrix.strategy.concurrency.HystrixRequestVariableLifecycle;
+import com.netflix.hystrix.strategy.properties.HystrixProperty;
+
+/**
+ * A Hystrix concurrency strategy that runs the commands of selected thread pools on a thread per command.
+ *
+ * Hystrix' thread pools are fixed in size (<code>hystrix.threadpool.&lt;key&gt;.coreSize</code>, 10 by default).
+ * Every blocking call occupies one of their threads until the response arrives, so the number of calls in flight
+ * is limited by the pool size, not by the load. Commands that don't find a free thread are rejected and fall back.
+ *
+ * For the selected thread pool keys, this strategy returns an executor without such a limit: each command runs
+ * on a thread of its own, created on demand. On Java 21 and later those are virtual threads, which are cheap
+ * to create and don't occupy a platform thread while blocked on I/O. On older Java versions, they are daemon platform threads
+ * that are kept for reuse for a minute.
+ *
+ * Everything else stays as it is: Hystrix still runs the command on a separate thread, so its timeout
+ * (<code>execution.isolation.thread.timeoutInMilliseconds</code>), the circuit breaker and the fallback work as before.
+ * All other thread pools, callable wrapping and request variables are left to the given delegate strategy.
+ */
+public class UnboundedHystrixConcurrencyStrategy extends HystrixConcurrencyStrategy {
+
+    private static final ThreadFactory VIRTUAL_THREAD_FACTORY = virtualThreadFactory();
+
+    private final HystrixConcurrencyStrategy delegate;
+    private final Set<String> threadPoolKeys;
+
+    /**
+     * @param delegate the strategy used for all other thread pools, e.g. the strategy registered before.
+     * @param threadPoolKeys the names of the thread pools to replace. If empty, all thread pools are replaced.
+     */
+    public UnboundedHystrixConcurrencyStrategy(HystrixConcurrencyStrategy delegate, Set<String> threadPoolKeys) {
+        this.delegate = delegate;
+        this.threadPoolKeys = threadPoolKeys;
+    }
+
+    /**
+     * @return <code>true</code>, if commands of the given thread pool run on a thread per command.
+     */
+    public boolean isUnbounded(HystrixThreadPoolKey threadPoolKey) {
+        return threadPoolKeys.isEmpty() || threadPoolKeys.contains(threadPoolKey.name());
+    }
+
+    @Override
+    public ThreadPoolExecutor getThreadPool(HystrixThreadPoolKey threadPoolKey, HystrixThreadPoolProperties threadPoolProperties) {
+        if (!isUnbounded(threadPoolKey)) {
+            return delegate.getThreadPool(threadPoolKey, threadPoolProperties);
+        }
+        return new ThreadPerCommandExecutor(threadFactory(threadPoolKey));
+    }
+
+    @Override
+    public ThreadPoolExecutor getThreadPool(HystrixThreadPoolKey threadPoolKey, HystrixProperty<Integer> corePoolSize,
+            HystrixProperty<Integer> maximumPoolSize, HystrixProperty<Integer> keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue) {
+        if (!isUnbounded(threadPoolKey)) {
+            return delegate.getThreadPool(threadPoolKey, corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue);
+        }
+        return new ThreadPerCommandExecutor(threadFactory(threadPoolKey));
+    }
+
+    @Override
+    public BlockingQueue<Runnable> getBlockingQueue(int maxQueueSize) {
+        return delegate.getBlockingQueue(maxQueueSize);
+    }
+
+    @Override
+    public <T> Callable<T> wrapCallable(Callable<T> callable) {
+        return delegate.wrapCallable(callable);
+    }
+
+    @Override
+    public <T> HystrixRequestVariable<T> getRequestVariable(HystrixRequestVariableLifecycle<T> rv) {
+        return delegate.getRequestVariable(rv);
+    }
+
+    /**
+     * @return <code>true</code>, if this JVM supports virtual threads.
+     */
+    public static boolean isVirtualThreadsAvailable() {
+        return VIRTUAL_THREAD_FACTORY != null;
+    }
+
+    private static ThreadFactory threadFactory(HystrixThreadPoolKey threadPoolKey) {
+        if (VIRTUAL_THREAD_FACTORY != null) {
+            return VIRTUAL_THREAD_FACTORY;
+        }
+        String namePrefix = "hystrix-" + threadPoolKey.name() + "-unbounded-";
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Looks up <code>Thread.ofVirtual().factory()</code> by reflection, since this project is compiled for Java 8.
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+            Method factory = ofVirtual.getReturnType().getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * An executor that hands every task to a new (or idle) thread and never queues or rejects.
+     * Hystrix applies its thread pool properties on every command execution, so pool size and keep-alive changes are ignored.
+     */
+    private static final class ThreadPerCommandExecutor extends ThreadPoolExecutor {
+
+        ThreadPerCommandExecutor(ThreadFactory threadFactory) {
+            super(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), threadFactory);
+        }
+
+        @Override
+        public void setCorePoolSize(int corePoolSize) {
+            // ignored, see above.
+        }
+
+        @Override
+        public void setMaximumPoolSize(int maximumPoolSize) {
+            // ignored, see above.
+        }
+
+        @Override
+        public void setKeepAliveTime(long time, TimeUnit unit) {
+            // ignored, see above.
+        }
+    }
+}
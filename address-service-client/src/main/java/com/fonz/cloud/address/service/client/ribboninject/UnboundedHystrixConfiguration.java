@@ -0,0 +1,69 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
+
+import com.netflix.hystrix.strategy.HystrixPlugins;
+import com.netflix.hystrix.strategy.concurrency.HystrixConcurrencyStrategy;
+import com.netflix.hystrix.strategy.eventnotifier.HystrixEventNotifier;
+import com.netflix.hystrix.strategy.executionhook.HystrixCommandExecutionHook;
+import com.netflix.hystrix.strategy.metrics.HystrixMetricsPublisher;
+import com.netflix.hystrix.strategy.properties.HystrixPropertiesStrategy;
+
+/**
+ * Registers the {@link UnboundedHystrixConcurrencyStrategy}, if <code>hystrix.unbounded-execution.enabled</code> is set.
+ * 
+ * <code>hystrix.unbounded-execution.thread-pools</code> lists the Hystrix thread pools whose commands run on a thread per command
+ * (empty for all of them). The thread pool of a @HystrixCommand is named after its group key, which is the simple class name
+ * by default, e.g. <code>FailingAddressServiceClient</code>.
+ * 
+ * Hystrix plugins can only be registered once, so the plugins registered so far are reset and registered again,
+ * with the previous concurrency strategy as the delegate of the new one.
+ * This has to happen before the first command of the thread pool is executed, since Hystrix keeps its thread pools for good.
+ */
+@Configuration
+@ConditionalOnProperty(name = "hystrix.unbounded-execution.enabled", havingValue = "true")
+public class UnboundedHystrixConfiguration {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UnboundedHystrixConfiguration.class);
+
+    @Bean
+    public UnboundedHystrixConcurrencyStrategy unboundedHystrixConcurrencyStrategy(
+            @Value("${hystrix.unbounded-execution.thread-pools:}") String threadPools) {
+        Set<String> threadPoolKeys = new HashSet<>();
+        for (String threadPool : StringUtils.commaDelimitedListToSet(threadPools)) {
+            if (!threadPool.trim().isEmpty()) {
+                threadPoolKeys.add(threadPool.trim());
+            }
+        }
+
+        HystrixPlugins plugins = HystrixPlugins.getInstance();
+        HystrixConcurrencyStrategy concurrencyStrategy = plugins.getConcurrencyStrategy();
+        HystrixEventNotifier eventNotifier = plugins.getEventNotifier();
+        HystrixMetricsPublisher metricsPublisher = plugins.getMetricsPublisher();
+        HystrixPropertiesStrategy propertiesStrategy = plugins.getPropertiesStrategy();
+        HystrixCommandExecutionHook commandExecutionHook = plugins.getCommandExecutionHook();
+
+        UnboundedHystrixConcurrencyStrategy unboundedStrategy = new UnboundedHystrixConcurrencyStrategy(concurrencyStrategy, threadPoolKeys);
+
+        HystrixPlugins.reset();
+        plugins = HystrixPlugins.getInstance();
+        plugins.registerConcurrencyStrategy(unboundedStrategy);
+        plugins.registerEventNotifier(eventNotifier);
+        plugins.registerMetricsPublisher(metricsPublisher);
+        plugins.registerPropertiesStrategy(propertiesStrategy);
+        plugins.registerCommandExecutionHook(commandExecutionHook);
+
+        LOG.info("Hystrix commands of thread pools {} run on {}", threadPoolKeys.isEmpty() ? "(all)" : threadPoolKeys,
+                UnboundedHystrixConcurrencyStrategy.isVirtualThreadsAvailable() ? "virtual threads." : "unbounded platform threads.");
+        return unboundedStrategy;
+    }
+}
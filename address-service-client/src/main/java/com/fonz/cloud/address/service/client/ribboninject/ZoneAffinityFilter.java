@@ -0,0 +1,88 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import com.netflix.loadbalancer.Server;
+import com.netflix.loadbalancer.ServerListFilter;
+
+/**
+ * A Ribbon server list filter that keeps requests in the zone of the client, as long as that zone has enough capacity.
+ *
+ * Every service publishes its zone in its Eureka metadata (<code>eureka.instance.metadata-map.zone</code>), which Spring Cloud
+ * sets as the zone of its Ribbon servers. This filter hands only the servers of the client's own zone to the load balancer,
+ * so the Ribbon rule - and with it the CF routing header - only ever targets instances in that zone. That saves the latency
+ * and egress cost of requests across availability zones.
+ *
+ * All servers are kept instead (and {@link com.netflix.loadbalancer.ZoneAwareLoadBalancer} spreads requests over the zones by
+ * their number of instances), if the local zone
+ * <ul>
+ * <li>has fewer than <code>minInstances</code> instances, or</li>
+ * <li>has less than <code>minCapacityPercent</code> of the instances of an average zone, i.e. would get a lot more requests per
+ *     instance than the other zones, if all clients kept their requests local.</li>
+ * </ul>
+ * Servers without a zone (or with Ribbon's <code>UNKNOWN</code> zone) are left out of the average, but are kept along with all others if the local zone is left.
+ *
+ * Unlike Ribbon's own <code>ZonePreferenceServerListFilter</code>, it does not stick to the local zone as long as a single
+ * instance is left there. The filter is applied on every server list update, i.e. when instances come and go.
+ * Whether the local zone has been kept or left is counted in {@link RoutingMetrics}.
+ */
+public class ZoneAffinityFilter<T extends Server> implements ServerListFilter<T> {
+
+    private final String serviceId;
+    private final String zone;
+    private final int minInstances;
+    private final int minCapacityPercent;
+    private final RoutingMetrics routingMetrics;
+
+    /**
+     * @param zone the zone of the client. If null, all servers are kept.
+     * @param minInstances the minimum number of instances in the local zone.
+     * @param minCapacityPercent the minimum number of instances in the local zone, in percent of the average number per zone.
+     */
+    public ZoneAffinityFilter(String serviceId, String zone, int minInstances, int minCapacityPercent, RoutingMetrics routingMetrics) {
+        this.serviceId = serviceId;
+        this.zone = zone;
+        this.minInstances = minInstances;
+        this.minCapacityPercent = minCapacityPercent;
+        this.routingMetrics = routingMetrics;
+    }
+
+    @Override
+    public List<T> getFilteredListOfServers(List<T> servers) {
+        if (zone == null || servers == null || servers.isEmpty()) {
+            return servers;
+        }
+
+        List<T> local = new ArrayList<>();
+        Set<String> zones = new HashSet<>();
+        int zonedServers = 0;
+        for (T server : servers) {
+            // Servers without a zone are not a zone of their own: they do not count towards the average zone.
+            if (server.getZone() == null || Server.UNKNOWN_ZONE.equalsIgnoreCase(server.getZone())) {
+                continue;
+            }
+            zonedServers++;
+            zones.add(server.getZone().toLowerCase(Locale.ROOT));
+            if (zone.equalsIgnoreCase(server.getZone())) {
+                local.add(server);
+            }
+        }
+
+        // local >= zonedServers / zones * minCapacityPercent / 100, without rounding.
+        boolean enoughCapacity = !local.isEmpty() && local.size() >= minInstances
+                && local.size() * zones.size() * 100L >= (long) zonedServers * minCapacityPercent;
+        if (routingMetrics != null) {
+            routingMetrics.recordZoneAffinity(serviceId, enoughCapacity);
+        }
+        return enoughCapacity ? local : servers;
+    }
+
+    @Override
+    public String toString() {
+        return "ZoneAffinityFilter(" + zone + ")";
+    }
+}
@@ -0,0 +1,151 @@
+package com.fonz.cloud.address.service.client.cf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.content;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withServerError;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import com.fonz.cloud.address.service.client.Address;
+
+public class AddressBatcherTest {
+
+    private static final String BATCH_URI = "http://address-service/addresses/batch";
+
+    private final RestTemplate restTemplate = new RestTemplate();
+    private final MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+    private AddressBatcher batcher;
+
+    @After
+    public void tearDown() {
+        if (batcher != null) {
+            batcher.close();
+        }
+    }
+
+    @Test
+    public void batchIsSentOnceItIsFull() throws Exception {
+        batcher = new AddressBatcher(restTemplate, 3, 60000);
+        expectBatch("[\"1\",\"2\",\"3\"]", addresses("1", "2", "3"));
+
+        CompletableFuture<Address> first = batcher.lookup("1");
+        CompletableFuture<Address> second = batcher.lookup("2");
+        assertEquals("3", get(batcher.lookup("3")).getId());
+        assertEquals("1", get(first).getId());
+        assertEquals("2", get(second).getId());
+        server.verify();
+    }
+
+    @Test
+    public void batchIsSentAfterTheMaxDelay() throws Exception {
+        batcher = new AddressBatcher(restTemplate, 100, 50);
+        expectBatch("[\"1\",\"2\"]", addresses("1", "2"));
+
+        CompletableFuture<Address> first = batcher.lookup("1");
+        CompletableFuture<Address> second = batcher.lookup("2");
+        assertEquals("1", get(first).getId());
+        assertEquals("2", get(second).getId());
+        server.verify();
+    }
+
+    @Test
+    public void sameIdIsLookedUpOncePerBatch() throws Exception {
+        batcher = new AddressBatcher(restTemplate, 2, 60000);
+        expectBatch("[\"1\",\"2\"]", addresses("1", "2"));
+
+        CompletableFuture<Address> first = batcher.lookup("1");
+        CompletableFuture<Address> again = batcher.lookup("1");
+        batcher.lookup("2");
+        assertSame(first, again);
+        assertEquals("1", get(again).getId());
+        server.verify();
+    }
+
+    @Test
+    public void unknownIdFailsWithNoSuchElementException() throws Exception {
+        batcher = new AddressBatcher(restTemplate, 2, 60000);
+        expectBatch("[\"1\",\"2\"]", addresses("1"));
+
+        CompletableFuture<Address> known = batcher.lookup("1");
+        CompletableFuture<Address> unknown = batcher.lookup("2");
+        assertEquals("1", get(known).getId());
+        assertTrue(failure(unknown) instanceof NoSuchElementException);
+    }
+
+    @Test
+    public void failedBatchFailsEveryLookup() throws Exception {
+        batcher = new AddressBatcher(restTemplate, 2, 60000);
+        server.expect(requestTo(BATCH_URI)).andRespond(withServerError());
+
+        CompletableFuture<Address> first = batcher.lookup("1");
+        CompletableFuture<Address> second = batcher.lookup("2");
+        assertTrue(failure(first) instanceof HttpServerErrorException);
+        assertTrue(failure(second) instanceof HttpServerErrorException);
+    }
+
+    @Test
+    public void closeSendsThePendingLookups() throws Exception {
+        batcher = new AddressBatcher(restTemplate, 100, 60000);
+        expectBatch("[\"1\"]", addresses("1"));
+
+        CompletableFuture<Address> address = batcher.lookup("1");
+        batcher.close();
+        assertEquals("1", get(address).getId());
+    }
+
+    @Test
+    public void lookupAfterCloseFails() throws Exception {
+        batcher = new AddressBatcher(restTemplate, 100, 60000);
+        batcher.close();
+
+        assertTrue(failure(batcher.lookup("1")) instanceof RejectedExecutionException);
+    }
+
+    private void expectBatch(String ids, String addresses) {
+        server.expect(requestTo(BATCH_URI))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(content().string(ids))
+                .andRespond(withSuccess(addresses, MediaType.APPLICATION_JSON));
+    }
+
+    private static String addresses(String... ids) {
+        StringBuilder json = new StringBuilder("[");
+        for (String id : ids) {
+            json.append(json.length() > 1 ? "," : "").append("{\"id\":\"").append(id).append("\",\"city\":\"New York\"}");
+        }
+        return json.append(']').toString();
+    }
+
+    private static Address get(CompletableFuture<Address> address) throws Exception {
+        return address.get(5, TimeUnit.SECONDS);
+    }
+
+    private static Throwable failure(CompletableFuture<Address> address) throws Exception {
+        try {
+            get(address);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        fail("Lookup has not failed");
+        return null;
+    }
+}
@@ -0,0 +1,76 @@
+package com.fonz.cloud.address.service.client.cf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+
+public class CFDirectRoutingTest {
+
+    private static final String SERVICE_ID = "address-service";
+
+    private final CFDirectRouting directRouting = new CFDirectRouting(new CFRoutingHeaderCache(), null, 60000);
+    private final HttpRequest request = new MockClientHttpRequest(HttpMethod.GET, URI.create("https://address-service.example.com/address?name=a%20b"));
+
+    @Test
+    public void requestsGoToTheInternalAddress() {
+        HttpRequest directRequest = directRouting.directRequest(request, instance("i-1", "10.255.0.7:8080"));
+
+        assertEquals(URI.create("http://10.255.0.7:8080/address?name=a%20b"), directRequest.getURI());
+        assertEquals(HttpMethod.GET, directRequest.getMethod());
+    }
+
+    @Test
+    public void instancesWithoutValidInternalAddressAreRoutedThroughGoRouter() {
+        assertNull(directRouting.directRequest(request, instance("i-1", null)));
+        assertNull(directRouting.directRequest(request, instance("i-2", ":8080")));
+        assertNull(directRouting.directRequest(request, instance("i-3", "10.255.0.7:")));
+        assertNull(directRouting.directRequest(request, instance("i-4", "10.255.0.7")));
+    }
+
+    @Test
+    public void failedConnectionsFallBackToGoRouter() {
+        ServiceInstance instance = instance("i-1", "10.255.0.7:8080");
+        directRouting.recordFailure(SERVICE_ID, instance, new ConnectException("Connection refused"));
+
+        assertNull(directRouting.directRequest(request, instance));
+    }
+
+    @Test
+    public void otherFailuresDoNotFallBack() {
+        ServiceInstance instance = instance("i-1", "10.255.0.7:8080");
+        directRouting.recordFailure(SERVICE_ID, instance, new SocketTimeoutException("Read timed out"));
+
+        assertEquals(URI.create("http://10.255.0.7:8080/address?name=a%20b"), directRouting.directRequest(request, instance).getURI());
+    }
+
+    @Test
+    public void internalAddressIsTriedAgainAfterTheFallbackTime() {
+        CFDirectRouting directRouting = new CFDirectRouting(new CFRoutingHeaderCache(), null, 0);
+        ServiceInstance instance = instance("i-1", "10.255.0.7:8080");
+        directRouting.recordFailure(SERVICE_ID, instance, new ConnectException("Connection refused"));
+
+        assertEquals(URI.create("http://10.255.0.7:8080/address?name=a%20b"), directRouting.directRequest(request, instance).getURI());
+    }
+
+    private static ServiceInstance instance(String id, String internalAddress) {
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put(CFLoadBalancerRequestTransformer.CF_APP_GUID, "a1b2c3");
+        metadata.put(CFLoadBalancerRequestTransformer.CF_INSTANCE_INDEX, id.substring(id.indexOf('-') + 1));
+        if (internalAddress != null) {
+            metadata.put(CFLoadBalancerRequestTransformer.CF_INTERNAL_ADDRESS, internalAddress);
+        }
+        return new DefaultServiceInstance(id, SERVICE_ID, "address-service.example.com", 443, true, metadata);
+    }
+}
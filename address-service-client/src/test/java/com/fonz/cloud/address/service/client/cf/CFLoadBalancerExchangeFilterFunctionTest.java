@@ -0,0 +1,178 @@
+package com.fonz.cloud.address.service.client.cf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
+import org.springframework.cloud.netflix.ribbon.RibbonLoadBalancedRetryPolicy;
+import org.springframework.cloud.netflix.ribbon.RibbonLoadBalancerClient;
+import org.springframework.cloud.netflix.ribbon.SpringClientFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import com.fonz.cloud.address.service.client.ribboninject.AdaptiveTimeouts;
+import com.fonz.cloud.address.service.client.ribboninject.InFlightRequestCounters;
+import com.fonz.cloud.address.service.client.ribboninject.InstanceLatencyStats;
+import com.fonz.cloud.address.service.client.ribboninject.OutlierDetector;
+import com.fonz.cloud.address.service.client.ribboninject.RoutingMetrics;
+import com.netflix.appinfo.InstanceInfo;
+import com.netflix.client.config.CommonClientConfigKey;
+import com.netflix.client.config.DefaultClientConfigImpl;
+import com.netflix.loadbalancer.Server;
+import com.netflix.niws.loadbalancer.DiscoveryEnabledServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import reactor.core.publisher.Mono;
+
+public class CFLoadBalancerExchangeFilterFunctionTest {
+
+    private static final String SERVICE_ID = "address-service";
+
+    private final LoadBalancerClient loadBalancerClient = mock(LoadBalancerClient.class);
+    private final SpringClientFactory clientFactory = mock(SpringClientFactory.class);
+    private final CFRoutingHeaderCache headerCache = new CFRoutingHeaderCache();
+    private final InstanceLatencyStats latencyStats = new InstanceLatencyStats(headerCache, 10000);
+    private final List<ClientRequest> sentRequests = new ArrayList<>();
+    private CFLoadBalancerExchangeFilterFunction filterFunction;
+
+    @Before
+    public void setUp() {
+        DefaultClientConfigImpl config = new DefaultClientConfigImpl();
+        config.loadDefaultValues();
+        config.set(CommonClientConfigKey.MaxAutoRetries, 0);
+        config.set(CommonClientConfigKey.MaxAutoRetriesNextServer, 1);
+        config.set(CommonClientConfigKey.ReadTimeout, 1000);
+        config.set(RibbonLoadBalancedRetryPolicy.RETRYABLE_STATUS_CODES, "503");
+        when(clientFactory.getClientConfig(SERVICE_ID)).thenReturn(config);
+        when(clientFactory.getInstance(eq(SERVICE_ID), eq(AdaptiveTimeouts.class))).thenReturn(null);
+
+        when(loadBalancerClient.choose(SERVICE_ID)).thenReturn(instance(0), instance(1));
+        when(loadBalancerClient.reconstructURI(any(), any())).thenAnswer(invocation -> {
+            ServiceInstance instance = invocation.getArgument(0);
+            URI original = invocation.getArgument(1);
+            return UriComponentsBuilder.fromUri(original).host(instance.getHost()).port(instance.getPort()).build(true).toUri();
+        });
+
+        filterFunction = new CFLoadBalancerExchangeFilterFunction(loadBalancerClient, clientFactory,
+                Collections.singletonList(new CFLoadBalancerRequestTransformer(headerCache, null, null, false)),
+                new InFlightRequestCounters(), latencyStats);
+    }
+
+    @Test
+    public void retryAfterFailedConnectionIsPinnedToTheNextInstance() {
+        ClientResponse response = exchange(attempt -> attempt == 0
+                ? Mono.error(new ConnectException("Connection refused"))
+                : Mono.just(ClientResponse.create(HttpStatus.OK).body("ok").build()));
+
+        assertEquals(HttpStatus.OK, response.statusCode());
+        assertEquals(Arrays.asList("a1b2c3:0", "a1b2c3:1"), routingHeaders());
+        // The refused connection makes the first instance look slow, not fast (the penalty has decayed a little since).
+        assertTrue(latencyStats.getResponseTime("i-0") > 0.9 * TimeUnit.MILLISECONDS.toNanos(InstanceLatencyStats.DEFAULT_FAILURE_PENALTY_MILLIS));
+        assertTrue(latencyStats.getResponseTime("i-1") < latencyStats.getResponseTime("i-0"));
+    }
+
+    @Test
+    public void retryableStatusCodeIsRetriedOnTheNextInstance() {
+        ClientResponse response = exchange(attempt -> attempt == 0
+                ? Mono.just(ClientResponse.create(HttpStatus.SERVICE_UNAVAILABLE).build())
+                : Mono.just(ClientResponse.create(HttpStatus.OK).body("ok").build()));
+
+        assertEquals(HttpStatus.OK, response.statusCode());
+        assertEquals("ok", response.bodyToMono(String.class).block());
+        assertEquals(Arrays.asList("a1b2c3:0", "a1b2c3:1"), routingHeaders());
+    }
+
+    @Test
+    public void lastResponseIsReturnedOnceTheRetriesAreUsedUp() {
+        ClientResponse response = exchange(attempt -> Mono.just(
+                ClientResponse.create(HttpStatus.SERVICE_UNAVAILABLE).body("busy " + attempt).build()));
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.statusCode());
+        assertEquals("busy 1", response.bodyToMono(String.class).block());
+        assertEquals(2, sentRequests.size());
+    }
+
+    @Test
+    public void outcomesAreRecordedForOutlierDetection() {
+        // Like CF instances registered with their route: Ribbon servers with the same host and port.
+        Server failing = cfServer(0);
+        Server healthy = cfServer(1);
+        OutlierDetector outlierDetector = new OutlierDetector(headerCache, new RoutingMetrics(new SimpleMeterRegistry(), headerCache), 1,
+                60000, 60000, 50);
+        when(loadBalancerClient.choose(SERVICE_ID)).thenReturn(new RibbonLoadBalancerClient.RibbonServer(SERVICE_ID, failing),
+                new RibbonLoadBalancerClient.RibbonServer(SERVICE_ID, healthy));
+        filterFunction = new CFLoadBalancerExchangeFilterFunction(loadBalancerClient, clientFactory,
+                Collections.singletonList(new CFLoadBalancerRequestTransformer(headerCache, null, null, false)),
+                new InFlightRequestCounters(), latencyStats, outlierDetector, null);
+
+        ClientResponse response = exchange(attempt -> attempt == 0
+                ? Mono.error(new ConnectException("Connection refused"))
+                : Mono.just(ClientResponse.create(HttpStatus.OK).body("ok").build()));
+
+        assertEquals(HttpStatus.OK, response.statusCode());
+        assertTrue(outlierDetector.isEjected(failing));
+        assertFalse(outlierDetector.isEjected(healthy));
+        assertEquals(Collections.singletonList(healthy), outlierDetector.filter(Arrays.asList(failing, healthy)));
+    }
+
+    private ClientResponse exchange(Function<Integer, Mono<ClientResponse>> responses) {
+        ClientRequest request = ClientRequest.create(HttpMethod.GET, URI.create("http://" + SERVICE_ID + "/address?name=a")).build();
+        return filterFunction.filter(request, sent -> {
+            sentRequests.add(sent);
+            return responses.apply(sentRequests.size() - 1);
+        }).block();
+    }
+
+    private List<String> routingHeaders() {
+        List<String> headers = new ArrayList<>();
+        for (ClientRequest sent : sentRequests) {
+            headers.add(sent.headers().getFirst(CFLoadBalancerRequestTransformer.ROUTING_HEADER));
+        }
+        return headers;
+    }
+
+    private static Server cfServer(int index) {
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put(CFLoadBalancerRequestTransformer.CF_APP_GUID, "a1b2c3");
+        metadata.put(CFLoadBalancerRequestTransformer.CF_INSTANCE_INDEX, String.valueOf(index));
+        InstanceInfo instanceInfo = InstanceInfo.Builder.newBuilder()
+                .setAppName(SERVICE_ID)
+                .setInstanceId("i-" + index)
+                .setHostName("address-service.example.com")
+                .setPort(443)
+                .setMetadata(metadata)
+                .build();
+        return new DiscoveryEnabledServer(instanceInfo, false);
+    }
+
+    private static ServiceInstance instance(int index) {
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put(CFLoadBalancerRequestTransformer.CF_APP_GUID, "a1b2c3");
+        metadata.put(CFLoadBalancerRequestTransformer.CF_INSTANCE_INDEX, String.valueOf(index));
+        return new DefaultServiceInstance("i-" + index, SERVICE_ID, "address-service.example.com", 443, true, metadata);
+    }
+}
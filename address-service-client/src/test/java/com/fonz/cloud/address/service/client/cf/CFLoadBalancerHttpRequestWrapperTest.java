@@ -0,0 +1,113 @@
+package com.fonz.cloud.address.service.client.cf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+
+public class CFLoadBalancerHttpRequestWrapperTest {
+
+    private static final String HEADER_VALUE = "a1b2c3:1";
+
+    @Test
+    public void getHeadersReturnsSameInstance() {
+        CFLoadBalancerHttpRequestWrapper wrapper = new CFLoadBalancerHttpRequestWrapper(request(3), HEADER_VALUE);
+
+        assertSame(wrapper.getHeaders(), wrapper.getHeaders());
+    }
+
+    @Test
+    public void overlaysRoutingHeaderOnOriginalHeaders() {
+        MockClientHttpRequest request = request(3);
+        HttpHeaders headers = new CFLoadBalancerHttpRequestWrapper(request, HEADER_VALUE).getHeaders();
+
+        assertEquals(HEADER_VALUE, headers.getFirst(CFLoadBalancerRequestTransformer.ROUTING_HEADER));
+        assertEquals(HEADER_VALUE, headers.getFirst(CFLoadBalancerRequestTransformer.ROUTING_HEADER.toLowerCase()));
+        assertEquals("value-0", headers.getFirst("Header-0"));
+        assertEquals(4, headers.size());
+        assertFalse(request.getHeaders().containsKey(CFLoadBalancerRequestTransformer.ROUTING_HEADER));
+
+        // The view reads through to the original headers, nothing is copied.
+        request.getHeaders().add("Late-Header", "late");
+        assertEquals("late", headers.getFirst("Late-Header"));
+        assertEquals(5, headers.size());
+
+        int entries = 0;
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            assertTrue(headers.containsKey(entry.getKey()));
+            entries++;
+        }
+        assertEquals(5, entries);
+    }
+
+    @Test
+    public void hidesRoutingHeaderOfOriginalRequest() {
+        MockClientHttpRequest request = request(1);
+        request.getHeaders().set(CFLoadBalancerRequestTransformer.ROUTING_HEADER, "set-by-application:0");
+        HttpHeaders headers = new CFLoadBalancerHttpRequestWrapper(request, HEADER_VALUE).getHeaders();
+
+        assertEquals(1, headers.get(CFLoadBalancerRequestTransformer.ROUTING_HEADER).size());
+        assertEquals(HEADER_VALUE, headers.getFirst(CFLoadBalancerRequestTransformer.ROUTING_HEADER));
+        assertEquals(2, headers.size());
+        assertEquals(2, headers.toSingleValueMap().size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void rejectsModificationOfRoutingHeader() {
+        new CFLoadBalancerHttpRequestWrapper(request(1), HEADER_VALUE).getHeaders().set(CFLoadBalancerRequestTransformer.ROUTING_HEADER, "other:0");
+    }
+
+    @Test
+    public void allocationDoesNotDependOnNumberOfHeaders() {
+        HttpRequest smallRequest = request(2);
+        HttpRequest largeRequest = request(500);
+
+        // warm up, so that both runs are measured with compiled code.
+        allocatedBytesPerRequest(smallRequest, 20_000);
+        allocatedBytesPerRequest(largeRequest, 20_000);
+
+        double small = allocatedBytesPerRequest(smallRequest, 10_000);
+        double large = allocatedBytesPerRequest(largeRequest, 10_000);
+
+        assertTrue("Allocated " + large + " bytes per request with 500 headers, but " + small + " bytes with 2 headers.",
+                Math.abs(large - small) < 16);
+    }
+
+    private static double allocatedBytesPerRequest(HttpRequest request, int iterations) {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        int sink = 0;
+
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            // This is what the interceptor chain and the HTTP client do with a transformed request.
+            HttpRequest wrapper = new CFLoadBalancerHttpRequestWrapper(request, HEADER_VALUE);
+            sink += wrapper.getHeaders().getFirst(CFLoadBalancerRequestTransformer.ROUTING_HEADER).length();
+            sink += wrapper.getHeaders().size();
+            sink += wrapper.getHeaders().containsKey(HttpHeaders.ACCEPT) ? 1 : 0;
+        }
+        long after = threadMXBean.getThreadAllocatedBytes(threadId);
+
+        assertTrue(sink > 0);
+        return (after - before) / (double) iterations;
+    }
+
+    private static MockClientHttpRequest request(int numberOfHeaders) {
+        MockClientHttpRequest request = new MockClientHttpRequest(HttpMethod.GET, URI.create("http://address-service/address"));
+        for (int i = 0; i < numberOfHeaders; i++) {
+            request.getHeaders().add("Header-" + i, "value-" + i);
+        }
+        return request;
+    }
+}
@@ -0,0 +1,79 @@
+package com.fonz.cloud.address.service.client.cf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.netflix.appinfo.InstanceInfo;
+import com.netflix.discovery.shared.Application;
+import com.netflix.discovery.shared.Applications;
+
+public class CFRoutingHeaderCacheTest {
+
+    private static final String APP_NAME = "ADDRESS-SERVICE";
+
+    private final CFRoutingHeaderCache headerCache = new CFRoutingHeaderCache();
+
+    @Test
+    public void unchangedInstancesAreDecodedOncePerChange() {
+        InstanceInfo instance = spy(instance("i-1", "a1b2c3", "0", 1L));
+        Applications applications = applications(instance);
+
+        headerCache.refresh(applications);
+        headerCache.refresh(applications);
+        headerCache.refresh(applications(instance("i-1", "a1b2c3", "0", 1L)));
+
+        verify(instance, times(1)).getMetadata();
+        assertEquals("a1b2c3:0", headerCache.getHeaderValue(instance));
+    }
+
+    @Test
+    public void changedInstancesAreDecodedAgain() {
+        headerCache.refresh(applications(instance("i-1", "a1b2c3", "0", 1L)));
+        InstanceInfo changed = instance("i-1", "a1b2c3", "1", 2L);
+        headerCache.refresh(applications(changed));
+
+        assertEquals("a1b2c3:1", headerCache.getHeaderValue(changed));
+    }
+
+    @Test
+    public void removedInstancesAreDropped() {
+        InstanceInfo instance = instance("i-1", "a1b2c3", "0", 1L);
+        headerCache.refresh(applications(instance));
+        headerCache.refresh(new Applications());
+
+        // Recomputed lazily from the (now different) metadata, instead of the value of the removed instance.
+        instance.getMetadata().clear();
+        assertNull(headerCache.getHeaderValue(instance));
+    }
+
+    private static Applications applications(InstanceInfo... instances) {
+        Application application = new Application(APP_NAME);
+        for (InstanceInfo instance : instances) {
+            application.addInstance(instance);
+        }
+        Applications applications = new Applications();
+        applications.addApplication(application);
+        return applications;
+    }
+
+    private static InstanceInfo instance(String id, String appGuid, String instanceIndex, long lastDirtyTimestamp) {
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put(CFLoadBalancerRequestTransformer.CF_APP_GUID, appGuid);
+        metadata.put(CFLoadBalancerRequestTransformer.CF_INSTANCE_INDEX, instanceIndex);
+        return InstanceInfo.Builder.newBuilder()
+                .setAppName(APP_NAME)
+                .setInstanceId(id)
+                .setHostName(id + ".example.com")
+                .setMetadata(metadata)
+                .setLastDirtyTimestamp(lastDirtyTimestamp)
+                .build();
+    }
+}
@@ -0,0 +1,65 @@
+package com.fonz.cloud.address.service.client.cf;
+
+import static org.junit.Assert.assertEquals;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fonz.cloud.address.service.client.Address;
+
+public class StreamingAddressServiceClientTest {
+
+    private static final String ADDRESSES_URI = "http://address-service/addresses?from=10&count=3";
+
+    private final RestTemplate restTemplate = new RestTemplate();
+    private final MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+    private final StreamingAddressServiceClient client = new StreamingAddressServiceClient(restTemplate, new ObjectMapper());
+
+    @Test
+    public void ndjsonIsReadAddressByAddress() {
+        server.expect(requestTo(ADDRESSES_URI))
+                .andExpect(method(HttpMethod.GET))
+                .andExpect(header(HttpHeaders.ACCEPT, "application/x-ndjson"))
+                .andRespond(withSuccess("{\"id\":\"10\"}\n{\"id\":\"11\"}\n{\"id\":\"12\"}\n", MediaType.parseMediaType("application/x-ndjson")));
+
+        List<String> ids = new ArrayList<>();
+        long read = client.streamAddresses(10, 3, address -> ids.add(address.getId()));
+
+        assertEquals(3, read);
+        assertEquals(Arrays.asList("10", "11", "12"), ids);
+        server.verify();
+    }
+
+    @Test
+    public void jsonArrayIsReadAsWell() {
+        server.expect(requestTo(ADDRESSES_URI))
+                .andRespond(withSuccess("[{\"id\":\"10\"},{\"id\":\"11\"},{\"id\":\"12\"}]", MediaType.APPLICATION_JSON));
+
+        List<Address> addresses = new ArrayList<>();
+        assertEquals(3, client.streamAddresses(10, 3, addresses::add));
+        assertEquals("12", addresses.get(2).getId());
+    }
+
+    @Test
+    public void emptyListIsRead() {
+        server.expect(requestTo("http://address-service/addresses?from=1&count=0"))
+                .andRespond(withSuccess("", MediaType.parseMediaType("application/x-ndjson")));
+
+        assertEquals(0, client.streamAddresses(1, 0, address -> {
+            throw new AssertionError("No address expected");
+        }));
+    }
+}
@@ -0,0 +1,96 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.netflix.client.config.CommonClientConfigKey;
+import com.netflix.client.config.DefaultClientConfigImpl;
+import com.netflix.config.ConfigurationManager;
+
+public class AdaptiveTimeoutsTest {
+
+    private static final String COMMAND_KEY = "AdaptiveTimeoutsTest";
+    private static final String HYSTRIX_TIMEOUT = "hystrix.command." + COMMAND_KEY + ".execution.isolation.thread.timeoutInMilliseconds";
+
+    @After
+    public void tearDown() {
+        ConfigurationManager.getConfigInstance().clearProperty(HYSTRIX_TIMEOUT);
+    }
+
+    @Test
+    public void configuredReadTimeoutIsUsedUntilEnoughResponsesAreRecorded() {
+        AdaptiveTimeouts timeouts = new AdaptiveTimeouts(config(), new LatencyTracker(0, 100));
+        record(timeouts, 99, 50);
+
+        assertEquals(3000, timeouts.getReadTimeoutMillis());
+        assertNull(ConfigurationManager.getConfigInstance().getProperty(HYSTRIX_TIMEOUT));
+    }
+
+    @Test
+    public void readTimeoutIsThePercentileTimesTheFactor() {
+        AdaptiveTimeouts timeouts = new AdaptiveTimeouts(config(), new LatencyTracker(0, 100));
+        record(timeouts, 100, 200);
+
+        assertEquals(400, timeouts.getReadTimeoutMillis());
+        // 400ms * (1 + 1) * (1 + 2) + 1000ms connect timeout + 500ms buffer
+        assertEquals(3900, timeouts.getHystrixTimeoutMillis());
+        assertEquals(3900, ConfigurationManager.getConfigInstance().getInt(HYSTRIX_TIMEOUT));
+    }
+
+    @Test
+    public void readTimeoutIsAtLeastTheMinimum() {
+        AdaptiveTimeouts timeouts = new AdaptiveTimeouts(config(), new LatencyTracker(0, 100));
+        record(timeouts, 100, 10);
+
+        assertEquals(100, timeouts.getReadTimeoutMillis());
+        assertEquals(100 * 2 * 3 + 1000 + 500, ConfigurationManager.getConfigInstance().getInt(HYSTRIX_TIMEOUT));
+    }
+
+    @Test
+    public void readTimeoutIsAtMostTheMaximum() {
+        AdaptiveTimeouts timeouts = new AdaptiveTimeouts(config(), new LatencyTracker(0, 100));
+        record(timeouts, 100, 4000);
+
+        assertEquals(5000, timeouts.getReadTimeoutMillis());
+        assertEquals(5000 * 2 * 3 + 1000 + 500, ConfigurationManager.getConfigInstance().getInt(HYSTRIX_TIMEOUT));
+    }
+
+    @Test
+    public void disabledTimeoutsKeepTheConfiguredReadTimeout() {
+        DefaultClientConfigImpl config = config();
+        config.set(AdaptiveTimeouts.ADAPTIVE_TIMEOUT_ENABLED, false);
+        AdaptiveTimeouts timeouts = new AdaptiveTimeouts(config, new LatencyTracker(0, 100));
+        record(timeouts, 100, 200);
+
+        assertEquals(3000, timeouts.getReadTimeoutMillis());
+        assertNull(ConfigurationManager.getConfigInstance().getProperty(HYSTRIX_TIMEOUT));
+    }
+
+    private static void record(AdaptiveTimeouts timeouts, int responses, long responseTimeMillis) {
+        for (int i = 0; i < responses; i++) {
+            timeouts.record(TimeUnit.MILLISECONDS.toNanos(responseTimeMillis));
+        }
+    }
+
+    private static DefaultClientConfigImpl config() {
+        DefaultClientConfigImpl config = new DefaultClientConfigImpl();
+        config.loadDefaultValues();
+        config.setClientName("address-service");
+        config.set(CommonClientConfigKey.ConnectTimeout, 1000);
+        config.set(CommonClientConfigKey.ReadTimeout, 3000);
+        config.set(CommonClientConfigKey.MaxAutoRetries, 1);
+        config.set(CommonClientConfigKey.MaxAutoRetriesNextServer, 2);
+        config.set(AdaptiveTimeouts.ADAPTIVE_TIMEOUT_ENABLED, true);
+        config.set(AdaptiveTimeouts.ADAPTIVE_TIMEOUT_PERCENTILE, 50.0);
+        config.set(AdaptiveTimeouts.ADAPTIVE_TIMEOUT_FACTOR, 2.0);
+        config.set(AdaptiveTimeouts.ADAPTIVE_TIMEOUT_MIN, 100);
+        config.set(AdaptiveTimeouts.ADAPTIVE_TIMEOUT_MAX, 5000);
+        config.set(AdaptiveTimeouts.ADAPTIVE_TIMEOUT_HYSTRIX_COMMANDS, COMMAND_KEY);
+        return config;
+    }
+}
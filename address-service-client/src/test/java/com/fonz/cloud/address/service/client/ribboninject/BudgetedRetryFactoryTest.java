@@ -0,0 +1,153 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.LoadBalancedRetryContext;
+import org.springframework.cloud.client.loadbalancer.LoadBalancedRetryPolicy;
+import org.springframework.cloud.client.loadbalancer.RetryableStatusCodeException;
+import org.springframework.cloud.client.loadbalancer.ServiceInstanceChooser;
+import org.springframework.cloud.netflix.ribbon.RibbonLoadBalancerContext;
+import org.springframework.cloud.netflix.ribbon.SpringClientFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+
+import com.fonz.cloud.address.service.client.cf.CFLoadBalancerRequestTransformer;
+import com.fonz.cloud.address.service.client.cf.CFRoutingHeaderCache;
+import com.netflix.client.config.CommonClientConfigKey;
+import com.netflix.client.config.DefaultClientConfigImpl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class BudgetedRetryFactoryTest {
+
+    private static final String SERVICE_ID = "address-service";
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final DefaultClientConfigImpl config = new DefaultClientConfigImpl();
+    private final Deque<ServiceInstance> chosenInstances = new ArrayDeque<>();
+    private final ServiceInstanceChooser chooser = serviceId -> chosenInstances.isEmpty()
+            ? new DefaultServiceInstance("i-2", serviceId, "host", 2, false)
+            : chosenInstances.poll();
+    private BudgetedRetryFactory retryFactory;
+
+    @Before
+    public void setUp() {
+        config.loadDefaultValues();
+        config.setClientName(SERVICE_ID);
+        config.set(CommonClientConfigKey.MaxAutoRetries, 0);
+        config.set(CommonClientConfigKey.MaxAutoRetriesNextServer, 1);
+        // No deposits: only the initial balance of the budget can be spent.
+        config.set(BudgetedRetryFactory.RETRY_BUDGET_PERCENT, 0);
+
+        SpringClientFactory clientFactory = mock(SpringClientFactory.class);
+        when(clientFactory.getClientConfig(SERVICE_ID)).thenReturn(config);
+        // Created for every request, so that tests can change the retry settings.
+        when(clientFactory.getLoadBalancerContext(SERVICE_ID)).thenAnswer(invocation -> new RibbonLoadBalancerContext(null, config));
+
+        CFRoutingHeaderCache headerCache = new CFRoutingHeaderCache();
+        retryFactory = new BudgetedRetryFactory(clientFactory, new RoutingMetrics(registry, headerCache), headerCache);
+    }
+
+    @Test
+    public void failedRequestsAreRetriedWithinBudget() {
+        for (int i = 0; i < 10; i++) {
+            LoadBalancedRetryContext context = failFirstAttempt();
+            assertFalse(context.isExhaustedOnly());
+        }
+        assertEquals(0.0, retryFactory.getBudget(SERVICE_ID).getBalance(), 0);
+        assertEquals(10, registry.get("ribbon.routing.retry").tag("target", "next-server").counter().count(), 0);
+    }
+
+    @Test
+    public void retriesAreExhaustedOnceTheBudgetIsEmpty() {
+        for (int i = 0; i < 10; i++) {
+            failFirstAttempt();
+        }
+
+        LoadBalancedRetryContext context = failFirstAttempt();
+        assertTrue(context.isExhaustedOnly());
+        assertEquals(1, registry.get("ribbon.routing.retry.denied").counter().count(), 0);
+    }
+
+    @Test
+    public void overloadedInstanceIsLeftForTheNextInstanceRightAway() {
+        config.set(CommonClientConfigKey.MaxAutoRetries, 1);
+        LoadBalancedRetryPolicy policy = retryFactory.createRetryPolicy(SERVICE_ID, chooser);
+        LoadBalancedRetryContext context = newContext(cfInstance(0));
+        chosenInstances.add(cfInstance(1));
+
+        policy.registerThrowable(context, overloaded());
+
+        assertFalse(context.isExhaustedOnly());
+        assertEquals("i-1", context.getServiceInstance().getInstanceId());
+        assertEquals(1, registry.get("ribbon.routing.shed").tag("instance", "0").counter().count(), 0);
+        assertEquals(1, registry.get("ribbon.routing.retry").tag("instance", "0").tag("target", "next-server").counter().count(), 0);
+        assertEquals(0, registry.get("ribbon.routing.retry").tag("instance", "0").tag("target", "same-server").counter().count(), 0);
+
+        // The retry counted against MaxAutoRetriesNextServer (1), so there is none left for the next instance.
+        policy.registerThrowable(context, overloaded());
+        assertTrue(context.isExhaustedOnly());
+    }
+
+    @Test
+    public void overloadedInstanceIsNotChosenAgain() {
+        // Without outlier detection, the load balancer may choose the rejecting instance again.
+        // All CF instances share the same host and port: they are told apart by their routing header.
+        LoadBalancedRetryPolicy policy = retryFactory.createRetryPolicy(SERVICE_ID, chooser);
+        LoadBalancedRetryContext context = newContext(cfInstance(0));
+        chosenInstances.add(cfInstance(0));
+        chosenInstances.add(cfInstance(0));
+        chosenInstances.add(cfInstance(2));
+
+        policy.registerThrowable(context, overloaded());
+
+        assertFalse(context.isExhaustedOnly());
+        assertEquals("i-2", context.getServiceInstance().getInstanceId());
+    }
+
+    private LoadBalancedRetryContext failFirstAttempt() {
+        LoadBalancedRetryPolicy policy = retryFactory.createRetryPolicy(SERVICE_ID, chooser);
+        LoadBalancedRetryContext context = newContext(new DefaultServiceInstance("i-1", SERVICE_ID, "host", 1, false));
+        policy.registerThrowable(context, new IOException("Connection reset"));
+        return context;
+    }
+
+    private static LoadBalancedRetryContext newContext(ServiceInstance instance) {
+        LoadBalancedRetryContext context = new LoadBalancedRetryContext(null,
+                new MockClientHttpRequest(HttpMethod.GET, URI.create("http://" + SERVICE_ID + "/address")));
+        context.setServiceInstance(instance);
+        return context;
+    }
+
+    private static RetryableStatusCodeException overloaded() {
+        MockClientHttpResponse response = new MockClientHttpResponse(new byte[0], HttpStatus.SERVICE_UNAVAILABLE);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, "1");
+        return new RetryableStatusCodeException(SERVICE_ID, 503, response, URI.create("https://address-service.example.com/address"));
+    }
+
+    private static ServiceInstance cfInstance(int index) {
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put(CFLoadBalancerRequestTransformer.CF_APP_GUID, "a1b2c3");
+        metadata.put(CFLoadBalancerRequestTransformer.CF_INSTANCE_INDEX, String.valueOf(index));
+        return new DefaultServiceInstance("i-" + index, SERVICE_ID, "address-service.example.com", 443, true, metadata);
+    }
+}
@@ -0,0 +1,61 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.ObjectProvider;
+
+import com.netflix.client.config.CommonClientConfigKey;
+import com.netflix.client.config.DefaultClientConfigImpl;
+
+public class ConnectionPoolConfigurationTest {
+
+    private static final String SERVICE_ID = "address-service";
+
+    private final DefaultClientConfigImpl config = new DefaultClientConfigImpl();
+    private final RibbonAutoConfigurationOverrides overrides = new RibbonAutoConfigurationOverrides();
+    private PoolingHttpClientConnectionManager connectionManager;
+
+    @Before
+    public void setUp() {
+        config.loadDefaultValues();
+        config.setClientName(SERVICE_ID);
+        overrides.name = SERVICE_ID;
+    }
+
+    @After
+    public void tearDown() {
+        if (connectionManager != null) {
+            connectionManager.close();
+        }
+    }
+
+    @Test
+    public void poolLimitsAreTakenFromTheClientConfig() {
+        config.set(CommonClientConfigKey.MaxTotalConnections, 150);
+        config.set(CommonClientConfigKey.MaxConnectionsPerHost, 120);
+
+        connectionManager = createConnectionManager();
+
+        assertEquals(150, connectionManager.getMaxTotal());
+        assertEquals(120, connectionManager.getDefaultMaxPerRoute());
+    }
+
+    @Test
+    public void poolValidatesConnectionsAfterInactivity() {
+        config.set(RibbonAutoConfigurationOverrides.POOL_VALIDATE_AFTER_INACTIVITY, 500);
+
+        connectionManager = createConnectionManager();
+
+        assertEquals(500, connectionManager.getValidateAfterInactivity());
+    }
+
+    @SuppressWarnings("unchecked")
+    private PoolingHttpClientConnectionManager createConnectionManager() {
+        return overrides.httpClientConnectionManager(config, mock(ObjectProvider.class));
+    }
+}
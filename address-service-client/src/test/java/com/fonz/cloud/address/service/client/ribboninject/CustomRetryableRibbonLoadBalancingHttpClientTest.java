@@ -0,0 +1,269 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.client.loadbalancer.LoadBalancedRetryContext;
+import org.springframework.cloud.client.loadbalancer.LoadBalancedRetryFactory;
+import org.springframework.cloud.client.loadbalancer.LoadBalancedRetryPolicy;
+import org.springframework.cloud.client.loadbalancer.ServiceInstanceChooser;
+import org.springframework.cloud.netflix.ribbon.DefaultServerIntrospector;
+import org.springframework.cloud.netflix.ribbon.RibbonLoadBalancedRetryPolicy;
+import org.springframework.cloud.netflix.ribbon.RibbonLoadBalancerContext;
+import org.springframework.cloud.netflix.ribbon.SpringClientFactory;
+import org.springframework.cloud.netflix.ribbon.apache.RibbonApacheHttpRequest;
+import org.springframework.cloud.netflix.ribbon.apache.RibbonApacheHttpResponse;
+import org.springframework.cloud.netflix.ribbon.support.RibbonCommandContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.StreamUtils;
+
+import com.fonz.cloud.address.service.client.cf.CFRoutingHeaderCache;
+import com.netflix.client.config.CommonClientConfigKey;
+import com.netflix.client.config.DefaultClientConfigImpl;
+import com.netflix.loadbalancer.Server;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class CustomRetryableRibbonLoadBalancingHttpClientTest {
+
+    private static final String SERVICE_ID = "address-service";
+    private static final int HEDGE_DELAY_MILLIS = 200;
+
+    // Released at the end of each test, so that no handler blocks forever.
+    private final CountDownLatch endOfTest = new CountDownLatch(1);
+    private final List<StubInstance> instances = new ArrayList<>();
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CustomRetryableRibbonLoadBalancingHttpClient client;
+
+    @Before
+    public void setUp() {
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setDefaultMaxPerRoute(10);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        endOfTest.countDown();
+        instances.forEach(StubInstance::close);
+        connectionManager.close();
+    }
+
+    @Test(timeout = 10000)
+    public void noHedgeIsSentIfThePrimaryRequestIsFast() throws Exception {
+        StubInstance primary = instance(StubInstance.respond(200, "primary"));
+        StubInstance hedge = instance(StubInstance.respond(200, "hedge"));
+        // Long enough for the first request of the test run, which sets up the connection and loads classes.
+        createClient(2000, primary, hedge);
+
+        assertEquals("primary", body(execute()));
+        Thread.sleep(2500);
+        assertEquals(0, hedge.getRequestCount());
+    }
+
+    @Test(timeout = 10000)
+    public void hedgeIsSentAfterTheDelay() throws Exception {
+        StubInstance primary = instance(exchange -> endOfTest.await());
+        AtomicInteger hedgeDelay = new AtomicInteger();
+        long start = System.nanoTime();
+        StubInstance hedge = instance(exchange -> {
+            hedgeDelay.set((int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            StubInstance.respond(exchange, 200, "hedge");
+        });
+        createClient(HEDGE_DELAY_MILLIS, primary, hedge);
+
+        assertEquals("hedge", body(execute()));
+        assertTrue("hedge sent after " + hedgeDelay.get() + "ms", hedgeDelay.get() >= HEDGE_DELAY_MILLIS);
+    }
+
+    @Test(timeout = 10000)
+    public void loserIsAbortedAndItsConnectionReleased() throws Exception {
+        // The primary instance never answers. Without the abort, the request would wait for it until the test times out.
+        StubInstance primary = instance(exchange -> endOfTest.await());
+        StubInstance hedge = instance(StubInstance.respond(200, "hedge"));
+        createClient(HEDGE_DELAY_MILLIS, primary, hedge);
+
+        RibbonApacheHttpResponse response = execute();
+        assertEquals("hedge", body(response));
+        assertEquals(1, primary.getRequestCount());
+        assertEquals(0, connectionManager.getTotalStats().getLeased());
+    }
+
+    @Test(timeout = 10000)
+    public void failedPrimaryRequestFallsOverToTheHedge() throws Exception {
+        StubInstance hedge = instance(StubInstance.respond(200, "hedge"));
+        // The primary instance fails (closes the connection) once the hedge is on its way.
+        StubInstance primary = instance(exchange -> {
+            hedge.awaitRequest();
+            throw new IOException("crashed");
+        });
+        createClient(HEDGE_DELAY_MILLIS, primary, hedge);
+
+        assertEquals("hedge", body(execute()));
+    }
+
+    @Test(timeout = 10000)
+    public void serverErrorOfThePrimaryRequestFallsOverToTheHedge() throws Exception {
+        CountDownLatch primaryAnswered = new CountDownLatch(1);
+        StubInstance hedge = instance(exchange -> {
+            primaryAnswered.await();
+            StubInstance.respond(exchange, 200, "hedge");
+        });
+        StubInstance primary = instance(exchange -> {
+            hedge.awaitRequest();
+            StubInstance.respond(exchange, 500, "primary");
+            primaryAnswered.countDown();
+        });
+        createClient(HEDGE_DELAY_MILLIS, primary, hedge);
+
+        RibbonApacheHttpResponse response = execute();
+        assertEquals(200, response.getStatus());
+        assertEquals("hedge", body(response));
+        assertEquals(0, connectionManager.getTotalStats().getLeased());
+    }
+
+    @Test(timeout = 10000)
+    public void serverErrorOfThePrimaryRequestIsReturnedIfTheHedgeFailsToo() throws Exception {
+        StubInstance hedge = instance(StubInstance.respond(503, "hedge"));
+        StubInstance primary = instance(exchange -> {
+            hedge.awaitRequest();
+            // Give the hedge time to fail first.
+            Thread.sleep(100);
+            StubInstance.respond(exchange, 500, "primary");
+        });
+        createClient(HEDGE_DELAY_MILLIS, primary, hedge);
+
+        RibbonApacheHttpResponse response = execute();
+        assertEquals(500, response.getStatus());
+        assertEquals("primary", body(response));
+    }
+
+    @Test(timeout = 10000)
+    public void overloadedInstanceIsRetriedOnAnotherInstance() throws Exception {
+        StubInstance overloaded = instance(exchange -> {
+            exchange.getResponseHeaders().set(HttpHeaders.RETRY_AFTER, "1");
+            StubInstance.respond(exchange, 503, "busy");
+        });
+        StubInstance other = instance(StubInstance.respond(200, "other"));
+        DefaultClientConfigImpl config = clientConfig();
+        config.set(CommonClientConfigKey.MaxAutoRetries, 1);
+        config.set(CommonClientConfigKey.MaxAutoRetriesNextServer, 1);
+        config.set(RibbonLoadBalancedRetryPolicy.RETRYABLE_STATUS_CODES, "503");
+        SpringClientFactory clientFactory = mock(SpringClientFactory.class);
+        when(clientFactory.getClientConfig(SERVICE_ID)).thenReturn(config);
+        when(clientFactory.getLoadBalancerContext(SERVICE_ID)).thenAnswer(invocation -> new RibbonLoadBalancerContext(null, config));
+        CFRoutingHeaderCache headerCache = new CFRoutingHeaderCache();
+        BudgetedRetryFactory retryFactory = new BudgetedRetryFactory(clientFactory,
+                new RoutingMetrics(new SimpleMeterRegistry(), headerCache), headerCache);
+        // Without outlier detection, the load balancer chooses the overloaded instance again for the retry.
+        createClient(config, retryFactory, overloaded.getServer(), overloaded.getServer(), other.getServer());
+
+        RibbonApacheHttpResponse response = execute();
+        assertEquals(200, response.getStatus());
+        assertEquals("other", body(response));
+        assertEquals(1, overloaded.getRequestCount());
+        assertEquals(1, other.getRequestCount());
+    }
+
+    private StubInstance instance(StubInstance.Handler handler) throws IOException {
+        StubInstance instance = new StubInstance(handler);
+        instances.add(instance);
+        return instance;
+    }
+
+    /**
+     * The primary request goes to the first instance, the hedge to the second one.
+     */
+    private void createClient(int hedgeDelayMillis, StubInstance primary, StubInstance hedge) {
+        DefaultClientConfigImpl config = clientConfig();
+        config.set(CustomRetryableRibbonLoadBalancingHttpClient.HEDGING_ENABLED, true);
+        config.set(CustomRetryableRibbonLoadBalancingHttpClient.HEDGE_DELAY, hedgeDelayMillis);
+        createClient(config, new NoRetryFactory(), primary.getServer(), hedge.getServer());
+    }
+
+    /**
+     * The load balancer chooses the given servers one after the other.
+     */
+    private void createClient(DefaultClientConfigImpl config, LoadBalancedRetryFactory retryFactory, Server... servers) {
+        CloseableHttpClient httpClient = HttpClients.custom().setConnectionManager(connectionManager).disableAutomaticRetries().build();
+        CFRoutingHeaderCache headerCache = new CFRoutingHeaderCache();
+        client = new CustomRetryableRibbonLoadBalancingHttpClient(httpClient, config, new DefaultServerIntrospector(),
+                retryFactory, headerCache, new RoutingMetrics(new SimpleMeterRegistry(), headerCache));
+        client.setLoadBalancer(new SequenceLoadBalancer(servers));
+    }
+
+    private static DefaultClientConfigImpl clientConfig() {
+        DefaultClientConfigImpl config = new DefaultClientConfigImpl();
+        config.loadDefaultValues();
+        config.setClientName(SERVICE_ID);
+        config.set(CommonClientConfigKey.ConnectTimeout, 1000);
+        config.set(CommonClientConfigKey.ReadTimeout, 5000);
+        return config;
+    }
+
+    private RibbonApacheHttpResponse execute() throws Exception {
+        RibbonCommandContext context = new RibbonCommandContext(SERVICE_ID, "GET", "http://" + SERVICE_ID + "/address", true,
+                new LinkedMultiValueMap<>(), new LinkedMultiValueMap<>(), null, Collections.emptyList());
+        return client.execute(new RibbonApacheHttpRequest(context), null);
+    }
+
+    private static String body(RibbonApacheHttpResponse response) throws IOException {
+        try {
+            return StreamUtils.copyToString(response.getInputStream(), StandardCharsets.UTF_8);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * A single attempt per request, on the server chosen by the load balancer.
+     */
+    private static final class NoRetryFactory implements LoadBalancedRetryFactory {
+
+        @Override
+        public LoadBalancedRetryPolicy createRetryPolicy(String service, ServiceInstanceChooser serviceInstanceChooser) {
+            return new LoadBalancedRetryPolicy() {
+
+                @Override
+                public boolean canRetrySameServer(LoadBalancedRetryContext context) {
+                    return false;
+                }
+
+                @Override
+                public boolean canRetryNextServer(LoadBalancedRetryContext context) {
+                    return false;
+                }
+
+                @Override
+                public void close(LoadBalancedRetryContext context) {
+                }
+
+                @Override
+                public void registerThrowable(LoadBalancedRetryContext context, Throwable throwable) {
+                }
+
+                @Override
+                public boolean retryableStatusCode(int statusCode) {
+                    return false;
+                }
+            };
+        }
+    }
+}
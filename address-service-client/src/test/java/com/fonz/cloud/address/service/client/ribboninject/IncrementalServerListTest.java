@@ -0,0 +1,115 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fonz.cloud.address.service.client.cf.CFRoutingHeaderCache;
+import com.netflix.appinfo.InstanceInfo;
+import com.netflix.loadbalancer.ServerList;
+import com.netflix.niws.loadbalancer.DiscoveryEnabledServer;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class IncrementalServerListTest {
+
+    private static final String SERVICE_ID = "address-service";
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private ServerList<DiscoveryEnabledServer> delegate;
+    private IncrementalServerList<DiscoveryEnabledServer> serverList;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        delegate = mock(ServerList.class);
+        serverList = new IncrementalServerList<>(delegate, SERVICE_ID, new RoutingMetrics(registry, new CFRoutingHeaderCache()));
+    }
+
+    @Test
+    public void unchangedInstancesKeepTheirServers() {
+        InstanceInfo first = instance("i-1", 1L);
+        InstanceInfo second = instance("i-2", 1L);
+        when(delegate.getUpdatedListOfServers()).thenReturn(
+                Arrays.asList(server(first), server(second)),
+                Arrays.asList(server(first), server(instance("i-2", 2L)), server(instance("i-3", 1L))));
+
+        List<DiscoveryEnabledServer> initial = serverList.getUpdatedListOfServers();
+        List<DiscoveryEnabledServer> updated = serverList.getUpdatedListOfServers();
+
+        assertEquals(3, updated.size());
+        assertSame(initial.get(0), updated.get(0));
+        assertNotSame(initial.get(1), updated.get(1));
+        assertEquals(2L, (long) updated.get(1).getInstanceInfo().getLastDirtyTimestamp());
+        assertEquals(3, count("added"), 0);
+        assertEquals(1, count("changed"), 0);
+        assertEquals(1, count("unchanged"), 0);
+        assertEquals(0, count("removed"), 0);
+    }
+
+    @Test
+    public void instancesFromAFullFetchAreRecognizedByTheirLastDirtyTimestamp() {
+        when(delegate.getUpdatedListOfServers()).thenReturn(
+                Arrays.asList(server(instance("i-1", 1L)), server(instance("i-2", 1L))),
+                Collections.singletonList(server(instance("i-1", 1L))));
+
+        List<DiscoveryEnabledServer> initial = serverList.getUpdatedListOfServers();
+        List<DiscoveryEnabledServer> updated = serverList.getUpdatedListOfServers();
+
+        assertEquals(1, updated.size());
+        assertSame(initial.get(0), updated.get(0));
+        assertEquals(1, count("unchanged"), 0);
+        assertEquals(1, count("removed"), 0);
+    }
+
+    @Test
+    public void removedInstanceIsLeftOutUntilTheDelegateDropsIt() {
+        InstanceInfo first = instance("i-1", 1L);
+        InstanceInfo second = instance("i-2", 1L);
+        when(delegate.getUpdatedListOfServers()).thenReturn(
+                Arrays.asList(server(first), server(second)),
+                Arrays.asList(server(first), server(second)),
+                Collections.singletonList(server(first)),
+                Arrays.asList(server(first), server(second)));
+
+        List<DiscoveryEnabledServer> initial = serverList.getUpdatedListOfServers();
+        assertTrue(serverList.remove("i-2"));
+        assertFalse(serverList.remove("i-3"));
+
+        assertEquals(initial.subList(0, 1), serverList.getUpdatedListOfServers());
+        assertEquals(initial.subList(0, 1), serverList.getUpdatedListOfServers());
+        // Once the delegate has dropped it, the instance can register again.
+        assertEquals(2, serverList.getUpdatedListOfServers().size());
+    }
+
+    private double count(String change) {
+        return registry.get("ribbon.routing.serverlist.instances").tag("service", SERVICE_ID).tag("change", change).counter().count();
+    }
+
+    private static DiscoveryEnabledServer server(InstanceInfo instanceInfo) {
+        return new DiscoveryEnabledServer(instanceInfo, false);
+    }
+
+    private static InstanceInfo instance(String id, long lastDirtyTimestamp) {
+        return InstanceInfo.Builder.newBuilder()
+                .setAppName(SERVICE_ID)
+                .setInstanceId(id)
+                // Like CF instances registered with their route: all share the same host and port.
+                .setHostName("address-service.example.com")
+                .setPort(443)
+                .setLastDirtyTimestamp(lastDirtyTimestamp)
+                .build();
+    }
+}
@@ -0,0 +1,85 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.netflix.ribbon.RibbonLoadBalancerClient;
+
+import com.fonz.cloud.address.service.client.cf.CFRoutingHeaderCache;
+import com.netflix.loadbalancer.Server;
+
+public class InstanceLatencyStatsTest {
+
+    private static final long ONE_HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    // Decays so slowly that nothing changes during a test.
+    private final InstanceLatencyStats stats = new InstanceLatencyStats(new CFRoutingHeaderCache(), ONE_HOUR_MILLIS, 1000);
+
+    @Test
+    public void instancesWithoutRoutingInformationAreKeptByServerId() {
+        Server server = new Server("host", 1);
+
+        assertEquals("host:1", stats.keyOf(server));
+        assertEquals("host:1", stats.keyOf(new RibbonLoadBalancerClient.RibbonServer("address-service", server)));
+        assertEquals("i-1", stats.keyOf(new DefaultServiceInstance("i-1", "address-service", "host", 1, false,
+                Collections.emptyMap())));
+    }
+
+    @Test
+    public void unknownInstanceHasNoResponseTime() {
+        assertEquals(0, stats.getResponseTime("host:1"), 0);
+    }
+
+    @Test
+    public void slowerResponseIsTakenOverRightAway() {
+        stats.record("host:1", millis(10));
+        stats.record("host:1", millis(50));
+
+        assertEquals(millis(50), stats.getResponseTime("host:1"), millis(1));
+    }
+
+    @Test
+    public void fasterResponsesAreAveragedIn() throws InterruptedException {
+        InstanceLatencyStats stats = new InstanceLatencyStats(new CFRoutingHeaderCache(), 10);
+        stats.record("host:1", millis(50));
+        Thread.sleep(100);
+        stats.record("host:1", millis(10));
+
+        // After ten decay times, the old response time is as good as gone.
+        assertEquals(millis(10), stats.getResponseTime("host:1"), millis(1));
+    }
+
+    @Test
+    public void responseTimeDecaysWhileNothingIsRecorded() throws InterruptedException {
+        InstanceLatencyStats stats = new InstanceLatencyStats(new CFRoutingHeaderCache(), 10);
+        stats.record("host:1", millis(50));
+        Thread.sleep(100);
+
+        assertTrue(stats.getResponseTime("host:1") < millis(1));
+    }
+
+    @Test
+    public void fastFailuresAreRecordedWithThePenalty() {
+        stats.record("host:1", millis(20));
+        stats.recordFailure("host:2", millis(1));
+
+        assertEquals(millis(1000), stats.getResponseTime("host:2"), millis(1));
+        assertTrue(stats.getResponseTime("host:2") > stats.getResponseTime("host:1"));
+    }
+
+    @Test
+    public void slowFailuresAreRecordedWithTheirResponseTime() {
+        stats.recordFailure("host:1", millis(3000));
+
+        assertEquals(millis(3000), stats.getResponseTime("host:1"), millis(1));
+    }
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
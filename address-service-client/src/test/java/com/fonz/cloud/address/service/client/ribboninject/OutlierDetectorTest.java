@@ -0,0 +1,145 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.netflix.ribbon.RibbonLoadBalancerClient;
+
+import com.fonz.cloud.address.service.client.cf.CFLoadBalancerRequestTransformer;
+import com.fonz.cloud.address.service.client.cf.CFRoutingHeaderCache;
+import com.netflix.appinfo.InstanceInfo;
+import com.netflix.loadbalancer.Server;
+import com.netflix.niws.loadbalancer.DiscoveryEnabledServer;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class OutlierDetectorTest {
+
+    private static final String SERVICE_ID = "address-service";
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final List<Server> servers = Arrays.asList(new Server("host", 1), new Server("host", 2), new Server("host", 3), new Server("host", 4));
+    private OutlierDetector detector;
+
+    @Before
+    public void setUp() {
+        CFRoutingHeaderCache headerCache = new CFRoutingHeaderCache(null);
+        detector = new OutlierDetector(headerCache, new RoutingMetrics(registry, headerCache), 3, 60000, 300000, 50);
+    }
+
+    @Test
+    public void instanceIsEjectedAfterConsecutiveErrors() {
+        Server server = servers.get(0);
+        failRequests(server, 2);
+        detector.recordSuccess(instance(server));
+        failRequests(server, 2);
+        assertFalse(detector.isEjected(server));
+        assertSame(servers, detector.filter(servers));
+
+        failRequests(server, 1);
+        assertTrue(detector.isEjected(server));
+        assertEquals(Arrays.asList(servers.get(1), servers.get(2), servers.get(3)), detector.filter(servers));
+        assertEquals(1, registry.get("ribbon.routing.outlier.ejections").tag("instance", "host:1").counter().count(), 0);
+    }
+
+    @Test
+    public void atMostMaxEjectionPercentAreEjected() {
+        failRequests(servers.get(0), 3);
+        failRequests(servers.get(1), 3);
+        failRequests(servers.get(2), 3);
+
+        // The ejection of the first instance ends first, so it is chosen from again.
+        assertEquals(Arrays.asList(servers.get(0), servers.get(3)), detector.filter(servers));
+        // A single server is never ejected.
+        assertEquals(servers.subList(0, 1), detector.filter(servers.subList(0, 1)));
+    }
+
+    @Test
+    public void instanceIsChosenAgainOnceTheEjectionHasEnded() throws InterruptedException {
+        CFRoutingHeaderCache headerCache = new CFRoutingHeaderCache(null);
+        detector = new OutlierDetector(headerCache, new RoutingMetrics(registry, headerCache), 1, 50, 1000, 50);
+        Server server = servers.get(0);
+
+        failRequests(server, 1);
+        assertTrue(detector.isEjected(server));
+        // Failures of requests sent before the ejection do not extend it.
+        failRequests(server, 5);
+
+        awaitUntil(() -> !detector.isEjected(server));
+        assertSame(servers, detector.filter(servers));
+        assertEquals(1, registry.get("ribbon.routing.outlier.ejections").tag("instance", "host:1").counter().count(), 0);
+    }
+
+    @Test
+    public void overloadedInstanceIsLeftOutWithoutCountingAsFailure() {
+        Server server = servers.get(0);
+        failRequests(server, 2);
+        detector.recordOverload(instance(server), 1000);
+
+        assertTrue(detector.isEjected(server));
+        assertEquals(servers.subList(1, 4), detector.filter(servers));
+        assertEquals(0, registry.find("ribbon.routing.outlier.ejections").tag("instance", "host:1").counters().stream()
+                .mapToDouble(counter -> counter.count()).sum(), 0);
+    }
+
+    @Test
+    public void onlyTheFailingInstanceIsEjectedIfAllInstancesShareTheRoute() {
+        // Like CF instances registered with their route: Server.equals() does not tell them apart.
+        List<Server> cfServers = Arrays.asList(cfServer(0), cfServer(1), cfServer(2), cfServer(3));
+        assertEquals(cfServers.get(0), cfServers.get(1));
+
+        failRequests(cfServers.get(1), 3);
+
+        assertTrue(detector.isEjected(cfServers.get(1)));
+        assertFalse(detector.isEjected(cfServers.get(0)));
+        assertEquals(Arrays.asList(cfServers.get(0), cfServers.get(2), cfServers.get(3)), detector.filter(cfServers));
+        assertEquals(1, registry.get("ribbon.routing.outlier.ejections").tag("instance", "1").counter().count(), 0);
+    }
+
+    private void failRequests(Server server, int failures) {
+        for (int i = 0; i < failures; i++) {
+            detector.recordFailure(SERVICE_ID, instance(server));
+        }
+    }
+
+    private static RibbonLoadBalancerClient.RibbonServer instance(Server server) {
+        return new RibbonLoadBalancerClient.RibbonServer(SERVICE_ID, server);
+    }
+
+    private static Server cfServer(int index) {
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put(CFLoadBalancerRequestTransformer.CF_APP_GUID, "a1b2c3");
+        metadata.put(CFLoadBalancerRequestTransformer.CF_INSTANCE_INDEX, String.valueOf(index));
+        InstanceInfo instanceInfo = InstanceInfo.Builder.newBuilder()
+                .setAppName(SERVICE_ID)
+                .setInstanceId("i-" + index)
+                .setHostName("address-service.example.com")
+                .setPort(443)
+                .setMetadata(metadata)
+                .build();
+        return new DiscoveryEnabledServer(instanceInfo, false);
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("The ejection did not end in time");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
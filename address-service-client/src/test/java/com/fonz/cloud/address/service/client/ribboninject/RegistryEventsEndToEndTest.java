@@ -0,0 +1,144 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.cloud.netflix.eureka.server.InstanceRegistry;
+import org.springframework.cloud.netflix.ribbon.RibbonClient;
+import org.springframework.cloud.netflix.ribbon.SpringClientFactory;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+
+import com.fonz.cloud.eureka.service.RegistryEventsEndpoint;
+import com.netflix.appinfo.DataCenterInfo;
+import com.netflix.appinfo.InstanceInfo;
+import com.netflix.appinfo.InstanceInfo.InstanceStatus;
+import com.netflix.loadbalancer.DynamicServerListLoadBalancer;
+import com.netflix.loadbalancer.Server;
+import com.netflix.niws.loadbalancer.DiscoveryEnabledServer;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Starts eureka-service and a client in-process, and checks that an instance which goes away is removed from the client's
+ * Ribbon server list right away, although neither the Eureka client nor Ribbon poll again during the test.
+ */
+public class RegistryEventsEndToEndTest {
+
+    private static final String APP_NAME = "ADDRESS-SERVICE";
+    private static final String SERVICE_ID = "address-service";
+
+    private ConfigurableApplicationContext eurekaServer;
+    private ConfigurableApplicationContext client;
+
+    @Before
+    public void setUp() {
+        // No application.yml: the one of this module comes first on the class path, but belongs to the client.
+        eurekaServer = new SpringApplicationBuilder(com.fonz.cloud.eureka.service.App.class).run(
+                "--spring.config.name=registry-events-test",
+                // Both applications run in the same JVM, i.e. with the same MBean server.
+                "--spring.jmx.enabled=false",
+                "--server.port=0",
+                "--spring.application.name=eureka-server",
+                "--eureka.client.register-with-eureka=false",
+                "--eureka.client.fetch-registry=false",
+                // Serve the registry right away, and always the current one.
+                "--eureka.server.wait-time-in-ms-when-sync-empty=0",
+                "--eureka.server.use-read-only-response-cache=false");
+        InstanceRegistry registry = eurekaServer.getBean(InstanceRegistry.class);
+        registry.register(instance("address-service-1", 9001), false);
+        registry.register(instance("address-service-2", 9002), false);
+
+        String eurekaUrl = "http://localhost:" + eurekaServer.getEnvironment().getProperty("local.server.port") + "/eureka";
+        client = new SpringApplicationBuilder(ClientApplication.class).web(WebApplicationType.NONE).run(
+                "--spring.config.name=registry-events-test",
+                "--spring.jmx.enabled=false",
+                "--spring.application.name=registry-events-test-client",
+                "--eureka.client.register-with-eureka=false",
+                "--eureka.client.serviceUrl.defaultZone=" + eurekaUrl,
+                // Way beyond the duration of the test: changes can only come in as pushed events.
+                "--eureka.client.registry-fetch-interval-seconds=300",
+                "--ribbon.ServerListRefreshInterval=300000",
+                "--registry-events.enabled=true");
+    }
+
+    @After
+    public void tearDown() {
+        if (client != null) {
+            client.close();
+        }
+        if (eurekaServer != null) {
+            eurekaServer.close();
+        }
+    }
+
+    @Test
+    public void canceledInstanceIsRemovedFromTheServerListRightAway() throws InterruptedException {
+        DynamicServerListLoadBalancer<?> loadBalancer = (DynamicServerListLoadBalancer<?>) client.getBean(SpringClientFactory.class)
+                .getLoadBalancer(SERVICE_ID);
+        assertEquals(2, instanceIds(loadBalancer).size());
+        RegistryEventsEndpoint endpoint = eurekaServer.getBean(RegistryEventsEndpoint.class);
+        awaitUntil(() -> endpoint.getSubscriberCount() == 1);
+
+        eurekaServer.getBean(InstanceRegistry.class).cancel(APP_NAME, "address-service-1", false);
+
+        awaitUntil(() -> instanceIds(loadBalancer).size() == 1);
+        assertEquals("address-service-2", instanceIds(loadBalancer).get(0));
+        assertEquals(1, client.getBean(MeterRegistry.class).get("eureka.registry.events")
+                .tag("type", "canceled").tag("result", "applied").counter().count(), 0);
+
+        // The Eureka client still has the instance in its registry copy, until its next fetch.
+        // Ribbon updates in the meantime leave it out anyway.
+        loadBalancer.updateListOfServers();
+        assertEquals(1, instanceIds(loadBalancer).size());
+    }
+
+    private static List<String> instanceIds(DynamicServerListLoadBalancer<?> loadBalancer) {
+        return loadBalancer.getReachableServers().stream()
+                .map(Server.class::cast)
+                .map(server -> ((DiscoveryEnabledServer) server).getInstanceInfo().getId())
+                .collect(Collectors.toList());
+    }
+
+    private static InstanceInfo instance(String id, int port) {
+        return InstanceInfo.Builder.newBuilder()
+                .setAppName(APP_NAME)
+                .setInstanceId(id)
+                .setHostName("localhost")
+                .setIPAddr("127.0.0.1")
+                .setPort(port)
+                .setVIPAddress(SERVICE_ID)
+                .setStatus(InstanceStatus.UP)
+                .setDataCenterInfo(() -> DataCenterInfo.Name.MyOwn)
+                .build();
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("The condition was not met in time");
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    @Configuration
+    @EnableAutoConfiguration
+    @RibbonClient(name = SERVICE_ID, configuration = RibbonAutoConfigurationOverrides.class)
+    @Import({ LoadBalancingConfiguration.class, RegistryEventsConfiguration.class })
+    static class ClientApplication {
+    }
+}
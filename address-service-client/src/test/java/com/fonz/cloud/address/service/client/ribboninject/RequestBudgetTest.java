@@ -0,0 +1,66 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RequestBudgetTest {
+
+    @Test
+    public void budgetStartsFullAndIsUsedUpByWithdrawals() {
+        RequestBudget budget = new RequestBudget(0.1, 3);
+        assertEquals(3.0, budget.getBalance(), 0);
+
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+        assertEquals(0.0, budget.getBalance(), 0);
+    }
+
+    @Test
+    public void depositsRefillTheBudget() {
+        RequestBudget budget = new RequestBudget(0.1, 3);
+        drain(budget);
+
+        for (int i = 0; i < 9; i++) {
+            budget.deposit();
+        }
+        assertFalse(budget.tryWithdraw());
+        budget.deposit();
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+    }
+
+    @Test
+    public void balanceIsCapped() {
+        RequestBudget budget = new RequestBudget(0.5, 2);
+        for (int i = 0; i < 100; i++) {
+            budget.deposit();
+        }
+        assertEquals(2.0, budget.getBalance(), 0);
+
+        budget.tryWithdraw();
+        budget.refund();
+        budget.refund();
+        assertEquals(2.0, budget.getBalance(), 0);
+    }
+
+    @Test
+    public void refundReturnsAWithdrawnToken() {
+        RequestBudget budget = new RequestBudget(0.1, 1);
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+
+        budget.refund();
+        assertTrue(budget.tryWithdraw());
+    }
+
+    private static void drain(RequestBudget budget) {
+        while (budget.tryWithdraw()) {
+            // Use up the initial balance.
+        }
+    }
+}
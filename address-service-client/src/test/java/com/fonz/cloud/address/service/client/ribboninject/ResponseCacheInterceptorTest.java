@@ -0,0 +1,217 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.web.client.RestTemplate;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ResponseCacheInterceptorTest {
+
+    private static final String ADDRESS_URI = "http://address-service/address";
+    private static final String OTHER_URI = "http://address-service/address?id=2";
+    private static final String THIRD_URI = "http://address-service/address?id=3";
+    private static final String JSON = "application/json";
+
+    private final Deque<MockClientHttpResponse> responses = new ArrayDeque<>();
+    private final List<HttpHeaders> sentRequests = new ArrayList<>();
+    private ResponseCacheInterceptor interceptor;
+    private RestTemplate restTemplate;
+
+    @Before
+    public void setUp() {
+        useCache(2, 60000);
+    }
+
+    @Test
+    public void freshResponsesAreServedFromTheCache() {
+        respond(HttpStatus.OK, "a", MediaType.APPLICATION_JSON);
+
+        assertEquals("a", get(ADDRESS_URI, JSON));
+        assertEquals("a", get(ADDRESS_URI, JSON));
+        assertEquals(1, sentRequests.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedResponseIsEvicted() {
+        respond(HttpStatus.OK, "a", MediaType.APPLICATION_JSON);
+        respond(HttpStatus.OK, "b", MediaType.APPLICATION_JSON);
+        respond(HttpStatus.OK, "c", MediaType.APPLICATION_JSON);
+        respond(HttpStatus.OK, "b2", MediaType.APPLICATION_JSON);
+
+        get(ADDRESS_URI, JSON);
+        get(OTHER_URI, JSON);
+        // Makes the first response the most recently used one.
+        assertEquals("a", get(ADDRESS_URI, JSON));
+        get(THIRD_URI, JSON);
+        assertEquals(2, interceptor.size());
+
+        assertEquals("a", get(ADDRESS_URI, JSON));
+        assertEquals("b2", get(OTHER_URI, JSON));
+        assertEquals(4, sentRequests.size());
+    }
+
+    @Test
+    public void responsesExpireAfterTheTimeToLive() {
+        useCache(2, 0);
+        respond(HttpStatus.OK, "a", MediaType.APPLICATION_JSON);
+        respond(HttpStatus.OK, "b", MediaType.APPLICATION_JSON);
+
+        assertEquals("a", get(ADDRESS_URI, JSON));
+        assertEquals("b", get(ADDRESS_URI, JSON));
+        // Without an ETag, the stale response could not be revalidated.
+        assertEquals(0, sentRequests.get(1).getIfNoneMatch().size());
+    }
+
+    @Test
+    public void maxAgeOfTheResponseOverridesTheTimeToLive() {
+        useCache(2, 0);
+        respond(HttpStatus.OK, "a", MediaType.APPLICATION_JSON).getHeaders().setCacheControl("max-age=60");
+        assertEquals("a", get(ADDRESS_URI, JSON));
+        assertEquals("a", get(ADDRESS_URI, JSON));
+        assertEquals(1, sentRequests.size());
+
+        useCache(2, 60000);
+        respond(HttpStatus.OK, "b", MediaType.APPLICATION_JSON).getHeaders().setCacheControl("public, max-age=0");
+        respond(HttpStatus.OK, "c", MediaType.APPLICATION_JSON);
+        assertEquals("b", get(ADDRESS_URI, JSON));
+        assertEquals("c", get(ADDRESS_URI, JSON));
+        assertEquals(3, sentRequests.size());
+    }
+
+    @Test
+    public void staleResponseWithETagIsRevalidated() {
+        useCache(2, 0);
+        respond(HttpStatus.OK, "a", MediaType.APPLICATION_JSON).getHeaders().setETag("\"v1\"");
+        respond(HttpStatus.NOT_MODIFIED, "", null);
+
+        assertEquals("a", get(ADDRESS_URI, JSON));
+        assertEquals("a", get(ADDRESS_URI, JSON));
+        assertEquals(Collections.singletonList("\"v1\""), sentRequests.get(1).getIfNoneMatch());
+    }
+
+    @Test
+    public void changedResponseReplacesTheStaleOne() {
+        useCache(2, 0);
+        respond(HttpStatus.OK, "a", MediaType.APPLICATION_JSON).getHeaders().setETag("\"v1\"");
+        respond(HttpStatus.OK, "b", MediaType.APPLICATION_JSON).getHeaders().setETag("\"v2\"");
+        respond(HttpStatus.NOT_MODIFIED, "", null);
+
+        assertEquals("a", get(ADDRESS_URI, JSON));
+        assertEquals("b", get(ADDRESS_URI, JSON));
+        assertEquals("b", get(ADDRESS_URI, JSON));
+        assertEquals(Collections.singletonList("\"v2\""), sentRequests.get(2).getIfNoneMatch());
+    }
+
+    @Test
+    public void noStoreResponsesAreNotCached() {
+        respond(HttpStatus.OK, "a", MediaType.APPLICATION_JSON).getHeaders().setCacheControl("no-store");
+        respond(HttpStatus.OK, "b", MediaType.APPLICATION_JSON);
+
+        assertEquals("a", get(ADDRESS_URI, JSON));
+        assertEquals("b", get(ADDRESS_URI, JSON));
+        assertEquals(0, sentRequests.get(1).getIfNoneMatch().size());
+    }
+
+    @Test
+    public void noCacheResponsesAreRevalidatedOnEveryUse() {
+        MockClientHttpResponse first = respond(HttpStatus.OK, "a", MediaType.APPLICATION_JSON);
+        first.getHeaders().setETag("\"v1\"");
+        first.getHeaders().setCacheControl("no-cache");
+        // 304 responses without Cache-Control: the no-cache of the cached response still applies.
+        respond(HttpStatus.NOT_MODIFIED, "", null);
+        respond(HttpStatus.NOT_MODIFIED, "", null);
+
+        assertEquals("a", get(ADDRESS_URI, JSON));
+        assertEquals("a", get(ADDRESS_URI, JSON));
+        assertEquals("a", get(ADDRESS_URI, JSON));
+        assertEquals(3, sentRequests.size());
+        assertEquals(Collections.singletonList("\"v1\""), sentRequests.get(2).getIfNoneMatch());
+    }
+
+    @Test
+    public void noCacheResponsesWithoutETagAreNotCached() {
+        respond(HttpStatus.OK, "a", MediaType.APPLICATION_JSON).getHeaders().setCacheControl("no-cache");
+        respond(HttpStatus.OK, "b", MediaType.APPLICATION_JSON);
+
+        assertEquals("a", get(ADDRESS_URI, JSON));
+        assertEquals(0, interceptor.size());
+        assertEquals("b", get(ADDRESS_URI, JSON));
+    }
+
+    @Test
+    public void responsesAreCachedPerAcceptHeader() {
+        respond(HttpStatus.OK, "smile", MediaType.parseMediaType("application/x-jackson-smile"));
+        respond(HttpStatus.OK, "json", MediaType.APPLICATION_JSON);
+
+        assertEquals("smile", get(ADDRESS_URI, "application/x-jackson-smile, application/json;q=0.9"));
+        assertEquals("json", get(ADDRESS_URI, "application/json"));
+        assertEquals("smile", get(ADDRESS_URI, "application/x-jackson-smile, application/json;q=0.9"));
+        assertEquals("json", get(ADDRESS_URI, "application/json"));
+
+        assertEquals(2, sentRequests.size());
+    }
+
+    private void useCache(int maxEntries, long timeToLiveMillis) {
+        interceptor = new ResponseCacheInterceptor(maxEntries, timeToLiveMillis, new SimpleMeterRegistry());
+        restTemplate = new RestTemplate(new StubRequestFactory());
+        restTemplate.setInterceptors(Collections.singletonList(interceptor));
+    }
+
+    private String get(String uri, String accept) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.ACCEPT, accept);
+        return restTemplate.exchange(uri, HttpMethod.GET, new HttpEntity<>(headers), String.class).getBody();
+    }
+
+    private MockClientHttpResponse respond(HttpStatus status, String body, MediaType contentType) {
+        MockClientHttpResponse response = new MockClientHttpResponse(body.getBytes(StandardCharsets.UTF_8), status);
+        if (contentType != null) {
+            response.getHeaders().setContentType(contentType);
+        }
+        responses.add(response);
+        return response;
+    }
+
+    /**
+     * Answers with the queued responses in order, and records the headers of every request that actually goes out.
+     */
+    private class StubRequestFactory implements ClientHttpRequestFactory {
+
+        @Override
+        public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) {
+            return new MockClientHttpRequest(httpMethod, uri) {
+                @Override
+                protected ClientHttpResponse executeInternal() throws IOException {
+                    sentRequests.add(getHeaders());
+                    MockClientHttpResponse response = responses.poll();
+                    if (response == null) {
+                        throw new IOException("No response queued for " + uri);
+                    }
+                    return response;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.netflix.ribbon.DefaultServerIntrospector;
+import org.springframework.cloud.netflix.ribbon.RibbonLoadBalancerContext;
+import org.springframework.cloud.netflix.ribbon.SpringClientFactory;
+import org.springframework.cloud.netflix.ribbon.apache.RibbonApacheHttpRequest;
+import org.springframework.cloud.netflix.ribbon.apache.RibbonApacheHttpResponse;
+import org.springframework.cloud.netflix.ribbon.support.RibbonCommandContext;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.StreamUtils;
+
+import com.fonz.cloud.address.service.client.cf.CFLoadBalancerRequestTransformer;
+import com.fonz.cloud.address.service.client.cf.CFRoutingHeaderCache;
+import com.netflix.client.config.CommonClientConfigKey;
+import com.netflix.client.config.DefaultClientConfigImpl;
+import com.netflix.loadbalancer.Server;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class RoutingMetricsTest {
+
+    private static final String SERVICE_ID = "address-service";
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final CFRoutingHeaderCache headerCache = new CFRoutingHeaderCache();
+    private final RoutingMetrics routingMetrics = new RoutingMetrics(registry, headerCache);
+
+    @Test(timeout = 10000)
+    public void retriedRequestIsRecorded() throws Exception {
+        // The first request fails (the connection is closed without a response), whichever instance it goes to.
+        AtomicInteger requests = new AtomicInteger();
+        StubInstance.Handler handler = exchange -> {
+            if (requests.getAndIncrement() == 0) {
+                throw new IOException("crashed");
+            }
+            StubInstance.respond(exchange, 200, "ok");
+        };
+        try (StubInstance first = new StubInstance(handler); StubInstance second = new StubInstance(handler)) {
+            CustomRetryableRibbonLoadBalancingHttpClient client = createClient(first.getServer(), second.getServer());
+
+            RibbonApacheHttpResponse response = execute(client);
+            assertEquals(200, response.getStatus());
+            response.close();
+
+            String failedInstance = first.getServer().getId();
+            assertEquals(1, timer("ribbon.routing.server.selection", failedInstance).count());
+            assertEquals(1, timer("ribbon.routing.server.selection", second.getServer().getId()).count());
+            assertEquals(1, counter("ribbon.routing.retry", failedInstance, "next-server").count(), 0);
+            assertEquals(0, counter("ribbon.routing.retry", failedInstance, "same-server").count(), 0);
+            DistributionSummary retriesPerRequest = registry.get("ribbon.routing.retries").tag("service", SERVICE_ID).summary();
+            assertEquals(1, retriesPerRequest.count());
+            assertEquals(1, retriesPerRequest.totalAmount(), 0);
+        }
+    }
+
+    @Test
+    public void routingHeadersAreCountedByInstanceIndex() {
+        routingMetrics.recordRoutingHeader(SERVICE_ID, "a1b2c3:2");
+        routingMetrics.recordRoutingHeader(SERVICE_ID, "a1b2c3:2");
+        routingMetrics.recordRoutingHeader(SERVICE_ID, null);
+
+        assertEquals(2, registry.get("ribbon.routing.header").tags("instance", "2", "result", "injected").counter().count(), 0);
+        assertEquals(1, registry.get("ribbon.routing.header").tags("instance", "unknown", "result", "missing").counter().count(), 0);
+    }
+
+    @Test
+    public void recordingDoesNotAllocate() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue("needs per-thread allocation counters", threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported());
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        Server server = new Server("host", 1);
+        ServiceInstance instance = cfInstance(2);
+        // The first calls create the meters, and give the JIT time to compile the lookups.
+        recordRequests(server, instance, 100000);
+
+        long threadId = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        recordRequests(server, instance, 100000);
+        long allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+
+        // Allows for a few stray objects (e.g. of the measurement itself), not for one per request.
+        assertTrue(allocated + " bytes allocated for 100000 requests", allocated < 10000);
+    }
+
+    private void recordRequests(Server server, ServiceInstance instance, int requests) {
+        for (int i = 0; i < requests; i++) {
+            routingMetrics.recordServerSelection(SERVICE_ID, server, 1000);
+            routingMetrics.recordRoutingHeader(SERVICE_ID, "a1b2c3:2");
+            routingMetrics.recordRetry(SERVICE_ID, instance, false);
+            routingMetrics.recordRetriesPerRequest(SERVICE_ID, 1);
+        }
+    }
+
+    private Timer timer(String name, String instance) {
+        return registry.get(name).tags("service", SERVICE_ID, "instance", instance).timer();
+    }
+
+    private Counter counter(String name, String instance, String target) {
+        return registry.get(name).tags("service", SERVICE_ID, "instance", instance, "target", target).counter();
+    }
+
+    private CustomRetryableRibbonLoadBalancingHttpClient createClient(Server... servers) {
+        DefaultClientConfigImpl config = new DefaultClientConfigImpl();
+        config.loadDefaultValues();
+        config.setClientName(SERVICE_ID);
+        config.set(CommonClientConfigKey.ConnectTimeout, 1000);
+        config.set(CommonClientConfigKey.ReadTimeout, 5000);
+        config.set(CommonClientConfigKey.MaxAutoRetries, 0);
+        config.set(CommonClientConfigKey.MaxAutoRetriesNextServer, 1);
+        SpringClientFactory clientFactory = mock(SpringClientFactory.class);
+        when(clientFactory.getClientConfig(SERVICE_ID)).thenReturn(config);
+        when(clientFactory.getLoadBalancerContext(SERVICE_ID)).thenAnswer(invocation -> new RibbonLoadBalancerContext(null, config));
+
+        CloseableHttpClient httpClient = HttpClients.custom().disableAutomaticRetries().build();
+        CustomRetryableRibbonLoadBalancingHttpClient client = new CustomRetryableRibbonLoadBalancingHttpClient(httpClient, config,
+                new DefaultServerIntrospector(), new BudgetedRetryFactory(clientFactory, routingMetrics, headerCache), headerCache,
+                routingMetrics);
+        client.setLoadBalancer(new SequenceLoadBalancer(servers));
+        return client;
+    }
+
+    private static RibbonApacheHttpResponse execute(CustomRetryableRibbonLoadBalancingHttpClient client) throws Exception {
+        RibbonCommandContext context = new RibbonCommandContext(SERVICE_ID, "GET", "http://" + SERVICE_ID + "/address", true,
+                new LinkedMultiValueMap<>(), new LinkedMultiValueMap<>(), null, Collections.emptyList());
+        return client.execute(new RibbonApacheHttpRequest(context), null);
+    }
+
+    private static ServiceInstance cfInstance(int index) {
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put(CFLoadBalancerRequestTransformer.CF_APP_GUID, "a1b2c3");
+        metadata.put(CFLoadBalancerRequestTransformer.CF_INSTANCE_INDEX, String.valueOf(index));
+        return new DefaultServiceInstance("i-" + index, SERVICE_ID, "address-service.example.com", 443, true, metadata);
+    }
+}
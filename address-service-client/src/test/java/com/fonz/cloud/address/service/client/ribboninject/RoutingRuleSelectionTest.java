@@ -0,0 +1,138 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.cloud.netflix.ribbon.PropertiesFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.fonz.cloud.address.service.client.cf.CFRoutingHeaderCache;
+import com.netflix.client.config.DefaultClientConfigImpl;
+import com.netflix.client.config.IClientConfig;
+import com.netflix.loadbalancer.BaseLoadBalancer;
+import com.netflix.loadbalancer.IRule;
+import com.netflix.loadbalancer.RoundRobinRule;
+import com.netflix.loadbalancer.Server;
+
+public class RoutingRuleSelectionTest {
+
+    private static final String SERVICE_ID = "address-service";
+
+    private final DefaultClientConfigImpl config = new DefaultClientConfigImpl();
+    private final InstanceLatencyStats latencyStats = new InstanceLatencyStats(new CFRoutingHeaderCache(), 10000);
+    private final InFlightRequestCounters inFlightCounters = new InFlightRequestCounters();
+    private final List<Server> servers = Arrays.asList(new Server("host", 1), new Server("host", 2));
+    private final RibbonAutoConfigurationOverrides overrides = new RibbonAutoConfigurationOverrides();
+
+    @Before
+    public void setUp() {
+        config.loadDefaultValues();
+        overrides.propertiesFactory = mock(PropertiesFactory.class);
+        overrides.name = SERVICE_ID;
+    }
+
+    @Test
+    public void latencyAwareIsTheDefault() {
+        new ApplicationContextRunner()
+                // Only the rule and what it depends on are created, not the HTTP client and the other beans of a Ribbon client context.
+                .withInitializer(context -> context.addBeanFactoryPostProcessor(beanFactory -> {
+                    for (String beanName : beanFactory.getBeanDefinitionNames()) {
+                        beanFactory.getBeanDefinition(beanName).setLazyInit(true);
+                    }
+                }))
+                .withPropertyValues("ribbon.client.name=" + SERVICE_ID)
+                .withUserConfiguration(RuleDependencies.class, RibbonAutoConfigurationOverrides.class)
+                .run(context -> assertTrue(context.getBean(IRule.class) instanceof LatencyAwareRule));
+    }
+
+    @Test
+    public void latencyAwareRuleChoosesTheFasterInstance() {
+        overrides.rule = "latency-aware";
+        latencyStats.record(latencyStats.keyOf(servers.get(0)), 50000000);
+        latencyStats.record(latencyStats.keyOf(servers.get(1)), 1000000);
+
+        IRule rule = createRule();
+
+        assertTrue(rule instanceof LatencyAwareRule);
+        // With two instances, both are always among the two random choices.
+        for (int i = 0; i < 10; i++) {
+            assertSame(servers.get(1), rule.choose(null));
+        }
+    }
+
+    @Test
+    public void leastOutstandingRuleChoosesTheLeastBusyInstance() {
+        overrides.rule = "least-outstanding";
+        inFlightCounters.increment(inFlightCounters.keyOf(servers.get(1)));
+
+        IRule rule = createRule();
+
+        assertTrue(rule instanceof LeastOutstandingRequestsRule);
+        for (int i = 0; i < 10; i++) {
+            assertSame(servers.get(0), rule.choose(null));
+        }
+    }
+
+    @Test
+    public void configuredRuleClassTakesPrecedence() {
+        overrides.rule = "latency-aware";
+        RoundRobinRule configured = new RoundRobinRule();
+        when(overrides.propertiesFactory.isSet(IRule.class, SERVICE_ID)).thenReturn(true);
+        when(overrides.propertiesFactory.get(IRule.class, config, SERVICE_ID)).thenReturn(configured);
+
+        assertSame(configured, createRule());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownRuleIsRejected() {
+        overrides.rule = "fastest";
+        createRule();
+    }
+
+    @Configuration
+    static class RuleDependencies {
+
+        @Bean
+        public IClientConfig ribbonClientConfig() {
+            return DefaultClientConfigImpl.getClientConfigWithDefaultValues(SERVICE_ID);
+        }
+
+        @Bean
+        public PropertiesFactory propertiesFactory() {
+            return new PropertiesFactory();
+        }
+
+        @Bean
+        public InstanceLatencyStats instanceLatencyStats() {
+            return new InstanceLatencyStats(new CFRoutingHeaderCache(), 10000);
+        }
+
+        @Bean
+        public InFlightRequestCounters inFlightRequestCounters() {
+            return new InFlightRequestCounters();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private IRule createRule() {
+        IRule rule = overrides.ribbonRule(config, latencyStats, inFlightCounters, mock(ObjectProvider.class));
+        BaseLoadBalancer loadBalancer = new BaseLoadBalancer();
+        loadBalancer.addServers(servers);
+        for (Server server : servers) {
+            server.setAlive(true);
+        }
+        rule.setLoadBalancer(loadBalancer);
+        return rule;
+    }
+}
@@ -0,0 +1,51 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.netflix.loadbalancer.ILoadBalancer;
+import com.netflix.loadbalancer.Server;
+
+/**
+ * A load balancer for tests: chooses the given servers one after the other.
+ */
+class SequenceLoadBalancer implements ILoadBalancer {
+
+    private final List<Server> servers;
+    private final AtomicInteger next = new AtomicInteger();
+
+    SequenceLoadBalancer(Server... servers) {
+        this.servers = Arrays.asList(servers);
+    }
+
+    @Override
+    public Server chooseServer(Object key) {
+        return servers.get(next.getAndIncrement() % servers.size());
+    }
+
+    @Override
+    public List<Server> getReachableServers() {
+        return servers;
+    }
+
+    @Override
+    public List<Server> getAllServers() {
+        return servers;
+    }
+
+    @Override
+    @Deprecated
+    public List<Server> getServerList(boolean availableOnly) {
+        return servers;
+    }
+
+    @Override
+    public void addServers(List<Server> newServers) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void markServerDown(Server server) {
+    }
+}
@@ -0,0 +1,227 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class SingleFlightInterceptorTest {
+
+    private static final int CALLERS = 20;
+    private static final String ADDRESS_URI = "http://address-service/address";
+
+    private final AtomicInteger upstreamRequests = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile IOException upstreamFailure;
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private SingleFlightInterceptor interceptor;
+    private RestTemplate restTemplate;
+    private ExecutorService callers;
+
+    @Before
+    public void setUp() {
+        interceptor = new SingleFlightInterceptor(registry);
+        restTemplate = new RestTemplate(new BlockingRequestFactory());
+        restTemplate.setInterceptors(Collections.singletonList(interceptor));
+        callers = Executors.newFixedThreadPool(CALLERS);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        callers.shutdownNow();
+    }
+
+    @Test
+    public void concurrentIdenticalGetsShareOneUpstreamRequest() throws Exception {
+        List<Future<String>> results = startCallers(() -> restTemplate.getForObject(ADDRESS_URI, String.class));
+        awaitCoalesced(CALLERS - 1);
+        release.countDown();
+
+        for (Future<String> result : results) {
+            assertEquals("address", result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, upstreamRequests.get());
+        assertEquals(0, interceptor.getInFlightCount());
+    }
+
+    @Test
+    public void concurrentIdenticalGetsShareTheError() throws Exception {
+        upstreamFailure = new IOException("address-service is down");
+        List<Future<String>> results = startCallers(() -> restTemplate.getForObject(ADDRESS_URI, String.class));
+        awaitCoalesced(CALLERS - 1);
+        release.countDown();
+
+        for (Future<String> result : results) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                fail("Expected the upstream error");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof ResourceAccessException);
+                assertEquals(upstreamFailure, e.getCause().getCause());
+            }
+        }
+        assertEquals(1, upstreamRequests.get());
+    }
+
+    @Test
+    public void requestsAfterTheFlightAreSentAgain() {
+        release.countDown();
+
+        restTemplate.getForObject(ADDRESS_URI, String.class);
+        restTemplate.getForObject(ADDRESS_URI, String.class);
+
+        assertEquals(2, upstreamRequests.get());
+    }
+
+    @Test
+    public void differentUrisAndPostsAreNotCoalesced() throws Exception {
+        List<Future<String>> results = new ArrayList<>();
+        results.add(callers.submit(() -> restTemplate.getForObject(ADDRESS_URI, String.class)));
+        results.add(callers.submit(() -> restTemplate.getForObject(ADDRESS_URI + "?zone=2", String.class)));
+        results.add(callers.submit(() -> restTemplate.postForObject(ADDRESS_URI, "{}", String.class)));
+        results.add(callers.submit(() -> restTemplate.postForObject(ADDRESS_URI, "{}", String.class)));
+        awaitUntil(() -> upstreamRequests.get() == 4);
+        release.countDown();
+
+        for (Future<String> result : results) {
+            assertEquals("address", result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(4, upstreamRequests.get());
+    }
+
+    @Test
+    public void getsWithDifferentAcceptHeadersAreNotCoalesced() throws Exception {
+        List<Future<String>> results = new ArrayList<>();
+        for (String accept : new String[] { "application/x-jackson-smile, application/json;q=0.9", "application/json" }) {
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.ACCEPT, accept);
+            results.add(callers.submit(() -> restTemplate.exchange(ADDRESS_URI, HttpMethod.GET, new HttpEntity<>(headers), String.class).getBody()));
+        }
+        awaitUntil(() -> upstreamRequests.get() == 2);
+        release.countDown();
+
+        for (Future<String> result : results) {
+            assertEquals("address", result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(0.0, registry.get("http.client.requests.coalesced").counter().count(), 0.0);
+    }
+
+    @Test
+    public void conditionalAndPlainGetsAreNotCoalesced() throws Exception {
+        HttpHeaders conditional = new HttpHeaders();
+        conditional.setIfNoneMatch("\"v1\"");
+        List<Future<String>> results = new ArrayList<>();
+        results.add(callers.submit(() -> restTemplate.exchange(ADDRESS_URI, HttpMethod.GET, new HttpEntity<>(conditional), String.class).getBody()));
+        results.add(callers.submit(() -> restTemplate.getForObject(ADDRESS_URI, String.class)));
+        awaitUntil(() -> upstreamRequests.get() == 2);
+        release.countDown();
+
+        for (Future<String> result : results) {
+            assertEquals("address", result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(0.0, registry.get("http.client.requests.coalesced").counter().count(), 0.0);
+    }
+
+    @Test
+    public void streamingGetsAreNotCoalesced() throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(Collections.singletonList(MediaType.parseMediaType("application/x-ndjson")));
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            results.add(callers.submit(() -> restTemplate.exchange(ADDRESS_URI, HttpMethod.GET, new HttpEntity<>(headers), String.class).getBody()));
+        }
+        awaitUntil(() -> upstreamRequests.get() == 2);
+        release.countDown();
+
+        for (Future<String> result : results) {
+            assertEquals("address", result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(0, interceptor.getInFlightCount());
+    }
+
+    private List<Future<String>> startCallers(Callable<String> call) {
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(callers.submit(call));
+        }
+        return results;
+    }
+
+    /**
+     * Waits until the given number of callers wait for the request in flight, instead of sending their own.
+     */
+    private void awaitCoalesced(int callers) throws InterruptedException {
+        awaitUntil(() -> registry.get("http.client.requests.coalesced").counter().count() == callers);
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Callers did not get to the expected point in time");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Counts the requests that actually go out, and blocks each of them until the test releases it.
+     */
+    private class BlockingRequestFactory implements ClientHttpRequestFactory {
+
+        @Override
+        public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) {
+            return new MockClientHttpRequest(httpMethod, uri) {
+                @Override
+                protected ClientHttpResponse executeInternal() throws IOException {
+                    upstreamRequests.incrementAndGet();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    if (upstreamFailure != null) {
+                        throw upstreamFailure;
+                    }
+                    return new MockClientHttpResponse("address".getBytes(StandardCharsets.UTF_8), HttpStatus.OK);
+                }
+            };
+        }
+    }
+}
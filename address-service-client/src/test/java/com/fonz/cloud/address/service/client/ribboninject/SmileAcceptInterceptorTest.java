@@ -0,0 +1,73 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertEquals;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fonz.cloud.address.service.client.Address;
+
+public class SmileAcceptInterceptorTest {
+
+    private static final String ADDRESS_URI = "http://address-service/address";
+    private static final String BATCH_URI = "http://address-service/addresses/batch";
+
+    private final RestTemplate restTemplate = new RestTemplate();
+    private MockRestServiceServer server;
+
+    @Before
+    public void setUp() {
+        restTemplate.setInterceptors(Collections.singletonList(new SmileAcceptInterceptor()));
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+    }
+
+    @Test
+    public void responsesThatCanBeReadAsSmileAreAskedForInSmileFirst() throws Exception {
+        Address address = new Address();
+        address.setId("1");
+        server.expect(requestTo(ADDRESS_URI))
+                .andExpect(header(HttpHeaders.ACCEPT, startsWith("application/x-jackson-smile, application/json;q=0.9, application/*+json;q=0.9, ")))
+                .andRespond(withSuccess(new ObjectMapper(new SmileFactory()).writeValueAsBytes(address), SmileAcceptInterceptor.APPLICATION_SMILE));
+
+        assertEquals("1", restTemplate.getForObject(ADDRESS_URI, Address.class).getId());
+        server.verify();
+    }
+
+    @Test
+    public void requestBodiesAreNotWrittenAsSmile() {
+        server.expect(requestTo(BATCH_URI))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(header(HttpHeaders.CONTENT_TYPE, not(containsString("application/x-jackson-smile"))))
+                .andRespond(withSuccess("[]", MediaType.APPLICATION_JSON));
+
+        restTemplate.postForObject(BATCH_URI, Arrays.asList("1", "2"), Address[].class);
+        server.verify();
+    }
+
+    @Test
+    public void callersThatCannotReadSmileKeepTheirAcceptHeader() {
+        server.expect(requestTo(ADDRESS_URI))
+                .andExpect(header(HttpHeaders.ACCEPT, startsWith("text/plain, ")))
+                .andRespond(withSuccess("address", MediaType.TEXT_PLAIN));
+
+        assertEquals("address", restTemplate.getForObject(ADDRESS_URI, String.class));
+        server.verify();
+    }
+}
@@ -0,0 +1,86 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.netflix.loadbalancer.Server;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A service instance for tests: an HTTP server on an ephemeral port of localhost, which answers every request with its handler.
+ * Each request is handled on its own thread, so a handler can block until the test lets it go on.
+ */
+@SuppressWarnings("restriction")
+class StubInstance implements Closeable {
+
+    interface Handler {
+        void handle(HttpExchange exchange) throws Exception;
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final CountDownLatch firstRequest = new CountDownLatch(1);
+
+    StubInstance(Handler handler) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            firstRequest.countDown();
+            try {
+                handler.handle(exchange);
+            } catch (Exception e) {
+                // Like a crashing instance: the connection is closed without a response.
+            } finally {
+                exchange.close();
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return a handler that answers with the given status and body.
+     */
+    static Handler respond(int status, String body) {
+        return exchange -> respond(exchange, status, body);
+    }
+
+    static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    Server getServer() {
+        return new Server("localhost", server.getAddress().getPort());
+    }
+
+    int getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Waits until this instance has received its first request.
+     */
+    void awaitRequest() throws InterruptedException {
+        firstRequest.await();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
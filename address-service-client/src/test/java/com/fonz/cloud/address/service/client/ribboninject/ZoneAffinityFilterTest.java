@@ -0,0 +1,170 @@
+package com.fonz.cloud.address.service.client.ribboninject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.cloud.netflix.ribbon.StaticServerList;
+
+import com.fonz.cloud.address.service.client.cf.CFRoutingHeaderCache;
+import com.netflix.appinfo.InstanceInfo;
+import com.netflix.client.config.DefaultClientConfigImpl;
+import com.netflix.client.config.IClientConfig;
+import com.netflix.loadbalancer.DummyPing;
+import com.netflix.loadbalancer.PollingServerListUpdater;
+import com.netflix.loadbalancer.Server;
+import com.netflix.loadbalancer.ZoneAwareLoadBalancer;
+import com.netflix.niws.loadbalancer.DiscoveryEnabledServer;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ZoneAffinityFilterTest {
+
+    private static final String SERVICE_ID = "address-service";
+    private static final String LOCAL_ZONE = "AWS-EU-FRA";
+    private static final String REMOTE_ZONE = "AWS-EU-IRL";
+    private static final int REQUESTS = 200;
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final CFRoutingHeaderCache headerCache = new CFRoutingHeaderCache();
+    private ZoneAwareLoadBalancer<Server> loadBalancer;
+
+    @After
+    public void tearDown() {
+        if (loadBalancer != null) {
+            loadBalancer.shutdown();
+        }
+    }
+
+    @Test
+    public void requestsStayInTheLocalZone() {
+        List<Server> servers = new ArrayList<>();
+        servers.addAll(servers("local", LOCAL_ZONE, 3));
+        servers.addAll(servers("remote", REMOTE_ZONE, 3));
+        loadBalancer = loadBalancer(servers);
+
+        Set<String> chosen = chooseHeaderValues();
+
+        assertEquals(set("local:0", "local:1", "local:2"), chosen);
+        assertEquals(1, count("local"), 0);
+    }
+
+    @Test
+    public void requestsGoToAllZonesIfTheLocalZoneIsShortOfCapacity() {
+        List<Server> servers = new ArrayList<>();
+        servers.addAll(servers("local", LOCAL_ZONE, 2));
+        servers.addAll(servers("remote", REMOTE_ZONE, 8));
+        loadBalancer = loadBalancer(servers);
+
+        Set<String> chosen = chooseHeaderValues();
+
+        assertTrue(chosen.contains("local:0") || chosen.contains("local:1"));
+        assertTrue(chosen.stream().anyMatch(headerValue -> headerValue.startsWith("remote:")));
+        assertEquals(1, count("all"), 0);
+    }
+
+    @Test
+    public void requestsGoToAllZonesIfTheLocalZoneHasTooFewInstances() {
+        List<Server> servers = new ArrayList<>();
+        servers.addAll(servers("local", LOCAL_ZONE, 1));
+        servers.addAll(servers("remote", REMOTE_ZONE, 1));
+        ZoneAffinityFilter<Server> filter = new ZoneAffinityFilter<>(SERVICE_ID, LOCAL_ZONE, 2, 50, null);
+
+        assertEquals(servers, filter.getFilteredListOfServers(servers));
+    }
+
+    @Test
+    public void serversWithoutZoneDoNotCountAsAZone() {
+        List<Server> servers = new ArrayList<>();
+        servers.addAll(servers("local", LOCAL_ZONE, 2));
+        servers.addAll(servers("remote", REMOTE_ZONE, 8));
+        // Counted as zones of their own, they would bring the average zone down to 11 / 4 instances, and 2 local instances would do.
+        servers.addAll(servers("unzoned", null, 1));
+        servers.addAll(servers("unknown", Server.UNKNOWN_ZONE, 1));
+        ZoneAffinityFilter<Server> filter = new ZoneAffinityFilter<>(SERVICE_ID, LOCAL_ZONE, 2, 50, null);
+
+        assertEquals(servers, filter.getFilteredListOfServers(servers));
+    }
+
+    @Test
+    public void zonesAreComparedWithoutRegardToCase() {
+        List<Server> servers = new ArrayList<>();
+        servers.addAll(servers("local", LOCAL_ZONE.toLowerCase(Locale.ROOT), 2));
+        servers.addAll(servers("remote", REMOTE_ZONE, 2));
+        servers.addAll(servers("remote2", REMOTE_ZONE.toLowerCase(Locale.ROOT), 2));
+        ZoneAffinityFilter<Server> filter = new ZoneAffinityFilter<>(SERVICE_ID, LOCAL_ZONE, 2, 50, null);
+
+        // Two zones of 2 and 4 instances: the local zone has 2 / 3 of the average.
+        assertEquals(servers.subList(0, 2), filter.getFilteredListOfServers(servers));
+    }
+
+    /**
+     * Chooses a server for a number of requests, the way the load balancer client does.
+     * @return the CF routing header values of the chosen servers.
+     */
+    private Set<String> chooseHeaderValues() {
+        Set<String> headerValues = new HashSet<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            headerValues.add(headerCache.getHeaderValue(loadBalancer.chooseServer(null)));
+        }
+        return headerValues;
+    }
+
+    private ZoneAwareLoadBalancer<Server> loadBalancer(List<Server> servers) {
+        IClientConfig config = DefaultClientConfigImpl.getClientConfigWithDefaultValues(SERVICE_ID);
+        config.set(LeastOutstandingRequestsRule.IN_FLIGHT_COUNTERS, new InFlightRequestCounters());
+        LeastOutstandingRequestsRule rule = new LeastOutstandingRequestsRule();
+        rule.initWithNiwsConfig(config);
+        ZoneAffinityFilter<Server> filter = new ZoneAffinityFilter<>(SERVICE_ID, LOCAL_ZONE, 2, 50, new RoutingMetrics(registry, headerCache));
+        return new ZoneAwareLoadBalancer<>(config, rule, new DummyPing(), new StaticServerList<>(servers.toArray(new Server[0])), filter,
+                new PollingServerListUpdater(config));
+    }
+
+    private double count(String zones) {
+        return registry.get("ribbon.routing.zone.affinity").tag("service", SERVICE_ID).tag("zones", zones).counter().count();
+    }
+
+    /**
+     * Servers like the ones Spring Cloud creates from the Eureka registry: the zone is taken from the instance metadata.
+     */
+    private static List<Server> servers(String appGuid, String zone, int count) {
+        List<Server> servers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, String> metadata = new HashMap<>();
+            if (zone != null) {
+                metadata.put("zone", zone);
+            }
+            metadata.put("cfAppGuid", appGuid);
+            metadata.put("cfInstanceIndex", String.valueOf(i));
+            InstanceInfo instanceInfo = InstanceInfo.Builder.newBuilder()
+                    .setAppName(SERVICE_ID)
+                    .setInstanceId(appGuid + "-" + i)
+                    .setHostName(SERVICE_ID + ".cfapps.io")
+                    .setPort(443)
+                    .setMetadata(metadata)
+                    .build();
+            DiscoveryEnabledServer server = new DiscoveryEnabledServer(instanceInfo, false);
+            server.setZone(zone);
+            servers.add(server);
+        }
+        return servers;
+    }
+
+    private static Set<String> set(String... values) {
+        Set<String> set = new HashSet<>();
+        for (String value : values) {
+            set.add(value);
+        }
+        return set;
+    }
+}
@@ -0,0 +1,37 @@
+#!/bin/bash
+
+# Starts Eureka and several address-service instances locally, to compare client routing strategies without Cloud Foundry.
+#
+# Usage: ./run-local-instances.sh [instances] [address-service arguments...]
+#   e.g. ./run-local-instances.sh 3 --fault-injection.slow-instances=2 --fault-injection.slowdown-factor=5
+#
+# Instance i listens on port 8081+i and gets INSTANCE_INDEX=i, which selects its fault injection seed and slowdown
+# (see FaultInjection). The local profile exposes /actuator/faults. Logs go to target/local-instances. Ctrl-C stops everything.
+# JAVA_OPTS are passed to all JVMs. Requires `mvn clean package` in the root folder first.
+
+INSTANCES=${1:-3}
+shift
+BASE_PORT=8081
+LOG_DIR=target/local-instances
+
+cd "$(dirname "$0")"
+mkdir -p $LOG_DIR
+
+PIDS=()
+trap 'echo "Stopping..."; kill ${PIDS[@]} 2>/dev/null; wait' EXIT
+trap 'exit' INT TERM
+
+echo "Starting eureka-service on port 8761"
+java $JAVA_OPTS -jar ../eureka-service/target/eureka-service-0.0.1-SNAPSHOT-exec.jar > $LOG_DIR/eureka-service.log 2>&1 &
+PIDS+=($!)
+
+for ((i = 0; i < INSTANCES; i++)); do
+  PORT=$((BASE_PORT + i))
+  echo "Starting address-service instance $i on port $PORT"
+  INSTANCE_INDEX=$i java $JAVA_OPTS -jar target/address-service-0.0.1-SNAPSHOT-exec.jar --server.port=$PORT --spring.profiles.active=local "$@" \
+    > $LOG_DIR/address-service-$i.log 2>&1 &
+  PIDS+=($!)
+done
+
+echo "Fault injection: curl localhost:$BASE_PORT/actuator/faults"
+wait
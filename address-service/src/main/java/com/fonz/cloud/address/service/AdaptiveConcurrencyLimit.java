@@ -0,0 +1,86 @@
+package com.fonz.cloud.address.service;
+
+/**
+ * A concurrency limit that adapts to the measured response times (additive increase, multiplicative decrease).
+ *
+ * Every successful request is a sample. If it took more than <code>tolerance</code> times the long-term average response
+ * time, requests are queueing up somewhere (threads, connections, CPU), and the limit is cut by <code>backoffRatio</code>.
+ * Otherwise, if at least half of the limit is in use, the limit is raised by one. Failed requests are not sampled: their
+ * response times say nothing about the load of the instance.
+ *
+ * The limit stays between <code>minLimit</code> and <code>maxLimit</code>. <code>maxLimit</code> should be below the size of
+ * the server's thread pool, so that requests over the limit can still be rejected quickly.
+ */
+public class AdaptiveConcurrencyLimit {
+
+    /** Weight of a new sample in the long-term average response time, i.e. the average covers roughly the last 100 samples. */
+    private static final double SMOOTHING = 0.01;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double backoffRatio;
+
+    // Guarded by this.
+    private double limit;
+    private int inFlight;
+    private double averageNanos;
+
+    /**
+     * @param initialLimit the limit to start with.
+     * @param minLimit the lowest limit.
+     * @param maxLimit the highest limit.
+     * @param tolerance the factor by which a response time may exceed the average before the limit is cut.
+     * @param backoffRatio the factor by which the limit is cut.
+     */
+    public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double tolerance, double backoffRatio) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.tolerance = tolerance;
+        this.backoffRatio = backoffRatio;
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+    }
+
+    /**
+     * @return true, if the request may be processed. It has to be {@link #release(long, boolean) released} then.
+     *         False, if the limit is reached.
+     */
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * Called when a request that has been acquired is complete.
+     * @param responseTimeNanos the response time of the request.
+     * @param sample true, if the request has succeeded and its response time should adapt the limit.
+     */
+    public synchronized void release(long responseTimeNanos, boolean sample) {
+        int inFlightDuringRequest = inFlight;
+        inFlight--;
+        if (!sample) {
+            return;
+        }
+
+        if (averageNanos == 0) {
+            averageNanos = responseTimeNanos;
+        }
+        if (responseTimeNanos > averageNanos * tolerance) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+        } else if (inFlightDuringRequest * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + 1);
+        }
+        averageNanos += (responseTimeNanos - averageNanos) * SMOOTHING;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+}
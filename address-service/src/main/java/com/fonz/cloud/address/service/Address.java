@@ -1,12 +1,21 @@
 package com.fonz.cloud.address.service;
 
 public class Address {
+    private String id;
     private String postalCode;
     private String city;
     private String streetName;
     private String houseNumber;
     private String country;
     
+    public String getId() {
+        return id;
+    }
+    
+    public void setId(String id) {
+        this.id = id;
+    }
+    
     public String getPostalCode() {
         return postalCode;
     }
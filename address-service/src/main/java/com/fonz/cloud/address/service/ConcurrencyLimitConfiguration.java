@@ -0,0 +1,57 @@
+package com.fonz.cloud.address.service;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.util.StringUtils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+/**
+ * Limits the number of requests processed at the same time, if <code>concurrency-limit.enabled</code> is set
+ * (see {@link ConcurrencyLimitFilter}).
+ *
+ * The current limit is published as <code>http.server.requests.limit</code>, rejected requests are counted in
+ * <code>http.server.requests.rejected</code>.
+ */
+@Configuration
+@ConditionalOnProperty(name = "concurrency-limit.enabled", havingValue = "true")
+public class ConcurrencyLimitConfiguration {
+
+    @Bean
+    public AdaptiveConcurrencyLimit adaptiveConcurrencyLimit(
+            @Value("${concurrency-limit.initial-limit:20}") int initialLimit,
+            @Value("${concurrency-limit.min-limit:4}") int minLimit,
+            @Value("${concurrency-limit.max-limit:150}") int maxLimit,
+            @Value("${concurrency-limit.tolerance:2.0}") double tolerance,
+            @Value("${concurrency-limit.backoff-ratio:0.9}") double backoffRatio) {
+        return new AdaptiveConcurrencyLimit(initialLimit, minLimit, maxLimit, tolerance, backoffRatio);
+    }
+
+    @Bean
+    public FilterRegistrationBean<ConcurrencyLimitFilter> concurrencyLimitFilter(AdaptiveConcurrencyLimit adaptiveConcurrencyLimit,
+            @Value("${concurrency-limit.retry-after:1}") int retryAfterSeconds,
+            @Value("${concurrency-limit.sampled-paths:/address}") String sampledPaths, ObjectProvider<MeterRegistry> meterRegistry) {
+        MeterRegistry registry = meterRegistry.getIfAvailable(CompositeMeterRegistry::new);
+        Gauge.builder("http.server.requests.limit", adaptiveConcurrencyLimit, AdaptiveConcurrencyLimit::getLimit)
+                .description("Current concurrency limit of this instance.")
+                .register(registry);
+        Counter rejected = Counter.builder("http.server.requests.rejected")
+                .description("Requests rejected because the concurrency limit was reached.")
+                .register(registry);
+
+        FilterRegistrationBean<ConcurrencyLimitFilter> registration = new FilterRegistrationBean<>(
+                new ConcurrencyLimitFilter(adaptiveConcurrencyLimit, retryAfterSeconds,
+                StringUtils.commaDelimitedListToSet(sampledPaths), rejected));
+        // Before all other filters, so that rejected requests cost as little as possible.
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
+    }
+}
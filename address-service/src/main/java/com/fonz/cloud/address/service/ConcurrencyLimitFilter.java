@@ -0,0 +1,111 @@
+package com.fonz.cloud.address.service;
+
+import java.io.IOException;
+import java.util.Set;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import io.micrometer.core.instrument.Counter;
+
+/**
+ * Sheds load once the {@link AdaptiveConcurrencyLimit} of this instance is reached.
+ *
+ * Requests over the limit are answered right away with <code>503 Service Unavailable</code> and a <code>Retry-After</code>
+ * header, instead of waiting for a Tomcat worker thread. Under a retry storm, this keeps the response times of the requests
+ * that are processed stable, and tells the client to try another instance now rather than running into its read timeout.
+ *
+ * Asynchronous requests (e.g. slow requests with <code>async-endpoints.enabled</code>, or streamed address lists) count until
+ * their response is complete. They do not hold a thread while waiting, but the limit still protects the instance from taking
+ * on more work than it can finish in time.
+ *
+ * Only the responses of <code>sampledPaths</code> adapt the limit. The response time of a streamed address list grows with
+ * its size and with the speed of the client reading it, not with the load of the instance, and would drive the limit down.
+ */
+public class ConcurrencyLimitFilter extends OncePerRequestFilter {
+
+    private final AdaptiveConcurrencyLimit limit;
+    private final String retryAfterSeconds;
+    private final Set<String> sampledPaths;
+    private final Counter rejected;
+    private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+
+    /**
+     * @param retryAfterSeconds the value of the Retry-After header of rejected requests (s).
+     * @param sampledPaths the paths (within the application) whose response times adapt the limit.
+     * @param rejected counts the rejected requests.
+     */
+    public ConcurrencyLimitFilter(AdaptiveConcurrencyLimit limit, int retryAfterSeconds, Set<String> sampledPaths, Counter rejected) {
+        this.limit = limit;
+        this.retryAfterSeconds = String.valueOf(retryAfterSeconds);
+        this.sampledPaths = sampledPaths;
+        this.rejected = rejected;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (!limit.tryAcquire()) {
+            rejected.increment();
+            response.setHeader(HttpHeaders.RETRY_AFTER, retryAfterSeconds);
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "Concurrency limit reached");
+            return;
+        }
+
+        long start = System.nanoTime();
+        boolean sampled = sampledPaths.contains(urlPathHelper.getPathWithinApplication(request));
+        boolean success = false;
+        try {
+            filterChain.doFilter(request, response);
+            success = response.getStatus() < 500;
+        } finally {
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new ReleasingAsyncListener(start, sampled));
+            } else {
+                limit.release(System.nanoTime() - start, sampled && success);
+            }
+        }
+    }
+
+    private final class ReleasingAsyncListener implements AsyncListener {
+
+        private final long start;
+        private final boolean sampled;
+
+        ReleasingAsyncListener(long start, boolean sampled) {
+            this.start = start;
+            this.sampled = sampled;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            HttpServletResponse response = (HttpServletResponse) event.getSuppliedResponse();
+            limit.release(System.nanoTime() - start, sampled && response.getStatus() < 500);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            // onComplete follows.
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            // onComplete follows.
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // Called if the request is dispatched and started asynchronously again. Stay registered until it is complete.
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
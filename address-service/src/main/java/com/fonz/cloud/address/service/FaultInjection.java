@@ -0,0 +1,160 @@
+package com.fonz.cloud.address.service;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fonz.cloud.address.service.FaultProfile.Distribution;
+
+/**
+ * Decides which requests to <code>/address</code> fail and how long each of them takes, according to a {@link FaultProfile}.
+ *
+ * The random numbers come from a seeded {@link Random}, so an instance that gets the same sequence of requests produces the same
+ * sequence of faults and latencies. This makes load-balancing and retry strategies comparable: run the same load against the same
+ * seed, once per strategy. Changing the profile at runtime (see {@link FaultInjectionEndpoint}) starts the sequence over.
+ *
+ * The instance index (<code>INSTANCE_INDEX</code>, as in Cloud Foundry) is added to the seed, and instances listed in
+ * <code>slow-instances</code> are slowed down, so that one profile can describe a whole set of instances.
+ */
+@Component
+public class FaultInjection {
+
+    private final int instanceIndex;
+    private final FaultProfile defaultProfile;
+
+    // Guarded by this.
+    private FaultProfile profile;
+    private Random random;
+
+    @Autowired
+    public FaultInjection(@Value("${INSTANCE_INDEX:0}") int instanceIndex,
+            @Value("${fault-injection.seed:0}") long seed,
+            @Value("${fault-injection.error-rate:0.5}") double errorRate,
+            @Value("${fault-injection.error-delay:1500}") long errorDelayMillis,
+            @Value("${fault-injection.latency.distribution:none}") String distribution,
+            @Value("${fault-injection.latency.mean:0}") long meanLatencyMillis,
+            @Value("${fault-injection.latency.std-dev:0}") long stdDevMillis,
+            @Value("${fault-injection.latency.tail-shape:1.5}") double tailShape,
+            @Value("${fault-injection.latency.max:10000}") long maxLatencyMillis,
+            @Value("${fault-injection.slow-instances:}") String slowInstances,
+            @Value("${fault-injection.slowdown-factor:1.0}") double slowdownFactor) {
+        this(instanceIndex, new FaultProfile(seed, errorRate, errorDelayMillis, distribution(distribution), meanLatencyMillis,
+                stdDevMillis, tailShape, maxLatencyMillis, instances(slowInstances), slowdownFactor));
+    }
+
+    public FaultInjection(int instanceIndex, FaultProfile profile) {
+        this.instanceIndex = instanceIndex;
+        this.defaultProfile = profile;
+        setProfile(profile);
+    }
+
+    /**
+     * @return the fault of the next request.
+     */
+    public synchronized Fault next() {
+        boolean error = random.nextDouble() < profile.getErrorRate();
+        long delayMillis = error ? profile.getErrorDelayMillis() : latencyMillis();
+        if (profile.getSlowInstances().contains(instanceIndex)) {
+            delayMillis = (long) (delayMillis * profile.getSlowdownFactor());
+        }
+        return new Fault(error, delayMillis);
+    }
+
+    public int getInstanceIndex() {
+        return instanceIndex;
+    }
+
+    public synchronized FaultProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Replaces the profile and starts the random sequence over with its seed.
+     */
+    public synchronized void setProfile(FaultProfile profile) {
+        this.profile = profile;
+        this.random = new Random(profile.getSeed() + instanceIndex);
+    }
+
+    /**
+     * Goes back to the configured profile.
+     */
+    public void reset() {
+        setProfile(defaultProfile);
+    }
+
+    /**
+     * @param name a distribution name as in the configuration, e.g. <code>long-tail</code>.
+     */
+    public static Distribution distribution(String name) {
+        return Distribution.valueOf(name.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * @param instanceIndexes comma-separated instance indexes as in the configuration, e.g. <code>0,2</code>.
+     */
+    public static Set<Integer> instances(String instanceIndexes) {
+        Set<Integer> instances = new HashSet<>();
+        for (String instanceIndex : instanceIndexes.split(",")) {
+            if (!instanceIndex.trim().isEmpty()) {
+                instances.add(Integer.valueOf(instanceIndex.trim()));
+            }
+        }
+        return instances;
+    }
+
+    // Called with the lock held.
+    private long latencyMillis() {
+        double latency;
+        switch (profile.getDistribution()) {
+        case FIXED:
+            latency = profile.getMeanLatencyMillis();
+            break;
+        case NORMAL:
+            latency = profile.getMeanLatencyMillis() + random.nextGaussian() * profile.getStdDevMillis();
+            break;
+        case LONG_TAIL:
+            // Inverse transform sampling of a Pareto distribution whose mean is meanLatencyMillis.
+            double shape = profile.getTailShape();
+            double scale = profile.getMeanLatencyMillis() * (shape - 1) / shape;
+            latency = scale / Math.pow(1 - random.nextDouble(), 1 / shape);
+            break;
+        default:
+            latency = 0;
+        }
+        return Math.max(0, Math.min(profile.getMaxLatencyMillis(), Math.round(latency)));
+    }
+
+    /**
+     * What happens to a request.
+     */
+    public static final class Fault {
+
+        private final boolean error;
+        private final long delayMillis;
+
+        Fault(boolean error, long delayMillis) {
+            this.error = error;
+            this.delayMillis = delayMillis;
+        }
+
+        /**
+         * @return true, if the request fails.
+         */
+        public boolean isError() {
+            return error;
+        }
+
+        /**
+         * @return the time until the request is answered (ms).
+         */
+        public long getDelayMillis() {
+            return delayMillis;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.fonz.cloud.address.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * The actuator endpoint <code>/actuator/faults</code>, to look at and change the {@link FaultProfile} of an instance at runtime.
+ *
+ * <ul>
+ * <li><code>GET</code> returns the instance index and the current profile.</li>
+ * <li><code>POST</code> with a JSON object changes the given properties and starts the random sequence over,
+ *     e.g. <code>{"errorRate": 0.1, "distribution": "long-tail", "slowInstances": "0,2"}</code>.</li>
+ * <li><code>DELETE</code> goes back to the configured profile.</li>
+ * </ul>
+ */
+@Component
+@Endpoint(id = "faults")
+public class FaultInjectionEndpoint {
+
+    private final FaultInjection faultInjection;
+
+    public FaultInjectionEndpoint(FaultInjection faultInjection) {
+        this.faultInjection = faultInjection;
+    }
+
+    @ReadOperation
+    public Map<String, Object> faults() {
+        Map<String, Object> faults = new LinkedHashMap<>();
+        faults.put("instanceIndex", faultInjection.getInstanceIndex());
+        faults.put("profile", faultInjection.getProfile());
+        return faults;
+    }
+
+    @WriteOperation
+    public Map<String, Object> change(@Nullable Long seed, @Nullable Double errorRate, @Nullable Long errorDelayMillis,
+            @Nullable String distribution, @Nullable Long meanLatencyMillis, @Nullable Long stdDevMillis, @Nullable Double tailShape,
+            @Nullable Long maxLatencyMillis, @Nullable String slowInstances, @Nullable Double slowdownFactor) {
+        FaultProfile current = faultInjection.getProfile();
+        FaultProfile profile;
+        try {
+            profile = new FaultProfile(
+                    seed != null ? seed : current.getSeed(),
+                    errorRate != null ? errorRate : current.getErrorRate(),
+                    errorDelayMillis != null ? errorDelayMillis : current.getErrorDelayMillis(),
+                    distribution != null ? FaultInjection.distribution(distribution) : current.getDistribution(),
+                    meanLatencyMillis != null ? meanLatencyMillis : current.getMeanLatencyMillis(),
+                    stdDevMillis != null ? stdDevMillis : current.getStdDevMillis(),
+                    tailShape != null ? tailShape : current.getTailShape(),
+                    maxLatencyMillis != null ? maxLatencyMillis : current.getMaxLatencyMillis(),
+                    slowInstances != null ? FaultInjection.instances(slowInstances) : current.getSlowInstances(),
+                    slowdownFactor != null ? slowdownFactor : current.getSlowdownFactor());
+        } catch (IllegalArgumentException e) {
+            // 400 Bad Request instead of 500.
+            throw new InvalidEndpointRequestException(e.getMessage(), e.getMessage());
+        }
+        faultInjection.setProfile(profile);
+        return faults();
+    }
+
+    @DeleteOperation
+    public Map<String, Object> reset() {
+        faultInjection.reset();
+        return faults();
+    }
+}
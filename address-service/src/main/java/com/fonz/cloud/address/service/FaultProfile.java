@@ -0,0 +1,115 @@
+package com.fonz.cloud.address.service;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The faults and latencies {@link FaultInjection} simulates. Immutable, changed at runtime by replacing it
+ * (see {@link FaultInjectionEndpoint}).
+ */
+public final class FaultProfile {
+
+    /**
+     * How the latency of successful requests is distributed.
+     */
+    public enum Distribution {
+        /** No latency. */
+        NONE,
+        /** Always <code>meanLatencyMillis</code>. */
+        FIXED,
+        /** Normally distributed around <code>meanLatencyMillis</code> with <code>stdDevMillis</code>, cut off at 0. */
+        NORMAL,
+        /**
+         * Pareto distributed with a mean of <code>meanLatencyMillis</code>: most requests are faster than the mean,
+         * a few are many times slower. The lower <code>tailShape</code> (&gt; 1), the longer the tail.
+         */
+        LONG_TAIL
+    }
+
+    private final long seed;
+    private final double errorRate;
+    private final long errorDelayMillis;
+    private final Distribution distribution;
+    private final long meanLatencyMillis;
+    private final long stdDevMillis;
+    private final double tailShape;
+    private final long maxLatencyMillis;
+    private final Set<Integer> slowInstances;
+    private final double slowdownFactor;
+
+    /**
+     * @param seed the seed of the random numbers. Each instance adds its instance index, so that instances differ from each other,
+     *             but each of them repeats itself.
+     * @param errorRate the share of requests to <code>/address</code> that fail (0..1).
+     * @param errorDelayMillis the time until a failing request is answered (ms).
+     * @param meanLatencyMillis the mean latency of successful requests (ms).
+     * @param stdDevMillis the standard deviation of {@link Distribution#NORMAL} latencies (ms).
+     * @param tailShape the shape of {@link Distribution#LONG_TAIL} latencies (&gt; 1).
+     * @param maxLatencyMillis the upper bound of all sampled latencies (ms).
+     * @param slowInstances the instance indexes (<code>INSTANCE_INDEX</code>) that are slowed down.
+     * @param slowdownFactor the factor by which the latencies and error delays of <code>slowInstances</code> are multiplied.
+     */
+    public FaultProfile(long seed, double errorRate, long errorDelayMillis, Distribution distribution, long meanLatencyMillis,
+            long stdDevMillis, double tailShape, long maxLatencyMillis, Set<Integer> slowInstances, double slowdownFactor) {
+        if (errorRate < 0 || errorRate > 1) {
+            throw new IllegalArgumentException("errorRate must be between 0 and 1: " + errorRate);
+        }
+        if (tailShape <= 1) {
+            throw new IllegalArgumentException("tailShape must be greater than 1: " + tailShape);
+        }
+        if (errorDelayMillis < 0 || meanLatencyMillis < 0 || stdDevMillis < 0 || maxLatencyMillis < 0 || slowdownFactor < 0) {
+            throw new IllegalArgumentException("Times and factors must not be negative");
+        }
+        this.seed = seed;
+        this.errorRate = errorRate;
+        this.errorDelayMillis = errorDelayMillis;
+        this.distribution = distribution;
+        this.meanLatencyMillis = meanLatencyMillis;
+        this.stdDevMillis = stdDevMillis;
+        this.tailShape = tailShape;
+        this.maxLatencyMillis = maxLatencyMillis;
+        this.slowInstances = Collections.unmodifiableSet(new TreeSet<>(slowInstances));
+        this.slowdownFactor = slowdownFactor;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    public long getErrorDelayMillis() {
+        return errorDelayMillis;
+    }
+
+    public Distribution getDistribution() {
+        return distribution;
+    }
+
+    public long getMeanLatencyMillis() {
+        return meanLatencyMillis;
+    }
+
+    public long getStdDevMillis() {
+        return stdDevMillis;
+    }
+
+    public double getTailShape() {
+        return tailShape;
+    }
+
+    public long getMaxLatencyMillis() {
+        return maxLatencyMillis;
+    }
+
+    public Set<Integer> getSlowInstances() {
+        return slowInstances;
+    }
+
+    public double getSlowdownFactor() {
+        return slowdownFactor;
+    }
+}
@@ -1,37 +1,184 @@
 package com.fonz.cloud.address.service;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.LongStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fonz.cloud.address.service.FaultInjection.Fault;
 
 
+/**
+ * The address-service API.
+ *
+ * The failures and latencies of <code>/address</code> are simulated by {@link FaultInjection}, <code>/failing-address</code> always fails
+ * after 1.5s. Both are answered asynchronously, so that they do not hold a request thread while waiting, if <code>async-endpoints.enabled</code> is set.
+ */
 @RestController
 public class RESTEndpoint {
-  
+
+    private static final Logger LOG = LoggerFactory.getLogger(RESTEndpoint.class);
+
+    private static final Address ADDRESS = createAddress();
+
+    /** Maximum number of address IDs per batch request. */
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    /** Maximum number of addresses per list request. */
+    private static final long MAX_STREAM_SIZE = 10_000_000;
+
+    /** Newline-delimited JSON, see http://ndjson.org. */
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    // The address never changes, so its ETag is computed once. Whenever the address changes, the ETag has to change with it.
+    private static final String ADDRESS_ETAG = "\"" + DigestUtils.md5DigestAsHex((ADDRESS.getPostalCode() + "|" + ADDRESS.getCity() + "|"
+            + ADDRESS.getStreetName() + "|" + ADDRESS.getHouseNumber() + "|" + ADDRESS.getCountry()).getBytes(StandardCharsets.UTF_8)) + "\"";
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private FaultInjection faultInjection;
+
+    // Blocks the request thread, or not (see SimulatedDelay).
+    @Autowired
+    private SimulatedDelay simulatedDelay;
+
     @RequestMapping(value = "/address", method = RequestMethod.GET)
-    public Address firstPage() throws Exception {
+    public CompletableFuture<ResponseEntity<Address>> firstPage() throws Exception {
         
-        // simulate random errors
-        if(Math.random() > .5) {
-            Thread.sleep(1500);
-            System.out.println("Simulating random ADDRESS-SERVICE downtime.");
-            throw new RuntimeException("Simulating random ADDRESS-SERVICE downtime.");
+        // simulate errors and latencies (see FaultInjection)
+        Fault fault = faultInjection.next();
+        if (fault.isError()) {
+            return simulatedDelay.delay(fault.getDelayMillis()).thenApply(done -> {
+                LOG.info("Simulating random ADDRESS-SERVICE downtime.");
+                throw new RuntimeException("Simulating random ADDRESS-SERVICE downtime.");
+            });
         }
         
+        // Sets the ETag header. Spring answers 304 Not Modified without a body instead,
+        // if the client sent the current ETag in If-None-Match.
+        return simulatedDelay.delay(fault.getDelayMillis()).thenApply(done -> ResponseEntity.ok().eTag(ADDRESS_ETAG).body(ADDRESS));
+    }
+    
+    /**
+     * Looks up many addresses in one round-trip, e.g. for bulk enrichment jobs.
+     * Takes a JSON array of address IDs and returns a JSON array of the addresses in the same order.
+     * The addresses are written to the response one by one as they are looked up, instead of building the whole list in memory first.
+     */
+    @RequestMapping(value = "/addresses/batch", method = RequestMethod.POST)
+    public ResponseEntity<StreamingResponseBody> batch(@RequestBody List<String> ids,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        if (ids.size() > MAX_BATCH_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most " + MAX_BATCH_SIZE + " address IDs per batch");
+        }
+        return stream(ids.stream().map(RESTEndpoint::lookup).iterator(), accept);
+    }
+
+    /**
+     * Lists <code>count</code> addresses, starting with ID <code>from</code>.
+     * The addresses are looked up one at a time while the response is being written, so the memory this takes does not grow with
+     * <code>count</code>. Answers newline-delimited JSON (one address per line) if asked for <code>application/x-ndjson</code>,
+     * and a JSON array otherwise.
+     */
+    @RequestMapping(value = "/addresses", method = RequestMethod.GET)
+    public ResponseEntity<StreamingResponseBody> addresses(@RequestParam(defaultValue = "1") long from,
+            @RequestParam(defaultValue = "100") long count, @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        if (count < 0 || count > MAX_STREAM_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "count must be between 0 and " + MAX_STREAM_SIZE);
+        }
+        return stream(LongStream.range(from, from + count).mapToObj(id -> lookup(String.valueOf(id))).iterator(), accept);
+    }
+    
+    @RequestMapping(value = "/failing-address", method = RequestMethod.GET)
+    public CompletableFuture<Address> failing() throws Exception {
+        return simulatedDelay.delay(1500).thenApply(done -> {
+            LOG.info("Simulating failing ADDRESS-SERVICE");
+            throw new RuntimeException("Simulating failing ADDRESS-SERVICE.");
+        });
+    }
+
+    /**
+     * Writes the addresses to the response one by one, as a JSON array or as newline-delimited JSON.
+     */
+    private ResponseEntity<StreamingResponseBody> stream(Iterator<Address> addresses, String accept) {
+        boolean ndjson = acceptsNdjson(accept);
+        // Flushing after every address would send a tiny TCP packet for each of them. The generator sends a chunk whenever its buffer is full.
+        ObjectWriter writer = objectMapper.writerFor(Address.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                if (ndjson) {
+                    // No separator between root values, the newline is written after each of them instead.
+                    generator.setRootValueSeparator(null);
+                    while (addresses.hasNext()) {
+                        writer.writeValue(generator, addresses.next());
+                        generator.writeRaw('\n');
+                    }
+                } else {
+                    generator.writeStartArray();
+                    while (addresses.hasNext()) {
+                        writer.writeValue(generator, addresses.next());
+                    }
+                    generator.writeEndArray();
+                }
+            }
+        };
+        return ResponseEntity.ok().contentType(ndjson ? NDJSON : MediaType.APPLICATION_JSON_UTF8).body(body);
+    }
+
+    /**
+     * @return true, if the Accept header asks for newline-delimited JSON. A malformed Accept header gets the JSON array.
+     */
+    private static boolean acceptsNdjson(String accept) {
+        if (accept == null) {
+            return false;
+        }
+        try {
+            return MediaType.parseMediaTypes(accept).stream().anyMatch(NDJSON::equalsTypeAndSubtype);
+        } catch (InvalidMediaTypeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Stands in for a real address lookup: every ID resolves to the same address.
+     */
+    private static Address lookup(String id) {
+        Address address = createAddress();
+        address.setId(id);
+        return address;
+    }
+
+    private static Address createAddress() {
         Address address = new Address();
         address.setCity("New York");
         address.setCountry("United States");
         address.setHouseNumber("101a");
         address.setPostalCode("52670");
         address.setStreetName("Fifth-Ave");
-
         return address;
     }
-    
-    @RequestMapping(value = "/failing-address", method = RequestMethod.GET)
-    public Address failing() throws Exception {
-        Thread.sleep(1500);
-        System.out.println("Simulating failing ADDRESS-SERVICE");
-        throw new RuntimeException("Simulating failing ADDRESS-SERVICE.");
-    }
 }
@@ -0,0 +1,56 @@
+package com.fonz.cloud.address.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Simulates slow processing, e.g. waiting for a database or another service.
+ *
+ * By default, the delay blocks the request thread, like a blocking call would. With <code>async-endpoints.enabled</code>,
+ * the delay is scheduled on a timer instead, and the request thread goes back to Tomcat's pool right away (see
+ * {@link RESTEndpoint}). A waiting request then only takes the memory of its request and response objects, not a thread,
+ * so the same instance can hold many more slow requests at the same time.
+ */
+@Component
+public class SimulatedDelay {
+
+    private final ScheduledExecutorService timer;
+
+    public SimulatedDelay(@Value("${async-endpoints.enabled:false}") boolean async) {
+        this.timer = async ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "simulated-delay");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * @return a future that completes after the delay. Completed already, if the delay blocks or there is none.
+     */
+    public CompletableFuture<Void> delay(long millis) throws InterruptedException {
+        if (millis <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (timer == null) {
+            Thread.sleep(millis);
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> delay = new CompletableFuture<>();
+        timer.schedule(() -> delay.complete(null), millis, TimeUnit.MILLISECONDS);
+        return delay;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.fonz.cloud.address.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimitTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 2, 20, 2.0, 0.5);
+
+    @Test
+    public void requestsOverTheLimitAreRejected() {
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limit.tryAcquire());
+        }
+        assertFalse(limit.tryAcquire());
+
+        limit.release(FAST, false);
+        assertTrue(limit.tryAcquire());
+    }
+
+    @Test
+    public void limitGrowsWhileResponseTimesAreNormal() {
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limit.tryAcquire());
+        }
+        limit.release(FAST, true);
+
+        assertEquals(11, limit.getLimit());
+    }
+
+    @Test
+    public void limitShrinksWhenResponseTimesGoUp() {
+        limit.tryAcquire();
+        limit.release(FAST, true);
+        limit.tryAcquire();
+        limit.release(SLOW, true);
+        assertEquals(5, limit.getLimit());
+
+        // Failed requests do not count, however slow they are.
+        limit.tryAcquire();
+        limit.release(SLOW * 10, false);
+        assertEquals(5, limit.getLimit());
+
+        for (int i = 0; i < 10; i++) {
+            limit.tryAcquire();
+            limit.release(SLOW * 10, true);
+        }
+        assertEquals(2, limit.getLimit());
+        assertEquals(0, limit.getInFlight());
+    }
+}
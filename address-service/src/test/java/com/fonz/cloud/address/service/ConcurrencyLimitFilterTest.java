@@ -0,0 +1,113 @@
+package com.fonz.cloud.address.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class ConcurrencyLimitFilterTest {
+
+    // A sampled response with the limit in use raises the limit from 1 to 2. An unsampled one leaves it at 1.
+    private final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 1, 10, 2.0, 0.9);
+    private final Counter rejected = new SimpleMeterRegistry().counter("rejected");
+    private final ConcurrencyLimitFilter filter = new ConcurrencyLimitFilter(limit, 1, Collections.singleton("/address"), rejected);
+
+    @Test
+    public void asyncResponsesOfSampledPathsAdaptTheLimit() throws Exception {
+        MockHttpServletRequest request = asyncRequest("GET", "/address");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain(new StartingAsyncServlet()));
+        assertEquals(1, limit.getInFlight());
+
+        complete(request);
+        assertEquals(0, limit.getInFlight());
+        assertEquals(2, limit.getLimit());
+    }
+
+    @Test
+    public void streamedResponsesDoNotAdaptTheLimit() throws Exception {
+        MockHttpServletRequest request = asyncRequest("GET", "/addresses");
+        filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain(new StartingAsyncServlet()));
+        complete(request);
+
+        request = asyncRequest("POST", "/addresses/batch");
+        filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain(new StartingAsyncServlet()));
+        complete(request);
+
+        assertEquals(0, limit.getInFlight());
+        assertEquals(1, limit.getLimit());
+    }
+
+    @Test
+    public void failedResponsesDoNotAdaptTheLimit() throws Exception {
+        MockHttpServletRequest request = asyncRequest("GET", "/address");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain(new StartingAsyncServlet()));
+        response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        complete(request);
+
+        assertEquals(0, limit.getInFlight());
+        assertEquals(1, limit.getLimit());
+    }
+
+    @Test
+    public void synchronousResponsesOfSampledPathsAdaptTheLimit() throws Exception {
+        filter.doFilter(new MockHttpServletRequest("GET", "/address"), new MockHttpServletResponse(), new MockFilterChain());
+
+        assertEquals(0, limit.getInFlight());
+        assertEquals(2, limit.getLimit());
+    }
+
+    @Test
+    public void requestsOverTheLimitAreRejectedWithRetryAfter() throws Exception {
+        MockHttpServletRequest first = asyncRequest("GET", "/address");
+        filter.doFilter(first, new MockHttpServletResponse(), new MockFilterChain(new StartingAsyncServlet()));
+
+        MockHttpServletResponse rejectedResponse = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(asyncRequest("GET", "/address"), rejectedResponse, chain);
+
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, rejectedResponse.getStatus());
+        assertEquals("1", rejectedResponse.getHeader(HttpHeaders.RETRY_AFTER));
+        assertNull("the rejected request must not reach the endpoint", chain.getRequest());
+        assertEquals(1, rejected.count(), 0);
+        assertEquals(1, limit.getInFlight());
+
+        complete(first);
+        assertEquals(0, limit.getInFlight());
+    }
+
+    private static MockHttpServletRequest asyncRequest(String method, String path) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, path);
+        request.setAsyncSupported(true);
+        return request;
+    }
+
+    private static void complete(MockHttpServletRequest request) {
+        ((MockAsyncContext) request.getAsyncContext()).complete();
+    }
+
+    /**
+     * Starts asynchronous processing, like a controller returning a CompletableFuture or a StreamingResponseBody.
+     */
+    @SuppressWarnings("serial")
+    private static final class StartingAsyncServlet extends javax.servlet.http.HttpServlet {
+
+        @Override
+        protected void service(javax.servlet.http.HttpServletRequest request, HttpServletResponse response) {
+            request.startAsync(request, response);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.fonz.cloud.address.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.fonz.cloud.address.service.FaultInjection.Fault;
+import com.fonz.cloud.address.service.FaultProfile.Distribution;
+
+public class FaultInjectionTest {
+
+    @Test
+    public void sameSeedSameFaults() {
+        FaultProfile profile = profile(0.5, Distribution.NORMAL, 100, Collections.emptySet());
+        FaultInjection first = new FaultInjection(1, profile);
+        FaultInjection second = new FaultInjection(1, profile);
+        FaultInjection otherInstance = new FaultInjection(2, profile);
+
+        List<String> faults = faults(first, 100);
+        assertEquals(faults, faults(second, 100));
+        assertFalse(faults.equals(faults(otherInstance, 100)));
+
+        // A new profile, even the same, starts over.
+        first.setProfile(profile);
+        assertEquals(faults, faults(first, 100));
+    }
+
+    @Test
+    public void errorRate() {
+        FaultInjection faultInjection = new FaultInjection(0, profile(0.2, Distribution.NONE, 0, Collections.emptySet()));
+
+        int errors = 0;
+        for (int i = 0; i < 10_000; i++) {
+            Fault fault = faultInjection.next();
+            if (fault.isError()) {
+                errors++;
+                assertEquals(1500, fault.getDelayMillis());
+            } else {
+                assertEquals(0, fault.getDelayMillis());
+            }
+        }
+        assertTrue(errors > 1800 && errors < 2200);
+    }
+
+    @Test
+    public void longTailHasTheConfiguredMedianAndATail() {
+        FaultInjection faultInjection = new FaultInjection(0, profile(0, Distribution.LONG_TAIL, 100, Collections.emptySet()));
+
+        List<Long> latencies = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            latencies.add(faultInjection.next().getDelayMillis());
+        }
+        Collections.sort(latencies);
+        // Pareto with shape 1.5 and mean 100ms: scale 33ms, median 53ms, 99th percentile 718ms.
+        assertTrue(latencies.get(0) >= 33);
+        assertTrue(Math.abs(latencies.get(5_000) - 53) < 5);
+        assertTrue(latencies.get(9_900) > 500);
+        assertTrue(latencies.get(9_999) <= 10_000);
+    }
+
+    @Test
+    public void slowInstancesAreSlowedDown() {
+        FaultProfile profile = profile(0.5, Distribution.FIXED, 100, new HashSet<>(Arrays.asList(1)));
+
+        FaultInjection instance = new FaultInjection(0, profile);
+        FaultInjection slowInstance = new FaultInjection(1, profile);
+
+        for (int i = 0; i < 10; i++) {
+            Fault fault = instance.next();
+            assertEquals(fault.isError() ? 1500 : 100, fault.getDelayMillis());
+            Fault slowFault = slowInstance.next();
+            assertEquals(slowFault.isError() ? 4500 : 300, slowFault.getDelayMillis());
+        }
+    }
+
+    private static FaultProfile profile(double errorRate, Distribution distribution, long meanLatencyMillis, Set<Integer> slowInstances) {
+        return new FaultProfile(42, errorRate, 1500, distribution, meanLatencyMillis, 20, 1.5, 10_000, slowInstances, 3.0);
+    }
+
+    private static List<String> faults(FaultInjection faultInjection, int count) {
+        List<String> faults = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Fault fault = faultInjection.next();
+            faults.add(fault.isError() + ":" + fault.getDelayMillis());
+        }
+        return faults;
+    }
+}
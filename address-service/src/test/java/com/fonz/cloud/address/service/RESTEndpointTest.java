@@ -0,0 +1,143 @@
+package com.fonz.cloud.address.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.Collections;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fonz.cloud.address.service.FaultProfile.Distribution;
+
+public class RESTEndpointTest {
+
+    private MockMvc mvc;
+
+    @Before
+    public void setUp() {
+        RESTEndpoint endpoint = new RESTEndpoint();
+        ReflectionTestUtils.setField(endpoint, "objectMapper", new ObjectMapper());
+        // No simulated errors or latencies.
+        ReflectionTestUtils.setField(endpoint, "faultInjection", new FaultInjection(0,
+                new FaultProfile(42, 0, 0, Distribution.NONE, 0, 0, 1.5, 0, Collections.emptySet(), 1.0)));
+        ReflectionTestUtils.setField(endpoint, "simulatedDelay", new SimulatedDelay(true));
+        mvc = MockMvcBuilders.standaloneSetup(endpoint).build();
+    }
+
+    @Test
+    public void addressIsAnsweredWithETag() throws Exception {
+        perform(get("/address"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andExpect(jsonPath("$.city").value("New York"));
+    }
+
+    @Test
+    public void currentETagIsAnsweredWithNotModified() throws Exception {
+        String etag = perform(get("/address")).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        perform(get("/address").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, etag))
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    public void outdatedETagIsAnsweredWithTheAddress() throws Exception {
+        perform(get("/address").header(HttpHeaders.IF_NONE_MATCH, "\"outdated\""))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.city").value("New York"));
+    }
+
+    @Test
+    public void batchOfAtMost1000IdsIsAnswered() throws Exception {
+        perform(post("/addresses/batch").contentType(MediaType.APPLICATION_JSON).content(ids(1000)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1000))
+                .andExpect(jsonPath("$[999].id").value("999"));
+    }
+
+    @Test
+    public void batchOfMoreThan1000IdsIsRejected() throws Exception {
+        mvc.perform(post("/addresses/batch").contentType(MediaType.APPLICATION_JSON).content(ids(1001)))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void addressesAreListedAsJsonArray() throws Exception {
+        perform(get("/addresses").param("from", "10").param("count", "3"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[0].id").value("10"))
+                .andExpect(jsonPath("$[2].id").value("12"));
+    }
+
+    @Test
+    public void addressesAreListedAsNdjsonIfAskedFor() throws Exception {
+        String body = perform(get("/addresses").param("from", "10").param("count", "3")
+                .header(HttpHeaders.ACCEPT, "application/x-ndjson, application/json;q=0.5"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = body.split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(body.endsWith("\n"));
+        assertTrue(lines[0].startsWith("{") && lines[0].contains("\"id\":\"10\""));
+        assertTrue(lines[2].contains("\"id\":\"12\""));
+    }
+
+    @Test
+    public void malformedAcceptHeaderGetsJsonArray() throws Exception {
+        perform(get("/addresses").param("count", "2").header(HttpHeaders.ACCEPT, "application/x-ndjson;q=high, /json"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.length()").value(2));
+    }
+
+    @Test
+    public void emptyListIsAnswered() throws Exception {
+        perform(get("/addresses").param("count", "0"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("[]"));
+    }
+
+    @Test
+    public void countOutOfBoundsIsRejected() throws Exception {
+        mvc.perform(get("/addresses").param("count", "-1")).andExpect(status().isBadRequest());
+        mvc.perform(get("/addresses").param("count", "10000001")).andExpect(status().isBadRequest());
+    }
+
+    private static String ids(int count) {
+        return IntStream.range(0, count).mapToObj(id -> "\"" + id + "\"").collect(Collectors.joining(",", "[", "]"));
+    }
+
+    /**
+     * Performs an asynchronously answered request, and dispatches its result.
+     */
+    private ResultActions perform(RequestBuilder requestBuilder) throws Exception {
+        MvcResult result = mvc.perform(requestBuilder).andExpect(request().asyncStarted()).andReturn();
+        return mvc.perform(asyncDispatch(result));
+    }
+}
@@ -0,0 +1,203 @@
+package com.fonz.cloud.cf.simulator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerInitializedEvent;
+import org.springframework.cloud.netflix.eureka.server.InstanceRegistry;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Import;
+
+import com.fonz.cloud.address.service.FaultInjection;
+import com.fonz.cloud.address.service.FaultInjectionEndpoint;
+import com.fonz.cloud.address.service.RESTEndpoint;
+import com.fonz.cloud.address.service.SimulatedDelay;
+import com.netflix.appinfo.ApplicationInfoManager;
+import com.netflix.discovery.shared.Application;
+
+/**
+ * A local Cloud Foundry landscape for address-service, in-process: eureka-service, <code>instances</code> address-service instances
+ * and a {@link GoRouter} in front of them.
+ *
+ * As in Cloud Foundry, all instances register in Eureka with the address of the route - the router - and their <code>cfAppGuid</code>
+ * and <code>cfInstanceIndex</code> in the metadata (see the <code>cloud</code> profile of address-service's application.yml).
+ * A client that gets its server list from {@link #getEurekaUrl()} thus sends all requests through the router, which picks an instance
+ * of its own, unless the client sets the <code>X-CF-APP-INSTANCE</code> header.
+ * Each instance also registers its own address as <code>cfInternalAddress</code>, like an instance on the container network,
+ * so that a client with direct routing (<code>cf.routing.direct.enabled</code>) bypasses the router. The constructor waits until
+ * Eureka has it.
+ *
+ * Each instance gets its index as <code>INSTANCE_INDEX</code>, so its faults can be controlled through {@link #getFaultInjection(int)}
+ * (see {@link FaultInjection}). No faults are injected unless configured.
+ */
+public class CFSimulator implements Closeable {
+
+    public static final String APP_NAME = "ADDRESS-SERVICE";
+    public static final String APP_GUID = "5ab9c4e0-0000-4000-8000-00000000cf01";
+
+    private static final String INTERNAL_ADDRESS = "cfInternalAddress";
+    private static final long REGISTRATION_TIMEOUT_SECONDS = 30;
+
+    private final GoRouter router;
+    private final ConfigurableApplicationContext eurekaServer;
+    private final List<ConfigurableApplicationContext> instances = new ArrayList<>();
+
+    /**
+     * Starts the landscape and waits until all instances are registered in Eureka.
+     * @param properties additional properties of the address-service instances, e.g. <code>fault-injection.error-rate=0.1</code>.
+     */
+    public CFSimulator(int instances, String... properties) throws IOException {
+        this.router = new GoRouter();
+        // No application.yml: the ones on the class path belong to the applications started here, or to a client.
+        this.eurekaServer = new SpringApplicationBuilder(com.fonz.cloud.eureka.service.App.class)
+                .properties(
+                        "spring.config.name=cf-simulator",
+                        "spring.main.banner-mode=off",
+                        "logging.level.root=WARN",
+                        // All applications run in the same JVM, i.e. with the same MBean server.
+                        "spring.jmx.enabled=false",
+                        "server.port=0",
+                        "spring.application.name=eureka-server",
+                        "eureka.client.register-with-eureka=false",
+                        "eureka.client.fetch-registry=false",
+                        // Serve the registry right away, and always the current one.
+                        "eureka.server.wait-time-in-ms-when-sync-empty=0",
+                        "eureka.server.use-read-only-response-cache=false")
+                .run();
+        try {
+            for (int i = 0; i < instances; i++) {
+                this.instances.add(startInstance(i, properties));
+            }
+            awaitRegistrations(instances);
+        } catch (RuntimeException | InterruptedException e) {
+            close();
+            throw new IllegalStateException("Could not start the simulated landscape", e);
+        }
+    }
+
+    /**
+     * @return the URL of the Eureka server, as in <code>eureka.client.serviceUrl.defaultZone</code>.
+     */
+    public String getEurekaUrl() {
+        return "http://localhost:" + eurekaServer.getEnvironment().getProperty("local.server.port") + "/eureka";
+    }
+
+    public GoRouter getRouter() {
+        return router;
+    }
+
+    /**
+     * @return the URL of the route, i.e. of the router.
+     */
+    public String getRouteUrl() {
+        return "http://localhost:" + router.getPort();
+    }
+
+    public int getInstanceCount() {
+        return instances.size();
+    }
+
+    /**
+     * @return the fault injection of the instance with the given index.
+     */
+    public FaultInjection getFaultInjection(int instanceIndex) {
+        return instances.get(instanceIndex).getBean(FaultInjection.class);
+    }
+
+    private ConfigurableApplicationContext startInstance(int instanceIndex, String... properties) {
+        ConfigurableApplicationContext instance = new SpringApplicationBuilder(AddressServiceApplication.class)
+                .web(WebApplicationType.SERVLET)
+                // Defaults, overridden by the given properties.
+                .properties(
+                        "fault-injection.error-rate=0",
+                        "async-endpoints.enabled=true")
+                .listeners(new InternalAddressRegistration())
+                .run(arguments(instanceIndex, properties));
+        router.register(APP_GUID, instanceIndex, Integer.parseInt(instance.getEnvironment().getProperty("local.server.port")));
+        return instance;
+    }
+
+    private String[] arguments(int instanceIndex, String... properties) {
+        List<String> arguments = new ArrayList<>();
+        arguments.add("--spring.config.name=cf-simulator");
+        arguments.add("--spring.main.banner-mode=off");
+        arguments.add("--logging.level.root=WARN");
+        arguments.add("--spring.jmx.enabled=false");
+        arguments.add("--server.port=0");
+        arguments.add("--spring.application.name=address-service");
+        arguments.add("--INSTANCE_INDEX=" + instanceIndex);
+        arguments.add("--eureka.client.serviceUrl.defaultZone=" + getEurekaUrl());
+        arguments.add("--eureka.client.fetch-registry=false");
+        arguments.add("--eureka.instance.instance-id=address-service:" + instanceIndex);
+        // Registered with the address of the route, like in Cloud Foundry.
+        arguments.add("--eureka.instance.hostname=localhost");
+        arguments.add("--eureka.instance.non-secure-port=" + router.getPort());
+        arguments.add("--eureka.instance.metadata-map.cfAppGuid=" + APP_GUID);
+        arguments.add("--eureka.instance.metadata-map.cfInstanceIndex=" + instanceIndex);
+        // The instance re-registers with its cfInternalAddress once its port is known (see InternalAddressRegistration).
+        arguments.add("--eureka.client.instance-info-replication-interval-seconds=1");
+        for (String property : properties) {
+            arguments.add("--" + property);
+        }
+        return arguments.toArray(new String[0]);
+    }
+
+    private void awaitRegistrations(int instances) throws InterruptedException {
+        InstanceRegistry registry = eurekaServer.getBean(InstanceRegistry.class);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(REGISTRATION_TIMEOUT_SECONDS);
+        while (true) {
+            Application application = registry.getApplication(APP_NAME);
+            if (application != null && application.getInstances().size() == instances
+                    && application.getInstances().stream().allMatch(instance -> instance.getMetadata().containsKey(INTERNAL_ADDRESS))) {
+                return;
+            }
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("The instances did not register in time");
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (ConfigurableApplicationContext instance : instances) {
+            instance.close();
+        }
+        eurekaServer.close();
+        router.close();
+    }
+
+    /**
+     * Publishes the address of an instance as <code>cfInternalAddress</code> once its web server listens.
+     * The port is only known then, since the instances start on a free port picked by the operating system (<code>server.port=0</code>)
+     * to avoid clashes with other processes. The Eureka client sends the changed metadata with its next replication.
+     */
+    private static final class InternalAddressRegistration implements ApplicationListener<WebServerInitializedEvent> {
+
+        @Override
+        public void onApplicationEvent(WebServerInitializedEvent event) {
+            ApplicationInfoManager applicationInfoManager = event.getApplicationContext().getBean(ApplicationInfoManager.class);
+            applicationInfoManager.registerAppMetadata(
+                    Collections.singletonMap(INTERNAL_ADDRESS, "localhost:" + event.getWebServer().getPort()));
+        }
+    }
+
+    /**
+     * address-service with its endpoints only, without component scanning, which would pick up a client's configuration from
+     * the packages below <code>com.fonz.cloud.address.service</code>.
+     */
+    @SpringBootConfiguration
+    @EnableAutoConfiguration
+    @Import({ RESTEndpoint.class, FaultInjection.class, FaultInjectionEndpoint.class, SimulatedDelay.class })
+    static class AddressServiceApplication {
+    }
+}
@@ -0,0 +1,282 @@
+package com.fonz.cloud.cf.simulator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.springframework.util.StreamUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in for Cloud Foundry's Go-Router, in front of the instances of one app route.
+ *
+ * Like Go-Router, it spreads requests round-robin over the registered instances, unless the request carries the
+ * <code>X-CF-APP-INSTANCE</code> header (<code>appGuid:instanceIndex</code>, see <code>CFLoadBalancerRequestTransformer</code>).
+ * Then it sends the request to exactly that instance, or answers with an error and an <code>X-Cf-Routererror</code> header:
+ * <ul>
+ * <li><code>400 invalid_cf_app_instance_header</code>, if the header is malformed.</li>
+ * <li><code>404 unknown_route</code>, if no such instance is registered (or none at all without the header).</li>
+ * <li><code>502 endpoint_failure</code>, if the instance cannot be reached.</li>
+ * </ul>
+ *
+ * Every request is delayed by <code>hopLatencyMillis</code> before it is forwarded, to simulate the network hop through the router.
+ * Requests are counted per instance and pinned requests separately, so that tests can check where they went.
+ */
+@SuppressWarnings("restriction")
+public class GoRouter implements Closeable {
+
+    public static final String ROUTING_HEADER = "X-CF-APP-INSTANCE";
+    public static final String ROUTER_ERROR_HEADER = "X-Cf-Routererror";
+
+    // Hop-by-hop headers (RFC 7230), not forwarded. Content-Length is set from the body.
+    private static final Set<String> HOP_BY_HOP_HEADERS = new HashSet<>(Arrays.asList("connection", "keep-alive", "proxy-authenticate",
+            "proxy-authorization", "te", "trailer", "transfer-encoding", "upgrade", "host", "content-length"));
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final CloseableHttpClient httpClient;
+    private final List<Instance> instances = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<String, Instance> instancesByRoutingHeader = new ConcurrentHashMap<>();
+    private final AtomicInteger nextInstance = new AtomicInteger();
+    private final AtomicLong pinnedRequests = new AtomicLong();
+    private volatile long hopLatencyMillis;
+
+    public GoRouter() throws IOException {
+        this(0);
+    }
+
+    /**
+     * @param hopLatencyMillis the delay of every request before it is forwarded (ms).
+     */
+    public GoRouter(long hopLatencyMillis) throws IOException {
+        this.hopLatencyMillis = hopLatencyMillis;
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "go-router");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Connections to the instances are kept open, as Go-Router does.
+        this.httpClient = HttpClients.custom()
+                .setMaxConnTotal(1000)
+                .setMaxConnPerRoute(1000)
+                .disableRedirectHandling()
+                .disableAutomaticRetries()
+                .disableContentCompression()
+                .disableCookieManagement()
+                .build();
+        // A large backlog, so that bursts of concurrent connections are not refused.
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        this.server.createContext("/", this::handle);
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Adds an instance of the app to the route.
+     * @param port the port the instance listens on, on localhost.
+     */
+    public void register(String appGuid, int instanceIndex, int port) {
+        Instance instance = new Instance(appGuid, instanceIndex, port);
+        unregister(appGuid, instanceIndex);
+        instances.add(instance);
+        instancesByRoutingHeader.put(instance.routingHeader, instance);
+    }
+
+    /**
+     * Removes an instance from the route, e.g. to simulate that it has crashed.
+     */
+    public void unregister(String appGuid, int instanceIndex) {
+        Instance instance = instancesByRoutingHeader.remove(appGuid + ":" + instanceIndex);
+        if (instance != null) {
+            instances.remove(instance);
+        }
+    }
+
+    public void setHopLatencyMillis(long hopLatencyMillis) {
+        this.hopLatencyMillis = hopLatencyMillis;
+    }
+
+    /**
+     * @return the number of requests forwarded to the instance, pinned or not.
+     */
+    public long getRequestCount(String appGuid, int instanceIndex) {
+        Instance instance = instancesByRoutingHeader.get(appGuid + ":" + instanceIndex);
+        return instance != null ? instance.requests.get() : 0;
+    }
+
+    /**
+     * @return the number of requests forwarded to the instance named in their <code>X-CF-APP-INSTANCE</code> header.
+     */
+    public long getPinnedRequestCount() {
+        return pinnedRequests.get();
+    }
+
+    /**
+     * Sets all request counts back to 0.
+     */
+    public void resetCounts() {
+        pinnedRequests.set(0);
+        for (Instance instance : instances) {
+            instance.requests.set(0);
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            long delayMillis = hopLatencyMillis;
+            if (delayMillis > 0) {
+                TimeUnit.MILLISECONDS.sleep(delayMillis);
+            }
+
+            Instance instance;
+            String routingHeader = exchange.getRequestHeaders().getFirst(ROUTING_HEADER);
+            if (routingHeader != null) {
+                if (!routingHeader.matches("[^:]+:\\d+")) {
+                    sendError(exchange, 400, "invalid_cf_app_instance_header");
+                    return;
+                }
+                instance = instancesByRoutingHeader.get(routingHeader);
+                if (instance != null) {
+                    pinnedRequests.incrementAndGet();
+                }
+            } else {
+                instance = nextInstance();
+            }
+            if (instance == null) {
+                sendError(exchange, 404, "unknown_route");
+                return;
+            }
+            instance.requests.incrementAndGet();
+            forward(exchange, instance);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Instance nextInstance() {
+        List<Instance> current = instances;
+        if (current.isEmpty()) {
+            return null;
+        }
+        try {
+            return current.get(Math.floorMod(nextInstance.getAndIncrement(), current.size()));
+        } catch (IndexOutOfBoundsException e) {
+            // Unregistered in the meantime.
+            return nextInstance();
+        }
+    }
+
+    private void forward(HttpExchange exchange, Instance instance) throws IOException {
+        RequestBuilder request = RequestBuilder.create(exchange.getRequestMethod())
+                .setUri("http://localhost:" + instance.port + exchange.getRequestURI().getRawPath()
+                        + (exchange.getRequestURI().getRawQuery() != null ? "?" + exchange.getRequestURI().getRawQuery() : ""));
+        for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+            if (!HOP_BY_HOP_HEADERS.contains(header.getKey().toLowerCase(Locale.ROOT))) {
+                for (String value : header.getValue()) {
+                    request.addHeader(header.getKey(), value);
+                }
+            }
+        }
+        byte[] body = StreamUtils.copyToByteArray(exchange.getRequestBody());
+        if (body.length > 0) {
+            request.setEntity(new ByteArrayEntity(body));
+        }
+
+        CloseableHttpResponse response;
+        try {
+            response = httpClient.execute(request.build());
+        } catch (IOException e) {
+            sendError(exchange, 502, "endpoint_failure");
+            return;
+        }
+        try {
+            for (Header header : response.getAllHeaders()) {
+                if (!HOP_BY_HOP_HEADERS.contains(header.getName().toLowerCase(Locale.ROOT))) {
+                    exchange.getResponseHeaders().add(header.getName(), header.getValue());
+                }
+            }
+            HttpEntity entity = response.getEntity();
+            int status = response.getStatusLine().getStatusCode();
+            if (entity == null || !hasBody(exchange, response)) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            // A known length is passed on, otherwise the body is streamed chunked (e.g. the address lists).
+            long length = entity.getContentLength();
+            exchange.sendResponseHeaders(status, length > 0 ? length : length == 0 ? -1 : 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                entity.writeTo(out);
+            }
+        } finally {
+            EntityUtils.consumeQuietly(response.getEntity());
+            response.close();
+        }
+    }
+
+    private static boolean hasBody(HttpExchange exchange, HttpResponse response) {
+        int status = response.getStatusLine().getStatusCode();
+        return !"HEAD".equals(exchange.getRequestMethod()) && status >= 200 && status != 204 && status != 304;
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String error) throws IOException {
+        byte[] body = (status + " " + error + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set(ROUTER_ERROR_HEADER, error);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.stop(0);
+        executor.shutdownNow();
+        httpClient.close();
+    }
+
+    private static final class Instance {
+
+        private final String routingHeader;
+        private final int port;
+        private final AtomicLong requests = new AtomicLong();
+
+        Instance(String appGuid, int instanceIndex, int port) {
+            this.routingHeader = appGuid + ":" + instanceIndex;
+            this.port = port;
+        }
+    }
+}
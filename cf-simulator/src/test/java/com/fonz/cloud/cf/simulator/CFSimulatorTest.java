@@ -0,0 +1,173 @@
+package com.fonz.cloud.cf.simulator;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.cloud.client.loadbalancer.LoadBalanced;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerRequestTransformer;
+import org.springframework.cloud.netflix.ribbon.RibbonClient;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import com.fonz.cloud.address.service.client.cf.CFDirectRouting;
+import com.fonz.cloud.address.service.client.cf.CFLoadBalancerRequestTransformer;
+import com.fonz.cloud.address.service.client.cf.CFRoutingHeaderCache;
+import com.fonz.cloud.address.service.client.ribboninject.LoadBalancingConfiguration;
+import com.fonz.cloud.address.service.client.ribboninject.RibbonAutoConfigurationOverrides;
+import com.fonz.cloud.address.service.client.ribboninject.RoutingMetrics;
+
+/**
+ * Starts a simulated landscape of three address-service instances behind {@link GoRouter}, and checks the router's routing
+ * as well as the client's, which pins each request to the instance Ribbon has chosen with the <code>X-CF-APP-INSTANCE</code> header,
+ * or sends it to the internal address of the instance with direct routing.
+ */
+public class CFSimulatorTest {
+
+    private static final int INSTANCES = 3;
+
+    private static CFSimulator simulator;
+
+    private final RestTemplate restTemplate = new RestTemplate();
+
+    @BeforeClass
+    public static void startSimulator() throws IOException {
+        simulator = new CFSimulator(INSTANCES);
+    }
+
+    @AfterClass
+    public static void stopSimulator() throws IOException {
+        if (simulator != null) {
+            simulator.close();
+        }
+    }
+
+    @Before
+    public void resetCounts() {
+        simulator.getRouter().resetCounts();
+    }
+
+    @Test
+    public void routerSpreadsRequestsRoundRobin() {
+        for (int i = 0; i < 2 * INSTANCES; i++) {
+            assertEquals(200, restTemplate.getForEntity(simulator.getRouteUrl() + "/address", String.class).getStatusCodeValue());
+        }
+
+        for (int i = 0; i < INSTANCES; i++) {
+            assertEquals(2, simulator.getRouter().getRequestCount(CFSimulator.APP_GUID, i));
+        }
+        assertEquals(0, simulator.getRouter().getPinnedRequestCount());
+    }
+
+    @Test
+    public void routerHonorsTheRoutingHeader() {
+        for (int i = 0; i < 5; i++) {
+            assertEquals(200, get(CFSimulator.APP_GUID + ":1").getStatusCodeValue());
+        }
+
+        assertEquals(5, simulator.getRouter().getRequestCount(CFSimulator.APP_GUID, 1));
+        assertEquals(0, simulator.getRouter().getRequestCount(CFSimulator.APP_GUID, 0));
+        assertEquals(5, simulator.getRouter().getPinnedRequestCount());
+    }
+
+    @Test
+    public void routerRejectsInvalidAndUnknownInstances() {
+        assertRouterError("no-index", 400, "invalid_cf_app_instance_header");
+        assertRouterError(CFSimulator.APP_GUID + ":" + INSTANCES, 404, "unknown_route");
+        assertRouterError("other-app:0", 404, "unknown_route");
+    }
+
+    @Test
+    public void clientPinsEveryRequestToTheInstanceChosenByRibbon() {
+        sendThroughClient(3 * INSTANCES, "--cf.routing.direct.enabled=false");
+
+        assertEquals(3 * INSTANCES, simulator.getRouter().getPinnedRequestCount());
+        assertEquals(3 * INSTANCES, routedRequests());
+    }
+
+    @Test
+    public void clientWithDirectRoutingBypassesTheRouter() {
+        sendThroughClient(3 * INSTANCES, "--cf.routing.direct.enabled=true");
+
+        assertEquals(0, routedRequests());
+    }
+
+    private void sendThroughClient(int requests, String... properties) {
+        ConfigurableApplicationContext client = new SpringApplicationBuilder(ClientApplication.class).web(WebApplicationType.NONE)
+                .properties(
+                        "spring.config.name=cf-simulator-test",
+                        "spring.jmx.enabled=false",
+                        "spring.application.name=cf-simulator-test-client",
+                        "eureka.client.register-with-eureka=false",
+                        "eureka.client.serviceUrl.defaultZone=" + simulator.getEurekaUrl())
+                .run(properties);
+        try {
+            RestTemplate loadBalanced = client.getBean(RestTemplate.class);
+            for (int i = 0; i < requests; i++) {
+                assertEquals(200, loadBalanced.getForEntity("http://address-service/address", String.class).getStatusCodeValue());
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    private long routedRequests() {
+        long requests = 0;
+        for (int i = 0; i < INSTANCES; i++) {
+            requests += simulator.getRouter().getRequestCount(CFSimulator.APP_GUID, i);
+        }
+        return requests;
+    }
+
+    private ResponseEntity<String> get(String routingHeader) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(GoRouter.ROUTING_HEADER, routingHeader);
+        return restTemplate.exchange(simulator.getRouteUrl() + "/address", HttpMethod.GET, new HttpEntity<>(headers), String.class);
+    }
+
+    private void assertRouterError(String routingHeader, int status, String error) {
+        try {
+            get(routingHeader);
+        } catch (HttpClientErrorException e) {
+            assertEquals(status, e.getRawStatusCode());
+            assertEquals(error, e.getResponseHeaders().getFirst(GoRouter.ROUTER_ERROR_HEADER));
+            return;
+        }
+        throw new AssertionError("Expected " + status + " for " + routingHeader);
+    }
+
+    @Configuration
+    @EnableAutoConfiguration
+    @RibbonClient(name = "address-service", configuration = RibbonAutoConfigurationOverrides.class)
+    @Import(LoadBalancingConfiguration.class)
+    static class ClientApplication {
+
+        @LoadBalanced
+        @Bean
+        public RestTemplate restTemplate() {
+            return new RestTemplate();
+        }
+
+        @Bean
+        public LoadBalancerRequestTransformer cfLoadBalancerRequestTransformer(CFRoutingHeaderCache cfRoutingHeaderCache,
+                RoutingMetrics routingMetrics, ObjectProvider<CFDirectRouting> cfDirectRouting) {
+            return new CFLoadBalancerRequestTransformer(cfRoutingHeaderCache, routingMetrics, cfDirectRouting.getIfAvailable(), false);
+        }
+    }
+}
@@ -3,9 +3,11 @@ package com.fonz.cloud.eureka.service;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.netflix.eureka.server.EnableEurekaServer;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableEurekaServer
+@EnableScheduling // For the keep-alives of RegistryEventsEndpoint.
 public class App {
 
     public static void main(String[] args) {
@@ -0,0 +1,67 @@
+package com.fonz.cloud.eureka.service;
+
+/**
+ * A change of the registry, as pushed to subscribers of <code>/registry/events</code>.
+ */
+public class RegistryEvent {
+
+    /** An instance has registered, or re-registered e.g. with a new status. */
+    public static final String REGISTERED = "registered";
+    /** An instance has unregistered, or its lease has expired. */
+    public static final String CANCELED = "canceled";
+
+    private String type;
+    private String appName;
+    private String instanceId;
+    private String status;
+
+    public RegistryEvent() {
+    }
+
+    public RegistryEvent(String type, String appName, String instanceId, String status) {
+        this.type = type;
+        this.appName = appName;
+        this.instanceId = instanceId;
+        this.status = status;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getAppName() {
+        return appName;
+    }
+
+    public void setAppName(String appName) {
+        this.appName = appName;
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    public void setInstanceId(String instanceId) {
+        this.instanceId = instanceId;
+    }
+
+    /**
+     * @return the status of a registered instance (e.g. <code>UP</code> or <code>DOWN</code>), null for canceled ones.
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    @Override
+    public String toString() {
+        return "RegistryEvent [type=" + type + ", appName=" + appName + ", instanceId=" + instanceId + ", status=" + status + "]";
+    }
+}
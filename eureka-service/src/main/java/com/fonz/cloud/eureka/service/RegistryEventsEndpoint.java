@@ -0,0 +1,84 @@
+package com.fonz.cloud.eureka.service;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.springframework.cloud.netflix.eureka.server.event.EurekaInstanceCanceledEvent;
+import org.springframework.cloud.netflix.eureka.server.event.EurekaInstanceRegisteredEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.netflix.appinfo.InstanceInfo;
+
+/**
+ * Pushes registry changes to subscribed clients as server-sent events, so that they do not have to wait for their next
+ * registry fetch (every 30s by default) to learn that an instance has gone away.
+ *
+ * Every registration and every cancellation (including expired leases) of this server's registry is sent as a
+ * {@link RegistryEvent}, named by its type. This includes changes replicated from peers, so subscribers of any
+ * Eureka server of a cluster get all changes. Lease renewals are not sent.
+ *
+ * The events are hints: a subscriber that misses some, e.g. while reconnecting, catches up with its next registry fetch.
+ * A comment is sent every 15s, so that idle connections are kept open by Go-Router and broken ones are detected.
+ */
+@RestController
+public class RegistryEventsEndpoint {
+
+    private final List<SseEmitter> subscribers = new CopyOnWriteArrayList<>();
+
+    @RequestMapping(value = "/registry/events", method = RequestMethod.GET, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribe() {
+        // Never times out. The subscription ends when the client goes away.
+        SseEmitter emitter = new SseEmitter(0L);
+        emitter.onCompletion(() -> subscribers.remove(emitter));
+        emitter.onTimeout(() -> subscribers.remove(emitter));
+        emitter.onError(e -> subscribers.remove(emitter));
+        subscribers.add(emitter);
+        return emitter;
+    }
+
+    @EventListener
+    public void onRegistered(EurekaInstanceRegisteredEvent event) {
+        InstanceInfo instanceInfo = event.getInstanceInfo();
+        publish(new RegistryEvent(RegistryEvent.REGISTERED, instanceInfo.getAppName(), instanceInfo.getId(), instanceInfo.getStatus().name()));
+    }
+
+    @EventListener
+    public void onCanceled(EurekaInstanceCanceledEvent event) {
+        publish(new RegistryEvent(RegistryEvent.CANCELED, event.getAppName(), event.getServerId(), null));
+    }
+
+    @Scheduled(fixedRate = 15000)
+    public void keepAlive() {
+        send(SseEmitter.event().comment("keep-alive"));
+    }
+
+    /**
+     * @return the number of clients subscribed.
+     */
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    private void publish(RegistryEvent event) {
+        send(SseEmitter.event().name(event.getType()).data(event, MediaType.APPLICATION_JSON));
+    }
+
+    private void send(SseEmitter.SseEventBuilder event) {
+        for (SseEmitter emitter : subscribers) {
+            try {
+                emitter.send(event);
+            } catch (IOException | IllegalStateException e) {
+                // The client has gone away.
+                subscribers.remove(emitter);
+                emitter.completeWithError(e);
+            }
+        }
+    }
+}